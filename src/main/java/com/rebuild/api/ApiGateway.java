@@ -10,21 +10,15 @@ package com.rebuild.api;
 import cn.devezhao.commons.CalendarUtils;
 import cn.devezhao.commons.EncryptUtils;
 import cn.devezhao.commons.ObjectUtils;
-import cn.devezhao.commons.ThreadPool;
 import cn.devezhao.commons.web.ServletUtils;
-import cn.devezhao.persist4j.Record;
 import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.serializer.SerializerFeature;
 import com.rebuild.server.Application;
 import com.rebuild.server.configuration.ConfigEntry;
 import com.rebuild.server.configuration.RebuildApiManager;
-import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.service.DataSpecificationException;
 import com.rebuild.server.service.bizz.UserService;
-import com.rebuild.utils.CommonsUtils;
-import com.rebuild.utils.RateLimiters;
-import es.moki.ratelimitj.core.limiter.request.RequestRateLimiter;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.cglib.core.ReflectUtils;
 import org.springframework.stereotype.Controller;
@@ -35,6 +29,12 @@ import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -49,8 +49,6 @@ import java.util.TreeMap;
 @Controller
 public class ApiGateway extends Controll {
 
-    private static final RequestRateLimiter RRL = RateLimiters.createRateLimiter(1, 200);
-
     @CrossOrigin
 	@RequestMapping("/gw/api/**")
 	public void api(HttpServletRequest request, HttpServletResponse response) {
@@ -63,28 +61,50 @@ public class ApiGateway extends Controll {
 
 		response.setHeader("X-Powered", "RB/" + Application.VER);
 
-		if (RRL.overLimitWhenIncremented("ip:" + remoteIp)) {
-            JSON err = formatFailure("Request frequency exceeded", ApiInvokeException.ERR_FREQUENCY);
-            LOG.error(err.toJSONString());
-            ServletUtils.writeJson(response, err.toJSONString());
-            return;
-        }
+		final ApiRateLimiter.Result ipLimit = ApiRateLimiter.instance.acquireIp(remoteIp);
+		if (ipLimit != null && !ipLimit.isAllowed()) {
+			writeRateLimitHeaders(response, ipLimit);
+			JSON err = formatFailure("Request frequency exceeded", ApiInvokeException.ERR_FREQUENCY);
+			LOG.error(err.toJSONString());
+			ServletUtils.writeJson(response, err.toJSONString());
+			return;
+		}
 
 		int errorCode;
 		String errorMsg;
 
+		BaseApi api = null;
 		ApiContext context = null;
+		Writer streamWriter = null;
 		try {
-			final BaseApi api = createApi(apiName);
+			api = createApi(apiName);
 			context = verfiy(request, api);
+
+			ApiRateLimiter.Result appLimit = ApiRateLimiter.instance.acquireApp(context.getAppId(), apiName);
+			writeRateLimitHeaders(response, ApiRateLimiter.Result.tighter(ipLimit, appLimit));
+			if (appLimit != null && !appLimit.isAllowed()) {
+				throw new ApiInvokeException(ApiInvokeException.ERR_FREQUENCY, "Request frequency exceeded");
+			}
+
 			if (context.getBindUser() != null) {
 				Application.getSessionStore().set(context.getBindUser());
 			}
 
+			// 流式
+			if (api instanceof StreamingApi) {
+				response.setContentType(StreamingApi.CONTENT_TYPE);
+				streamWriter = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+
+				JSON result = ((StreamingApi) api).execute(context, streamWriter);
+				writeStreamLine(streamWriter, result);
+				logRequestAsync(reuqestTime, remoteIp, apiName, context, result);
+				return;
+			}
+
 			JSON result = api.execute(context);
 			ServletUtils.writeJson(response, JSON.toJSONString(result,
 					SerializerFeature.DisableCircularReferenceDetect, SerializerFeature.WriteMapNullValue));
-			logRequestAsync(reuqestTime, remoteIp, apiName, context, result);
+			logRequestAsync(reuqestTime, remoteIp, apiName, context, api.getLogResult(result));
 
 			return;
 
@@ -103,12 +123,47 @@ public class ApiGateway extends Controll {
 
 		JSON error = formatFailure(StringUtils.defaultIfBlank(errorMsg, "Server Internal Error"), errorCode);
 		LOG.error(error.toJSONString());
-		ServletUtils.writeJson(response, error.toJSONString());
+		if (streamWriter != null) {
+			try {
+				writeStreamLine(streamWriter, error);
+			} catch (IOException ignored) { }
+		} else {
+			ServletUtils.writeJson(response, error.toJSONString());
+		}
 		try {
 			logRequestAsync(reuqestTime, remoteIp, apiName, context, error);
 		} catch (Exception ignored) { }
 	}
 
+	/**
+	 * 流式结束行
+	 *
+	 * @param writer
+	 * @param line
+	 * @throws IOException
+	 */
+	private void writeStreamLine(Writer writer, JSON line) throws IOException {
+		writer.write(JSON.toJSONString(line,
+				SerializerFeature.DisableCircularReferenceDetect, SerializerFeature.WriteMapNullValue));
+		writer.write('\n');
+		writer.flush();
+	}
+
+	/**
+	 * 剩余配额
+	 *
+	 * @param response
+	 * @param limit
+	 */
+	private void writeRateLimitHeaders(HttpServletResponse response, ApiRateLimiter.Result limit) {
+		if (limit == null) return;
+		response.setHeader("X-RateLimit-Limit", String.valueOf(limit.getLimit()));
+		response.setHeader("X-RateLimit-Remaining", String.valueOf(limit.getRemaining()));
+		if (!limit.isAllowed()) {
+			response.setHeader("Retry-After", String.valueOf(limit.getRetryAfter()));
+		}
+	}
+
 	/**
 	 * 验证请求并构建请求上下文
 	 *
@@ -211,32 +266,20 @@ public class ApiGateway extends Controll {
 	}
 
 	/**
-	 * 记录请求日志
+	 * 记录请求日志（缓冲后批量写入）
 	 *
 	 * @param requestTime
 	 * @param remoteIp
 	 * @param apiName
 	 * @param context
 	 * @param result
+	 * @see ApiRequestLogger
 	 */
 	protected void logRequestAsync(Date requestTime, String remoteIp, String apiName, ApiContext context, JSON result) {
 		if (context == null || result == null || !isLogRequest()) {
 			return;
 		}
-
-		ThreadPool.exec(() -> {
-			Record record = EntityHelper.forNew(EntityHelper.RebuildApiRequest, UserService.SYSTEM_USER);
-			record.setString("appId", context.getAppId());
-			record.setString("remoteIp", remoteIp);
-			record.setString("requestUrl", CommonsUtils.maxstr(apiName + "?" + context.getParameterMap(),300));
-			if (context.getPostData() != null) {
-				record.setString("requestBody", CommonsUtils.maxstr(context.getPostData().toJSONString(), 10000));
-			}
-			record.setString("responseBody", CommonsUtils.maxstr(result.toJSONString(), 10000));
-			record.setDate("requestTime", requestTime);
-			record.setDate("responseTime", CalendarUtils.now());
-			Application.getCommonsService().create(record, false);
-		});
+		ApiRequestLogger.instance.log(requestTime, remoteIp, apiName, context, result);
 	}
 
 	/**
@@ -256,6 +299,10 @@ public class ApiGateway extends Controll {
 	 * @param clazz
 	 */
 	public static void registerApi(Class<? extends BaseApi> clazz) {
+		if (Modifier.isAbstract(clazz.getModifiers())) {
+			return;
+		}
+
 		BaseApi api = (BaseApi) ReflectUtils.newInstance(clazz);
 		String apiName = api.getApiName();
 		if (API_CLASSES.containsKey(apiName)) {
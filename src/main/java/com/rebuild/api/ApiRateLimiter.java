@@ -0,0 +1,273 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api;
+
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
+import com.rebuild.server.configuration.ConfigEntry;
+import com.rebuild.server.configuration.RebuildApiManager;
+import com.rebuild.server.helper.ConfigurableItem;
+import com.rebuild.server.helper.SysConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * API 限流（令牌桶）。可按 IP、APPID 及 APPID+API 名称限流。
+ * 启用 Redis 时在集群内共享，否则为本节点。
+ *
+ * APP 的扩展配置（`extraDefinition`）：
+ * <pre>
+ * {
+ *   "rateLimit": "20/50",
+ *   "rateLimitApis": { "entity/batch-create": "0.5/5" }
+ * }
+ * </pre>
+ *
+ * @author devezhao
+ * @since 2020/09/11
+ * @see ConfigurableItem#ApiRateLimitIp
+ * @see ConfigurableItem#ApiRateLimitApp
+ */
+public class ApiRateLimiter {
+
+    private static final Log LOG = LogFactory.getLog(ApiRateLimiter.class);
+
+    /**
+     * 本节点最大令牌桶数量（超出时清理空闲的）
+     */
+    public static final int MAX_BUCKETS = 10000;
+
+    private static final String KEY_PREFIX = "RB.APIRL:";
+
+    // KEYS[1] = key, ARGV = rate, burst, now(ms)
+    private static final String LUA_ACQUIRE =
+            "local b = redis.call('HMGET', KEYS[1], 't', 'ts') " +
+            "local rate = tonumber(ARGV[1]) local burst = tonumber(ARGV[2]) local now = tonumber(ARGV[3]) " +
+            "local tokens = tonumber(b[1]) local ts = tonumber(b[2]) " +
+            "if tokens == nil or ts == nil then tokens = burst ts = now end " +
+            "tokens = math.min(burst, tokens + math.max(0, now - ts) * rate / 1000) " +
+            "local allowed = 0 " +
+            "if tokens >= 1 then tokens = tokens - 1 allowed = 1 end " +
+            "redis.call('HMSET', KEYS[1], 't', tostring(tokens), 'ts', tostring(now)) " +
+            "redis.call('PEXPIRE', KEYS[1], math.ceil(burst * 1000 / rate) + 1000) " +
+            "return { allowed, math.floor(tokens) }";
+
+    public static final ApiRateLimiter instance = new ApiRateLimiter();
+
+    // Redis 不可用时每分钟最多警告一次
+    private final AtomicLong lastRedisWarn = new AtomicLong();
+
+    final private Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private ApiRateLimiter() {}
+
+    /**
+     * 按 IP
+     *
+     * @param remoteIp
+     * @return 未配置限流返回 null
+     */
+    public Result acquireIp(String remoteIp) {
+        Rule rule = Rule.parse(SysConfiguration.get(ConfigurableItem.ApiRateLimitIp));
+        return rule == null ? null : acquire("ip:" + remoteIp, rule);
+    }
+
+    /**
+     * 按 APPID 及 APPID+API。返回其中剩余最少的
+     *
+     * @param appid
+     * @param apiName
+     * @return 未配置限流返回 null
+     */
+    public Result acquireApp(String appid, String apiName) {
+        final ConfigEntry app = RebuildApiManager.instance.getApp(appid);
+        final JSONObject extra = app == null ? null : (JSONObject) app.getJSON("extraDefinition");
+
+        Rule appRule = Rule.parse(extra == null ? null : extra.getString("rateLimit"));
+        if (appRule == null) {
+            appRule = Rule.parse(SysConfiguration.get(ConfigurableItem.ApiRateLimitApp));
+        }
+        JSONObject apiRules = extra == null ? null : extra.getJSONObject("rateLimitApis");
+        Rule apiRule = Rule.parse(apiRules == null ? null : apiRules.getString(apiName));
+
+        Result result = null;
+        if (appRule != null) {
+            result = acquire("app:" + appid, appRule);
+            if (!result.isAllowed()) return result;
+        }
+        if (apiRule != null) {
+            result = Result.tighter(result, acquire("api:" + appid + ":" + apiName, apiRule));
+        }
+        return result;
+    }
+
+    /**
+     * 获取一个令牌
+     *
+     * @param key
+     * @param rule
+     * @return
+     */
+    public Result acquire(String key, Rule rule) {
+        if (Application.getCommonCache().isUseRedis()) {
+            try (Jedis jedis = Application.getCommonCache().getJedisPool().getResource()) {
+                List<?> r = (List<?>) jedis.eval(LUA_ACQUIRE,
+                        Collections.singletonList(KEY_PREFIX + key),
+                        Arrays.asList(String.valueOf(rule.rate), String.valueOf(rule.burst), String.valueOf(System.currentTimeMillis())));
+                return new Result(rule, ((Long) r.get(0)) == 1, ((Long) r.get(1)).intValue());
+            } catch (Exception ex) {
+                long now = System.currentTimeMillis();
+                long last = lastRedisWarn.get();
+                if (now - last > 60 * 1000 && lastRedisWarn.compareAndSet(last, now)) {
+                    LOG.warn("Acquire token from redis failed, use local : " + ex);
+                }
+            }
+        }
+
+        if (buckets.size() > MAX_BUCKETS) {
+            purgeIdle();
+        }
+        Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket(rule));
+        return bucket.acquire(rule);
+    }
+
+    /**
+     * 清理已回满（空闲）的令牌桶
+     */
+    private void purgeIdle() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Bucket> iter = buckets.values().iterator(); iter.hasNext(); ) {
+            if (iter.next().isIdle(now)) iter.remove();
+        }
+    }
+
+    // --
+
+    /**
+     * 限流规则
+     */
+    public static class Rule {
+        // 每秒令牌数
+        final double rate;
+        // 桶容量
+        final int burst;
+
+        public Rule(double rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+
+        /**
+         * @param rule `每秒令牌数/桶容量`，如 `10/20`。无效或为 0 返回 null
+         * @return
+         */
+        public static Rule parse(String rule) {
+            if (StringUtils.isBlank(rule)) return null;
+
+            String[] rb = rule.trim().split("/");
+            double rate = NumberUtils.toDouble(rb[0].trim());
+            int burst = rb.length > 1 ? NumberUtils.toInt(rb[1].trim()) : (int) Math.ceil(rate);
+            if (rate <= 0 || burst < 1) {
+                return null;
+            }
+            return new Rule(rate, burst);
+        }
+    }
+
+    /**
+     * 获取结果
+     */
+    public static class Result {
+        final private Rule rule;
+        final private boolean allowed;
+        final private int remaining;
+
+        Result(Rule rule, boolean allowed, int remaining) {
+            this.rule = rule;
+            this.allowed = allowed;
+            this.remaining = remaining;
+        }
+
+        public boolean isAllowed() {
+            return allowed;
+        }
+
+        public int getLimit() {
+            return rule.burst;
+        }
+
+        public int getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * 等待多久（秒）可获得一个令牌
+         *
+         * @return
+         */
+        public int getRetryAfter() {
+            return allowed ? 0 : (int) Math.ceil(1 / rule.rate);
+        }
+
+        /**
+         * @param a
+         * @param b
+         * @return 被拒绝的或剩余较少的
+         */
+        public static Result tighter(Result a, Result b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            if (a.allowed != b.allowed) return a.allowed ? b : a;
+            return a.remaining <= b.remaining ? a : b;
+        }
+    }
+
+    /**
+     * 本节点令牌桶
+     */
+    private static class Bucket {
+        private double tokens;
+        private long time;
+        private Rule rule;
+
+        Bucket(Rule rule) {
+            this.rule = rule;
+            this.tokens = rule.burst;
+            this.time = System.currentTimeMillis();
+        }
+
+        synchronized Result acquire(Rule rule) {
+            this.rule = rule;  // 配置可能已变化
+            long now = System.currentTimeMillis();
+            tokens = Math.min(rule.burst, tokens + Math.max(0, now - time) * rule.rate / 1000);
+            time = now;
+
+            boolean allowed = false;
+            if (tokens >= 1) {
+                tokens -= 1;
+                allowed = true;
+            }
+            return new Result(rule, allowed, (int) tokens);
+        }
+
+        synchronized boolean isIdle(long now) {
+            return tokens + (now - time) * rule.rate / 1000 >= rule.burst;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api;
+
+import cn.devezhao.commons.CalendarUtils;
+import cn.devezhao.persist4j.Record;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
+import com.rebuild.server.configuration.ConfigEntry;
+import com.rebuild.server.configuration.RebuildApiManager;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.service.bizz.UserService;
+import com.rebuild.utils.CommonsUtils;
+import com.rebuild.utils.JSONUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * API 请求日志缓冲。
+ * 日志先进入有界队列，达到 {@link #BATCH_SIZE} 条或每 {@link #FLUSH_INTERVAL} 毫秒批量写入（单个事物，失败时逐条重试，仅丢弃失败的）。
+ * 队列满时短暂等待，仍满则丢弃并计数。注意：队列仅存在于本节点内存中，宕机会丢失未写入的日志
+ *
+ * APP 的扩展配置（`extraDefinition`）：
+ * <pre>
+ * {
+ *   "logSampleRate": 0.1,   // 成功请求的采样率（0~1），失败请求总是记录
+ *   "logBodyMaxLength": 2000   // 请求/响应内容最大长度，0 为不记录内容
+ * }
+ * </pre>
+ *
+ * @author devezhao
+ * @since 2020/09/11
+ */
+public class ApiRequestLogger {
+
+    private static final Log LOG = LogFactory.getLog(ApiRequestLogger.class);
+
+    /**
+     * 队列容量
+     */
+    public static final int MAX_QUEUE = 10000;
+    /**
+     * 每批写入条目
+     */
+    public static final int BATCH_SIZE = 200;
+    /**
+     * 写入间隔（毫秒）
+     */
+    public static final long FLUSH_INTERVAL = 3000;
+    /**
+     * 队列满时等待（毫秒）
+     */
+    public static final long OFFER_TIMEOUT = 20;
+
+    /**
+     * 内容默认最大长度
+     */
+    public static final int DEFAULT_BODY_MAX_LENGTH = 10000;
+
+    public static final ApiRequestLogger instance = new ApiRequestLogger();
+
+    final private BlockingQueue<Record> queue = new ArrayBlockingQueue<>(MAX_QUEUE);
+    final private ScheduledExecutorService worker;
+    final private AtomicBoolean flushing = new AtomicBoolean(false);
+
+    final private AtomicLong written = new AtomicLong();
+    final private AtomicLong sampledOut = new AtomicLong();
+    final private AtomicLong dropped = new AtomicLong();
+    final private AtomicLong failed = new AtomicLong();
+    final private AtomicLong lastDroppedWarn = new AtomicLong();
+
+    private ApiRequestLogger() {
+        worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ApiRequestLogger");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "ApiRequestLogger-shutdown"));
+    }
+
+    /**
+     * 记录请求日志
+     *
+     * @param requestTime
+     * @param remoteIp
+     * @param apiName
+     * @param context
+     * @param result
+     */
+    public void log(Date requestTime, String remoteIp, String apiName, ApiContext context, JSON result) {
+        final JSONObject extra = getExtraDefinition(context.getAppId());
+
+        boolean isError = result instanceof JSONObject
+                && ((JSONObject) result).getIntValue("error_code") != Controll.CODE_OK;
+        if (!isError && extra != null && extra.containsKey("logSampleRate")) {
+            double rate = extra.getDoubleValue("logSampleRate");
+            if (ThreadLocalRandom.current().nextDouble() >= rate) {
+                sampledOut.incrementAndGet();
+                return;
+            }
+        }
+
+        int bodyMaxLength = DEFAULT_BODY_MAX_LENGTH;
+        if (extra != null && extra.containsKey("logBodyMaxLength")) {
+            bodyMaxLength = Math.min(extra.getIntValue("logBodyMaxLength"), DEFAULT_BODY_MAX_LENGTH);
+        }
+
+        Record record = EntityHelper.forNew(EntityHelper.RebuildApiRequest, UserService.SYSTEM_USER);
+        record.setString("appId", context.getAppId());
+        record.setString("remoteIp", remoteIp);
+        record.setString("requestUrl", CommonsUtils.maxstr(apiName + "?" + context.getParameterMap(), 300));
+        if (bodyMaxLength > 0 && context.getPostData() != null) {
+            record.setString("requestBody", CommonsUtils.maxstr(context.getPostData().toJSONString(), bodyMaxLength));
+        }
+        // 必填
+        record.setString("responseBody", bodyMaxLength > 0
+                ? CommonsUtils.maxstr(result.toJSONString(), bodyMaxLength) : (isError ? "ERROR" : "OK"));
+        record.setDate("requestTime", requestTime);
+        record.setDate("responseTime", CalendarUtils.now());
+
+        offer(record);
+    }
+
+    /**
+     * @param record
+     */
+    protected void offer(Record record) {
+        boolean offered;
+        try {
+            offered = queue.offer(record, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            offered = false;
+        }
+
+        if (!offered) {
+            long d = dropped.incrementAndGet();
+            long now = System.currentTimeMillis();
+            long last = lastDroppedWarn.get();
+            if (now - last > 60 * 1000 && lastDroppedWarn.compareAndSet(last, now)) {
+                LOG.warn("API request log queue is full, dropped : " + d);
+            }
+        }
+
+        if (queue.size() >= BATCH_SIZE && flushing.compareAndSet(false, true)) {
+            try {
+                worker.execute(this::flush);
+            } catch (Exception ex) {
+                flushing.set(false);
+            }
+        }
+    }
+
+    /**
+     * 写入队列中的日志
+     */
+    protected synchronized void flush() {
+        flushing.set(true);
+        try {
+            List<Record> batch = new ArrayList<>(BATCH_SIZE);
+            while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+                try {
+                    Application.getCommonsService().createOrUpdate(batch.toArray(new Record[0]), false);
+                    written.addAndGet(batch.size());
+                } catch (Exception ex) {
+                    LOG.warn("Write API request logs failed, retry one by one : " + ex);
+                    writeOneByOne(batch);
+                }
+                batch.clear();
+            }
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    /**
+     * 逐条写入，仅丢弃失败的
+     *
+     * @param batch
+     */
+    private void writeOneByOne(List<Record> batch) {
+        for (Record record : batch) {
+            // 批量写入时分配的主键已随事物回滚
+            record.removeValue(record.getEntity().getPrimaryField().getName());
+            try {
+                Application.getCommonsService().create(record, false);
+                written.incrementAndGet();
+            } catch (Exception ex) {
+                failed.incrementAndGet();
+                LOG.error("Write API request log failed, dropped : " + record.getString("requestUrl"), ex);
+            }
+        }
+    }
+
+    /**
+     * @param appid
+     * @return
+     */
+    private JSONObject getExtraDefinition(String appid) {
+        ConfigEntry app = appid == null ? null : RebuildApiManager.instance.getApp(appid);
+        return app == null ? null : (JSONObject) app.getJSON("extraDefinition");
+    }
+
+    /**
+     * 队列状态
+     *
+     * @return
+     */
+    public JSON getStats() {
+        return JSONUtils.toJSONObject(
+                new String[] { "depth", "written", "sampledOut", "dropped", "failed" },
+                new Object[] { queue.size(), written.get(), sampledOut.get(), dropped.get(), failed.get() });
+    }
+}
@@ -44,4 +44,14 @@ public abstract class BaseApi extends Controll {
 	 * @throws ApiInvokeException
 	 */
 	abstract public JSON execute(ApiContext context) throws ApiInvokeException;
+
+	/**
+	 * 记录请求日志时使用的响应内容。默认原样，响应较大时（如批量 API）可仅返回摘要
+	 *
+	 * @param result
+	 * @return
+	 */
+	protected JSON getLogResult(JSON result) {
+		return result;
+	}
 }
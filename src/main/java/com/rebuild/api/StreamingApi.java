@@ -0,0 +1,40 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api;
+
+import com.alibaba.fastjson.JSON;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 流式输出 API（NDJSON，每行一个 JSON）。
+ * 数据行之后以一行 #formatSuccess 或 #formatFailure 结束，客户端据此判断是否完整
+ *
+ * @author devezhao
+ * @since 2020/09/12
+ * @see ApiGateway
+ */
+public interface StreamingApi {
+
+    /**
+     * 内容类型
+     */
+    String CONTENT_TYPE = "application/x-ndjson;charset=UTF-8";
+
+    /**
+     * 写入数据行。出错时直接抛出异常，由网关写入结束行
+     *
+     * @param context
+     * @param writer
+     * @return 结束行（同时用于记录日志）
+     * @throws ApiInvokeException
+     * @throws IOException
+     */
+    JSON execute(ApiContext context, Writer writer) throws ApiInvokeException, IOException;
+}
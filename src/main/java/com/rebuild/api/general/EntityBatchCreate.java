@@ -0,0 +1,36 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api.general;
+
+import cn.devezhao.persist4j.Record;
+import com.alibaba.fastjson.JSON;
+import com.rebuild.api.ApiContext;
+import com.rebuild.api.ApiInvokeException;
+
+/**
+ * 批量新建记录
+ *
+ * @author devezhao
+ * @since 2020/09/10
+ */
+public class EntityBatchCreate extends EntityBatchOperate {
+
+    @Override
+    protected String getApiName() {
+        return "entity/batch-create";
+    }
+
+    @Override
+    protected JSON executeItem(Object item, ApiContext context) throws ApiInvokeException {
+        Record record = parseRecord(toItemData(item), context);
+        if (record.getPrimary() != null) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "非可新建记录");
+        }
+        return saveRecord(record);
+    }
+}
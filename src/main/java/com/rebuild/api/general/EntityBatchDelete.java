@@ -0,0 +1,59 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api.general;
+
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.engine.ID;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.rebuild.api.ApiContext;
+import com.rebuild.api.ApiInvokeException;
+import com.rebuild.server.Application;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.utils.JSONUtils;
+
+import java.util.Arrays;
+
+/**
+ * 批量删除记录。可 POST ID 数组，或使用 `ids` 参数（逗号分割）
+ *
+ * @author devezhao
+ * @since 2020/09/10
+ */
+public class EntityBatchDelete extends EntityBatchOperate {
+
+    @Override
+    protected String getApiName() {
+        return "entity/batch-delete";
+    }
+
+    @Override
+    protected JSONArray getItems(ApiContext context) {
+        String ids = context.getParameter("ids");
+        if (ids != null) {
+            return new JSONArray(Arrays.asList((Object[]) ids.split(",")));
+        }
+        return super.getItems(context);
+    }
+
+    @Override
+    protected JSON executeItem(Object item, ApiContext context) throws ApiInvokeException {
+        if (item == null || !ID.isId(item.toString())) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Invalid id : " + item);
+        }
+
+        final ID deleteId = ID.valueOf(item.toString());
+        final Entity entity = MetadataHelper.getEntity(deleteId.getEntityCode());
+        if (!entity.isQueryable() || MetadataHelper.isBizzEntity(entity.getEntityCode())) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Unsupportted operation for entity/id : " + deleteId);
+        }
+
+        int deleted = Application.getService(entity.getEntityCode()).delete(deleteId);
+        return JSONUtils.toJSONObject(new String[] { "id", "deleted" }, new Object[] { deleteId, deleted });
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api.general;
+
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Query;
+import cn.devezhao.persist4j.engine.ID;
+import cn.devezhao.persist4j.query.compiler.SelectItem;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.rebuild.api.ApiContext;
+import com.rebuild.api.ApiInvokeException;
+import com.rebuild.server.Application;
+import com.rebuild.server.metadata.MetadataHelper;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 批量获取记录（须为同一实体）。无权读取的记录不会返回
+ *
+ * @author devezhao
+ * @since 2020/09/10
+ */
+public class EntityBatchGet extends EntityGet {
+
+    /**
+     * 单次请求最大条目
+     */
+    public static final int MAX_IDS = 500;
+
+    @Override
+    protected String getApiName() {
+        return "entity/batch-get";
+    }
+
+    @Override
+    public JSON execute(ApiContext context) throws ApiInvokeException {
+        final Set<ID> queryIds = new LinkedHashSet<>();
+        for (String id : context.getParameterNotBlank("ids").split(",")) {
+            if (!ID.isId(id)) {
+                throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Invalid [ids] " + id);
+            }
+            queryIds.add(ID.valueOf(id));
+        }
+        if (queryIds.size() > MAX_IDS) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Parameter [ids] exceeds the maximum " + MAX_IDS);
+        }
+
+        final int entityCode = queryIds.iterator().next().getEntityCode();
+        for (ID id : queryIds) {
+            if (id.getEntityCode() != entityCode) {
+                throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Parameter [ids] must belong to the same entity");
+            }
+        }
+
+        final Entity useEntity = MetadataHelper.getEntity(entityCode);
+        if (!useEntity.isQueryable()) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BIZ, "Unsupportted operation for entity : " + useEntity.getName());
+        }
+
+        final String[] fields = getValidFields(useEntity, context.getParameterNotBlank("fields").split(","));
+        final String pkName = useEntity.getPrimaryField().getName();
+
+        // 主键用于对应结果
+        List<String> selects = new ArrayList<>(Arrays.asList(fields));
+        int pkIndex = selects.indexOf(pkName);
+        if (pkIndex == -1) {
+            selects.add(pkName);
+            pkIndex = selects.size() - 1;
+        }
+
+        String sql = String.format("select %s from %s where %s in ('%s')",
+                StringUtils.join(selects, ","), useEntity.getName(), pkName, StringUtils.join(queryIds, "','"));
+        // 使用角色过滤（代替逐条的读取权限检查）
+        Query query = Application.createQuery(sql, context.getBindUser());
+        Object[][] array = query.array();
+
+        final SelectItem[] selectItems = Arrays.copyOf(query.getSelectItems(), fields.length);
+        Map<ID, JSON> found = new HashMap<>();
+        for (Object[] o : array) {
+            found.put((ID) o[pkIndex], ApiDataListWrapper.buildItem(selectItems, o));
+        }
+
+        JSONArray results = new JSONArray(queryIds.size());
+        for (ID id : queryIds) {
+            JSON item = found.get(id);
+            results.add(item == null ? formatFailure("无权读取记录或记录不存在 : " + id) : formatSuccess(item));
+        }
+        return formatSuccess(results);
+    }
+}
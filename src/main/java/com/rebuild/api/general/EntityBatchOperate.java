@@ -0,0 +1,218 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api.general;
+
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Record;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.api.ApiContext;
+import com.rebuild.api.ApiInvokeException;
+import com.rebuild.server.Application;
+import com.rebuild.server.metadata.EntityRecordCreator;
+import com.rebuild.server.service.DataSpecificationException;
+import com.rebuild.server.service.TransactionManual;
+import com.rebuild.utils.JSONUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.Collection;
+
+/**
+ * 批量操作。
+ * 按块（`chunk_size`）在事物中执行，块内任一条失败则回滚该块并逐条重试，以得到每条的结果
+ *
+ * @author devezhao
+ * @since 2020/09/10
+ */
+public abstract class EntityBatchOperate extends EntityCreate {
+
+    /**
+     * 单次请求最大条目
+     */
+    public static final int MAX_ITEMS = 2000;
+
+    /**
+     * 默认每块条目
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+    /**
+     * 最大每块条目
+     */
+    public static final int MAX_CHUNK_SIZE = 500;
+
+    @Override
+    public JSON execute(ApiContext context) throws ApiInvokeException {
+        final JSONArray items = getItems(context);
+        if (items.isEmpty() || items.size() > MAX_ITEMS) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS,
+                    "Invalid post/data : Number of items must be between 1 and " + MAX_ITEMS);
+        }
+
+        int chunkSize = context.getParameterAsInt("chunk_size", DEFAULT_CHUNK_SIZE);
+        chunkSize = Math.max(1, Math.min(chunkSize, MAX_CHUNK_SIZE));
+
+        final JSONObject[] results = new JSONObject[items.size()];
+        for (int from = 0; from < items.size(); from += chunkSize) {
+            executeChunk(items, from, Math.min(from + chunkSize, items.size()), context, results);
+        }
+
+        int succeeded = 0;
+        JSONArray resultItems = new JSONArray(results.length);
+        for (JSONObject r : results) {
+            if (r.getIntValue("error_code") == CODE_OK) succeeded++;
+            resultItems.add(r);
+        }
+
+        return formatSuccess(JSONUtils.toJSONObject(
+                new String[] { "total", "succeeded", "failed", "items" },
+                new Object[] { results.length, succeeded, results.length - succeeded, resultItems }));
+    }
+
+    /**
+     * @param items
+     * @param from
+     * @param to
+     * @param context
+     * @param results
+     */
+    private void executeChunk(JSONArray items, int from, int to, ApiContext context, JSONObject[] results) {
+        final TransactionStatus status = TransactionManual.newTransaction();
+        boolean failed = false;
+        try {
+            for (int i = from; i < to; i++) {
+                results[i] = formatSuccess(executeItem(items.get(i), context));
+            }
+        } catch (Exception ex) {
+            failed = true;
+            LOG.warn("Batch chunk failed, retry one by one : " + ex);
+        }
+
+        if (!failed) {
+            TransactionManual.commit(status);
+            return;
+        }
+
+        TransactionManual.rollback(status);
+
+        // 逐条重试（单独事物）以得到每条的结果
+        for (int i = from; i < to; i++) {
+            results[i] = executeItemAlone(items.get(i), context);
+        }
+    }
+
+    /**
+     * @param item
+     * @param context
+     * @return
+     */
+    private JSONObject executeItemAlone(Object item, ApiContext context) {
+        try {
+            return formatSuccess(executeItem(item, context));
+        } catch (ApiInvokeException ex) {
+            return formatFailure(ex.getErrorMsg(), ex.getErrorCode());
+        } catch (DataSpecificationException ex) {
+            return formatFailure(ex.getLocalizedMessage(), ApiInvokeException.ERR_DATASPEC);
+        } catch (Exception ex) {
+            LOG.error("Batch item failed : " + item, ex);
+            return formatFailure(ex.getLocalizedMessage(), ApiInvokeException.ERR_SERVER);
+        }
+    }
+
+    /**
+     * 待处理条目。默认为 POST 的数组
+     *
+     * @param context
+     * @return
+     */
+    protected JSONArray getItems(ApiContext context) {
+        JSON post = context.getPostData();
+        if (!(post instanceof JSONArray)) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Invalid post/data : Must be an array");
+        }
+        return (JSONArray) post;
+    }
+
+    /**
+     * 处理单条。失败应抛出异常（可能在块事物中执行，也可能单独执行）
+     *
+     * @param item
+     * @param context
+     * @return
+     * @throws ApiInvokeException
+     */
+    abstract protected JSON executeItem(Object item, ApiContext context) throws ApiInvokeException;
+
+    /**
+     * @param item
+     * @return
+     */
+    protected JSONObject toItemData(Object item) {
+        if (!(item instanceof JSONObject)) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Invalid item : Must be an object");
+        }
+        return (JSONObject) item;
+    }
+
+    /**
+     * @param data
+     * @param context
+     * @return
+     */
+    protected Record parseRecord(JSONObject data, ApiContext context) {
+        return new EntityRecordCreator(getUseEntity(data), data, context.getBindUser(), true).create();
+    }
+
+    /**
+     * 新建或更新
+     *
+     * @param record
+     * @return
+     */
+    protected JSON saveRecord(Record record) {
+        final Entity entity = record.getEntity();
+        final boolean isNew = record.getPrimary() == null;
+        if (isNew ? !entity.isCreatable() : !entity.isUpdatable()) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BIZ, "Unsupportted operation for entity : " + entity.getName());
+        }
+
+        Collection<String> repeatedFields = checkRepeated(record);
+        if (!repeatedFields.isEmpty()) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_DATASPEC,
+                    (isNew ? "新建" : "更新") + "字段 " + StringUtils.join(repeatedFields, "/") + " 中存在重复值");
+        }
+
+        record = Application.getService(entity.getEntityCode()).createOrUpdate(record);
+        return JSONUtils.toJSONObject("id", record.getPrimary());
+    }
+
+    /**
+     * 日志仅记录数量及失败条目
+     */
+    @Override
+    protected JSON getLogResult(JSON result) {
+        JSONObject data = ((JSONObject) result).getJSONObject("data");
+        if (data == null || data.getJSONArray("items") == null) {
+            return result;
+        }
+
+        JSONArray items = data.getJSONArray("items");
+        JSONObject failedItems = new JSONObject(true);
+        for (int i = 0; i < items.size(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            if (item.getIntValue("error_code") != CODE_OK) {
+                failedItems.put(String.valueOf(i), item);
+            }
+        }
+
+        JSONObject summary = (JSONObject) data.clone();
+        summary.put("items", failedItems);
+        return formatSuccess(summary);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api.general;
+
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.engine.ID;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.api.ApiContext;
+import com.rebuild.api.ApiInvokeException;
+import com.rebuild.server.Application;
+import com.rebuild.server.metadata.EntityRecordCreator;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * 批量新建或更新记录。
+ * 有 `metadata.id` 则更新；否则可通过 `match_field` 参数指定匹配字段，匹配到已有记录则更新，未匹配到则新建
+ *
+ * @author devezhao
+ * @since 2020/09/10
+ */
+public class EntityBatchUpsert extends EntityBatchOperate {
+
+    @Override
+    protected String getApiName() {
+        return "entity/batch-upsert";
+    }
+
+    @Override
+    protected JSON executeItem(Object item, ApiContext context) throws ApiInvokeException {
+        JSONObject data = toItemData(item);
+        JSONObject metadata = data.getJSONObject(EntityRecordCreator.META_FIELD);
+        String matchField = context.getParameter("match_field");
+
+        if (metadata != null && metadata.getString("id") == null && StringUtils.isNotBlank(matchField)) {
+            ID matchedId = findMatched(getUseEntity(data), matchField, data.getString(matchField));
+            if (matchedId != null) {
+                // 不修改请求数据
+                metadata = (JSONObject) metadata.clone();
+                metadata.put("id", matchedId.toLiteral());
+                data = (JSONObject) data.clone();
+                data.put(EntityRecordCreator.META_FIELD, metadata);
+            }
+        }
+
+        return saveRecord(parseRecord(data, context));
+    }
+
+    /**
+     * @param entity
+     * @param matchField
+     * @param matchValue
+     * @return
+     */
+    private ID findMatched(Entity entity, String matchField, String matchValue) {
+        if (!entity.containsField(matchField)) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Invalid [match_field] " + matchField);
+        }
+        if (StringUtils.isBlank(matchValue)) {
+            return null;
+        }
+
+        String sql = String.format("select %s from %s where %s = ?",
+                entity.getPrimaryField().getName(), entity.getName(), matchField);
+        Object[] matched = Application.createQueryNoFilter(sql).setParameter(1, matchValue).unique();
+        return matched == null ? null : (ID) matched[0];
+    }
+}
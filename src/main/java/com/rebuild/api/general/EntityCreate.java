@@ -68,7 +68,14 @@ public class EntityCreate extends BaseApi {
      * @return
      */
     protected Entity getUseEntity(ApiContext context) {
-        JSONObject data = (JSONObject) context.getPostData();
+        return getUseEntity((JSONObject) context.getPostData());
+    }
+
+    /**
+     * @param data
+     * @return
+     */
+    protected Entity getUseEntity(JSONObject data) {
         JSONObject metadata = data.getJSONObject(EntityRecordCreator.META_FIELD);
 
         final String useEntity = metadata == null ? null : metadata.getString("entity");
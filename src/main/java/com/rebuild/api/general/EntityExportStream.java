@@ -0,0 +1,170 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api.general;
+
+import cn.devezhao.commons.CalendarUtils;
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Query;
+import cn.devezhao.persist4j.engine.ID;
+import cn.devezhao.persist4j.query.compiler.SelectItem;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.rebuild.api.ApiContext;
+import com.rebuild.api.ApiInvokeException;
+import com.rebuild.api.StreamingApi;
+import com.rebuild.server.Application;
+import com.rebuild.server.helper.datalist.QueryParser;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.metadata.entity.EasyMeta;
+import com.rebuild.utils.JSONUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * 流式导出记录（NDJSON）。
+ * 按主键键集遍历全部匹配记录，逐页写出。可通过 `updated_since`（修改时间）增量同步，
+ * 结束行中的 `watermark` 即下次请求的 `updated_since`。指定 `max_rows` 时可通过 `after` 分段导出。
+ * 修改时间在写入时取得而非提交时，为不遗漏较晚提交的事物，`watermark` 会向前回退 {@link #WATERMARK_LAG}，
+ * 因此增量同步会有重复的记录，调用方应按主键去重（覆盖）
+ *
+ * @author devezhao
+ * @since 2020/09/12
+ * @see StreamingApi
+ */
+public class EntityExportStream extends EntityGet implements StreamingApi {
+
+    /**
+     * 每页记录数
+     */
+    public static final int PAGE_SIZE = 500;
+
+    /**
+     * 水位回退（毫秒），应大于最长事物时间及各节点时间偏差
+     */
+    public static final long WATERMARK_LAG = 5 * 60 * 1000;
+
+    @Override
+    protected String getApiName() {
+        return "entity/export-stream";
+    }
+
+    @Override
+    public JSON execute(ApiContext context) throws ApiInvokeException {
+        throw new ApiInvokeException(ApiInvokeException.ERR_BADAPI, "Streaming API : " + getApiName());
+    }
+
+    @Override
+    public JSON execute(ApiContext context, Writer writer) throws ApiInvokeException, IOException {
+        final String entity = context.getParameterNotBlank("entity");
+        if (!MetadataHelper.containsEntity(entity)) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Unknow entity : " + entity);
+        }
+
+        final Entity useEntity = MetadataHelper.getEntity(entity);
+        if (!useEntity.isQueryable()) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BIZ, "Unsupportted operation for entity : " + entity);
+        }
+        if (!Application.getPrivilegesManager().allowRead(context.getBindUser(), useEntity.getEntityCode())) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BIZ, "无权读取 [" + EasyMeta.getLabel(useEntity) + "] 记录");
+        }
+
+        final Date updatedSince = parseUpdatedSince(useEntity, context.getParameter("updated_since"));
+        // 在查询前取得并回退，查询期间修改或尚未提交的记录会在下次同步时返回（可能重复）
+        final Date watermark = new Date(System.currentTimeMillis() - WATERMARK_LAG);
+
+        String[] fields = context.getParameterNotBlank("fields").split(",");
+        fields = getValidFields(useEntity, fields);
+
+        JSONObject queryEntry = new JSONObject();
+        queryEntry.put("entity", useEntity.getName());
+        queryEntry.put("fields", fields);
+        queryEntry.put("filter", context.getPostData());
+
+        ApiDataListControl control = new ApiDataListControl(queryEntry, context.getBindUser()) {
+            @Override
+            public String getDefaultFilter() {
+                String defaultFilter = super.getDefaultFilter();
+                if (updatedSince == null) {
+                    return defaultFilter;
+                }
+
+                String since = String.format("%s >= '%s'",
+                        EntityHelper.ModifiedOn, CalendarUtils.getUTCDateTimeFormat().format(updatedSince));
+                return defaultFilter == null ? since : "(" + defaultFilter + ") and " + since;
+            }
+        };
+
+        final QueryParser queryParser = control.getQueryParser();
+        final int pkIndex = queryParser.getQueryFields().size();
+        final int maxRows = context.getParameterAsInt("max_rows", Integer.MAX_VALUE);
+
+        // 从上次的 `next_after` 继续
+        ID afterId = context.getParameterAsId("after");
+        if (afterId != null && afterId.getEntityCode().intValue() != useEntity.getEntityCode().intValue()) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Invalid [after] " + afterId);
+        }
+
+        int count = 0;
+        while (count < maxRows) {
+            int pageSize = Math.min(PAGE_SIZE, maxRows - count);
+            Query query = Application.getQueryFactory().createQuery(queryParser.toKeysetSql(afterId), context.getBindUser());
+            Object[][] data = query.setLimit(pageSize).array();
+
+            SelectItem[] selectItems = query.getSelectItems();
+            for (Object[] row : data) {
+                writer.write(JSON.toJSONString(ApiDataListWrapper.buildItem(selectItems, row),
+                        SerializerFeature.DisableCircularReferenceDetect, SerializerFeature.WriteMapNullValue));
+                writer.write('\n');
+            }
+            writer.flush();
+
+            count += data.length;
+            if (data.length < pageSize) {
+                break;
+            }
+            afterId = (ID) data[data.length - 1][pkIndex];
+        }
+
+        JSONObject summary = JSONUtils.toJSONObject(
+                new String[] { "count", "watermark" },
+                new Object[] { count, CalendarUtils.getUTCDateTimeFormat().format(watermark) });
+        // 达到 `max_rows` 时可由此继续
+        if (count >= maxRows && afterId != null) {
+            summary.put("next_after", afterId);
+        }
+        return formatSuccess(summary);
+    }
+
+    /**
+     * @param entity
+     * @param updatedSince 日期时间或毫秒时间戳
+     * @return
+     */
+    private Date parseUpdatedSince(Entity entity, String updatedSince) {
+        if (StringUtils.isBlank(updatedSince)) {
+            return null;
+        }
+        if (!entity.containsField(EntityHelper.ModifiedOn)) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS,
+                    "Parameter [updated_since] unsupportted for entity : " + entity.getName());
+        }
+
+        Date date = NumberUtils.isDigits(updatedSince)
+                ? new Date(NumberUtils.toLong(updatedSince)) : CalendarUtils.parse(updatedSince);
+        if (date == null) {
+            throw new ApiInvokeException(ApiInvokeException.ERR_BADPARAMS, "Invalid [updated_since] " + updatedSince);
+        }
+        return date;
+    }
+}
@@ -83,6 +83,14 @@ public class EntityList extends EntityGet {
         queryEntry.put("sort", sortBy);
         queryEntry.put("reload", "true");
 
+        // 键集分页，首页传入空值，后续传入上页返回的 `nextSeek`（此时 `page_no` 无效）
+        String seek = context.getParameter("seek");
+        if (seek != null) {
+            queryEntry.put("seek", seek);
+        }
+        // 计数方式 `capped` or `cached`，默认精确计数
+        queryEntry.put("countMode", context.getParameter("count_mode"));
+
         DataListControl control = new ApiDataListControl(queryEntry, context.getBindUser());
         JSONObject ret = (JSONObject) control.getJSONResult();
         return formatSuccess(ret);
@@ -25,6 +25,7 @@ import com.rebuild.server.helper.DistributedJobBean;
 import com.rebuild.server.helper.License;
 import com.rebuild.server.helper.SysConfiguration;
 import com.rebuild.server.helper.cache.CommonCache;
+import com.rebuild.server.helper.cache.RecordLabelCache;
 import com.rebuild.server.helper.cache.RecordOwningCache;
 import com.rebuild.server.helper.setup.UpgradeDatabase;
 import com.rebuild.server.metadata.DynamicMetadataFactory;
@@ -284,6 +285,13 @@ public final class Application {
 		return getBean(RecordOwningCache.class);
 	}
 
+	/**
+	 * @return
+	 */
+	public static RecordLabelCache getRecordLabelCache() {
+		return getBean(RecordLabelCache.class);
+	}
+
 	/**
 	 * @return
 	 */
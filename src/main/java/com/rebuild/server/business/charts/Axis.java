@@ -49,6 +49,13 @@ public class Axis {
 		return field;
 	}
 
+	/**
+	 * @return
+	 */
+	public Field getParentField() {
+		return parentField;
+	}
+
 	/**
 	 * @return
 	 */
@@ -0,0 +1,127 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.charts;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.alibaba.fastjson.JSON;
+import com.rebuild.server.Application;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 并行构建多个图表数据（如仪表盘）。
+ * 在有界线程池中执行，每个图表有超时时间，超时的图表不影响其他图表返回
+ *
+ * @author devezhao
+ * @since 2020/09/07
+ * @see ChartDataCache
+ */
+public class ChartBatchBuilder {
+
+	private static final Log LOG = LogFactory.getLog(ChartBatchBuilder.class);
+
+	/**
+	 * 单个图表的超时时间（毫秒）
+	 */
+	public static final long TIMEOUT = 10 * 1000;
+
+	private static final int MAX_THREADS = Integer.max(Runtime.getRuntime().availableProcessors(), 4);
+
+	private static final ExecutorService EXECS = new ThreadPoolExecutor(
+			MAX_THREADS, MAX_THREADS, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(MAX_THREADS * 20),
+			r -> {
+				Thread t = new Thread(r, "chart-builder");
+				t.setDaemon(true);
+				return t;
+			});
+
+	final private ID user;
+
+	/**
+	 * @param user 执行用户。因为是在线程中执行，所以必须指定
+	 */
+	public ChartBatchBuilder(ID user) {
+		this.user = user;
+	}
+
+	/**
+	 * 构建图表数据
+	 *
+	 * @param chartIds
+	 * @return 图表 > 数据。失败的为异常（{@link ChartsException}，或超时的 {@link TimeoutException}）
+	 */
+	public Map<ID, Object> build(ID[] chartIds) {
+		Map<ID, Future<JSON>> futures = new LinkedHashMap<>();
+		Map<ID, Object> results = new LinkedHashMap<>();
+		for (ID chartId : chartIds) {
+			try {
+				futures.put(chartId, EXECS.submit(() -> buildOne(chartId)));
+			} catch (RejectedExecutionException ex) {
+				results.put(chartId, new ChartsException("系统繁忙，请稍后重试"));
+			}
+		}
+
+		// 所有图表同时开始，因此超时从提交时算起
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		for (Map.Entry<ID, Future<JSON>> e : futures.entrySet()) {
+			long wait = Math.max(deadline - System.currentTimeMillis(), 0);
+			try {
+				results.put(e.getKey(), e.getValue().get(wait, TimeUnit.MILLISECONDS));
+			} catch (TimeoutException ex) {
+				// 不取消，执行完成后结果会进入缓存，前端重新加载时即可命中
+				results.put(e.getKey(), ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof ChartsException) {
+					results.put(e.getKey(), cause);
+				} else {
+					LOG.error("Building chart failure : " + e.getKey(), cause);
+					results.put(e.getKey(), new ChartsException("图表加载失败"));
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				results.put(e.getKey(), new ChartsException("图表加载失败"));
+			}
+		}
+
+		// 保持请求顺序
+		Map<ID, Object> ordered = new LinkedHashMap<>();
+		for (ID chartId : chartIds) {
+			ordered.put(chartId, results.get(chartId));
+		}
+		return ordered;
+	}
+
+	/**
+	 * 在线程中执行，需要设置线程用户（部分解析依赖当前线程用户）
+	 *
+	 * @param chartId
+	 * @return
+	 */
+	private JSON buildOne(ID chartId) {
+		Application.getSessionStore().set(user);
+		try {
+			ChartData chart = ChartsFactory.create(chartId);
+			return ChartDataCache.instance.build(chart.setUser(user));
+		} finally {
+			Application.getSessionStore().clean();
+		}
+	}
+}
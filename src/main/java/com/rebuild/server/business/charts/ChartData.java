@@ -17,6 +17,7 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.rebuild.server.Application;
 import com.rebuild.server.helper.SetUser;
+import com.rebuild.server.helper.fieldvalue.FieldFormatter;
 import com.rebuild.server.helper.fieldvalue.FieldValueWrapper;
 import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.metadata.MetadataHelper;
@@ -27,7 +28,6 @@ import com.rebuild.server.service.bizz.UserService;
 import com.rebuild.server.service.query.AdvFilterParser;
 import org.apache.commons.lang.StringUtils;
 
-import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -286,7 +286,7 @@ public abstract class ChartData extends SetUser<ChartData> implements ChartSpec
 		if (ID.isId(value)) {
 			value = 1;
 		}
-		return new DecimalFormat(format).format(value);
+		return FieldFormatter.getDecimalFormat(format).format(value);
 	}
 	
 	/**
@@ -336,8 +336,37 @@ public abstract class ChartData extends SetUser<ChartData> implements ChartSpec
 	 * @return
 	 */
 	protected Query createQuery(String sql) {
+		return Application.createQuery(sql, getQueryUser());
+	}
+
+	/**
+	 * 查询聚合数据。图表启用物化（`option.materialized`）且兼容时使用预聚合数据
+	 *
+	 * @param dim 可为空（无维度）
+	 * @param nums
+	 * @param sql 原始数据聚合 SQL
+	 * @return
+	 * @see ChartRollupManager
+	 */
+	protected Object[][] queryAggregate(Dimension dim, Numerical[] nums, String sql) {
+		JSONObject option = config.getJSONObject("option");
+		if (!this.fromPreview && option != null && option.getBooleanValue("materialized")) {
+			Object[][] rolled = ChartRollupManager.instance.query(this, dim, nums);
+			if (rolled != null) {
+				return rolled;
+			}
+		}
+		return createQuery(sql).array();
+	}
+
+	/**
+	 * 查询数据所使用的用户（权限）
+	 *
+	 * @return
+	 */
+	protected ID getQueryUser() {
 		if (this.fromPreview) {
-			return Application.createQuery(sql, this.getUser());
+			return this.getUser();
 		}
 		
 		boolean noPrivileges = false;
@@ -349,11 +378,10 @@ public abstract class ChartData extends SetUser<ChartData> implements ChartSpec
 		ID chartOwning = ID.isId(co) ? ID.valueOf(co) : null;
 		
 		if (chartOwning == null || !noPrivileges) {
-			return Application.createQuery(sql, this.getUser());
+			return this.getUser();
 		} else {
 		    // 管理员创建的才能使用全部数据
-            return Application.createQuery(sql,
-                    UserHelper.isAdmin(chartOwning) ? UserService.SYSTEM_USER : this.getUser());
+            return UserHelper.isAdmin(chartOwning) ? UserService.SYSTEM_USER : this.getUser();
         }
 	}
 
@@ -0,0 +1,164 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.charts;
+
+import cn.devezhao.commons.EncryptUtils;
+import cn.devezhao.persist4j.Entity;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
+import com.rebuild.server.business.charts.builtin.BuiltinChart;
+import com.rebuild.server.helper.ConfigurableItem;
+import com.rebuild.server.helper.SysConfiguration;
+import com.rebuild.server.helper.cache.CommonCache;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 图表数据（结果集）缓存。
+ * 以 图表配置+权限过滤条件+图表过滤条件+额外参数 为键，因此权限相同的用户可共享结果。
+ * 源实体的记录新建/更新/删除等操作会使其失效，见 {@link ChartDataCacheObserver}
+ *
+ * @author devezhao
+ * @since 2020/09/06
+ * @see ConfigurableItem#ChartCacheMaxStale
+ */
+public class ChartDataCache {
+
+	/**
+	 * 缓存时间（秒）。引用字段名称等非源实体的变化依靠此时间兜底
+	 */
+	public static final int TTL = 15 * 60;
+
+	private static final String KEY_DATA = "CHARTDATA-";
+	private static final String KEY_VERSION = "CHARTVER-";
+
+	/**
+	 * 请求参数中非图表参数（单个加载时请求中的图表 ID 及防缓存参数），不参与缓存键
+	 */
+	private static final String[] IGNORED_PARAMS = new String[] { "id", "_" };
+
+	public static final ChartDataCache instance = new ChartDataCache();
+
+	private ChartDataCache() {}
+
+	/**
+	 * 构建数据，优先使用缓存。内建图表及预览不缓存
+	 *
+	 * @param chart
+	 * @return
+	 */
+	public JSON build(ChartData chart) {
+		if (chart instanceof BuiltinChart || chart.isFromPreview()) {
+			return chart.build();
+		}
+
+		final Entity entity = chart.getSourceEntity();
+		final String key = KEY_DATA + buildKey(chart);
+		// 构建前取得版本，以免构建期间发生的变更被覆盖
+		final String version = getVersion(entity);
+
+		String cached = getCache().get(key);
+		if (cached != null) {
+			JSONObject entry = JSON.parseObject(cached);
+			if (version.equals(entry.getString("v"))) {
+				return (JSON) JSON.parse(entry.getString("d"));
+			}
+
+			int maxStale = getMaxStale(entity);
+			if (maxStale > 0 && System.currentTimeMillis() - entry.getLongValue("t") < maxStale * 1000L) {
+				return (JSON) JSON.parse(entry.getString("d"));
+			}
+		}
+
+		JSON data = chart.build();
+
+		JSONObject entry = new JSONObject();
+		entry.put("v", version);
+		entry.put("t", System.currentTimeMillis());
+		entry.put("d", data.toJSONString());
+		getCache().put(key, entry.toJSONString(), TTL);
+		return data;
+	}
+
+	/**
+	 * 使实体的图表缓存失效
+	 *
+	 * @param entity
+	 */
+	public void invalidate(Entity entity) {
+		newVersion(entity);
+	}
+
+	/**
+	 * @param chart
+	 * @return
+	 */
+	protected String buildKey(ChartData chart) {
+		String privileges = Application.getPrivilegesManager()
+				.createQueryFilter(chart.getQueryUser()).evaluate(chart.getSourceEntity());
+		// 过滤条件中可能有相对日期或当前用户等变量，因此使用解析后的
+		String filter = chart.getFilterSql();
+
+		// 单个加载与批量加载的额外参数需一致，以便共享缓存
+		Map<String, Object> params = new TreeMap<>(chart.getExtraParams());
+		for (String p : IGNORED_PARAMS) {
+			params.remove(p);
+		}
+
+		String raw = chart.config.toJSONString()
+				+ "/" + privileges
+				+ "/" + filter
+				+ "/" + params;
+		return EncryptUtils.toMD5Hex(raw);
+	}
+
+	/**
+	 * @param entity
+	 * @return
+	 */
+	protected String getVersion(Entity entity) {
+		String v = getCache().get(KEY_VERSION + entity.getName());
+		// 无版本（或被清除）时生成新版本，原有缓存随之失效
+		return v == null ? newVersion(entity) : v;
+	}
+
+	private String newVersion(Entity entity) {
+		String v = Long.toString(System.nanoTime(), 36);
+		getCache().put(KEY_VERSION + entity.getName(), v);
+		return v;
+	}
+
+	/**
+	 * 实体允许的最大过期时间（秒）。配置后实体变化时在此时间内仍使用缓存
+	 *
+	 * @param entity
+	 * @return
+	 */
+	protected int getMaxStale(Entity entity) {
+		String conf = SysConfiguration.get(ConfigurableItem.ChartCacheMaxStale);
+		if (StringUtils.isBlank(conf)) {
+			return 0;
+		}
+
+		for (String item : conf.split(",")) {
+			String[] ns = item.trim().split(":");
+			if (ns.length == 2 && ns[0].trim().equalsIgnoreCase(entity.getName())) {
+				return NumberUtils.toInt(ns[1].trim());
+			}
+		}
+		return 0;
+	}
+
+	private CommonCache getCache() {
+		return Application.getCommonCache();
+	}
+}
@@ -0,0 +1,84 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.charts;
+
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Record;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.service.OperatingContext;
+import com.rebuild.server.service.OperatingObserver;
+import com.rebuild.server.service.TransactionManual;
+
+/**
+ * 记录变化时使源实体的图表数据缓存失效
+ *
+ * @author devezhao
+ * @since 2020/09/06
+ * @see ChartDataCache
+ */
+public class ChartDataCacheObserver extends OperatingObserver {
+
+	@Override
+	protected void onCreate(OperatingContext context) {
+		invalidate(context);
+	}
+
+	@Override
+	protected void onUpdate(OperatingContext context) {
+		invalidate(context);
+	}
+
+	@Override
+	protected void onDelete(OperatingContext context) {
+		invalidate(context);
+	}
+
+	// 分派/共享会改变其他用户的可见数据
+
+	@Override
+	protected void onAssign(OperatingContext context) {
+		invalidate(context);
+	}
+
+	@Override
+	protected void onShare(OperatingContext context) {
+		invalidate(context);
+	}
+
+	@Override
+	protected void onUnshare(OperatingContext context) {
+		invalidate(context);
+	}
+
+	private void invalidate(OperatingContext context) {
+		Record record = context.getAnyRecord();
+		Entity entity = record.getEntity();
+		// 共享记录
+		if (entity.getEntityCode() == EntityHelper.ShareAccess) {
+			String belongEntity = record.getString("belongEntity");
+			if (belongEntity == null || !MetadataHelper.containsEntity(belongEntity)) {
+				return;
+			}
+			entity = MetadataHelper.getEntity(belongEntity);
+		}
+
+		// 事物提交后会再次失效，避免提交前其他线程计算出旧数据并缓存到新版本下
+		final Entity target = entity;
+		invalidateNow(target);
+		TransactionManual.afterCommit(() -> invalidateNow(target));
+	}
+
+	private void invalidateNow(Entity entity) {
+		ChartDataCache.instance.invalidate(entity);
+		// 明细实体的图表可能使用主实体字段过滤
+		if (entity.getSlaveEntity() != null) {
+			ChartDataCache.instance.invalidate(entity.getSlaveEntity());
+		}
+	}
+}
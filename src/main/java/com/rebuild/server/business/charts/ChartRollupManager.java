@@ -0,0 +1,890 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.charts;
+
+import cn.devezhao.commons.EncryptUtils;
+import cn.devezhao.commons.ThreadPool;
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Field;
+import cn.devezhao.persist4j.Query;
+import cn.devezhao.persist4j.Record;
+import cn.devezhao.persist4j.engine.ID;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
+import com.rebuild.server.helper.cache.CommonCache;
+import com.rebuild.server.helper.fieldvalue.FieldFormatter;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.metadata.entity.DisplayType;
+import com.rebuild.server.metadata.entity.EasyMeta;
+import com.rebuild.server.service.TransactionManual;
+import com.rebuild.server.service.bizz.UserService;
+import com.rebuild.server.service.bizz.privileges.RoleBaseQueryFilter;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 图表预聚合（物化图表）。
+ * 图表启用 `option.materialized` 后，按 维度+数值字段 在 ChartRollup 中维护各维度值的合计/计数，
+ * 记录变化（事物提交后）时增量更新（见 {@link ChartRollupObserver}）。
+ * 仅支持无过滤条件且可使用全部数据的图表（单维度或无维度），不兼容时仍使用原始数据聚合
+ *
+ * 一致性：
+ * 1. 构建时写入新的代（generation），完成后切换当前代（单行更新），读取方不会读到构建中的数据；
+ * 2. 当前代、构建中的代及登记版本均存于 CommonCache（集群共享），并以标识行持久化当前代；
+ * 3. 构建期间变化的维度值记为脏数据，切换后按原始数据重算；
+ * 4. 定期全量重建兜底（见 {@link ChartRollupReconcileJob}）
+ *
+ * @author devezhao
+ * @since 2020/09/08
+ * @see ChartData#queryAggregate(Dimension, Numerical[], String)
+ */
+public class ChartRollupManager {
+
+	private static final Log LOG = LogFactory.getLog(ChartRollupManager.class);
+
+	// 当前代标识行（代号存于 COUNT_VALUE）
+	private static final String BUILT_SUFFIX = "-H";
+
+	// 当前代（缓存）
+	private static final String CKEY_GEN = "CHARTROLLUP-G-";
+	// 构建中的代
+	private static final String CKEY_BUILDING = "CHARTROLLUP-B-";
+	// 登记版本（按实体）
+	private static final String CKEY_REGISTRY = "CHARTROLLUP-R-";
+
+	private static final String NO_GEN = "0";
+	private static final int GEN_TTL = CommonCache.TS_HOUR;
+	// 构建中标识的有效期（秒），构建异常中断时以此兜底
+	private static final int BUILDING_TTL = CommonCache.TS_HOUR;
+	// 等待进行中的写入（毫秒）
+	private static final long BUILD_GRACE = 2000;
+
+	public static final ChartRollupManager instance = new ChartRollupManager();
+
+	private ChartRollupManager() {}
+
+	// 实体 > 预聚合
+	private final Map<String, Registry> registries = new ConcurrentHashMap<>();
+
+	private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * 从预聚合查询。返回与 `select [dim,] num1, num2.. from E [group by dim] order by ..` 相同结构的结果
+	 *
+	 * @param chart
+	 * @param dim 可为空（无维度）
+	 * @param nums
+	 * @return 不兼容或预聚合未就绪时返回 null
+	 */
+	public Object[][] query(ChartData chart, Dimension dim, Numerical[] nums) {
+		if (!isCompatible(chart)) {
+			return null;
+		}
+
+		final Entity entity = chart.getSourceEntity();
+		final List<Rollup> registered = getRollups(entity);
+
+		List<Rollup> rollups = new ArrayList<>();
+		for (Numerical num : nums) {
+			Rollup r = Rollup.valueOf(entity, dim, num);
+			// 未登记的不会增量更新
+			if (r == null || !registered.contains(r)) {
+				return null;
+			}
+			rollups.add(r);
+		}
+
+		String[] gens = new String[rollups.size()];
+		for (int i = 0; i < rollups.size(); i++) {
+			gens[i] = getGeneration(rollups.get(i).key);
+			if (gens[i] == null) {
+				rebuildAsync(rollups.get(i));
+				return null;
+			}
+		}
+
+		// 维度值 > [维度, 数值..]
+		Map<String, Object[]> rows = new LinkedHashMap<>();
+		for (int i = 0; i < rollups.size(); i++) {
+			Rollup r = rollups.get(i);
+			Object[][] array = Application.createQueryNoFilter(
+					"select bucket,sumValue,countValue,recordCount from ChartRollup where rollupKey = ?")
+					.setParameter(1, r.dataKey(gens[i]))
+					.array();
+			for (Object[] o : array) {
+				if (((Number) o[3]).longValue() <= 0) {
+					continue;
+				}
+
+				Object[] row = rows.computeIfAbsent((String) o[0], k -> new Object[nums.length + 1]);
+				row[0] = r.toDimValue((String) o[0]);
+				row[i + 1] = r.toNumValue(nums[i].getFormatCalc(), toDecimal(o[1]), ((Number) o[2]).longValue());
+			}
+		}
+
+		// 无维度时总有一行
+		if (dim == null && rows.isEmpty()) {
+			Object[] row = new Object[nums.length + 1];
+			for (int i = 0; i < nums.length; i++) {
+				row[i + 1] = rollups.get(i).toNumValue(nums[i].getFormatCalc(), BigDecimal.ZERO, 0);
+			}
+			rows.put(StringUtils.EMPTY, row);
+		}
+
+		List<Object[]> list = new ArrayList<>(rows.values());
+		sort(list, dim, nums);
+
+		Object[][] result = new Object[list.size()][];
+		for (int i = 0; i < list.size(); i++) {
+			Object[] row = list.get(i);
+			result[i] = dim == null ? Arrays.copyOfRange(row, 1, row.length) : row;
+		}
+		return result;
+	}
+
+	/**
+	 * 预聚合包含全部数据，因此需无过滤条件且用户可读取全部数据
+	 *
+	 * @param chart
+	 * @return
+	 */
+	protected boolean isCompatible(ChartData chart) {
+		JSONObject filter = chart.config.getJSONObject("filter");
+		if (filter != null && filter.getJSONArray("items") != null && !filter.getJSONArray("items").isEmpty()) {
+			return false;
+		}
+
+		String privileges = Application.getPrivilegesManager()
+				.createQueryFilter(chart.getQueryUser()).evaluate(chart.getSourceEntity());
+		return RoleBaseQueryFilter.ALLOWED.evaluate(null).equals(privileges);
+	}
+
+	/**
+	 * 与原始查询的排序一致（见 {@link ChartData#getSortSql()}），无排序时按维度值
+	 */
+	private void sort(List<Object[]> rows, Dimension dim, Numerical[] nums) {
+		Comparator<Object[]> comparator = null;
+		if (dim != null && dim.getFormatSort() != FormatSort.NONE) {
+			comparator = compareAt(0, dim.getFormatSort());
+		} else {
+			for (int i = 0; i < nums.length; i++) {
+				if (nums[i].getFormatSort() == FormatSort.NONE) {
+					continue;
+				}
+				Comparator<Object[]> c = compareAt(i + 1, nums[i].getFormatSort());
+				comparator = comparator == null ? c : comparator.thenComparing(c);
+			}
+		}
+
+		if (comparator == null && dim != null) {
+			comparator = compareAt(0, FormatSort.ASC);
+		}
+		if (comparator != null) {
+			rows.sort(comparator);
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private Comparator<Object[]> compareAt(int index, FormatSort sort) {
+		Comparator<Object[]> c = (a, b) -> {
+			Object va = a[index] instanceof ID ? a[index].toString() : a[index];
+			Object vb = b[index] instanceof ID ? b[index].toString() : b[index];
+			// 空值在前（与 MySQL 一致）
+			if (va == null) return vb == null ? 0 : -1;
+			if (vb == null) return 1;
+			return ((Comparable) va).compareTo(vb);
+		};
+		return sort == FormatSort.DESC ? c.reversed() : c;
+	}
+
+	// -- 构建
+
+	/**
+	 * 当前代
+	 *
+	 * @param rollupKey
+	 * @return 未构建返回 null
+	 */
+	protected String getGeneration(String rollupKey) {
+		String gen = getCache().get(CKEY_GEN + rollupKey);
+		if (gen == null) {
+			Object[] o = Application.createQueryNoFilter(
+					"select countValue from ChartRollup where rollupKey = ?")
+					.setParameter(1, rollupKey + BUILT_SUFFIX)
+					.unique();
+			gen = o == null || o[0] == null ? NO_GEN : o[0].toString();
+			getCache().put(CKEY_GEN + rollupKey, gen, GEN_TTL);
+		}
+		return NO_GEN.equals(gen) ? null : gen;
+	}
+
+	private void rebuildAsync(Rollup rollup) {
+		// 其他节点正在构建
+		if (getCache().get(CKEY_BUILDING + rollup.key) != null || !building.add(rollup.key)) {
+			return;
+		}
+
+		ThreadPool.exec(() -> {
+			try {
+				rebuild(rollup);
+			} catch (Exception ex) {
+				LOG.error("Rebuilding rollup failure : " + rollup, ex);
+			} finally {
+				building.remove(rollup.key);
+			}
+		});
+	}
+
+	/**
+	 * 全量构建（原始数据聚合）。
+	 * 写入新的代后切换，构建期间变化的维度值在切换后重算
+	 *
+	 * @param rollup
+	 */
+	protected void rebuild(Rollup rollup) {
+		final String oldGen = getGeneration(rollup.key);
+		final String newGen = Long.toString(System.currentTimeMillis());
+
+		// 1. 标识构建中，之后的写入会记录脏数据
+		getCache().put(CKEY_BUILDING + rollup.key, newGen, BUILDING_TTL);
+		int buckets;
+		try {
+			sleep(BUILD_GRACE);
+
+			// 2. 构建新的代（不可见）
+			Object[][] array = Application.createQueryNoFilter(buildAggregateSql(rollup, null)).array();
+			List<String> sqls = new ArrayList<>();
+			sqls.add(String.format("delete from `chart_rollup` where `ROLLUP_KEY` = '%s'", rollup.dataKey(newGen)));
+			final int offset = rollup.dim == null ? 0 : 1;
+			for (Object[] o : array) {
+				sqls.add(buildSetSql(rollup.dataKey(newGen), rollup.dim == null ? StringUtils.EMPTY : toBucketString(o[0]),
+						o, offset, rollup.isNumber()));
+			}
+			Application.getSQLExecutor().executeBatch(sqls.toArray(new String[0]));
+			buckets = array.length;
+
+			// 3. 切换
+			Application.getSQLExecutor().execute(String.format(
+					"insert into `chart_rollup` (`ROLLUP_ID`, `ROLLUP_KEY`, `BUCKET`, `SUM_VALUE`, `COUNT_VALUE`, `RECORD_COUNT`)"
+							+ " values ('%s', '%s', '', 0, %s, 0) on duplicate key update `COUNT_VALUE` = %s",
+					ID.newId(EntityHelper.ChartRollup), rollup.key + BUILT_SUFFIX, newGen, newGen));
+			getCache().put(CKEY_GEN + rollup.key, newGen, GEN_TTL);
+
+		} catch (RuntimeException ex) {
+			Application.getSQLExecutor().execute(String.format(
+					"delete from `chart_rollup` where `ROLLUP_KEY` in ('%s', '%s')",
+					rollup.dataKey(newGen), rollup.dirtyKey(newGen)));
+			throw ex;
+		} finally {
+			getCache().evict(CKEY_BUILDING + rollup.key);
+		}
+
+		// 4. 重算脏数据（等待进行中的写入完成标记）
+		sleep(BUILD_GRACE);
+		Object[][] dirty = Application.createQueryNoFilter(
+				"select bucket from ChartRollup where rollupKey = ?")
+				.setParameter(1, rollup.dirtyKey(newGen))
+				.array();
+		if (dirty.length > 0) {
+			Set<String> dirtyBuckets = new HashSet<>();
+			for (Object[] o : dirty) {
+				dirtyBuckets.add((String) o[0]);
+			}
+			recompute(rollup, newGen, dirtyBuckets);
+		}
+
+		// 5. 清理
+		List<String> cleans = new ArrayList<>();
+		cleans.add(String.format("delete from `chart_rollup` where `ROLLUP_KEY` = '%s'", rollup.dirtyKey(newGen)));
+		if (oldGen != null) {
+			cleans.add(String.format("delete from `chart_rollup` where `ROLLUP_KEY` in ('%s', '%s')",
+					rollup.dataKey(oldGen), rollup.dirtyKey(oldGen)));
+		} else {
+			// 无分代的旧数据
+			cleans.add(String.format("delete from `chart_rollup` where `ROLLUP_KEY` = '%s'", rollup.key));
+		}
+		Application.getSQLExecutor().executeBatch(cleans.toArray(new String[0]));
+
+		LOG.info("Rollup rebuilt : " + rollup + " (" + buckets + " buckets, " + dirty.length + " dirty)");
+	}
+
+	/**
+	 * 按原始数据重算指定维度值
+	 *
+	 * @param rollup
+	 * @param gen
+	 * @param buckets
+	 */
+	protected void recompute(Rollup rollup, String gen, Set<String> buckets) {
+		List<String> bucketList = new ArrayList<>(buckets);
+		for (int i = 0; i < bucketList.size(); i += 100) {
+			List<String> slice = bucketList.subList(i, Math.min(i + 100, bucketList.size()));
+
+			Query query = Application.createQueryNoFilter(buildAggregateSql(rollup, slice));
+			int pIndex = 1;
+			for (String b : slice) {
+				if (!b.isEmpty()) {
+					query.setParameter(pIndex++, b);
+				}
+			}
+
+			Map<String, Object[]> found = new HashMap<>();
+			for (Object[] o : query.array()) {
+				found.put(rollup.dim == null ? StringUtils.EMPTY : toBucketString(o[0]), o);
+			}
+
+			List<String> sqls = new ArrayList<>();
+			final int offset = rollup.dim == null ? 0 : 1;
+			for (String b : slice) {
+				Object[] o = found.get(b);
+				if (o == null) {
+					// 已无数据
+					o = new Object[offset + 3];
+					o[offset + 1] = 0;
+					o[offset + 2] = 0;
+				}
+				sqls.add(buildSetSql(rollup.dataKey(gen), b, o, offset, rollup.isNumber()));
+			}
+			Application.getSQLExecutor().executeBatch(sqls.toArray(new String[0]));
+		}
+	}
+
+	/**
+	 * @param rollup
+	 * @param buckets 仅聚合指定维度值（参数 `?` 按顺序对应非空值）
+	 * @return
+	 */
+	private String buildAggregateSql(Rollup rollup, List<String> buckets) {
+		final String numName = rollup.numField.getName();
+		final String dimSql = rollup.dim == null ? null : rollup.dim.getSqlName();
+
+		String sql = String.format("select %s%s(%s),COUNT(%s),COUNT(%s) from %s",
+				dimSql == null ? "" : dimSql + ",",
+				rollup.isNumber() ? FormatCalc.SUM : FormatCalc.COUNT, numName,
+				numName, rollup.entity.getPrimaryField().getName(), rollup.entity.getName());
+
+		if (dimSql != null && buckets != null) {
+			List<String> ors = new ArrayList<>();
+			int values = 0;
+			for (String b : buckets) {
+				if (b.isEmpty()) {
+					ors.add(dimSql + " is null");
+				} else {
+					values++;
+				}
+			}
+			if (values > 0) {
+				ors.add(dimSql + " in (" + StringUtils.join(Collections.nCopies(values, "?"), ",") + ")");
+			}
+			sql += " where (" + StringUtils.join(ors, " or ") + ")";
+		}
+
+		if (dimSql != null) {
+			sql += " group by " + dimSql;
+		}
+		return sql;
+	}
+
+	/**
+	 * 全量重建已构建的全部预聚合，修正可能的偏差
+	 *
+	 * @return 重建数量
+	 */
+	public int reconcileAll() {
+		Set<Rollup> rollups = new LinkedHashSet<>();
+		Object[][] charts = Application.createQueryNoFilter(
+				"select config from ChartConfig where config like '%materialized%'")
+				.array();
+		for (Object[] o : charts) {
+			rollups.addAll(parseRollups(JSON.parseObject((String) o[0])));
+		}
+
+		int reconciled = 0;
+		for (Rollup r : rollups) {
+			if (getGeneration(r.key) == null || !building.add(r.key)) {
+				continue;
+			}
+
+			try {
+				rebuild(r);
+				reconciled++;
+			} catch (Exception ex) {
+				LOG.error("Reconciling rollup failure : " + r, ex);
+			} finally {
+				building.remove(r.key);
+			}
+		}
+		return reconciled;
+	}
+
+	/**
+	 * 图表保存（事物提交）后调用。
+	 * 更新实体的登记版本（集群），新登记的预聚合此前未维护，因此丢弃旧数据待重建
+	 *
+	 * @param chartId
+	 */
+	public void reset(ID chartId) {
+		TransactionManual.afterCommit(() -> {
+			Object[] o = Application.createQueryNoFilter(
+					"select config,belongEntity from ChartConfig where chartId = ?")
+					.setParameter(1, chartId)
+					.unique();
+			if (o == null || !MetadataHelper.containsEntity((String) o[1])) {
+				return;
+			}
+
+			Entity entity = MetadataHelper.getEntity((String) o[1]);
+			List<Rollup> before = getRollups(entity);
+			newRegistryVersion(entity.getName());
+
+			List<String> sqls = new ArrayList<>();
+			for (Rollup r : parseRollups(JSON.parseObject((String) o[0]))) {
+				if (!before.contains(r)) {
+					sqls.add(String.format("delete from `chart_rollup` where `ROLLUP_KEY` = '%s'", r.key + BUILT_SUFFIX));
+					getCache().put(CKEY_GEN + r.key, NO_GEN, GEN_TTL);
+				}
+			}
+			if (!sqls.isEmpty()) {
+				Application.getSQLExecutor().executeBatch(sqls.toArray(new String[0]));
+			}
+		});
+	}
+
+	/**
+	 * 图表删除（事物提交）后调用
+	 *
+	 * @param entity
+	 */
+	public void resetRegistry(String entity) {
+		TransactionManual.afterCommit(() -> newRegistryVersion(entity));
+	}
+
+	// -- 增量
+
+	/**
+	 * 实体的预聚合（来自启用了物化的图表）
+	 *
+	 * @param entity
+	 * @return
+	 */
+	public List<Rollup> getRollups(Entity entity) {
+		final String name = entity.getName();
+		String version = getCache().get(CKEY_REGISTRY + name);
+		if (version == null) {
+			version = newRegistryVersion(name);
+		}
+
+		Registry registry = registries.get(name);
+		if (registry != null && registry.version.equals(version)) {
+			return registry.rollups;
+		}
+
+		Set<Rollup> rollups = new LinkedHashSet<>();
+		Object[][] charts = Application.createQueryNoFilter(
+				"select config from ChartConfig where belongEntity = ?")
+				.setParameter(1, name)
+				.array();
+		for (Object[] o : charts) {
+			rollups.addAll(parseRollups(JSON.parseObject((String) o[0])));
+		}
+
+		registry = new Registry(version, Collections.unmodifiableList(new ArrayList<>(rollups)));
+		registries.put(name, registry);
+		return registry.rollups;
+	}
+
+	private String newRegistryVersion(String entity) {
+		String v = Long.toString(System.nanoTime(), 36);
+		getCache().put(CKEY_REGISTRY + entity, v);
+		return v;
+	}
+
+	/**
+	 * @param config
+	 * @return
+	 */
+	private List<Rollup> parseRollups(JSONObject config) {
+		JSONObject option = config.getJSONObject("option");
+		if (option == null || !option.getBooleanValue("materialized")
+				|| !MetadataHelper.containsEntity(config.getString("entity"))) {
+			return Collections.emptyList();
+		}
+
+		ChartData chart;
+		try {
+			chart = ChartsFactory.create(config, UserService.SYSTEM_USER);
+		} catch (ChartsException ex) {
+			return Collections.emptyList();
+		}
+
+		Dimension[] dims = chart.getDimensions();
+		if (dims.length > 1) {
+			return Collections.emptyList();
+		}
+
+		List<Rollup> rollups = new ArrayList<>();
+		for (Numerical num : chart.getNumericals()) {
+			Rollup r = Rollup.valueOf(chart.getSourceEntity(), dims.length == 0 ? null : dims[0], num);
+			if (r != null) {
+				rollups.add(r);
+			}
+		}
+		return rollups;
+	}
+
+	/**
+	 * 记录中预聚合所需字段的当前值
+	 *
+	 * @param recordId
+	 * @param rollups
+	 * @return 记录不存在返回 null
+	 */
+	protected Map<String, Object> fetchValues(ID recordId, List<Rollup> rollups) {
+		Set<String> fields = new LinkedHashSet<>();
+		for (Rollup r : rollups) {
+			fields.add(r.numField.getName());
+			if (r.dim != null) {
+				fields.add(r.dim.getField().getName());
+			}
+		}
+
+		Entity entity = rollups.get(0).entity;
+		String sql = String.format("select %s from %s where %s = ?",
+				StringUtils.join(fields, ","), entity.getName(), entity.getPrimaryField().getName());
+		Record record = Application.createQueryNoFilter(sql).setParameter(1, recordId).record();
+		if (record == null) {
+			return null;
+		}
+
+		Map<String, Object> values = new HashMap<>();
+		for (Iterator<String> iter = record.getAvailableFieldIterator(); iter.hasNext(); ) {
+			String field = iter.next();
+			values.put(field, record.getObjectValue(field));
+		}
+		return values;
+	}
+
+	/**
+	 * 增量更新（事物提交后执行）
+	 *
+	 * @param rollups
+	 * @param before 变化前的值，新建时为空
+	 * @param after 变化后的值，删除时为空
+	 */
+	protected void apply(List<Rollup> rollups, Map<String, Object> before, Map<String, Object> after) {
+		TransactionManual.afterCommit(() -> applyNow(rollups, before, after));
+	}
+
+	private void applyNow(List<Rollup> rollups, Map<String, Object> before, Map<String, Object> after) {
+		List<String> sqls = new ArrayList<>();
+		for (Rollup r : rollups) {
+			final String gen = getGeneration(r.key);
+			final String buildingGen = getCache().get(CKEY_BUILDING + r.key);
+			// 未构建的在构建时会包含
+			if (gen == null && buildingGen == null) {
+				continue;
+			}
+
+			Map<String, Delta> deltas = new LinkedHashMap<>();
+			if (before != null) {
+				r.addDelta(deltas, before, -1);
+			}
+			if (after != null) {
+				r.addDelta(deltas, after, 1);
+			}
+
+			for (Delta d : deltas.values()) {
+				if (gen != null && !(d.sum.signum() == 0 && d.count == 0 && d.records == 0)) {
+					sqls.add(buildUpsertSql(r.dataKey(gen), d.bucket, d.sum, d.count, d.records));
+				}
+				// 构建中，记录脏数据
+				if (buildingGen != null) {
+					sqls.add(buildUpsertSql(r.dirtyKey(buildingGen), d.bucket, BigDecimal.ZERO, 0, 0));
+				}
+			}
+		}
+
+		if (!sqls.isEmpty()) {
+			Application.getSQLExecutor().executeBatch(sqls.toArray(new String[0]));
+		}
+	}
+
+	private static String buildUpsertSql(String rollupKey, String bucket, BigDecimal sum, long count, long records) {
+		return String.format("insert into `chart_rollup` (`ROLLUP_ID`, `ROLLUP_KEY`, `BUCKET`, `SUM_VALUE`, `COUNT_VALUE`, `RECORD_COUNT`)"
+						+ " values ('%s', '%s', '%s', %s, %d, %d)"
+						+ " on duplicate key update `SUM_VALUE` = `SUM_VALUE` + %s, `COUNT_VALUE` = `COUNT_VALUE` + %d, `RECORD_COUNT` = `RECORD_COUNT` + %d",
+				ID.newId(EntityHelper.ChartRollup), rollupKey, StringEscapeUtils.escapeSql(bucket),
+				sum.toPlainString(), count, records, sum.toPlainString(), count, records);
+	}
+
+	/**
+	 * 设置（覆盖）聚合值
+	 *
+	 * @param dataKey
+	 * @param bucket
+	 * @param aggregated [.., SUM, COUNT, 记录数]
+	 * @param offset
+	 * @param isNumber
+	 * @return
+	 */
+	private static String buildSetSql(String dataKey, String bucket, Object[] aggregated, int offset, boolean isNumber) {
+		String sum = isNumber ? toDecimal(aggregated[offset]).toPlainString() : "0";
+		long count = ((Number) aggregated[offset + 1]).longValue();
+		long records = ((Number) aggregated[offset + 2]).longValue();
+		return String.format("insert into `chart_rollup` (`ROLLUP_ID`, `ROLLUP_KEY`, `BUCKET`, `SUM_VALUE`, `COUNT_VALUE`, `RECORD_COUNT`)"
+						+ " values ('%s', '%s', '%s', %s, %d, %d)"
+						+ " on duplicate key update `SUM_VALUE` = %s, `COUNT_VALUE` = %d, `RECORD_COUNT` = %d",
+				ID.newId(EntityHelper.ChartRollup), dataKey, StringEscapeUtils.escapeSql(bucket),
+				sum, count, records, sum, count, records);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static CommonCache getCache() {
+		return Application.getCommonCache();
+	}
+
+	private static String toBucketString(Object value) {
+		if (value == null) {
+			return StringUtils.EMPTY;
+		}
+		return value instanceof ID ? ((ID) value).toLiteral() : value.toString();
+	}
+
+	private static BigDecimal toDecimal(Object value) {
+		if (value == null) {
+			return BigDecimal.ZERO;
+		}
+		return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+	}
+
+	// --
+
+	private static class Registry {
+		final String version;
+		final List<Rollup> rollups;
+
+		Registry(String version, List<Rollup> rollups) {
+			this.version = version;
+			this.rollups = rollups;
+		}
+	}
+
+	private static class Delta {
+		final String rollupKey;
+		final String bucket;
+		BigDecimal sum = BigDecimal.ZERO;
+		long count = 0;
+		long records = 0;
+
+		Delta(String rollupKey, String bucket) {
+			this.rollupKey = rollupKey;
+			this.bucket = bucket;
+		}
+	}
+
+	/**
+	 * 预聚合定义：实体+维度（字段与计算方式）+数值字段
+	 */
+	protected static class Rollup {
+
+		final Entity entity;
+		final Dimension dim;
+		final Field numField;
+		final String key;
+
+		private Rollup(Entity entity, Dimension dim, Field numField) {
+			this.entity = entity;
+			this.dim = dim;
+			this.numField = numField;
+			this.key = EncryptUtils.toMD5Hex(toString());
+		}
+
+		/**
+		 * @param entity
+		 * @param dim
+		 * @param num
+		 * @return 不支持预聚合返回 null
+		 */
+		static Rollup valueOf(Entity entity, Dimension dim, Numerical num) {
+			if (num.getParentField() != null) {
+				return null;
+			}
+
+			DisplayType numType = EasyMeta.getDisplayType(num.getField());
+			boolean isNumber = numType == DisplayType.NUMBER || numType == DisplayType.DECIMAL;
+			FormatCalc numCalc = num.getFormatCalc();
+			// MAX/MIN/去重计数 无法增量计算
+			if (!(numCalc == FormatCalc.COUNT || (isNumber && (numCalc == FormatCalc.SUM || numCalc == FormatCalc.AVG)))) {
+				return null;
+			}
+
+			if (dim != null) {
+				if (dim.getParentField() != null) {
+					return null;
+				}
+
+				DisplayType dimType = EasyMeta.getDisplayType(dim.getField());
+				if (dimType == DisplayType.DATE || dimType == DisplayType.DATETIME) {
+					if (dim.getFormatCalc() == FormatCalc.H && dimType == DisplayType.DATE) {
+						return null;
+					}
+				} else if (dimType == DisplayType.REFERENCE || dimType == DisplayType.PICKLIST
+						|| dimType == DisplayType.CLASSIFICATION) {
+					// 分类字段使用上级时需关联查询
+					if (!dim.getSqlName().equals(dim.getField().getName())) {
+						return null;
+					}
+				} else {
+					return null;
+				}
+			}
+			return new Rollup(entity, dim, num.getField());
+		}
+
+		/**
+		 * 数据行标识
+		 *
+		 * @param gen
+		 * @return
+		 */
+		String dataKey(String gen) {
+			return EncryptUtils.toMD5Hex(key + "/" + gen);
+		}
+
+		/**
+		 * 构建期间的脏数据标识
+		 *
+		 * @param gen
+		 * @return
+		 */
+		String dirtyKey(String gen) {
+			return EncryptUtils.toMD5Hex(key + "/" + gen + "/D");
+		}
+
+		boolean isNumber() {
+			DisplayType dt = EasyMeta.getDisplayType(numField);
+			return dt == DisplayType.NUMBER || dt == DisplayType.DECIMAL;
+		}
+
+		/**
+		 * 维度值（与 {@link Dimension#getSqlName()} 的查询结果一致）
+		 *
+		 * @param values
+		 * @return
+		 */
+		String toBucket(Map<String, Object> values) {
+			if (dim == null) {
+				return StringUtils.EMPTY;
+			}
+
+			Object value = values.get(dim.getField().getName());
+			if (!(value instanceof Date)) {
+				return toBucketString(value);
+			}
+
+			Date date = (Date) value;
+			switch (dim.getFormatCalc()) {
+				case Y:
+					return FieldFormatter.getDateFormat("yyyy").format(date);
+				case Q:
+					Calendar cal = Calendar.getInstance();
+					cal.setTime(date);
+					return cal.get(Calendar.YEAR) + " Q" + (cal.get(Calendar.MONTH) / 3 + 1);
+				case M:
+					return FieldFormatter.getDateFormat("yyyy-MM").format(date);
+				case H:
+					return FieldFormatter.getDateFormat("yyyy-MM-dd HH'H'").format(date);
+				default:
+					return FieldFormatter.getDateFormat("yyyy-MM-dd").format(date);
+			}
+		}
+
+		/**
+		 * @param deltas
+		 * @param values
+		 * @param sign 1 or -1
+		 */
+		void addDelta(Map<String, Delta> deltas, Map<String, Object> values, int sign) {
+			String bucket = toBucket(values);
+			Delta d = deltas.computeIfAbsent(key + "/" + bucket, k -> new Delta(key, bucket));
+
+			Object value = values.get(numField.getName());
+			if (value != null) {
+				if (isNumber()) {
+					d.sum = d.sum.add(toDecimal(value).multiply(BigDecimal.valueOf(sign)));
+				}
+				d.count += sign;
+			}
+			d.records += sign;
+		}
+
+		Object toDimValue(String bucket) {
+			if (dim == null || StringUtils.isEmpty(bucket)) {
+				return null;
+			}
+			return ID.isId(bucket) ? ID.valueOf(bucket) : bucket;
+		}
+
+		Object toNumValue(FormatCalc calc, BigDecimal sum, long count) {
+			if (calc == FormatCalc.COUNT) {
+				return count;
+			}
+			// 与 SQL 一致，无值时为空
+			if (count == 0) {
+				return null;
+			}
+			if (calc == FormatCalc.AVG) {
+				return sum.divide(BigDecimal.valueOf(count), 8, BigDecimal.ROUND_HALF_UP);
+			}
+			return sum;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Rollup && key.equals(((Rollup) o).key);
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return entity.getName() + "/" + (dim == null ? "" : dim.getSqlName()) + "/" + numField.getName();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.charts;
+
+import cn.devezhao.persist4j.Record;
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.business.charts.ChartRollupManager.Rollup;
+import com.rebuild.server.service.OperatingContext;
+import com.rebuild.server.service.OperatingObserver;
+import com.rebuild.server.service.TransactionManual;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录变化时增量更新图表预聚合
+ *
+ * @author devezhao
+ * @since 2020/09/08
+ * @see ChartRollupManager
+ */
+public class ChartRollupObserver extends OperatingObserver {
+
+	// 删除前的值（删除失败或回滚时于事物结束后清除）
+	private static final Map<ID, Map<String, Object>> DELETE_HOLDS = new ConcurrentHashMap<>();
+
+	@Override
+	protected void onCreate(OperatingContext context) {
+		final ID recordId = context.getAfterRecord().getPrimary();
+		List<Rollup> rollups = ChartRollupManager.instance.getRollups(context.getAfterRecord().getEntity());
+		if (rollups.isEmpty()) {
+			return;
+		}
+
+		Map<String, Object> after = ChartRollupManager.instance.fetchValues(recordId, rollups);
+		if (after != null) {
+			ChartRollupManager.instance.apply(rollups, null, after);
+		}
+	}
+
+	@Override
+	protected void onUpdate(OperatingContext context) {
+		final ID recordId = context.getAfterRecord().getPrimary();
+		List<Rollup> rollups = ChartRollupManager.instance.getRollups(context.getAfterRecord().getEntity());
+		if (rollups.isEmpty()) {
+			return;
+		}
+
+		Map<String, Object> after = ChartRollupManager.instance.fetchValues(recordId, rollups);
+		if (after == null) {
+			return;
+		}
+
+		// 变化前 = 更新后的值 + 更新字段的原值
+		Map<String, Object> before = new HashMap<>(after);
+		Record updated = context.getAfterRecord();
+		Record beforeRecord = context.getBeforeRecord();
+		boolean changed = false;
+		for (Iterator<String> iter = updated.getAvailableFieldIterator(); iter.hasNext(); ) {
+			String field = iter.next();
+			if (isRollupField(rollups, field)) {
+				before.put(field, beforeRecord == null ? null : beforeRecord.getObjectValue(field));
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			ChartRollupManager.instance.apply(rollups, before, after);
+		}
+	}
+
+	private boolean isRollupField(List<Rollup> rollups, String field) {
+		for (Rollup r : rollups) {
+			if (r.numField.getName().equals(field) || (r.dim != null && r.dim.getField().getName().equals(field))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected void onDeleteBefore(OperatingContext context) {
+		final ID recordId = context.getBeforeRecord().getPrimary();
+		List<Rollup> rollups = ChartRollupManager.instance.getRollups(context.getBeforeRecord().getEntity());
+		if (rollups.isEmpty()) {
+			return;
+		}
+
+		Map<String, Object> before = ChartRollupManager.instance.fetchValues(recordId, rollups);
+		if (before != null) {
+			DELETE_HOLDS.put(recordId, before);
+			TransactionManual.afterCompletion(() -> DELETE_HOLDS.remove(recordId));
+		}
+	}
+
+	@Override
+	protected void onDelete(OperatingContext context) {
+		final ID recordId = context.getBeforeRecord().getPrimary();
+		Map<String, Object> before = DELETE_HOLDS.remove(recordId);
+		if (before == null) {
+			return;
+		}
+
+		List<Rollup> rollups = ChartRollupManager.instance.getRollups(context.getBeforeRecord().getEntity());
+		ChartRollupManager.instance.apply(rollups, before, null);
+	}
+}
@@ -0,0 +1,27 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.charts;
+
+import com.rebuild.server.helper.DistributedJobBean;
+import org.quartz.JobExecutionException;
+
+/**
+ * 定期全量重建图表预聚合，修正增量更新可能产生的偏差
+ *
+ * @author devezhao
+ * @since 2020/09/14
+ * @see ChartRollupManager#reconcileAll()
+ */
+public class ChartRollupReconcileJob extends DistributedJobBean {
+
+    @Override
+    protected void executeInternalSafe() throws JobExecutionException {
+        int reconciled = ChartRollupManager.instance.reconcileAll();
+        LOG.info("Chart rollups reconciled : " + reconciled);
+    }
+}
@@ -30,7 +30,7 @@ public class IndexChart extends ChartData {
 		Numerical[] nums = getNumericals();
 
 		Numerical axis = nums[0];
-		Object[] dataRaw = createQuery(buildSql(axis)).unique();
+		Object[] dataRaw = queryAggregate(null, new Numerical[] { axis }, buildSql(axis))[0];
 		
 		JSONObject index = JSONUtils.toJSONObject(
 				new String[] { "data", "label" },
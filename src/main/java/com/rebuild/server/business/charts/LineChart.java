@@ -34,7 +34,7 @@ public class LineChart extends ChartData {
 		Numerical[] nums = getNumericals();
 		
 		Dimension dim1 = dims[0];
-		Object[][] dataRaw = createQuery(buildSql(dim1, nums)).array();
+		Object[][] dataRaw = queryAggregate(dim1, nums, buildSql(dim1, nums));
 		
 		List<String> dimAxis = new ArrayList<>();
 		Object[] numsAxis = new Object[nums.length];
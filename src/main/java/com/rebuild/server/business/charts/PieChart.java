@@ -31,7 +31,7 @@ public class PieChart extends ChartData {
 		
 		Dimension dim1 = dims[0];
 		Numerical num1 = nums[0];
-		Object[][] dataRaw = createQuery(buildSql(dim1, num1)).array();
+		Object[][] dataRaw = queryAggregate(dim1, new Numerical[] { num1 }, buildSql(dim1, num1));
 		
 		JSONArray dataJson = new JSONArray();
 		for (Object[] o : dataRaw) {
@@ -7,18 +7,26 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.business.dataimport;
 
+import cn.devezhao.commons.ObjectUtils;
 import cn.devezhao.persist4j.Field;
+import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
 import com.rebuild.server.RebuildException;
-import com.rebuild.server.helper.SetUser;
 import com.rebuild.server.helper.SysConfiguration;
 import com.rebuild.server.helper.datalist.DataListWrapper;
 import com.rebuild.server.helper.datalist.DefaultDataListControl;
+import com.rebuild.server.helper.task.HeavyTask;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.metadata.entity.DisplayType;
 import com.rebuild.server.metadata.entity.EasyMeta;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -26,20 +34,35 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * 数据导出
+ * 数据导出。
+ * 分页查询并边查边写，内存占用与导出行数无关。大数据量导出时按排序字段 + 主键（键集分页）遍历，保留列表的排序设置
  *
  * @author ZHAO
  * @since 2019/11/18
  * @see DefaultDataListControl
  */
-public class DataExporter extends SetUser<DataExporter> {
+public class DataExporter extends HeavyTask<File> {
 
     /**
-     * 最大行数
+     * 最大行数（CSV 不限制）
      */
-    public static final int MAX_ROWS = 65535 - 1;
+    public static final int MAX_ROWS = Integer.MAX_VALUE;
+    /**
+     * Excel 最大行数（不含表头）
+     */
+    public static final int MAX_ROWS_XLSX = SpreadsheetVersion.EXCEL2007.getMaxRows() - 1;
+
+    /**
+     * 每页查询行数。请求的行数不大于此值时视为导出单页
+     */
+    public static final int PAGE_SIZE = 1000;
+
+    public static final String TYPE_CSV = "csv";
+    public static final String TYPE_XLSX = "xlsx";
 
     final private JSONObject queryData;
+    final private String fileType;
+    final private File exportFile;
     // 字段
     private List<Field> headFields = new ArrayList<>();
 
@@ -47,7 +70,38 @@ public class DataExporter extends SetUser<DataExporter> {
      * @param queryData
      */
     public DataExporter(JSONObject queryData) {
+        this(queryData, TYPE_CSV);
+    }
+
+    /**
+     * @param queryData
+     * @param fileType {@link #TYPE_CSV} or {@link #TYPE_XLSX}
+     */
+    public DataExporter(JSONObject queryData, String fileType) {
         this.queryData = queryData;
+        this.fileType = TYPE_XLSX.equalsIgnoreCase(fileType) ? TYPE_XLSX : TYPE_CSV;
+        this.exportFile = SysConfiguration.getFileOfTemp(
+                String.format("EXPORT-%d.%s", System.currentTimeMillis(), this.fileType));
+    }
+
+    @Override
+    public DataExporter setUser(ID user) {
+        super.setUser(user);
+        return this;
+    }
+
+    @Override
+    protected File exec() {
+        return export();
+    }
+
+    /**
+     * 导出文件（导出完成前文件内容不完整）
+     *
+     * @return
+     */
+    public File getExportFile() {
+        return exportFile;
     }
 
     /**
@@ -56,9 +110,8 @@ public class DataExporter extends SetUser<DataExporter> {
      * @return
      */
     public File export() {
-        File tmp = SysConfiguration.getFileOfTemp(String.format("EXPORT-%d.csv", System.currentTimeMillis()));
-        export(tmp);
-        return tmp;
+        export(exportFile);
+        return exportFile;
     }
 
     /**
@@ -71,36 +124,77 @@ public class DataExporter extends SetUser<DataExporter> {
 
         List<String> head = this.buildHead(control);
 
-        try (FileOutputStream fos = new FileOutputStream(dest, true)) {
-            try (OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
-                try (BufferedWriter writer = new BufferedWriter(osw)) {
-                    writer.write("\ufeff");
-                    writer.write(mergeLine(head));
+        try (RowWriter writer = TYPE_XLSX.equals(fileType) ? new XlsxRowWriter(dest) : new CsvRowWriter(dest)) {
+            writer.write(head);
 
-                    for (List<String> row : this.buildData(control)) {
-                        writer.newLine();
-                        writer.write(mergeLine(row));
-                    }
+            int maxRows = NumberUtils.toInt(queryData.getString("pageSize"), 20);
+            if (TYPE_XLSX.equals(fileType)) {
+                maxRows = Math.min(maxRows, MAX_ROWS_XLSX);
+            }
 
-                    writer.flush();
+            if (maxRows <= PAGE_SIZE) {
+                JSONArray data = ((JSONObject) control.getJSONResult()).getJSONArray("data");
+                this.setTotal(data.size() + 1);
+                for (Object row : data) {
+                    writer.write(buildRow((JSONArray) row));
+                    this.addRowCompleted();
                 }
+            } else {
+                exportByKeyset(control, writer, maxRows);
             }
         } catch (IOException e) {
-            throw new RebuildException("Could't write .csv file", e);
+            throw new RebuildException("Could't write ." + fileType + " file", e);
         }
+
+        // 文件已关闭（CSV 刷出缓冲，XLSX 此时才写入文件），可以下载
+        this.setCompleted(this.getTotal());
     }
 
-    private String mergeLine(List<String> line) {
-        StringBuilder sb = new StringBuilder();
-        boolean b = true;
-        for (String s : line) {
-            if (b) b = false;
-            else sb.append(", ");
+    /**
+     * 文件关闭前不能视为完成（前端完成后即开始下载），因此总数多计一项（关闭文件），行数不会达到总数
+     */
+    private void addRowCompleted() {
+        if (this.getCompleted() < this.getTotal() - 1) {
+            this.addCompleted();
+        }
+        this.addSucceeded();
+    }
+
+    /**
+     * 键集分页逐页导出（排序字段 + 主键作为游标）
+     *
+     * @param control
+     * @param writer
+     * @param maxRows
+     * @throws IOException
+     */
+    private void exportByKeyset(DefaultDataListControl control, RowWriter writer, int maxRows) throws IOException {
+        Object[] count = Application.getQueryFactory()
+                .createQuery(control.getQueryParser().toCountSql(), getUser()).unique();
+        this.setTotal(Math.min(ObjectUtils.toInt(count[0]), maxRows) + 1);
+
+        String seek = null;
+        int written = 0;
+        while (written < maxRows) {
+            if (this.isInterrupt()) {
+                this.setInterrupted();
+                break;
+            }
+
+            int pageSize = Math.min(PAGE_SIZE, maxRows - written);
+            JSONObject page = (JSONObject) control.getJSONResult(seek, pageSize);
+            JSONArray data = page.getJSONArray("data");
+            for (Object row : data) {
+                writer.write(buildRow((JSONArray) row));
+                this.addRowCompleted();
+            }
 
-            if (s.contains(",")) sb.append("\"").append(s).append("\"");
-            else sb.append(s);
+            written += data.size();
+            seek = page.getString("nextSeek");
+            if (seek == null) {
+                break;
+            }
         }
-        return sb.toString();
     }
 
     /**
@@ -120,47 +214,111 @@ public class DataExporter extends SetUser<DataExporter> {
     }
 
     /**
-     * 数据
+     * 数据行
      *
-     * @param control
+     * @param rowJson
      * @return
      */
-    protected List<List<String>> buildData(DefaultDataListControl control) {
-        JSONArray data = ((JSONObject) control.getJSONResult()).getJSONArray("data");
-
-        List<List<String>> into = new ArrayList<>();
-        for (Object row : data) {
-            JSONArray rowJson = (JSONArray) row;
-
-            int cellIndex = 0;
-            List<String> cellVals = new ArrayList<>();
-            for (Object cellVal : rowJson) {
-                // 最后添加的记录 ID
-                // 详情可见 QueryParser#doParseIfNeed (L171)
-                if (cellIndex >= headFields.size()) {
-                    break;
-                }
+    protected List<String> buildRow(JSONArray rowJson) {
+        int cellIndex = 0;
+        List<String> cellVals = new ArrayList<>();
+        for (Object cellVal : rowJson) {
+            // 最后添加的记录 ID
+            // 详情可见 QueryParser#doParseIfNeed (L171)
+            if (cellIndex >= headFields.size()) {
+                break;
+            }
 
-                Field field = headFields.get(cellIndex++);
-                DisplayType dt = EasyMeta.getDisplayType(field);
-                if (cellVal == null) {
-                    cellVal = StringUtils.EMPTY;
-                } else if (dt == DisplayType.FILE || dt == DisplayType.IMAGE || dt == DisplayType.AVATAR
-                        || dt == DisplayType.ANYREFERENCE || dt == DisplayType.BARCODE) {
-                    cellVal = "[暂不支持" + dt.getDisplayName() + "字段]";
-                } else if (dt == DisplayType.DECIMAL || dt == DisplayType.NUMBER) {
-                    cellVal = cellVal.toString().replace(",", "");  // 移除千分位
-                }
+            Field field = headFields.get(cellIndex++);
+            DisplayType dt = EasyMeta.getDisplayType(field);
+            if (cellVal == null) {
+                cellVal = StringUtils.EMPTY;
+            } else if (dt == DisplayType.FILE || dt == DisplayType.IMAGE || dt == DisplayType.AVATAR
+                    || dt == DisplayType.ANYREFERENCE || dt == DisplayType.BARCODE) {
+                cellVal = "[暂不支持" + dt.getDisplayName() + "字段]";
+            } else if (dt == DisplayType.DECIMAL || dt == DisplayType.NUMBER) {
+                cellVal = cellVal.toString().replace(",", "");  // 移除千分位
+            }
 
-                if (cellVal instanceof JSONObject) {
-                    cellVal = ((JSONObject) cellVal).getString("text");
-                } else if (cellVal.toString().equals(DataListWrapper.NO_READ_PRIVILEGES)) {
-                    cellVal = "[无权限]";
-                }
-                cellVals.add(cellVal.toString());
+            if (cellVal instanceof JSONObject) {
+                cellVal = ((JSONObject) cellVal).getString("text");
+            } else if (cellVal.toString().equals(DataListWrapper.NO_READ_PRIVILEGES)) {
+                cellVal = "[无权限]";
+            }
+            cellVals.add(cellVal.toString());
+        }
+        return cellVals;
+    }
+
+    // -- 写入
+
+    private interface RowWriter extends Closeable {
+        void write(List<String> row) throws IOException;
+    }
+
+    private static class CsvRowWriter implements RowWriter {
+        final private BufferedWriter writer;
+        private boolean first = true;
+
+        CsvRowWriter(File dest) throws IOException {
+            this.writer = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(dest, true), StandardCharsets.UTF_8));
+            this.writer.write("\ufeff");
+        }
+
+        @Override
+        public void write(List<String> row) throws IOException {
+            if (first) first = false;
+            else writer.newLine();
+            writer.write(mergeLine(row));
+        }
+
+        private String mergeLine(List<String> line) {
+            StringBuilder sb = new StringBuilder();
+            boolean b = true;
+            for (String s : line) {
+                if (b) b = false;
+                else sb.append(", ");
+
+                if (s.contains(",")) sb.append("\"").append(s).append("\"");
+                else sb.append(s);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static class XlsxRowWriter implements RowWriter {
+        final private File dest;
+        // 内存中仅保留最近的 100 行，其余刷到临时文件
+        final private SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        final private Sheet sheet = workbook.createSheet();
+        private int rowIndex = 0;
+
+        XlsxRowWriter(File dest) {
+            this.dest = dest;
+        }
+
+        @Override
+        public void write(List<String> row) {
+            Row r = sheet.createRow(rowIndex++);
+            for (int i = 0; i < row.size(); i++) {
+                r.createCell(i).setCellValue(row.get(i));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (FileOutputStream fos = new FileOutputStream(dest)) {
+                workbook.write(fos);
+            } finally {
+                workbook.dispose();
+                workbook.close();
             }
-            into.add(cellVals);
         }
-        return into;
     }
 }
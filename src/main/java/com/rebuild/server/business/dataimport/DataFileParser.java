@@ -12,8 +12,14 @@ import cn.devezhao.commons.excel.Cell;
 import com.rebuild.utils.ExcelUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 
 /**
  * 文件解析
@@ -50,12 +56,17 @@ public class DataFileParser {
     }
 
     /**
-     * 此方法性能较低，与 {@link #parse()} 差不多
+     * 流式读取计数，不会将全部行载入内存
      *
      * @return
      */
     public int getRowsCount() {
-        return parse().size();
+        final AtomicInteger count = new AtomicInteger(0);
+        parse(row -> {
+            count.incrementAndGet();
+            return true;
+        });
+        return count.get();
     }
 
     /**
@@ -70,27 +81,70 @@ public class DataFileParser {
      * @return
      */
     public List<Cell[]> parse(int maxRows) {
+        final List<Cell[]> rows = new ArrayList<>();
+        parse(row -> {
+            rows.add(row);
+            return rows.size() < maxRows;
+        });
+        return rows;
+    }
+
+    /**
+     * 流式解析（xls/xlsx 基于事件模式，csv 逐行读取）
+     *
+     * @param handler 返回 false 停止解析
+     */
+    public void parse(Predicate<Cell[]> handler) {
+        parse(handler, null);
+    }
+
+    /**
+     * 流式解析（xls/xlsx 基于事件模式，csv 逐行读取）
+     *
+     * @param handler 返回 false 停止解析
+     * @param rowsHint 解析前回调大概的总行数（含表头），可能不准确。
+     *                 xls/xlsx 使用文件中的元数据（可能没有），csv 仅统计换行符（不解析，带换行的值会多计）
+     */
+    public void parse(Predicate<Cell[]> handler, IntConsumer rowsHint) {
         if (sourceFile.getName().endsWith(".csv")) {
-            return parseCsv(maxRows);
+            if (rowsHint != null) {
+                int lines = countLines(sourceFile);
+                if (lines > 0) {
+                    rowsHint.accept(lines);
+                }
+            }
+
+            try (CSVReader csvReader = new CSVReader(this.sourceFile, this.encoding)) {
+                while (csvReader.hasNext()) {
+                    if (!handler.test(csvReader.next())) {
+                        break;
+                    }
+                }
+            }
         } else {
-            return ExcelUtils.readExcel(this.sourceFile, maxRows, true);
+            ExcelUtils.readExcel(this.sourceFile, handler, true, rowsHint);
         }
     }
 
     /**
-     * @param maxRows
-     * @return
+     * @param file
+     * @return 读取失败返回 -1
      */
-    private List<Cell[]> parseCsv(int maxRows) {
-        final List<Cell[]> rows = new ArrayList<>();
-        try (CSVReader csvReader = new CSVReader(this.sourceFile, this.encoding)) {
-            while (csvReader.hasNext()) {
-                rows.add(csvReader.next());
-                if (rows.size() >= maxRows) {
-                    break;
+    private static int countLines(File file) {
+        int lines = 0;
+        boolean tail = false;
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    tail = buffer[i] != '\n';
+                    if (!tail) lines++;
                 }
             }
+        } catch (IOException ex) {
+            return -1;
         }
-        return rows;
+        return tail ? lines + 1 : lines;
     }
 }
@@ -30,13 +30,26 @@ import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.metadata.EntityRecordCreator;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.metadata.entity.DisplayType;
+import com.rebuild.server.service.EntityService;
+import com.rebuild.server.service.TransactionManual;
 import com.rebuild.utils.JSONUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.transaction.TransactionStatus;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 数据导入
@@ -49,12 +62,12 @@ import java.util.Map;
 public class DataImporter extends HeavyTask<Integer> {
 	
 	private static final ThreadLocal<ID> IN_IMPORTING = new ThreadLocal<>();
+
+	// 并行解析/验证线程数
+	private static final int CHECKOUT_THREADS = Integer.max(Runtime.getRuntime().availableProcessors() / 2, 2);
 	
 	final private ImportRule rule;
 	private ID owningUser;
-
-	// 记录每一行的错误日志
-	private Map<Integer, Object> eachLogs = new LinkedHashMap<>();
 	
 	/**
 	 * @param rule
@@ -65,38 +78,193 @@ public class DataImporter extends HeavyTask<Integer> {
 	
 	@Override
 	protected Integer exec() throws Exception {
-		final List<Cell[]> rows = new DataFileParser(rule.getSourceFile()).parse();
-		this.setTotal(rows.size() - 1);
+		final DataFileParser fileParser = new DataFileParser(rule.getSourceFile());
 
 		owningUser = rule.getDefaultOwningUser() != null ? rule.getDefaultOwningUser() : getUser();
 		IN_IMPORTING.set(owningUser);
 
+		final ExecutorService checkoutExecutor = Executors.newFixedThreadPool(CHECKOUT_THREADS);
+		try {
+			final List<Cell[]> chunk = new ArrayList<>();
+			// 已读取的数据行（总数在解析时计数，不再预先解析一遍）
+			final AtomicInteger rowsRead = new AtomicInteger(0);
+			fileParser.parse(row -> {
+				if (isInterrupt()) {
+					this.setInterrupted();
+					return false;
+				}
+
+				Cell firstCell = row == null || row.length == 0 ? null : row[0];
+				if (firstCell == null || firstCell.getRowNo() == 0) {
+					return true;
+				}
+
+				chunk.add(row);
+				// 大概的总数可能偏少，读取完成前总数需大于已读取的，以免提前完成
+				if (rowsRead.incrementAndGet() >= this.getTotal()) {
+					this.setTotal(rowsRead.get() + 1);
+				}
+
+				if (chunk.size() >= rule.getBatchSize()) {
+					importChunk(chunk, checkoutExecutor);
+					chunk.clear();
+				}
+				return true;
+			}, approximate -> this.setTotal(approximate - 1 /* 表头 */));
+
+			if (!chunk.isEmpty() && !isInterrupted()) {
+				importChunk(chunk, checkoutExecutor);
+			}
+			this.setTotal(rowsRead.get());
+
+		} finally {
+			checkoutExecutor.shutdown();
+		}
+
+		return this.getSucceeded();
+	}
+
+	/**
+	 * 导入一批。先并行解析/验证，再在一个事物中写入（失败时回滚并逐条重试）
+	 *
+	 * @param rows
+	 * @param checkoutExecutor
+	 */
+	private void importChunk(List<Cell[]> rows, ExecutorService checkoutExecutor) {
+		final ID threadUser = getUser();
+
+		// 预先批量解析引用字段
+		final RecordCheckout recordCheckout = new RecordCheckout(rule.getFiledsMapping()).prefetchReferences(rows);
+
+		List<Future<Record>> futures = new ArrayList<>();
 		for (final Cell[] row : rows) {
-			if (isInterrupt()) {
-				this.setInterrupted();
-				break;
+			futures.add(checkoutExecutor.submit(() -> {
+				Application.getSessionStore().set(threadUser);
+				try {
+					return newRecord(row, recordCheckout);
+				} finally {
+					Application.getSessionStore().clean();
+				}
+			}));
+		}
+
+		final Record[] recordNews = new Record[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			try {
+				recordNews[i] = futures.get(i).get();
+			} catch (Exception ex) {
+				Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+				LOG.error(rows.get(i)[0].getRowNo() + " > " + cause);
+				this.addCompleted();
+			}
+		}
+
+		// 批量检查重复
+		Map<String, ID> repeateds = null;
+		if (rule.getRepeatOpt() < ImportRule.REPEAT_OPT_IGNORE) {
+			try {
+				repeateds = getRepeatedRecordIds(rule.getRepeatFields(), recordNews);
+			} catch (Exception ex) {
+				LOG.warn("Batch checking repeated failed, check one by one : " + ex);
+			}
+		}
+
+		// 待写入 [行, 记录]
+		final List<Object[]> willSaves = new ArrayList<>();
+		// 同一批中重复的行需在前面的行写入后再检查
+		final List<Cell[]> deferreds = new ArrayList<>();
+		final Set<String> repeatKeys = new HashSet<>();
+
+		for (int i = 0; i < rows.size(); i++) {
+			final Cell[] row = rows.get(i);
+			if (recordNews[i] == null) {
+				continue;
 			}
 
-			Cell firstCell = row == null || row.length == 0 ? null : row[0];
-			if (firstCell == null || firstCell.getRowNo() == 0) {
+			String repeatKey = getRepeatKey(rule.getRepeatFields(), recordNews[i]);
+			if (repeatKey != null && !repeatKeys.add(repeatKey)) {
+				deferreds.add(row);
 				continue;
 			}
 
+			Record record;
 			try {
-				Record record = checkoutRecord(row);
-				if (record != null) {
-					record = Application.getEntityService(rule.getToEntity().getEntityCode()).createOrUpdate(record);
+				ID repeat = null;
+				if (repeatKey != null) {
+					repeat = repeateds == null
+							? getRepeatedRecordId(rule.getRepeatFields(), recordNews[i]) : repeateds.get(repeatKey);
+				}
+				record = checkoutRecord(recordNews[i], repeat);
+			} catch (Exception ex) {
+				LOG.error(row[0].getRowNo() + " > " + ex);
+				this.addCompleted();
+				continue;
+			}
+
+			if (record == null) {
+				this.addCompleted();
+			} else {
+				willSaves.add(new Object[] { row, record });
+			}
+		}
+
+		if (!willSaves.isEmpty()) {
+			final EntityService service = Application.getEntityService(rule.getToEntity().getEntityCode());
+			final TransactionStatus status = TransactionManual.newTransaction();
+			try {
+				for (Object[] o : willSaves) {
+					saveRecord(service, (Record) o[1]);
+				}
+				TransactionManual.commit(status);
+
+				for (int i = 0; i < willSaves.size(); i++) {
 					this.addSucceeded();
-					eachLogs.put(firstCell.getRowNo(), record.getPrimary());
+					this.addCompleted();
 				}
+
 			} catch (Exception ex) {
-				eachLogs.put(firstCell.getRowNo(), ex.getLocalizedMessage());
-				LOG.error(firstCell.getRowNo() + " > " + ex);
+				TransactionManual.rollback(status);
+				LOG.warn("Import batch failed, retry one by one : " + ex);
+
+				// 逐条重试以定位错误行
+				for (Object[] o : willSaves) {
+					importRow((Cell[]) o[0]);
+				}
 			}
-			this.addCompleted();
 		}
 
-		return this.getSucceeded();
+		for (Cell[] row : deferreds) {
+			importRow(row);
+		}
+	}
+
+	/**
+	 * 导入单行（单独事物）
+	 *
+	 * @param row
+	 */
+	private void importRow(Cell[] row) {
+		try {
+			Record record = checkoutRecord(row);
+			if (record != null) {
+				saveRecord(Application.getEntityService(rule.getToEntity().getEntityCode()), record);
+				this.addSucceeded();
+			}
+		} catch (Exception ex) {
+			LOG.error(row[0].getRowNo() + " > " + ex);
+		}
+		this.addCompleted();
+	}
+
+	/**
+	 * 写入记录
+	 *
+	 * @param service
+	 * @param record
+	 * @return
+	 */
+	protected Record saveRecord(EntityService service, Record record) {
+		return service.createOrUpdate(record);
 	}
 
 	@Override
@@ -106,42 +274,51 @@ public class DataImporter extends HeavyTask<Integer> {
 	}
 
 	/**
-	 * 获取错误日志（按错误行）
-	 *
+	 * @param row
 	 * @return
 	 */
-	public Map<Integer, Object> getEachLogs() {
-		return eachLogs;
+	protected Record checkoutRecord(Cell[] row) {
+		Record recordNew = newRecord(row, new RecordCheckout(rule.getFiledsMapping()));
+
+		ID repeat = null;
+		if (rule.getRepeatOpt() < ImportRule.REPEAT_OPT_IGNORE) {
+			repeat = getRepeatedRecordId(rule.getRepeatFields(), recordNew);
+		}
+		return checkoutRecord(recordNew, repeat);
 	}
-	
+
 	/**
 	 * @param row
+	 * @param recordCheckout
 	 * @return
 	 */
-	protected Record checkoutRecord(Cell[] row) {
+	private Record newRecord(Cell[] row, RecordCheckout recordCheckout) {
 		Record recordNew = EntityHelper.forNew(rule.getToEntity().getEntityCode(), this.owningUser);
+		return recordCheckout.checkout(recordNew, row);
+	}
+
+	/**
+	 * @param recordNew
+	 * @param repeat
+	 * @return
+	 */
+	private Record checkoutRecord(Record recordNew, ID repeat) {
+		Record record = recordNew;
 
-		// 新建
-		Record record = new RecordCheckout(rule.getFiledsMapping()).checkout(recordNew, row);
-		
 		// 检查重复
-		if (rule.getRepeatOpt() < ImportRule.REPEAT_OPT_IGNORE) {
-			final ID repeat = getRepeatedRecordId(rule.getRepeatFields(), recordNew);
-			
-			if (repeat != null && rule.getRepeatOpt() == ImportRule.REPEAT_OPT_SKIP) {
-				return null;
-			}
-			
-			if (repeat != null && rule.getRepeatOpt() == ImportRule.REPEAT_OPT_UPDATE) {
-				// 更新
-				record = EntityHelper.forUpdate(repeat, this.owningUser);
-				for (Iterator<String> iter = recordNew.getAvailableFieldIterator(); iter.hasNext(); ) {
-					String field = iter.next();
-					if (MetadataHelper.isCommonsField(field)) {
-						continue;
-					}
-					record.setObjectValue(field, recordNew.getObjectValue(field));
+		if (repeat != null && rule.getRepeatOpt() == ImportRule.REPEAT_OPT_SKIP) {
+			return null;
+		}
+
+		if (repeat != null && rule.getRepeatOpt() == ImportRule.REPEAT_OPT_UPDATE) {
+			// 更新
+			record = EntityHelper.forUpdate(repeat, this.owningUser);
+			for (Iterator<String> iter = recordNew.getAvailableFieldIterator(); iter.hasNext(); ) {
+				String field = iter.next();
+				if (MetadataHelper.isCommonsField(field)) {
+					continue;
 				}
+				record.setObjectValue(field, recordNew.getObjectValue(field));
 			}
 		}
 		
@@ -187,6 +364,110 @@ public class DataImporter extends HeavyTask<Integer> {
 		Object[] exists = query.unique();
 		return exists == null ? null : (ID) exists[0];
 	}
+
+	/**
+	 * 批量检查重复。按有值的重复字段分组，每组一次查询
+	 *
+	 * @param repeatFields
+	 * @param datas
+	 * @return [重复键, 记录 ID]
+	 * @see #getRepeatKey(Field[], Record)
+	 */
+	protected Map<String, ID> getRepeatedRecordIds(Field[] repeatFields, Record[] datas) {
+		// 有值的字段 > 记录
+		Map<List<String>, List<Record>> groups = new HashMap<>();
+		for (Record data : datas) {
+			if (data == null) {
+				continue;
+			}
+
+			List<String> hasValues = new ArrayList<>();
+			for (Field c : repeatFields) {
+				if (data.hasValue(c.getName())) {
+					hasValues.add(c.getName());
+				}
+			}
+			if (!hasValues.isEmpty()) {
+				groups.computeIfAbsent(hasValues, k -> new ArrayList<>()).add(data);
+			}
+		}
+
+		final Entity entity = rule.getToEntity();
+		final Map<String, ID> repeateds = new HashMap<>();
+		for (Map.Entry<List<String>, List<Record>> e : groups.entrySet()) {
+			final List<String> fields = e.getKey();
+
+			StringBuilder sql = new StringBuilder(String.format("select %s,%s from %s where (1=1)",
+					entity.getPrimaryField().getName(), StringUtils.join(fields, ","), entity.getName()));
+			Map<String, Object> params = new HashMap<>();
+			for (String c : fields) {
+				Set<String> distinct = new HashSet<>();
+				List<String> holders = new ArrayList<>();
+				for (Record data : e.getValue()) {
+					Object value = data.getObjectValue(c);
+					if (distinct.add(normalRepeatValue(value))) {
+						String holder = c + params.size();
+						params.put(holder, value);
+						holders.add(":" + holder);
+					}
+				}
+				sql.append(" and ").append(c).append(" in (").append(StringUtils.join(holders, ",")).append(")");
+			}
+
+			Query query = Application.createQueryNoFilter(sql.toString());
+			for (Map.Entry<String, Object> p : params.entrySet()) {
+				query.setParameter(p.getKey(), p.getValue());
+			}
+
+			// 各字段分别 IN 匹配，因此需在内存中按组合再次比对
+			for (Object[] o : query.array()) {
+				StringBuilder key = new StringBuilder();
+				for (int i = 0; i < fields.size(); i++) {
+					key.append(fields.get(i)).append('=').append(normalRepeatValue(o[i + 1])).append('\u0001');
+				}
+				repeateds.putIfAbsent(key.toString(), (ID) o[0]);
+			}
+		}
+		return repeateds;
+	}
+
+	/**
+	 * 重复键（仅含有值的重复字段）
+	 *
+	 * @param repeatFields
+	 * @param data
+	 * @return 不检查重复或无值返回 null
+	 */
+	private String getRepeatKey(Field[] repeatFields, Record data) {
+		if (rule.getRepeatOpt() >= ImportRule.REPEAT_OPT_IGNORE) {
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder();
+		for (Field c : repeatFields) {
+			if (data.hasValue(c.getName())) {
+				key.append(c.getName()).append('=').append(normalRepeatValue(data.getObjectValue(c.getName()))).append('\u0001');
+			}
+		}
+		return key.length() == 0 ? null : key.toString();
+	}
+
+	/**
+	 * 与数据库比较规则保持一致（忽略大小写及末尾空格）
+	 *
+	 * @param value
+	 * @return
+	 */
+	private String normalRepeatValue(Object value) {
+		if (value == null) {
+			return "";
+		} else if (value instanceof Date) {
+			return String.valueOf(((Date) value).getTime());
+		} else if (value instanceof Number) {
+			return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+		}
+		return StringUtils.stripEnd(value.toString(), " ").toLowerCase();
+	}
 	
 	// --
 	
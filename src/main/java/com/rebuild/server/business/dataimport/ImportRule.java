@@ -49,6 +49,11 @@ public class ImportRule {
 	public static final int REPEAT_OPT_UPDATE = 1;
 	public static final int REPEAT_OPT_SKIP = 2;
 	public static final int REPEAT_OPT_IGNORE = 3;
+
+	/**
+	 * 默认每批（每个事物）导入记录数
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 200;
 	
 	private File sourceFile;
 	private Entity toEntity;
@@ -60,6 +65,8 @@ public class ImportRule {
 
 	private Map<Field, Integer> filedsMapping;
 
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
 	/**
 	 * @param sourceFile
 	 * @param toEntity
@@ -102,6 +109,10 @@ public class ImportRule {
 		return filedsMapping;
 	}
 
+	public int getBatchSize() {
+		return batchSize;
+	}
+
 	// --
 
 	/**
@@ -157,6 +168,10 @@ public class ImportRule {
 			filedsMapping.put(entity.getField(e.getKey()), (Integer) e.getValue());
 		}
 		
-		return new ImportRule(file, entity, repeatOpt, repeatFields, ownUser, filedsMapping);
+		ImportRule importRule = new ImportRule(file, entity, repeatOpt, repeatFields, ownUser, filedsMapping);
+		if (rule.getIntValue("batch_size") > 0) {
+			importRule.batchSize = rule.getIntValue("batch_size");
+		}
+		return importRule;
 	}
 }
@@ -32,15 +32,19 @@ import com.rebuild.server.helper.state.StateManager;
 import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.metadata.entity.DisplayType;
 import com.rebuild.server.metadata.entity.EasyMeta;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 从 Cell[] 中解析结果 Record
@@ -52,8 +56,15 @@ public class RecordCheckout {
 
     private static final Log LOG = LogFactory.getLog(RecordCheckout.class);
 
+    // 每批查询的最大数量
+    private static final int BATCH_SIZE = 500;
+
     final private Map<Field, Integer> fieldsMapping;
 
+    // 预先解析的引用值 [引用字段, [名称（小写）, ID]]，仅有找到的。
+    // 数据库的比较规则（忽略大小写/重音/尾部空格等）与此不完全一致，未找到时需逐个查询
+    final private Map<Field, Map<String, ID>> referenceDicts = new HashMap<>();
+
     /**
      * @param fieldsMapping
      */
@@ -61,6 +72,91 @@ public class RecordCheckout {
         this.fieldsMapping = fieldsMapping;
     }
 
+    /**
+     * 批量预先解析引用字段（每个引用实体每批一次查询），之后 {@link #checkout(Record, Cell[])} 直接使用解析结果
+     *
+     * @param rows
+     * @return
+     */
+    protected RecordCheckout prefetchReferences(List<Cell[]> rows) {
+        for (Map.Entry<Field, Integer> e : this.fieldsMapping.entrySet()) {
+            final Field field = e.getKey();
+            if (EasyMeta.getDisplayType(field) != DisplayType.REFERENCE) {
+                continue;
+            }
+
+            final Entity refEntity = field.getReferenceEntity();
+            final int cellIndex = e.getValue();
+
+            Set<String> names = new HashSet<>();
+            for (Cell[] row : rows) {
+                if (cellIndex >= row.length) {
+                    continue;
+                }
+
+                String val = row[cellIndex].asString();
+                if (StringUtils.isBlank(val) || ID.isId(val)) {
+                    continue;
+                }
+                Object val2Text = checkoutFieldValue(refEntity.getNameField(), row[cellIndex], false);
+                // 仅处理文本名称字段
+                if (val2Text instanceof String) {
+                    names.add((String) val2Text);
+                }
+            }
+            if (names.isEmpty()) {
+                continue;
+            }
+
+            Map<String, ID> dict = new HashMap<>();
+            List<String> nameList = new ArrayList<>(names);
+            for (int i = 0; i < nameList.size(); i += BATCH_SIZE) {
+                List<String> slice = nameList.subList(i, Math.min(i + BATCH_SIZE, nameList.size()));
+                String in = "(" + StringUtils.join(Collections.nCopies(slice.size(), "?"), ",") + ")";
+
+                if (refEntity.getEntityCode() == EntityHelper.User) {
+                    Query query = Application.createQueryNoFilter(
+                            "select userId,loginName,email,fullName from User" +
+                                    " where loginName in " + in + " or email in " + in + " or fullName in " + in);
+                    int pIndex = 1;
+                    for (int k = 0; k < 3; k++) {
+                        for (String name : slice) {
+                            query.setParameter(pIndex++, name);
+                        }
+                    }
+
+                    for (Object[] o : query.array()) {
+                        for (int j = 1; j < o.length; j++) {
+                            putReference(dict, (String) o[j], (ID) o[0]);
+                        }
+                    }
+                } else {
+                    String sql = String.format("select %s,%s from %s where %s in %s",
+                            refEntity.getPrimaryField().getName(), refEntity.getNameField().getName(),
+                            refEntity.getName(), refEntity.getNameField().getName(), in);
+                    Query query = Application.createQueryNoFilter(sql);
+                    int pIndex = 1;
+                    for (String name : slice) {
+                        query.setParameter(pIndex++, name);
+                    }
+
+                    for (Object[] o : query.array()) {
+                        putReference(dict, (String) o[1], (ID) o[0]);
+                    }
+                }
+            }
+            referenceDicts.put(field, dict);
+        }
+        return this;
+    }
+
+    private void putReference(Map<String, ID> dict, String name, ID id) {
+        if (name == null) {
+            return;
+        }
+        dict.putIfAbsent(name.toLowerCase(), id);
+    }
+
     /**
      * @param row
      * @return
@@ -226,12 +322,20 @@ public class RecordCheckout {
             return null;
         }
 
+        // 已预先解析
+        Map<String, ID> dict = referenceDicts.get(field);
+        ID hit = dict == null ? null : dict.get(val2Text.toString().toLowerCase());
+        if (hit != null) {
+            return hit;
+        }
+
         Query query;
         if (refEntity.getEntityCode() == EntityHelper.User) {
-            String sql = MessageFormat.format(
-                    "select userId from User where loginName = ''{0}'' or email = ''{0}'' or fullName = ''{0}''",
-                    StringEscapeUtils.escapeSql(val2Text.toString()));
-            query = Application.createQueryNoFilter(sql);
+            query = Application.createQueryNoFilter(
+                    "select userId from User where loginName = ? or email = ? or fullName = ?")
+                    .setParameter(1, val2Text)
+                    .setParameter(2, val2Text)
+                    .setParameter(3, val2Text);
         } else {
             // 查找引用实体的名称字段
             String sql = String.format("select %s from %s where %s = ?",
@@ -42,6 +42,7 @@ public enum ActionType {
 	
 	private String displayName;
 	private Class<? extends TriggerAction> actionClazz;
+	private Constructor<? extends TriggerAction> actionConstructor;
 
 	ActionType(String displayName, Class<? extends TriggerAction> actionClazz) {
 		this.displayName = displayName;
@@ -68,7 +69,9 @@ public enum ActionType {
 	 * @throws NoSuchMethodException
 	 */
 	public TriggerAction newInstance(ActionContext context) throws NoSuchMethodException {
-		Constructor<? extends TriggerAction> c = getActionClazz().getConstructor(ActionContext.class);
-		return (TriggerAction) ReflectUtils.newInstance(c, new Object[] { context });
+		if (actionConstructor == null) {
+			actionConstructor = getActionClazz().getConstructor(ActionContext.class);
+		}
+		return (TriggerAction) ReflectUtils.newInstance(actionConstructor, new Object[] { context });
 	}
 }
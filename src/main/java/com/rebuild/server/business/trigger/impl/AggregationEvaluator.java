@@ -12,6 +12,7 @@ import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSONObject;
 import com.googlecode.aviator.AviatorEvaluator;
 import com.googlecode.aviator.AviatorEvaluatorInstance;
+import com.googlecode.aviator.Expression;
 import com.googlecode.aviator.Options;
 import com.googlecode.aviator.exception.ExpressionSyntaxErrorException;
 import com.rebuild.server.Application;
@@ -20,8 +21,14 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,7 +51,7 @@ public class AggregationEvaluator {
     }
 
     final private Entity sourceEntity;
-    final private JSONObject item;
+    final private List<JSONObject> items;
     final private String followSourceField;
     final private String filterSql;
 
@@ -55,8 +62,20 @@ public class AggregationEvaluator {
      * @param filterSql
      */
     protected AggregationEvaluator(JSONObject item, Entity sourceEntity, String followSourceField, String filterSql) {
+        this(Collections.singletonList(item), sourceEntity, followSourceField, filterSql);
+    }
+
+    /**
+     * 多个聚合项（同一源实体/关联字段/过滤条件）合并为一次查询
+     *
+     * @param items
+     * @param sourceEntity
+     * @param followSourceField
+     * @param filterSql
+     */
+    protected AggregationEvaluator(List<JSONObject> items, Entity sourceEntity, String followSourceField, String filterSql) {
         this.sourceEntity = sourceEntity;
-        this.item = item;
+        this.items = items;
         this.followSourceField = followSourceField;
         this.filterSql = filterSql;
     }
@@ -66,24 +85,45 @@ public class AggregationEvaluator {
      * @return
      */
     public Object eval(ID triggerRecord) {
-        String calcMode = item.getString("calcMode");
-        if ("FORMULA".equalsIgnoreCase(calcMode)) {
-            return evalFormula(triggerRecord);
-        }
+        return evalAll(triggerRecord)[0];
+    }
 
-        String sourceField = item.getString("sourceField");
-        if (MetadataHelper.getLastJoinField(sourceEntity, sourceField) == null) {
-            return null;
+    /**
+     * @param triggerRecord
+     * @return 与聚合项顺序对应，无效项为 null
+     */
+    public Object[] evalAll(ID triggerRecord) {
+        // 查询列 > 列索引
+        final Map<String, Integer> columns = new LinkedHashMap<>();
+        // 聚合项 > 所用列（公式可能有多个）
+        final List<List<String>> itemColumns = new ArrayList<>();
+
+        for (JSONObject item : items) {
+            List<String> used = new ArrayList<>();
+            if ("FORMULA".equalsIgnoreCase(item.getString("calcMode"))) {
+                for (String[] field : getFormulaFields(item.getString("sourceFormula"))) {
+                    used.add(field.length == 2 ? String.format("%s(%s)", field[1], field[0]) : field[0]);
+                }
+            } else {
+                String column = getAggregateColumn(item);
+                if (column != null) {
+                    used.add(column);
+                }
+            }
+
+            for (String c : used) {
+                columns.putIfAbsent(c, columns.size());
+            }
+            itemColumns.add(used);
         }
 
-        String funcAndField = String.format("%s(%s)", calcMode, sourceField);
-        // 去重计数
-        if ("COUNT2".equalsIgnoreCase(calcMode)) {
-            funcAndField = String.format("COUNT(DISTINCT %s)", sourceField);
+        final Object[] evals = new Object[items.size()];
+        if (columns.isEmpty()) {
+            return evals;
         }
 
         String sql = String.format("select %s from %s where %s = ?",
-                funcAndField, sourceEntity.getName(), followSourceField);
+                StringUtils.join(columns.keySet(), ","), sourceEntity.getName(), followSourceField);
         if (filterSql != null) {
             sql += " and " + filterSql;
         }
@@ -91,66 +131,105 @@ public class AggregationEvaluator {
         Object[] o = Application.createQueryNoFilter(sql)
                 .setParameter(1, triggerRecord)
                 .unique();
-        return o == null || o[0] == null ? 0 : o[0];
+
+        for (int i = 0; i < items.size(); i++) {
+            JSONObject item = items.get(i);
+            List<String> used = itemColumns.get(i);
+            if (used.isEmpty()) {
+                continue;
+            }
+
+            if ("FORMULA".equalsIgnoreCase(item.getString("calcMode"))) {
+                if (o != null) {
+                    evals[i] = evalFormula(item.getString("sourceFormula"), used, columns, o);
+                }
+            } else {
+                Object v = o == null ? null : o[columns.get(used.get(0))];
+                evals[i] = v == null ? 0 : v;
+            }
+        }
+        return evals;
     }
 
     /**
-     * @param triggerRecord
+     * @param item
      * @return
      */
-    private Object evalFormula(ID triggerRecord) {
-        String formula = item.getString("sourceFormula");
-        Matcher m = FIELD_PATT.matcher(formula);
+    private String getAggregateColumn(JSONObject item) {
+        String calcMode = item.getString("calcMode");
+        String sourceField = item.getString("sourceField");
+        if (MetadataHelper.getLastJoinField(sourceEntity, sourceField) == null) {
+            return null;
+        }
 
+        // 去重计数
+        if ("COUNT2".equalsIgnoreCase(calcMode)) {
+            return String.format("COUNT(DISTINCT %s)", sourceField);
+        }
+        return String.format("%s(%s)", calcMode, sourceField);
+    }
+
+    /**
+     * @param formula
+     * @return [field, func]
+     */
+    private List<String[]> getFormulaFields(String formula) {
         final List<String[]> fields = new ArrayList<>();
+        Matcher m = FIELD_PATT.matcher(formula);
         while (m.find()) {
             String[] fieldAndFunc = m.group(1).split("\\$\\$\\$\\$");
             if (MetadataHelper.getLastJoinField(sourceEntity, fieldAndFunc[0]) != null) {
                 fields.add(fieldAndFunc);
             }
         }
-        if (fields.isEmpty()) {
-            return null;
-        }
-
-        StringBuilder sql = new StringBuilder("select ");
-        for (String[] field : fields) {
-            if (field.length == 2) {
-                sql.append(String.format("%s(%s)", field[1], field[0]));
-            } else {
-                sql.append(field[0]);
-            }
-            sql.append(',');
-        }
-        sql.deleteCharAt(sql.length() - 1)
-                .append(" from ").append(sourceEntity.getName())
-                .append(" where ").append(followSourceField).append(" = ?");
-        if (filterSql != null) {
-            sql.append(" and ").append(filterSql);
-        }
+        return fields;
+    }
 
-        Object[] o = Application.createQueryNoFilter(sql.toString())
-                .setParameter(1, triggerRecord)
-                .unique();
-        if (o == null) {
-            return null;
-        }
+    /**
+     * @param formula
+     * @param used
+     * @param columns
+     * @param values
+     * @return
+     */
+    private Object evalFormula(String formula, List<String> used, Map<String, Integer> columns, Object[] values) {
+        final List<String[]> fields = getFormulaFields(formula);
 
+        // 字段替换为变量（V_列索引），编译后缓存
         String newFormual = formula.toUpperCase()
                 .replace("×", "*")
                 .replace("÷", "/");
+        Map<String, Object> env = new HashMap<>();
         for (int i = 0; i < fields.size(); i++) {
-            String[] field = fields.get(i);
-            Object v = o[i] == null ? "0" : o[i];
-            String replace = "{" + StringUtils.join(field, "$$$$") + "}";
-            newFormual = newFormual.replace(replace.toUpperCase(), v.toString());
+            int index = columns.get(used.get(i));
+            String var = "V_" + index;
+            String replace = "{" + StringUtils.join(fields.get(i), "$$$$") + "}";
+            newFormual = newFormual.replace(replace.toUpperCase(), var);
+            env.put(var, toNumber(values[index]));
         }
 
         try {
-            return AVIATOR.execute(newFormual);
+            Expression expr = AVIATOR.compile(newFormual, true);
+            return expr.execute(env);
         } catch (ExpressionSyntaxErrorException ex) {
             LOG.error("Bad formula : " + formula + " > " + newFormual, ex);
             return null;
         }
     }
+
+    /**
+     * 与直接替换为字面量时保持一致（整数为 long，小数为 decimal）
+     *
+     * @param value
+     * @return
+     */
+    private Object toNumber(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof BigInteger) {
+            return ((Number) value).longValue();
+        }
+        return new BigDecimal(value.toString());
+    }
 }
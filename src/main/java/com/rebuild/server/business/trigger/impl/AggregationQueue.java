@@ -0,0 +1,164 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.trigger.impl;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.alibaba.fastjson.JSON;
+import com.rebuild.server.Application;
+import com.rebuild.utils.JSONUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步聚合队列。
+ * 同一触发器对同一目标记录的多次触发会合并，在静默 {@link #COALESCE_WINDOW} 毫秒后（或最长等待 {@link #MAX_DELAY} 毫秒）只计算一次。
+ * 注意：队列仅存在于本节点内存中，重启会丢失未计算的目标记录
+ *
+ * @author devezhao
+ * @since 2020/09/01
+ * @see FieldAggregation
+ */
+public class AggregationQueue {
+
+    private static final Log LOG = LogFactory.getLog(AggregationQueue.class);
+
+    /**
+     * 合并窗口（毫秒）
+     */
+    public static final long COALESCE_WINDOW = 2000;
+    /**
+     * 最长等待（毫秒），避免持续触发时永不计算
+     */
+    public static final long MAX_DELAY = 30 * 1000;
+
+    public static final AggregationQueue instance = new AggregationQueue();
+
+    // [configId:targetRecordId] > 待计算
+    final private Map<String, Pending> pendings = new ConcurrentHashMap<>();
+
+    final private AtomicLong offered = new AtomicLong();
+    final private AtomicLong executed = new AtomicLong();
+    final private AtomicLong failed = new AtomicLong();
+    private volatile long lastExecutedLag = 0;
+
+    private AggregationQueue() {
+        ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AggregationQueue");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.scheduleWithFixedDelay(this::drain, 500, 500, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 加入队列（已准备好的聚合）
+     *
+     * @param action
+     * @param operator
+     * @param depth 触发链深度
+     */
+    protected void offer(FieldAggregation action, ID operator, int depth) {
+        offered.incrementAndGet();
+
+        final String key = action.context.getConfigId() + ":" + action.targetRecordId;
+        final long now = System.currentTimeMillis();
+        pendings.compute(key, (k, p) -> {
+            if (p == null) {
+                return new Pending(action, operator, depth, now);
+            }
+            p.operator = operator;
+            p.depth = Math.max(p.depth, depth);
+            p.lastOffered = now;
+            return p;
+        });
+    }
+
+    /**
+     * 执行到期的聚合
+     */
+    private void drain() {
+        final long now = System.currentTimeMillis();
+
+        List<Pending> dues = new ArrayList<>();
+        for (Map.Entry<String, Pending> e : pendings.entrySet()) {
+            Pending p = e.getValue();
+            if (now - p.lastOffered >= COALESCE_WINDOW || now - p.firstOffered >= MAX_DELAY) {
+                if (pendings.remove(e.getKey(), p)) {
+                    dues.add(p);
+                }
+            }
+        }
+
+        for (Pending p : dues) {
+            // 异步计算引起的连锁触发同样受深度限制，否则循环触发时永不停止
+            if (p.depth > p.action.getMaxTriggerDepth()) {
+                failed.incrementAndGet();
+                LOG.error("Too many trigger-chain with triggers : " + p.depth + ", dropped : " + p.action.targetRecordId);
+                p.action.clean();
+                continue;
+            }
+
+            Application.getSessionStore().set(p.operator);
+            try {
+                p.action.aggregate(p.depth);
+                executed.incrementAndGet();
+            } catch (Exception ex) {
+                failed.incrementAndGet();
+                LOG.error("Async aggregation failed : " + p.action.targetRecordId, ex);
+            } finally {
+                p.action.clean();
+                Application.getSessionStore().clean();
+            }
+            lastExecutedLag = System.currentTimeMillis() - p.firstOffered;
+        }
+    }
+
+    /**
+     * 队列状态
+     *
+     * @return
+     */
+    public JSON getStats() {
+        final long now = System.currentTimeMillis();
+        long oldest = now;
+        for (Pending p : pendings.values()) {
+            oldest = Math.min(oldest, p.firstOffered);
+        }
+
+        return JSONUtils.toJSONObject(
+                new String[] { "depth", "lag", "lastLag", "offered", "executed", "failed" },
+                new Object[] { pendings.size(), now - oldest, lastExecutedLag, offered.get(), executed.get(), failed.get() });
+    }
+
+    // --
+
+    private static class Pending {
+        final FieldAggregation action;
+        final long firstOffered;
+        volatile ID operator;
+        volatile int depth;
+        volatile long lastOffered;
+
+        Pending(FieldAggregation action, ID operator, int depth, long offered) {
+            this.action = action;
+            this.operator = operator;
+            this.depth = depth;
+            this.firstOffered = offered;
+            this.lastOffered = offered;
+        }
+    }
+}
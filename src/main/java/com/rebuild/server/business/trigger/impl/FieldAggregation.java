@@ -30,6 +30,9 @@ import com.rebuild.server.service.query.AdvFilterParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 字段归集可能存在的问题。
  * - 目标记录可能不允许修改（如审批已完成），此时会抛出异常
@@ -112,6 +115,21 @@ public class FieldAggregation implements TriggerAction {
 		    return;
 		}
 
+		// 异步执行，合并短时间内的重复计算
+		if (isAsync()) {
+			AggregationQueue.instance.offer(this, operatingContext.getOperator(), depth);
+			return;
+		}
+
+		aggregate(depth);
+	}
+
+	/**
+	 * 计算并更新目标记录
+	 *
+	 * @param depth 触发链深度
+	 */
+	protected void aggregate(int depth) {
 		// 聚合数据过滤
         JSONObject dataFilter = ((JSONObject) context.getActionContent()).getJSONObject("dataFilter");
 		String dataFilterSql = null;
@@ -129,34 +147,69 @@ public class FieldAggregation implements TriggerAction {
 			}
 
 			// 会关联触发下一触发器（如有）
+			final Integer parentDepth = TRIGGER_CHAIN_DEPTH.get();
 			TRIGGER_CHAIN_DEPTH.set(depth + 1);
-			if (MetadataHelper.hasPrivilegesField(targetEntity)) {
-				Application.getEntityService(targetEntity.getEntityCode()).update(targetRecord);
-			} else {
-				Application.getService(targetEntity.getEntityCode()).update(targetRecord);
+			try {
+				if (MetadataHelper.hasPrivilegesField(targetEntity)) {
+					Application.getEntityService(targetEntity.getEntityCode()).update(targetRecord);
+				} else {
+					Application.getService(targetEntity.getEntityCode()).update(targetRecord);
+				}
+			} finally {
+				// 异步时在队列线程中执行，不能残留
+				if (parentDepth == null) {
+					TRIGGER_CHAIN_DEPTH.remove();
+				} else {
+					TRIGGER_CHAIN_DEPTH.set(parentDepth);
+				}
 			}
 		}
 	}
 
+	/**
+	 * @return
+	 */
+	protected int getMaxTriggerDepth() {
+		return maxTriggerDepth;
+	}
+
+	/**
+	 * 是否异步执行
+	 *
+	 * @return
+	 */
+	protected boolean isAsync() {
+		return ((JSONObject) context.getActionContent()).getBooleanValue("async");
+	}
+
     /**
      * @param record
      * @param dataFilterSql
      */
 	protected void buildTargetRecord(Record record, String dataFilterSql) {
         JSONArray items = ((JSONObject) context.getActionContent()).getJSONArray("items");
+        List<JSONObject> validItems = new ArrayList<>();
         for (Object o : items) {
             JSONObject item = (JSONObject) o;
-            String targetField = item.getString("targetField");
-            if (!MetadataHelper.checkAndWarnField(targetEntity, targetField)) {
-                continue;
+            if (MetadataHelper.checkAndWarnField(targetEntity, item.getString("targetField"))) {
+                validItems.add(item);
             }
+        }
+        if (validItems.isEmpty()) {
+            return;
+        }
+
+        // 一次查询计算所有聚合项
+        Object[] evalValues = new AggregationEvaluator(validItems, sourceEntity, followSourceField, dataFilterSql)
+                .evalAll(targetRecordId);
 
-            Object evalValue = new AggregationEvaluator(item, sourceEntity, followSourceField, dataFilterSql)
-                    .eval(targetRecordId);
+        for (int i = 0; i < validItems.size(); i++) {
+            Object evalValue = evalValues[i];
             if (evalValue == null) {
                 continue;
             }
 
+            String targetField = validItems.get(i).getString("targetField");
             DisplayType dt = EasyMeta.getDisplayType(targetEntity.getField(targetField));
             if (dt == DisplayType.NUMBER) {
                 record.setLong(targetField, ObjectUtils.toLong(evalValue));
@@ -7,7 +7,12 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.configuration;
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
 import com.rebuild.server.Application;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * API 鉴权参数
@@ -20,6 +25,8 @@ public class RebuildApiManager implements ConfigManager {
     public static final RebuildApiManager instance = new RebuildApiManager();
     private RebuildApiManager() {}
 
+    private static final Log LOG = LogFactory.getLog(RebuildApiManager.class);
+
     private static final String CKEY_PREFIX = "RebuildApiManager-";
 
     /**
@@ -34,16 +41,27 @@ public class RebuildApiManager implements ConfigManager {
         }
 
          Object[] o = Application.createQueryNoFilter(
-                "select appSecret,bindUser,bindIps from RebuildApi where appId = ?")
+                "select appSecret,bindUser,bindIps,extraDefinition from RebuildApi where appId = ?")
                  .setParameter(1, appid)
                  .unique();
         if (o == null) return null;
 
+        // 配置有误时忽略（结果会被缓存，因此仅记录一次）
+        JSONObject extraDefinition = null;
+        if (o[3] != null) {
+            try {
+                extraDefinition = JSON.parseObject((String) o[3]);
+            } catch (JSONException ex) {
+                LOG.error("Bad extraDefinition of API : " + appid + " > " + o[3]);
+            }
+        }
+
         config = new ConfigEntry()
                 .set("appId", appid)
                 .set("appSecret", o[0])
                 .set("bindUser", o[1])
-                .set("bindIps", o[2]);
+                .set("bindIps", o[2])
+                .set("extraDefinition", extraDefinition);
         Application.getCommonCache().putx(ckey, config);
         return config;
     }
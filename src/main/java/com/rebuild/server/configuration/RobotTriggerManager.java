@@ -7,9 +7,12 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.configuration;
 
+import cn.devezhao.commons.CodecUtils;
+import cn.devezhao.commons.ObjectUtils;
 import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.rebuild.server.Application;
 import com.rebuild.server.business.trigger.ActionContext;
@@ -19,16 +22,23 @@ import com.rebuild.server.business.trigger.TriggerAction;
 import com.rebuild.server.business.trigger.TriggerWhen;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.service.query.AdvFilterParser;
+import com.rebuild.server.service.query.ParserTokens;
 import org.apache.commons.collections4.map.CaseInsensitiveMap;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 触发器管理
@@ -38,9 +48,19 @@ import java.util.Set;
  */
 public class RobotTriggerManager implements ConfigManager {
 
+	private static final Log LOG = LogFactory.getLog(RobotTriggerManager.class);
+
 	public static final RobotTriggerManager instance = new RobotTriggerManager();
 	private RobotTriggerManager() {}
 
+	private static final String CKEY_VERSION = "RobotTriggerManager-V-";
+
+	// 本节点检查配置版本的间隔（毫秒）。本节点的变化会立即生效，其他节点的变化最多延迟此时间
+	private static final long VERSION_CHECK_INTERVAL = 2000;
+
+	// 本节点编译好的触发器（按实体）。配置变化时整体替换
+	private static final Map<String, TriggerPipeline> PIPELINEs = new ConcurrentHashMap<>();
+
 	/**
 	 * @param record
 	 * @param when
@@ -66,60 +86,149 @@ public class RobotTriggerManager implements ConfigManager {
 	 * @return
 	 */
 	private TriggerAction[] filterActions(Entity entity, ID record, TriggerWhen... when) {
-		final List<ConfigEntry> entries = getConfig(entity);
+		final TriggerPipeline pipeline = getPipeline(entity);
+
+		List<CompiledTrigger> matchs = new ArrayList<>();
+		for (CompiledTrigger t : pipeline.triggers) {
+			if (t.allowedWhen(when)) {
+				matchs.add(t);
+			}
+		}
+		if (matchs.isEmpty()) {
+			return new TriggerAction[0];
+		}
+
+		boolean[] filtered = record == null ? new boolean[matchs.size()] : evalFilters(pipeline, matchs, record);
+
 		List<TriggerAction> actions = new ArrayList<>();
-		for (ConfigEntry e : entries) {
-			if (allowedWhen(e, when)) {
-				if (record == null || !isFiltered((JSONObject) e.getJSON("whenFilter"), record)) {
-					ActionContext ctx = new ActionContext(record, entity, e.getJSON("actionContent"), e.getID("id"));
-					TriggerAction o = ActionFactory.createAction(e.getString("actionType"), ctx);
-					actions.add(o);
-				}
+		for (int i = 0; i < matchs.size(); i++) {
+			if (!filtered[i]) {
+				actions.add(matchs.get(i).newAction(record, entity));
 			}
 		}
 		return actions.toArray(new TriggerAction[0]);
 	}
-	
+
 	/**
-	 * 允许的动作
-	 * 
-	 * @param entry
-	 * @param when
-	 * @return
+	 * 在一条 SQL 中计算所有 `whenFilter`（每个触发器一个 CASE 列）
+	 *
+	 * @param pipeline
+	 * @param triggers
+	 * @param record
+	 * @return 被过滤的返回 true
 	 */
-	private boolean allowedWhen(ConfigEntry entry, TriggerWhen... when) {
-		if (when.length == 0) {
-			return true;
+	private boolean[] evalFilters(TriggerPipeline pipeline, List<CompiledTrigger> triggers, ID record) {
+		final boolean[] filtered = new boolean[triggers.size()];
+
+		List<String> cases = new ArrayList<>();
+		List<Integer> casesIndex = new ArrayList<>();
+		for (int i = 0; i < triggers.size(); i++) {
+			String sqlWhere = triggers.get(i).getSqlWhere();
+			if (sqlWhere != null) {
+				cases.add(String.format("(case when (%s) then 1 else 0 end)", sqlWhere));
+				casesIndex.add(i);
+			}
+		}
+		if (cases.isEmpty()) {
+			return filtered;
+		}
+
+		Object[] matchs = null;
+		if (pipeline.caseSupported) {
+			String sql = MessageFormat.format("select {0} from {1} where {2} = ?",
+					StringUtils.join(cases, ","), pipeline.entity.getName(), pipeline.entity.getPrimaryField().getName());
+			try {
+				matchs = Application.createQueryNoFilter(sql).setParameter(1, record).unique();
+				if (matchs == null) {
+					matchs = new Object[cases.size()];
+				}
+			} catch (Exception ex) {
+				// 本次逐个计算。仅语法错误时此管道（重新编译前）不再合并计算
+				if (isSyntaxError(ex)) {
+					pipeline.caseSupported = false;
+				}
+				LOG.warn("Cannot evaluate trigger filters in one query, evaluating one by one : " + ex.getLocalizedMessage());
+			}
+		}
+
+		for (int i = 0; i < casesIndex.size(); i++) {
+			boolean match = matchs != null
+					? ObjectUtils.toInt(matchs[i]) == 1 : isMatchs(pipeline.entity, triggers.get(casesIndex.get(i)), record);
+			filtered[casesIndex.get(i)] = !match;
 		}
-		int whenMask = entry.getInteger("when");
-		for (TriggerWhen w : when) {
-			if ((whenMask & w.getMaskValue()) != 0) {
+		return filtered;
+	}
+
+	/**
+	 * 是否 SQL 语法错误（会被 persist4j/Spring 包装，因此需检查整个异常链）
+	 *
+	 * @param ex
+	 * @return
+	 */
+	static boolean isSyntaxError(Throwable ex) {
+		Set<Throwable> seen = new HashSet<>();
+		while (ex != null && seen.add(ex)) {
+			if (ex instanceof SQLSyntaxErrorException) {
+				return true;
+			}
+			// SQLState 42xxx : Syntax error or access rule violation
+			if (ex instanceof SQLException && StringUtils.startsWith(((SQLException) ex).getSQLState(), "42")) {
+				return true;
+			}
+			if (StringUtils.containsIgnoreCase(ex.getMessage(), "SQL syntax")) {
 				return true;
 			}
+			ex = ex.getCause();
 		}
 		return false;
 	}
-	
+
 	/**
-	 * 是否过滤
-	 * 
-	 * @param whenFilter
+	 * @param entity
+	 * @param trigger
 	 * @param record
 	 * @return
 	 */
-	private boolean isFiltered(JSONObject whenFilter, ID record) {
-		if (whenFilter == null || whenFilter.isEmpty()) {
-			return false;
-		}
-		
-		Entity entity = MetadataHelper.getEntity(record.getEntityCode());
-		AdvFilterParser filterParser = new AdvFilterParser(whenFilter);
-		String sqlWhere = StringUtils.defaultIfBlank(filterParser.toSqlWhere(), "1=1");
+	private boolean isMatchs(Entity entity, CompiledTrigger trigger, ID record) {
 		String sql = MessageFormat.format(
 				"select {0} from {1} where {0} = ? and {2}",
-				entity.getPrimaryField().getName(), entity.getName(), sqlWhere);
-		Object matchs = Application.createQueryNoFilter(sql).setParameter(1, record).unique();
-		return matchs == null;
+				entity.getPrimaryField().getName(), entity.getName(), trigger.getSqlWhere());
+		return Application.createQueryNoFilter(sql).setParameter(1, record).unique() != null;
+	}
+
+	/**
+	 * 获取本节点编译好的触发器（配置版本变化后重新编译）
+	 *
+	 * @param entity
+	 * @return
+	 */
+	private TriggerPipeline getPipeline(Entity entity) {
+		TriggerPipeline pipeline = PIPELINEs.get(entity.getName());
+		// 短时间内不再检查版本，以免每次都访问缓存
+		if (pipeline != null && System.currentTimeMillis() - pipeline.versionCheckedAt < VERSION_CHECK_INTERVAL) {
+			return pipeline;
+		}
+
+		final String vKey = CKEY_VERSION + entity.getName();
+		String version = Application.getCommonCache().get(vKey);
+
+		if (pipeline != null && pipeline.version.equals(version)) {
+			pipeline.versionCheckedAt = System.currentTimeMillis();
+			return pipeline;
+		}
+
+		if (version == null) {
+			version = CodecUtils.randomCode(20);
+			Application.getCommonCache().put(vKey, version);
+		}
+
+		List<CompiledTrigger> triggers = new ArrayList<>();
+		for (ConfigEntry e : getConfig(entity)) {
+			triggers.add(new CompiledTrigger(e));
+		}
+		pipeline = new TriggerPipeline(entity, version, triggers);
+		PIPELINEs.put(entity.getName(), pipeline);
+		return pipeline;
 	}
 	
 	/**
@@ -157,9 +266,11 @@ public class RobotTriggerManager implements ConfigManager {
 	
 	@Override
 	public void clean(Object entity) {
-		final String cKey = "RobotTriggerManager-" + ((Entity) entity).getName();
-		Application.getCommonCache().evict(cKey);
+		final String entityName = ((Entity) entity).getName();
+		Application.getCommonCache().evict("RobotTriggerManager-" + entityName);
+		Application.getCommonCache().evict(CKEY_VERSION + entityName);
 		Application.getCommonCache().evict(CKEY_TARF);
+		PIPELINEs.remove(entityName);
 	}
 
     private static final String CKEY_TARF = "TriggersAutoReadonlyFields";
@@ -208,4 +319,121 @@ public class RobotTriggerManager implements ConfigManager {
         Application.getCommonCache().putx(CKEY_TARF, fieldsMap);
         return fieldsMap;
     }
+
+	// --
+
+	/**
+	 * 实体的触发器（不可变）
+	 */
+	private static class TriggerPipeline {
+		final Entity entity;
+		final String version;
+		final List<CompiledTrigger> triggers;
+
+		// 数据库是否支持 CASE 合并计算过滤条件（重新编译时重置）
+		volatile boolean caseSupported = true;
+		// 最近一次确认版本的时间
+		volatile long versionCheckedAt = System.currentTimeMillis();
+
+		TriggerPipeline(Entity entity, String version, List<CompiledTrigger> triggers) {
+			this.entity = entity;
+			this.version = version;
+			this.triggers = Collections.unmodifiableList(triggers);
+		}
+	}
+
+	/**
+	 * 编译好的触发器
+	 */
+	private static class CompiledTrigger {
+		// 含有日期/当前用户的条件每次都要重新解析
+		static final Set<String> VOLATILE_OPS = new HashSet<>(Arrays.asList(
+				ParserTokens.TDA, ParserTokens.YTA, ParserTokens.TTA,
+				ParserTokens.CUW, ParserTokens.CUM, ParserTokens.CUQ, ParserTokens.CUY,
+				ParserTokens.BFD, ParserTokens.BFM, ParserTokens.BFY,
+				ParserTokens.AFD, ParserTokens.AFM, ParserTokens.AFY,
+				ParserTokens.RED, ParserTokens.REM, ParserTokens.REY,
+				ParserTokens.SFU, ParserTokens.SFB, ParserTokens.SFD));
+
+		final int whenMask;
+		final ActionType actionType;
+		final JSON actionContent;
+		final ID configId;
+
+		final JSONObject whenFilter;
+		final boolean volatileFilter;
+		final String sqlWhere;
+
+		CompiledTrigger(ConfigEntry entry) {
+			this.whenMask = entry.getInteger("when");
+			this.actionType = ActionType.valueOf(entry.getString("actionType"));
+			this.actionContent = entry.getJSON("actionContent");
+			this.configId = entry.getID("id");
+
+			JSONObject filter = (JSONObject) entry.getJSON("whenFilter");
+			if (filter == null || filter.isEmpty()) {
+				this.whenFilter = null;
+				this.volatileFilter = false;
+				this.sqlWhere = null;
+			} else {
+				this.whenFilter = filter;
+				this.volatileFilter = isVolatile(filter);
+				this.sqlWhere = this.volatileFilter ? null : parseFilter(filter);
+			}
+		}
+
+		/**
+		 * @param when
+		 * @return
+		 */
+		boolean allowedWhen(TriggerWhen... when) {
+			if (when.length == 0) {
+				return true;
+			}
+			for (TriggerWhen w : when) {
+				if ((whenMask & w.getMaskValue()) != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return 无过滤条件返回 null
+		 */
+		String getSqlWhere() {
+			if (whenFilter == null) {
+				return null;
+			}
+			return volatileFilter ? parseFilter(whenFilter) : sqlWhere;
+		}
+
+		/**
+		 * @param record
+		 * @param entity
+		 * @return
+		 */
+		TriggerAction newAction(ID record, Entity entity) {
+			return ActionFactory.createAction(actionType, new ActionContext(record, entity, actionContent, configId));
+		}
+
+		static String parseFilter(JSONObject filter) {
+			AdvFilterParser filterParser = new AdvFilterParser(filter);
+			return StringUtils.defaultIfBlank(filterParser.toSqlWhere(), "1=1");
+		}
+
+		static boolean isVolatile(JSONObject filter) {
+			JSONArray items = filter.getJSONArray("items");
+			if (items == null) {
+				return false;
+			}
+			for (Object o : items) {
+				String op = ((JSONObject) o).getString("op");
+				if (op != null && VOLATILE_OPS.contains(op.toUpperCase())) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
 }
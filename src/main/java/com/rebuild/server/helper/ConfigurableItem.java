@@ -74,6 +74,17 @@ public enum ConfigurableItem {
 	// 允许同一用户多个会话
 	MultipleSessions(true),
 
+	// 图表数据缓存的最大过期时间（秒），用于变更频繁的实体。格式为 `实体:秒数`，多个用逗号分隔
+	ChartCacheMaxStale,
+
+	// API 限流（令牌桶），格式为 `每秒令牌数/桶容量`。按 IP
+	ApiRateLimitIp("200/200"),
+	// API 限流，按 APPID（APP 未单独配置时使用，为空则不限）
+	ApiRateLimitApp,
+
+	// 启用全文索引（用于引用字段搜索）的实体，多个用逗号分隔
+	FullTextIndexEntities,
+
 	;
 	
 	private Object defaultVal;
@@ -29,6 +29,11 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 缓存模板
@@ -50,6 +55,10 @@ public abstract class BaseCacheTemplate<V extends Serializable> implements Cache
 
 	final private String keyPrefix;
 
+	// 一级缓存（可选，仅使用 redis 时）。回填需要 redis 驱动读取剩余存活时间
+	final private NearCache nearCache;
+	final private JedisCacheDriver<V> jedisDriver;
+
 	/**
 	 * @param jedisPool
 	 * @param backup The ehcache for backup
@@ -58,9 +67,13 @@ public abstract class BaseCacheTemplate<V extends Serializable> implements Cache
 	protected BaseCacheTemplate(JedisPool jedisPool, CacheManager backup, String keyPrefix) {
 		this.useRedis = testJedisPool(jedisPool);
 		if (this.useRedis) {
-			this.delegate = new JedisCacheDriver<>(jedisPool);
+			this.jedisDriver = new JedisCacheDriver<>(jedisPool);
+			this.delegate = this.jedisDriver;
+			this.nearCache = NearCache.getInstance(jedisPool);
 		} else {
+			this.jedisDriver = null;
 			this.delegate = new EhcacheDriver<>(backup);
+			this.nearCache = null;
 		}
 
 		String fix = StringUtils.defaultIfBlank(System.getProperty("cache.keyprefix"), "RB.");
@@ -69,7 +82,23 @@ public abstract class BaseCacheTemplate<V extends Serializable> implements Cache
 	
 	@Override
 	public String get(String key) {
-		return delegate.get(unityKey(key));
+		final String ukey = unityKey(key);
+		if (nearCache == null) {
+			return delegate.get(ukey);
+		}
+
+		Object hit = nearCache.get(ukey, statsBucket(key));
+		if (hit instanceof String) {
+			return (String) hit;
+		}
+
+		final long epoch = nearCache.epoch(ukey);
+		Object[] valueAndTtl = jedisDriver.getWithTtl(ukey, false);
+		if (valueAndTtl == null) {
+			return null;
+		}
+		nearCache.fill(ukey, valueAndTtl[0], (Long) valueAndTtl[1], statsBucket(key), epoch);
+		return (String) valueAndTtl[0];
 	}
 
 	@Override
@@ -83,12 +112,35 @@ public abstract class BaseCacheTemplate<V extends Serializable> implements Cache
 			LOG.warn("Can't set `" + key + "` to null");
 			return;
 		}
-		delegate.put(unityKey(key), value, seconds);
+		final String ukey = unityKey(key);
+		delegate.put(ukey, value, seconds);
+
+		if (nearCache != null) {
+			nearCache.invalidate(ukey);
+			nearCache.put(ukey, value, seconds, statsBucket(key));
+		}
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public V getx(String key) {
-		return delegate.getx(unityKey(key));
+		final String ukey = unityKey(key);
+		if (nearCache == null) {
+			return delegate.getx(ukey);
+		}
+
+		Object hit = nearCache.get(ukey, statsBucket(key));
+		if (hit != null) {
+			return (V) hit;
+		}
+
+		final long epoch = nearCache.epoch(ukey);
+		Object[] valueAndTtl = jedisDriver.getWithTtl(ukey, true);
+		if (valueAndTtl == null) {
+			return null;
+		}
+		nearCache.fill(ukey, valueAndTtl[0], (Long) valueAndTtl[1], statsBucket(key), epoch);
+		return (V) valueAndTtl[0];
 	}
 
 	@Override
@@ -102,12 +154,111 @@ public abstract class BaseCacheTemplate<V extends Serializable> implements Cache
 			LOG.warn("Can't set `" + key + "` to null");
 			return;
 		}
-		delegate.putx(unityKey(key), value, seconds);
+		final String ukey = unityKey(key);
+		delegate.putx(ukey, value, seconds);
+
+		if (nearCache != null) {
+			nearCache.invalidate(ukey);
+			nearCache.put(ukey, value, seconds, statsBucket(key));
+		}
 	}
 
 	@Override
 	public void evict(String key) {
-		delegate.evict(unityKey(key));
+		final String ukey = unityKey(key);
+		delegate.evict(ukey);
+
+		if (nearCache != null) {
+			nearCache.invalidate(ukey);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, V> getAll(Collection<String> keys) {
+		Map<String, V> hits = new HashMap<>();
+		if (keys.isEmpty()) {
+			return hits;
+		}
+
+		// unityKey > key
+		Map<String, String> ukeys = new HashMap<>();
+		for (String key : keys) {
+			final String ukey = unityKey(key);
+			if (nearCache != null) {
+				Object hit = nearCache.get(ukey, statsBucket(key));
+				if (hit != null) {
+					hits.put(key, (V) hit);
+					continue;
+				}
+			}
+			ukeys.put(ukey, key);
+		}
+
+		if (ukeys.isEmpty()) {
+			return hits;
+		}
+
+		if (nearCache == null) {
+			for (Map.Entry<String, V> e : delegate.getAll(ukeys.keySet()).entrySet()) {
+				hits.put(ukeys.get(e.getKey()), e.getValue());
+			}
+			return hits;
+		}
+
+		Map<String, Long> epochs = new HashMap<>();
+		for (String ukey : ukeys.keySet()) {
+			epochs.put(ukey, nearCache.epoch(ukey));
+		}
+		Map<String, Object[]> loaded = jedisDriver.getAllWithTtl(ukeys.keySet(), true);
+		for (Map.Entry<String, Object[]> e : loaded.entrySet()) {
+			String key = ukeys.get(e.getKey());
+			hits.put(key, (V) e.getValue()[0]);
+			nearCache.fill(e.getKey(), e.getValue()[0], (Long) e.getValue()[1], statsBucket(key), epochs.get(e.getKey()));
+		}
+		return hits;
+	}
+
+	/**
+	 * @param values
+	 * @see #putAll(Map, int)
+	 */
+	public void putAll(Map<String, V> values) {
+		this.putAll(values, TS_DEFAULT);
+	}
+
+	@Override
+	public void putAll(Map<String, V> values, int seconds) {
+		Map<String, V> uvalues = new HashMap<>();
+		for (Map.Entry<String, V> e : values.entrySet()) {
+			if (e.getValue() == null) {
+				LOG.warn("Can't set `" + e.getKey() + "` to null");
+				continue;
+			}
+			uvalues.put(unityKey(e.getKey()), e.getValue());
+		}
+		delegate.putAll(uvalues, seconds);
+
+		if (nearCache != null) {
+			nearCache.invalidate(uvalues.keySet());
+			for (Map.Entry<String, V> e : values.entrySet()) {
+				if (e.getValue() == null) continue;
+				nearCache.put(unityKey(e.getKey()), e.getValue(), seconds, statsBucket(e.getKey()));
+			}
+		}
+	}
+
+	@Override
+	public void evictAll(Collection<String> keys) {
+		List<String> ukeys = new ArrayList<>();
+		for (String key : keys) {
+			ukeys.add(unityKey(key));
+		}
+		delegate.evictAll(ukeys);
+
+		if (nearCache != null) {
+			nearCache.invalidate(ukeys);
+		}
 	}
 
 	/**
@@ -136,6 +287,17 @@ public abstract class BaseCacheTemplate<V extends Serializable> implements Cache
 		return false;
 	}
 
+	/**
+	 * 一级缓存统计分组，如 `RB.RobotTriggerManager`
+	 *
+	 * @param key
+	 * @return
+	 */
+	private String statsBucket(String key) {
+		int dash = key.indexOf('-');
+		return keyPrefix + (dash > 0 ? key.substring(0, dash) : key);
+	}
+
 	private String unityKey(String key) {
 		Assert.isTrue(StringUtils.isNotBlank(key), "[key] not be null");
 		return (keyPrefix + key).toLowerCase();
@@ -19,6 +19,8 @@ along with this program. If not, see <https://www.gnu.org/licenses/>.
 package com.rebuild.server.helper.cache;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * @author devezhao
@@ -39,4 +41,27 @@ public interface CacheTemplate<V extends Serializable> {
 	void putx(String key, V value, int seconds);
 	
 	void evict(String key);
+
+	/**
+	 * 批量获取（同 {@link #getx(String)}）
+	 *
+	 * @param keys
+	 * @return 仅包含命中的 KEY
+	 */
+	Map<String, V> getAll(Collection<String> keys);
+
+	/**
+	 * 批量存放（同 {@link #putx(String, Serializable, int)}）
+	 *
+	 * @param values
+	 * @param seconds
+	 */
+	void putAll(Map<String, V> values, int seconds);
+
+	/**
+	 * 批量删除
+	 *
+	 * @param keys
+	 */
+	void evictAll(Collection<String> keys);
 }
\ No newline at end of file
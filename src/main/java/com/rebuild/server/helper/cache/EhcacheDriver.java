@@ -26,6 +26,11 @@ import org.springframework.cache.CacheManager;
 import org.springframework.util.Assert;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -92,6 +97,50 @@ public class EhcacheDriver<V extends Serializable> implements CacheTemplate<V> {
 		cache().evict(key);
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, V> getAll(Collection<String> keys) {
+		Map<String, V> hits = new HashMap<>();
+		if (keys.isEmpty()) {
+			return hits;
+		}
+
+		Map<Object, Element> els = ((Ehcache) cache().getNativeCache()).getAll(keys);
+		for (Map.Entry<Object, Element> e : els.entrySet()) {
+			if (e.getValue() != null && e.getValue().getObjectValue() != null) {
+				hits.put((String) e.getKey(), (V) e.getValue().getObjectValue());
+			}
+		}
+		return hits;
+	}
+
+	@Override
+	public void putAll(Map<String, V> values, int seconds) {
+		if (values.isEmpty()) {
+			return;
+		}
+
+		List<Element> els = new ArrayList<>();
+		for (Map.Entry<String, V> e : values.entrySet()) {
+			Objects.requireNonNull(e.getValue(), "`value` not be null");
+
+			Element el = new Element(e.getKey(), e.getValue());
+			if (seconds > -1) {
+				el.setTimeToLive(seconds);
+			}
+			els.add(el);
+		}
+		((Ehcache) cache().getNativeCache()).putAll(els);
+	}
+
+	@Override
+	public void evictAll(Collection<String> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		((Ehcache) cache().getNativeCache()).removeAll(keys);
+	}
+
 	/**
 	 * @return
 	 */
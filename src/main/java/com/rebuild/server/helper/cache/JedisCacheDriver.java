@@ -22,8 +22,16 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.SerializationUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -131,6 +139,140 @@ public class JedisCacheDriver<V extends Serializable> implements CacheTemplate<V
 		}
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<String, V> getAll(Collection<String> keys) {
+		if (keys.isEmpty()) {
+			return new HashMap<>();
+		}
+
+		List<String> keyList = new ArrayList<>(keys);
+		byte[][] bkeys = new byte[keyList.size()][];
+		for (int i = 0; i < bkeys.length; i++) {
+			bkeys[i] = keyList.get(i).getBytes();
+		}
+
+		Jedis jedis = null;
+		try {
+			jedis = jedisPool.getResource();
+
+			List<byte[]> values = jedis.mget(bkeys);
+			Map<String, V> hits = new HashMap<>();
+			for (int i = 0; i < bkeys.length; i++) {
+				byte[] bs = values.get(i);
+				if (bs != null && bs.length > 0) {
+					hits.put(keyList.get(i), (V) SerializationUtils.deserialize(bs));
+				}
+			}
+			return hits;
+		} finally {
+			IOUtils.closeQuietly(jedis);
+		}
+	}
+
+	@Override
+	public void putAll(Map<String, V> values, int seconds) {
+		if (values.isEmpty()) {
+			return;
+		}
+
+		Jedis jedis = null;
+		try {
+			jedis = jedisPool.getResource();
+
+			Pipeline pipeline = jedis.pipelined();
+			for (Map.Entry<String, V> e : values.entrySet()) {
+				Objects.requireNonNull(e.getValue(), "`value` not be null");
+
+				byte[] bkey = e.getKey().getBytes();
+				if (seconds > 0) {
+					pipeline.setex(bkey, seconds, SerializationUtils.serialize(e.getValue()));
+				} else {
+					pipeline.set(bkey, SerializationUtils.serialize(e.getValue()));
+				}
+			}
+			pipeline.sync();
+		} finally {
+			IOUtils.closeQuietly(jedis);
+		}
+	}
+
+	@Override
+	public void evictAll(Collection<String> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+
+		Jedis jedis = null;
+		try {
+			jedis = jedisPool.getResource();
+
+			jedis.del(keys.toArray(new String[0]));
+		} finally {
+			IOUtils.closeQuietly(jedis);
+		}
+	}
+
+	/**
+	 * 获取值及其剩余存活时间（用于一级缓存回填）
+	 *
+	 * @param key
+	 * @param binary 是否为序列化对象（同 {@link #getx(String)}）
+	 * @return [值, 剩余毫秒]，不存在返回 null。未设置过期时剩余毫秒为 -1
+	 */
+	protected Object[] getWithTtl(String key, boolean binary) {
+		Map<String, Object[]> hits = getAllWithTtl(Collections.singletonList(key), binary);
+		return hits.get(key);
+	}
+
+	/**
+	 * 批量获取值及其剩余存活时间（用于一级缓存回填）
+	 *
+	 * @param keys
+	 * @param binary 是否为序列化对象（同 {@link #getx(String)}）
+	 * @return KEY > [值, 剩余毫秒]，仅包含命中的 KEY
+	 */
+	protected Map<String, Object[]> getAllWithTtl(Collection<String> keys, boolean binary) {
+		Map<String, Object[]> hits = new HashMap<>();
+		if (keys.isEmpty()) {
+			return hits;
+		}
+
+		List<String> keyList = new ArrayList<>(keys);
+		List<Response<?>> values = new ArrayList<>();
+		List<Response<Long>> ttls = new ArrayList<>();
+
+		Jedis jedis = null;
+		try {
+			jedis = jedisPool.getResource();
+
+			Pipeline pipeline = jedis.pipelined();
+			for (String key : keyList) {
+				values.add(binary ? pipeline.get(key.getBytes()) : pipeline.get(key));
+				ttls.add(pipeline.pttl(key));
+			}
+			pipeline.sync();
+		} finally {
+			IOUtils.closeQuietly(jedis);
+		}
+
+		for (int i = 0; i < keyList.size(); i++) {
+			Object value = values.get(i).get();
+			if (value == null) {
+				continue;
+			}
+			if (binary) {
+				byte[] bs = (byte[]) value;
+				if (bs.length == 0) {
+					continue;
+				}
+				value = SerializationUtils.deserialize(bs);
+			}
+			hits.put(keyList.get(i), new Object[] { value, ttls.get(i).get() });
+		}
+		return hits;
+	}
+
 	/**
 	 * @return
 	 */
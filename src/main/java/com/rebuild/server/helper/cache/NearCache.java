@@ -0,0 +1,391 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.cache;
+
+import cn.devezhao.persist4j.engine.ID;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内一级缓存（L1），位于 redis（L2）之前。
+ * 容量有限（LRU 淘汰），且每项最多存活 `cache.nearcache.ttl` 秒。
+ * 任一节点修改/删除缓存时通过 redis 频道广播，其他节点收到后清除本地副本。
+ * 从 redis 回填时不超过其剩余存活时间，且回填期间如有清除（键所在分段的失效纪元变化）则放弃回填，避免旧值覆盖。
+ * 除字符串/数字等不可变值外，以序列化形式保存，每次命中返回新的副本，调用方修改不会影响缓存。
+ *
+ * 启用：`-Dcache.nearcache=true`（可选 `-Dcache.nearcache.size=10000` `-Dcache.nearcache.ttl=300`）
+ *
+ * @author devezhao
+ * @since 2020/08/24
+ */
+public class NearCache {
+
+    private static final Log LOG = LogFactory.getLog(NearCache.class);
+
+    /**
+     * 失效广播频道
+     */
+    protected static final String CHANNEL = "rebuild:cache:evict";
+
+    // 清除全部
+    private static final String ALL_KEYS = "*";
+
+    // 失效纪元分段数（2 的幂）
+    private static final int EPOCH_STRIPES = 1024;
+
+    // 不可变的值类型，直接保存
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, BigInteger.class, BigDecimal.class, ID.class));
+
+    final private JedisPool jedisPool;
+    final private String nodeId;
+
+    final private int maxSize;
+    final private int maxTtl;
+
+    final private Map<String, Entry> store;
+    // 失效纪元，按键分段，清除时递增所在分段，清除全部时递增 allEpoch（由 store 锁保护）
+    final private long[] epochs = new long[EPOCH_STRIPES];
+    private long allEpoch = 0;
+    final private Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param jedisPool
+     * @param maxSize
+     * @param maxTtl 秒
+     */
+    protected NearCache(JedisPool jedisPool, int maxSize, int maxTtl) {
+        this.jedisPool = jedisPool;
+        this.nodeId = UUID.randomUUID().toString();
+        this.maxSize = maxSize;
+        this.maxTtl = maxTtl;
+
+        this.store = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+            private static final long serialVersionUID = -6129580434421862618L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > NearCache.this.maxSize) {
+                    counter(eldest.getValue().bucket).evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        if (jedisPool != null) {
+            startSubscriber();
+        }
+    }
+
+    /**
+     * @param key
+     * @param bucket 统计分组
+     * @return
+     */
+    public Object get(String key, String bucket) {
+        Entry e;
+        synchronized (store) {
+            e = store.get(key);
+            if (e != null && e.expiresAt < System.currentTimeMillis()) {
+                store.remove(key);
+                e = null;
+            }
+        }
+
+        if (e == null) {
+            counter(bucket).misses.incrementAndGet();
+            return null;
+        }
+        counter(bucket).hits.incrementAndGet();
+        return thaw(e.value);
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @param seconds
+     * @param bucket 统计分组
+     */
+    public void put(String key, Object value, int seconds, String bucket) {
+        int ttl = seconds > 0 ? Math.min(seconds, maxTtl) : maxTtl;
+        Entry e = new Entry(freeze(value), System.currentTimeMillis() + ttl * 1000L, bucket);
+        synchronized (store) {
+            store.put(key, e);
+        }
+    }
+
+    /**
+     * 键的当前失效纪元。从 redis 读取前获取，回填时传入 {@link #fill(String, Object, long, String, long)}
+     *
+     * @param key
+     * @return
+     */
+    public long epoch(String key) {
+        synchronized (store) {
+            return allEpoch + epochs[stripe(key)];
+        }
+    }
+
+    /**
+     * 从 redis 读取后回填
+     *
+     * @param key
+     * @param value
+     * @param pttl redis 中的剩余存活时间（毫秒），-1 为未设置过期
+     * @param bucket 统计分组
+     * @param readEpoch 读取前的失效纪元 {@link #epoch(String)}
+     * @return 读取期间有清除或已过期时不回填，返回 false
+     */
+    public boolean fill(String key, Object value, long pttl, String bucket, long readEpoch) {
+        if (pttl == 0 || pttl < -1) {
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        long ttl = maxTtl * 1000L;
+        if (pttl > 0) {
+            ttl = Math.min(ttl, pttl);
+        }
+        Entry e = new Entry(freeze(value), now + ttl, bucket);
+
+        synchronized (store) {
+            if (allEpoch + epochs[stripe(key)] != readEpoch) {
+                return false;
+            }
+            store.put(key, e);
+        }
+        return true;
+    }
+
+    /**
+     * 清除本地并通知其他节点
+     *
+     * @param key
+     */
+    public void invalidate(String key) {
+        removeLocal(key);
+        publish(key);
+    }
+
+    /**
+     * 批量清除本地并通知其他节点
+     *
+     * @param keys
+     */
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        for (String key : keys) {
+            removeLocal(key);
+        }
+
+        if (jedisPool == null) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (String key : keys) {
+                pipeline.publish(CHANNEL, nodeId + " " + key);
+            }
+            pipeline.sync();
+        } catch (Exception ex) {
+            LOG.warn("Publish near-cache invalidation failed : " + keys, ex);
+        }
+    }
+
+    /**
+     * 清除全部本地并通知其他节点
+     */
+    public void invalidateAll() {
+        removeLocal(ALL_KEYS);
+        publish(ALL_KEYS);
+    }
+
+    /**
+     * 命中统计
+     *
+     * @return [bucket, [hits, misses, evictions]]
+     */
+    public Map<String, long[]> getStats() {
+        Map<String, long[]> stats = new TreeMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            Counter c = e.getValue();
+            stats.put(e.getKey(), new long[] { c.hits.get(), c.misses.get(), c.evictions.get() });
+        }
+        return stats;
+    }
+
+    /**
+     * @return
+     */
+    public int size() {
+        synchronized (store) {
+            return store.size();
+        }
+    }
+
+    private void removeLocal(String key) {
+        synchronized (store) {
+            if (ALL_KEYS.equals(key)) {
+                allEpoch++;
+                store.clear();
+            } else {
+                epochs[stripe(key)]++;
+                store.remove(key);
+            }
+        }
+    }
+
+    private int stripe(String key) {
+        return key.hashCode() & (EPOCH_STRIPES - 1);
+    }
+
+    private void publish(String key) {
+        if (jedisPool == null) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(CHANNEL, nodeId + " " + key);
+        } catch (Exception ex) {
+            LOG.warn("Publish near-cache invalidation failed : " + key, ex);
+        }
+    }
+
+    private Counter counter(String bucket) {
+        return counters.computeIfAbsent(StringUtils.defaultIfBlank(bucket, "-"), k -> new Counter());
+    }
+
+    private void startSubscriber() {
+        Thread subscriber = new Thread(() -> {
+            while (true) {
+                try (Jedis jedis = jedisPool.getResource()) {
+                    jedis.subscribe(new JedisPubSub() {
+                        @Override
+                        public void onMessage(String channel, String message) {
+                            String[] nk = message.split(" ", 2);
+                            if (nk.length == 2 && !nodeId.equals(nk[0])) {
+                                removeLocal(nk[1]);
+                            }
+                        }
+                    }, CHANNEL);
+
+                } catch (Exception ex) {
+                    LOG.warn("Near-cache subscriber disconnected : " + ex.getLocalizedMessage());
+                }
+
+                // 断开期间可能错过了广播
+                removeLocal(ALL_KEYS);
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }, "NearCacheSubscriber");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    /**
+     * 可变值保存为序列化形式
+     *
+     * @param value
+     * @return
+     */
+    private Object freeze(Object value) {
+        if (value == null || value instanceof Enum || IMMUTABLE_TYPES.contains(value.getClass())) {
+            return value;
+        }
+        return new Frozen(SerializationUtils.serialize((Serializable) value));
+    }
+
+    private Object thaw(Object value) {
+        return value instanceof Frozen ? SerializationUtils.deserialize(((Frozen) value).bytes) : value;
+    }
+
+    // --
+
+    private static class Frozen {
+        final byte[] bytes;
+
+        Frozen(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        final long expiresAt;
+        final String bucket;
+
+        Entry(Object value, long expiresAt, String bucket) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.bucket = bucket;
+        }
+    }
+
+    private static class Counter {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+
+    // --
+
+    private static NearCache INSTANCE;
+
+    /**
+     * 未启用（或未使用 redis）时返回 null
+     *
+     * @param jedisPool
+     * @return
+     */
+    synchronized
+    protected static NearCache getInstance(JedisPool jedisPool) {
+        if (INSTANCE == null && jedisPool != null
+                && Boolean.parseBoolean(System.getProperty("cache.nearcache"))) {
+            int size = NumberUtils.toInt(System.getProperty("cache.nearcache.size"), 10000);
+            int ttl = NumberUtils.toInt(System.getProperty("cache.nearcache.ttl"), 300);
+            INSTANCE = new NearCache(jedisPool, size, ttl);
+            LOG.info("Near-cache enabled : size=" + size + ", ttl=" + ttl);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @return
+     */
+    public static NearCache getInstance() {
+        return INSTANCE;
+    }
+}
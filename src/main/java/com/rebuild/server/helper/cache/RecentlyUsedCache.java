@@ -7,6 +7,7 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.helper.cache;
 
+import cn.devezhao.bizz.privileges.impl.BizzPermission;
 import cn.devezhao.persist4j.engine.ID;
 import com.rebuild.server.Application;
 import com.rebuild.server.helper.ConfigurableItem;
@@ -23,6 +24,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -73,11 +75,19 @@ public class RecentlyUsedCache extends BaseCacheTemplate<Serializable> {
 			return ID.EMPTY_ID_ARRAY;
 		}
 
+		List<ID> candidates = new ArrayList<>();
+		for (ID raw : exists) {
+			if (candidates.size() >= limit) break;
+			candidates.add(raw);
+		}
+
+		// 批量检查权限
+		Map<ID, Boolean> allowed = Application.getPrivilegesManager().allowAll(user, candidates, BizzPermission.READ);
+
 		Set<ID> missed = new HashSet<>();
 		List<ID> data = new ArrayList<>();
-		for (int i = 0; i < limit && i < exists.size(); i++) {
-			final ID raw = exists.get(i);
-			if (!(raw.getEntityCode() == EntityHelper.ClassificationData || Application.getPrivilegesManager().allowRead(user, raw))) {
+		for (final ID raw : candidates) {
+			if (!(raw.getEntityCode() == EntityHelper.ClassificationData || allowed.get(raw))) {
 				continue;
 			}
 			
@@ -92,6 +102,7 @@ public class RecentlyUsedCache extends BaseCacheTemplate<Serializable> {
 		}
 		
 		if (!missed.isEmpty()) {
+			exists = new LinkedList<>(exists);
 			exists.removeAll(missed);
 			putx(key, exists);
 		}
@@ -113,12 +124,10 @@ public class RecentlyUsedCache extends BaseCacheTemplate<Serializable> {
 		
 		final String key = formatKey(user, MetadataHelper.getEntityName(id), type);
 		@SuppressWarnings("unchecked")
-		LinkedList<ID> exists = (LinkedList<ID>) getx(key);
-		if (exists == null) {
-			exists = new LinkedList<>();
-		} else {
-			exists.remove(id);
-		}
+		LinkedList<ID> cached = (LinkedList<ID>) getx(key);
+		// 复制一份，一级缓存中的实例是共享的
+		LinkedList<ID> exists = cached == null ? new LinkedList<>() : new LinkedList<>(cached);
+		exists.remove(id);
 		
 		if (exists.size() > MAXNUM_PRE_ENTITY) {
 			exists.removeLast();
@@ -0,0 +1,165 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.cache;
+
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Field;
+import cn.devezhao.persist4j.PersistManagerFactory;
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.helper.fieldvalue.FieldValueWrapper;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.metadata.entity.DisplayType;
+import com.rebuild.server.metadata.entity.EasyMeta;
+import com.rebuild.server.service.TransactionManual;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.cache.CacheManager;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 记录的名称（NAME/LABEL 字段值，已格式化）。
+ * 仅缓存文本类名称字段（列表/分类/状态等的显示值会随选项变化），缓存 Key 含名称字段，变更名称字段后自然失效。
+ * 记录更新/删除时清除，见 {@link com.rebuild.server.service.BaseService}
+ *
+ * @author devezhao
+ * @since 2020/09/03
+ * @see FieldValueWrapper#getLabels(Collection, String)
+ */
+public class RecordLabelCache extends BaseCacheTemplate<String> {
+
+	// IN 查询最大数量
+	private static final int BATCH_SIZE = 500;
+	// 缓存时间（秒）
+	private static final int CACHE_TTL = 60 * 60;
+
+	final private PersistManagerFactory aPMFactory;
+
+	protected RecordLabelCache(JedisPool jedisPool, CacheManager cacheManager, PersistManagerFactory aPMFactory) {
+		super(jedisPool, cacheManager, "LB.");
+		this.aPMFactory = aPMFactory;
+	}
+
+	/**
+	 * 批量获取记录名称。先批量读缓存，未命中的按实体分组以 `IN` 查询
+	 *
+	 * @param records
+	 * @return 不存在的记录不会包含在返回中。名称为空时值为空字符串
+	 */
+	public Map<ID, String> getLabels(Collection<ID> records) {
+		Map<ID, String> labels = new HashMap<>();
+		if (records.isEmpty()) {
+			return labels;
+		}
+
+		Map<Integer, List<ID>> missedByEntity = new HashMap<>();
+		Map<String, ID> recordKeys = new HashMap<>();
+		for (ID record : records) {
+			Field nameField = MetadataHelper.getNameField(MetadataHelper.getEntity(record.getEntityCode()));
+			if (isCacheable(nameField)) {
+				recordKeys.put(formatKey(record, nameField), record);
+			} else {
+				missedByEntity.computeIfAbsent(record.getEntityCode(), k -> new ArrayList<>()).add(record);
+			}
+		}
+
+		Map<String, String> hits = recordKeys.isEmpty() ? Collections.emptyMap() : getAll(recordKeys.keySet());
+		for (Map.Entry<String, ID> e : recordKeys.entrySet()) {
+			String hit = hits.get(e.getKey());
+			if (hit != null) {
+				labels.put(e.getValue(), hit);
+			} else {
+				ID record = e.getValue();
+				missedByEntity.computeIfAbsent(record.getEntityCode(), k -> new ArrayList<>()).add(record);
+			}
+		}
+
+		Map<String, String> loaded = new HashMap<>();
+		for (Map.Entry<Integer, List<ID>> e : missedByEntity.entrySet()) {
+			Entity entity = MetadataHelper.getEntity(e.getKey());
+			Field nameField = MetadataHelper.getNameField(entity);
+			boolean cacheable = isCacheable(nameField);
+
+			List<ID> missed = e.getValue();
+			for (int i = 0; i < missed.size(); i += BATCH_SIZE) {
+				List<ID> chunk = missed.subList(i, Math.min(i + BATCH_SIZE, missed.size()));
+				for (Object[] o : queryLabels(entity, nameField, chunk)) {
+					Object label = o[1] == null ? null
+							: FieldValueWrapper.instance.wrapFieldValue(o[1], nameField, true);
+					String text = label == null ? StringUtils.EMPTY : label.toString();
+
+					labels.put((ID) o[0], text);
+					if (cacheable) {
+						loaded.put(formatKey((ID) o[0], nameField), text);
+					}
+				}
+			}
+		}
+
+		if (!loaded.isEmpty()) {
+			putAll(loaded, CACHE_TTL);
+		}
+		return labels;
+	}
+
+	/**
+	 * 名称字段为引用时被引用记录的名称变化无法感知，列表/分类/状态等的显示值会随选项变化，因此仅缓存文本类
+	 *
+	 * @param nameField
+	 * @return
+	 */
+	private boolean isCacheable(Field nameField) {
+		DisplayType dt = EasyMeta.getDisplayType(nameField);
+		return dt == DisplayType.TEXT || dt == DisplayType.NTEXT || dt == DisplayType.EMAIL || dt == DisplayType.PHONE
+				|| dt == DisplayType.URL || dt == DisplayType.SERIES || dt == DisplayType.LOCATION;
+	}
+
+	private String formatKey(ID record, Field nameField) {
+		return record.toLiteral() + ":" + nameField.getName();
+	}
+
+	/**
+	 * @param entity
+	 * @param nameField
+	 * @param records
+	 * @return [[ID, name]]
+	 */
+	private Object[][] queryLabels(Entity entity, Field nameField, List<ID> records) {
+		List<String> ids = new ArrayList<>();
+		for (ID id : records) {
+			ids.add(id.toLiteral());
+		}
+
+		String sql = String.format("select %s,%s from %s where %s in ('%s')",
+				entity.getPrimaryField().getName(), nameField.getName(), entity.getName(),
+				entity.getPrimaryField().getName(), StringUtils.join(ids, "','"));
+		return aPMFactory.createQuery(sql).array();
+	}
+
+	/**
+	 * 记录更新/删除时调用。
+	 * 事物提交后会再次清除，避免提交前其他线程加载到旧数据并重新缓存
+	 *
+	 * @param record
+	 */
+	public void cleanLabel(ID record) {
+		Field nameField = MetadataHelper.getNameField(MetadataHelper.getEntity(record.getEntityCode()));
+		if (!isCacheable(nameField)) {
+			return;
+		}
+
+		final String key = formatKey(record, nameField);
+		evict(key);
+		TransactionManual.afterCommit(() -> evict(key));
+	}
+}
@@ -11,12 +11,22 @@ import cn.devezhao.bizz.privileges.PrivilegesException;
 import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.Field;
 import cn.devezhao.persist4j.PersistManagerFactory;
+import cn.devezhao.persist4j.Query;
 import cn.devezhao.persist4j.engine.ID;
 import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.service.bizz.privileges.ReadVerdictCache;
+import org.apache.commons.lang.StringUtils;
 import org.springframework.cache.CacheManager;
 import redis.clients.jedis.JedisPool;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 业务数据/记录所属
  * 
@@ -25,6 +35,9 @@ import redis.clients.jedis.JedisPool;
  */
 public class RecordOwningCache extends BaseCacheTemplate<ID> {
 
+	// IN 查询最大数量
+	private static final int BATCH_SIZE = 500;
+
 	final private PersistManagerFactory aPMFactory;
 	
 	protected RecordOwningCache(JedisPool jedisPool, CacheManager cacheManager, PersistManagerFactory aPMFactory) {
@@ -91,10 +104,94 @@ public class RecordOwningCache extends BaseCacheTemplate<ID> {
 		return getOwningUser(record, Boolean.FALSE);
 	}
 
+	/**
+	 * 批量获取记录的所属人。先批量读缓存，未命中的按实体分组以 `IN` 查询
+	 *
+	 * @param records
+	 * @return 不存在的记录（或无所属人的实体记录）不会包含在返回中
+	 * @see #getOwningUser(ID, boolean)
+	 */
+	public Map<ID, ID> getOwningUsers(Collection<ID> records) {
+		Map<ID, ID> owners = new HashMap<>();
+		if (records.isEmpty()) {
+			return owners;
+		}
+
+		Map<String, ID> recordKeys = new HashMap<>();
+		for (ID record : records) {
+			recordKeys.put(record.toLiteral(), record);
+		}
+
+		Map<Integer, List<ID>> missedByEntity = new HashMap<>();
+		Map<String, ID> hits = getAll(recordKeys.keySet());
+		for (Map.Entry<String, ID> e : recordKeys.entrySet()) {
+			ID hit = hits.get(e.getKey());
+			if (hit != null) {
+				owners.put(e.getValue(), hit);
+			} else {
+				ID record = e.getValue();
+				missedByEntity.computeIfAbsent(record.getEntityCode(), k -> new ArrayList<>()).add(record);
+			}
+		}
+
+		Map<String, ID> loaded = new HashMap<>();
+		for (Map.Entry<Integer, List<ID>> e : missedByEntity.entrySet()) {
+			List<ID> missed = e.getValue();
+			for (int i = 0; i < missed.size(); i += BATCH_SIZE) {
+				List<ID> chunk = missed.subList(i, Math.min(i + BATCH_SIZE, missed.size()));
+				for (Object[] o : queryOwningUsers(e.getKey(), chunk)) {
+					if (o[1] == null) continue;
+
+					owners.put((ID) o[0], (ID) o[1]);
+					loaded.put(((ID) o[0]).toLiteral(), (ID) o[1]);
+				}
+			}
+		}
+
+		if (!loaded.isEmpty()) {
+			putAll(loaded);
+		}
+		return owners;
+	}
+
+	/**
+	 * @param entityCode
+	 * @param records
+	 * @return [[ID, owningUser]]
+	 */
+	private Object[][] queryOwningUsers(int entityCode, List<ID> records) {
+		Entity entity = MetadataHelper.getEntity(entityCode);
+		Entity useMaster = null;
+		if (!MetadataHelper.hasPrivilegesField(entity)) {
+			useMaster = entity.getMasterEntity();
+			if (!(useMaster != null && MetadataHelper.hasPrivilegesField(useMaster))) {
+				LOG.debug("None privileges entity : " + entity.getName());
+				return new Object[0][];
+			}
+		}
+
+		String owningUser = "owningUser";
+		// 使用主记录
+		if (useMaster != null) {
+			Field stmField = MetadataHelper.getSlaveToMasterField(entity);
+			owningUser = stmField.getName() + ".owningUser";
+		}
+
+		String sql = String.format("select %s,%s from %s where %s in (%s)",
+				entity.getPrimaryField().getName(), owningUser, entity.getName(),
+				entity.getPrimaryField().getName(), StringUtils.join(Collections.nCopies(records.size(), "?"), ","));
+		Query query = aPMFactory.createQuery(sql);
+		for (int i = 0; i < records.size(); i++) {
+			query.setParameter(i + 1, records.get(i));
+		}
+		return query.array();
+	}
+
 	/**
 	 * @param record
 	 */
 	public void cleanOwningUser(ID record) {
 		evict(record.toLiteral());
+		ReadVerdictCache.instance.invalidate();
 	}
 }
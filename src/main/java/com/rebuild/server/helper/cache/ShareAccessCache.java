@@ -0,0 +1,186 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.cache;
+
+import cn.devezhao.bizz.privileges.impl.BizzPermission;
+import cn.devezhao.persist4j.PersistManagerFactory;
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.service.TransactionManual;
+import com.rebuild.server.service.bizz.privileges.ReadVerdictCache;
+import org.springframework.cache.CacheManager;
+import redis.clients.jedis.JedisPool;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录共享索引。按 用户+实体 缓存共享给该用户（且有读取权限）的记录。
+ * 本节点保留一份副本（按版本），版本未变时直接使用，不必每次从缓存读取（反序列化）整个集合
+ *
+ * @author devezhao
+ * @since 2020/08/26
+ * @see com.rebuild.server.service.bizz.privileges.PrivilegesManager#allowViaShare(ID, ID, cn.devezhao.bizz.privileges.Permission)
+ */
+public class ShareAccessCache extends BaseCacheTemplate<Serializable> {
+
+    // 缓存时间（秒），清除失败时以此兜底
+    private static final int CACHE_TTL = 10 * 60;
+    // 本节点副本的最大数量
+    private static final int MAX_LOCAL_COPIES = 2000;
+
+    private static final String KEY_VERSION = "V-";
+
+    final private PersistManagerFactory aPMFactory;
+
+    final private AtomicLong hits = new AtomicLong();
+    final private AtomicLong misses = new AtomicLong();
+
+    // 本节点副本 [用户+实体, 副本]
+    final private Map<String, LocalCopy> localCopies = new LinkedHashMap<String, LocalCopy>(256, 0.75f, true) {
+        private static final long serialVersionUID = 3215430574437738457L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LocalCopy> eldest) {
+            return size() > MAX_LOCAL_COPIES;
+        }
+    };
+
+    protected ShareAccessCache(JedisPool jedisPool, CacheManager cacheManager, PersistManagerFactory aPMFactory) {
+        super(jedisPool, cacheManager, "SA.");
+        this.aPMFactory = aPMFactory;
+    }
+
+    /**
+     * 记录是否共享给了用户（读取权限）
+     *
+     * @param user
+     * @param entity 主实体
+     * @param record 主记录
+     * @return
+     */
+    public boolean isShared(ID user, String entity, ID record) {
+        return getSharedRecords(user, entity).contains(record);
+    }
+
+    /**
+     * 共享给用户（读取权限）的记录
+     *
+     * @param user
+     * @param entity 主实体
+     * @return 不可修改
+     */
+    @SuppressWarnings("unchecked")
+    public Set<ID> getSharedRecords(ID user, String entity) {
+        final String key = formatKey(user, entity);
+        final String version = get(KEY_VERSION + key);
+        if (version != null) {
+            LocalCopy local;
+            synchronized (localCopies) {
+                local = localCopies.get(key);
+            }
+            if (local != null && local.version.equals(version)) {
+                hits.incrementAndGet();
+                return local.records;
+            }
+
+            Set<ID> shared = (Set<ID>) getx(key);
+            if (shared != null) {
+                hits.incrementAndGet();
+                return keepLocal(key, version, shared);
+            }
+        }
+        misses.incrementAndGet();
+
+        Object[][] array = aPMFactory.createQuery(
+                "select recordId,rights from ShareAccess where belongEntity = ? and shareTo = ?")
+                .setParameter(1, entity)
+                .setParameter(2, user)
+                .array();
+
+        HashSet<ID> loaded = new HashSet<>();
+        for (Object[] o : array) {
+            int rightsVal = o[1] == null ? 0 : (int) o[1];
+            if ((rightsVal & BizzPermission.READ.getMask()) != 0) {
+                loaded.add((ID) o[0]);
+            }
+        }
+
+        // 先写入集合再写入版本，读到新版本时集合一定存在
+        final String newVersion = Long.toString(System.nanoTime(), 36);
+        putx(key, loaded, CACHE_TTL);
+        put(KEY_VERSION + key, newVersion, CACHE_TTL);
+        return keepLocal(key, newVersion, loaded);
+    }
+
+    private Set<ID> keepLocal(String key, String version, Set<ID> records) {
+        LocalCopy local = new LocalCopy(version, Collections.unmodifiableSet(records));
+        synchronized (localCopies) {
+            localCopies.put(key, local);
+        }
+        return local.records;
+    }
+
+    /**
+     * 共享/取消共享后调用。
+     * 事物提交后会再次清除，避免提交前其他线程加载到旧数据并重新缓存
+     *
+     * @param user
+     * @param entity 主实体
+     */
+    public void clean(ID user, String entity) {
+        final String key = formatKey(user, entity);
+        evictNow(key);
+        TransactionManual.afterCommit(() -> evictNow(key));
+    }
+
+    private void evictNow(String key) {
+        evict(KEY_VERSION + key);
+        evict(key);
+        synchronized (localCopies) {
+            localCopies.remove(key);
+        }
+        ReadVerdictCache.instance.invalidate();
+    }
+
+    /**
+     * 本节点统计
+     *
+     * @return [hits, misses, indexes, indexedRecords]
+     */
+    public long[] getStats() {
+        long indexes;
+        long indexedRecords = 0;
+        synchronized (localCopies) {
+            indexes = localCopies.size();
+            for (LocalCopy local : localCopies.values()) {
+                indexedRecords += local.records.size();
+            }
+        }
+        return new long[] { hits.get(), misses.get(), indexes, indexedRecords };
+    }
+
+    private String formatKey(ID user, String entity) {
+        return String.format("%s-%s", user, entity);
+    }
+
+    // --
+
+    private static class LocalCopy {
+        final String version;
+        final Set<ID> records;
+
+        LocalCopy(String version, Set<ID> records) {
+            this.version = version;
+            this.records = records;
+        }
+    }
+}
@@ -7,6 +7,7 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.helper.datalist;
 
+import cn.devezhao.bizz.privileges.impl.BizzPermission;
 import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.Field;
 import cn.devezhao.persist4j.dialect.FieldType;
@@ -19,10 +20,16 @@ import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.metadata.entity.DisplayType;
 import com.rebuild.server.metadata.entity.EasyMeta;
 import com.rebuild.server.service.bizz.UserHelper;
+import com.rebuild.server.service.bizz.privileges.PrivilegesManager;
+import com.rebuild.server.service.bizz.privileges.ReadVerdictCache;
 import com.rebuild.utils.JSONUtils;
 import org.apache.commons.lang.StringUtils;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 数据包装
@@ -45,6 +52,12 @@ public class DataListWrapper {
 	// for 权限验证
 	private ID user;
 	private Map<String, Integer> queryJoinFields;
+
+	// 预加载的名称
+	private Map<ID, String> primaryLabels = Collections.emptyMap();
+	private Map<ID, String> referenceLabels = Collections.emptyMap();
+	// 本次请求的（引用字段）权限
+	private Map<ID, Boolean> joinVerdicts = new HashMap<>();
 	
 	/**
 	 * @param total
@@ -79,6 +92,10 @@ public class DataListWrapper {
 		final Field nameFiled = MetadataHelper.getNameField(entity);
 		final int joinFieldsLen = queryJoinFields == null ? 0 : queryJoinFields.size();
 		final int selectFieldsLen = selectFields.length - joinFieldsLen;
+
+		// 一次性加载本页所需的名称和权限
+		prefetchLabels(selectFieldsLen, nameFiled);
+		prefetchJoinFieldPrivileges();
 		
 		for (int rowIndex = 0; rowIndex < data.length; rowIndex++) {
 			final Object[] original = data[rowIndex];
@@ -112,7 +129,10 @@ public class DataListWrapper {
 				// 如果最终没能取得名称字段，则补充
 				if (field.getType() == FieldType.PRIMARY) {
 				    if (nameValue == null) {
-    				    nameValue = FieldValueWrapper.getLabel((ID) value, StringUtils.EMPTY);
+				        nameValue = primaryLabels.get(value);
+				        if (nameValue == null) {
+				            nameValue = FieldValueWrapper.getLabel((ID) value, StringUtils.EMPTY);
+                        }
                     } else {
                         nameValue = FieldValueWrapper.instance.wrapFieldValue(nameValue, nameFiled, true);
                         if (nameValue == null) {
@@ -138,7 +158,10 @@ public class DataListWrapper {
      */
     protected Object wrapFieldValue(Object value, Field field) {
         EasyMeta fieldEasy = EasyMeta.valueOf(field);
-        if (fieldEasy.getDisplayType() == DisplayType.ID) {
+        if (fieldEasy.getDisplayType() == DisplayType.REFERENCE
+                && ((ID) value).getLabelRaw() == null && referenceLabels.containsKey(value)) {
+            return FieldValueWrapper.wrapMixValue((ID) value, referenceLabels.get(value));
+        } else if (fieldEasy.getDisplayType() == DisplayType.ID) {
             return FieldValueWrapper.wrapMixValue((ID) value, null);
         } else if (fieldEasy.getDisplayType() == DisplayType.CLASSIFICATION) {
             return FieldValueWrapper.instance.wrapFieldValue(value, fieldEasy, true);
@@ -147,6 +170,85 @@ public class DataListWrapper {
         }
     }
 
+	/**
+	 * 收集本页中未带名称的记录 ID（主键及引用字段），按实体批量加载名称
+	 *
+	 * @param selectFieldsLen
+	 * @param nameFiled
+	 * @see FieldValueWrapper#getLabels(java.util.Collection, String)
+	 */
+	protected void prefetchLabels(int selectFieldsLen, Field nameFiled) {
+		boolean hasNameField = false;
+		for (int colIndex = 0; colIndex < selectFieldsLen; colIndex++) {
+			SelectItem fieldItem = selectFields[colIndex];
+			if (fieldItem.getField().equals(nameFiled) && !fieldItem.getFieldPath().contains(".")) {
+				hasNameField = true;
+				break;
+			}
+		}
+
+		Set<ID> primaryIds = new HashSet<>();
+		Set<ID> referenceIds = new HashSet<>();
+		for (Object[] row : data) {
+			for (int colIndex = 0; colIndex < selectFieldsLen; colIndex++) {
+				Object value = row[colIndex];
+				if (!(value instanceof ID)) continue;
+
+				Field field = selectFields[colIndex].getField();
+				if (field.getType() == FieldType.PRIMARY) {
+					if (!hasNameField) primaryIds.add((ID) value);
+				} else if (((ID) value).getLabelRaw() == null
+						&& EasyMeta.getDisplayType(field) == DisplayType.REFERENCE) {
+					referenceIds.add((ID) value);
+				}
+			}
+		}
+
+		if (!primaryIds.isEmpty()) {
+			primaryLabels = FieldValueWrapper.getLabels(primaryIds, StringUtils.EMPTY);
+		}
+		if (!referenceIds.isEmpty()) {
+			referenceLabels = FieldValueWrapper.getLabels(referenceIds, null);
+		}
+	}
+
+	/**
+	 * 批量检查本页中（引用）字段记录的读取权限，优先使用 {@link ReadVerdictCache}
+	 *
+	 * @see PrivilegesManager#allowAll(ID, java.util.Collection, cn.devezhao.bizz.privileges.Permission)
+	 */
+	protected void prefetchJoinFieldPrivileges() {
+		if (this.queryJoinFields == null || UserHelper.isAdmin(user)) {
+			return;
+		}
+
+		Set<ID> missed = new HashSet<>();
+		for (Object[] row : data) {
+			for (Integer fieldIndex : queryJoinFields.values()) {
+				ID check = (ID) row[fieldIndex];
+				if (check == null || joinVerdicts.containsKey(check)) continue;
+
+				Boolean cached = ReadVerdictCache.instance.get(user, check);
+				if (cached != null) {
+					joinVerdicts.put(check, cached);
+				} else {
+					missed.add(check);
+				}
+			}
+		}
+
+		if (missed.isEmpty()) {
+			return;
+		}
+
+		final long version = ReadVerdictCache.instance.getVersion();
+		Map<ID, Boolean> allowed = Application.getPrivilegesManager().allowAll(user, missed, BizzPermission.READ);
+		for (Map.Entry<ID, Boolean> e : allowed.entrySet()) {
+			joinVerdicts.put(e.getKey(), e.getValue());
+			ReadVerdictCache.instance.put(user, e.getKey(), e.getValue(), version);
+		}
+	}
+
 	/**
 	 * 验证（引用）字段权限
 	 * 
@@ -165,7 +267,16 @@ public class DataListWrapper {
 		}
 		
 		int fieldIndex = queryJoinFields.get(fieldPath[0]);
-		Object check = original[fieldIndex];
-		return check == null || Application.getPrivilegesManager().allowRead(user, (ID) check);
+		ID check = (ID) original[fieldIndex];
+		if (check == null) {
+			return true;
+		}
+
+		Boolean allowed = joinVerdicts.get(check);
+		if (allowed == null) {
+			allowed = Application.getPrivilegesManager().allowRead(user, check);
+			joinVerdicts.put(check, allowed);
+		}
+		return allowed;
 	}
 }
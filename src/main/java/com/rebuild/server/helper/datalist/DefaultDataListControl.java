@@ -7,7 +7,9 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.helper.datalist;
 
+import cn.devezhao.commons.EncryptUtils;
 import cn.devezhao.commons.ObjectUtils;
+import cn.devezhao.commons.ThreadPool;
 import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.Query;
 import cn.devezhao.persist4j.engine.ID;
@@ -17,6 +19,13 @@ import com.rebuild.server.Application;
 import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.service.bizz.UserService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 数据列表控制器
@@ -26,6 +35,27 @@ import com.rebuild.server.service.bizz.UserService;
  */
 public class DefaultDataListControl implements DataListControl {
 
+	private static final Log LOG = LogFactory.getLog(DefaultDataListControl.class);
+
+	/**
+	 * 计数方式：封顶计数
+	 */
+	public static final String COUNT_CAPPED = "capped";
+	/**
+	 * 计数方式：缓存计数
+	 */
+	public static final String COUNT_CACHED = "cached";
+
+	/**
+	 * 封顶计数的最大值
+	 */
+	public static final int COUNT_CAP = 10000;
+	// 缓存计数的刷新间隔/有效期（秒）
+	private static final int COUNT_CACHE_REFRESH = 60;
+	private static final int COUNT_CACHE_TTL = 60 * 60;
+	// 正在刷新的计数
+	private static final Set<String> COUNT_REFRESHING = ConcurrentHashMap.newKeySet();
+
 	final protected Entity entity;
 	final protected QueryParser queryParser;
 	final protected ID user;
@@ -65,17 +95,147 @@ public class DefaultDataListControl implements DataListControl {
 	@Override
 	public JSON getJSONResult() {
 		int totalRows = 0;
+		boolean totalCapped = false;
 		if (queryParser.isNeedReload()) {
-			Object[] count = Application.getQueryFactory().createQuery(queryParser.toCountSql(), user).unique();
-			totalRows = ObjectUtils.toInt(count[0]);
+			String countMode = queryParser.getCountMode();
+			if (COUNT_CAPPED.equalsIgnoreCase(countMode)) {
+				totalRows = countCapped();
+				totalCapped = totalRows > COUNT_CAP;
+				if (totalCapped) totalRows = COUNT_CAP;
+			} else if (COUNT_CACHED.equalsIgnoreCase(countMode)) {
+				totalRows = countCached();
+			} else {
+				totalRows = count();
+			}
 		}
 		
 		Query query = Application.getQueryFactory().createQuery(queryParser.toSql(), user);
+		Object[] parameters = queryParser.getSqlParameters();
+		for (int i = 0; i < parameters.length; i++) {
+			query.setParameter(i + 1, parameters[i]);
+		}
 		int[] limits = queryParser.getSqlLimit();
 		Object[][] data = query.setLimit(limits[0], limits[1]).array();
 
-		return createDataListWrapper(totalRows, data, query)
+		// 需在包装前取得（包装会替换原始值）
+		String nextSeek = null;
+		if (queryParser.isSeekMode() && data.length == limits[0]) {
+			nextSeek = buildNextSeek(data[data.length - 1]);
+		}
+
+		JSONObject result = (JSONObject) createDataListWrapper(totalRows, data, query)
+				.toJson();
+		if (totalCapped) {
+			result.put("totalCapped", true);
+		}
+		if (queryParser.isSeekMode()) {
+			result.put("nextSeek", nextSeek);
+		}
+		return result;
+	}
+
+	/**
+	 * @param lastRow
+	 * @return
+	 * @see QueryParser#buildSeek(ID, Object)
+	 */
+	private String buildNextSeek(Object[] lastRow) {
+		List<String> queryFields = queryParser.getQueryFields();
+		ID lastId = (ID) lastRow[queryFields.size()];
+
+		String sortField = queryParser.getSortField();
+		if (sortField == null) {
+			return QueryParser.buildSeek(lastId, null);
+		}
+
+		int sortIndex = queryFields.indexOf(sortField);
+		Object lastSortValue;
+		if (sortIndex > -1) {
+			lastSortValue = lastRow[sortIndex];
+		} else {
+			Object[] o = Application.getQueryFactory().uniqueNoFilter(lastId, sortField);
+			lastSortValue = o == null ? null : o[0];
+		}
+		return QueryParser.buildSeek(lastId, lastSortValue);
+	}
+
+	/**
+	 * 精确计数
+	 *
+	 * @return
+	 */
+	protected int count() {
+		Object[] count = Application.getQueryFactory().createQuery(queryParser.toCountSql(), user).unique();
+		return ObjectUtils.toInt(count[0]);
+	}
+
+	/**
+	 * 封顶计数。超过 {@link #COUNT_CAP} 条时仅返回 {@link #COUNT_CAP} + 1（即 "10000+"）
+	 *
+	 * @return
+	 */
+	protected int countCapped() {
+		// 探测第 COUNT_CAP + 1 条是否存在
+		Object[][] probe = Application.getQueryFactory().createQuery(queryParser.toCountProbeSql(), user)
+				.setLimit(1, COUNT_CAP)
+				.array();
+		return probe.length > 0 ? COUNT_CAP + 1 : count();
+	}
+
+	/**
+	 * 缓存计数（按查询条件和用户）。缓存超过 {@link #COUNT_CACHE_REFRESH} 秒后异步刷新，本次仍返回旧值
+	 *
+	 * @return
+	 */
+	protected int countCached() {
+		final String ckey = "DLCOUNT-" + EncryptUtils.toMD5Hex(queryParser.toCountSql() + "/" + user);
+		final String cval = Application.getCommonCache().get(ckey);
+		if (cval == null) {
+			int total = count();
+			Application.getCommonCache().put(ckey, total + ":" + System.currentTimeMillis(), COUNT_CACHE_TTL);
+			return total;
+		}
+
+		String[] totalAndTime = cval.split(":");
+		long cachedTime = ObjectUtils.toLong(totalAndTime[1]);
+		if (System.currentTimeMillis() - cachedTime > COUNT_CACHE_REFRESH * 1000L && COUNT_REFRESHING.add(ckey)) {
+			ThreadPool.exec(() -> {
+				try {
+					int total = count();
+					Application.getCommonCache().put(ckey, total + ":" + System.currentTimeMillis(), COUNT_CACHE_TTL);
+				} catch (Exception ex) {
+					LOG.warn("Refresh count failed : " + ckey, ex);
+				} finally {
+					COUNT_REFRESHING.remove(ckey);
+				}
+			});
+		}
+		return ObjectUtils.toInt(totalAndTime[0]);
+	}
+
+	/**
+	 * 键集分页（按排序字段 + 主键）。大数据量遍历时（如导出）避免 offset 过大的深分页
+	 *
+	 * @param seek 游标，首页传入 null
+	 * @param pageSize
+	 * @return 与 {@link #getJSONResult()} 结构相同，不含总数。`nextSeek` 为下一页游标，没有下一页时为 null
+	 * @see QueryParser#toSeekSql(String, List)
+	 */
+	public JSON getJSONResult(String seek, int pageSize) {
+		List<Object> parameters = new ArrayList<>();
+		Query query = Application.getQueryFactory().createQuery(queryParser.toSeekSql(seek, parameters), user);
+		for (int i = 0; i < parameters.size(); i++) {
+			query.setParameter(i + 1, parameters.get(i));
+		}
+		Object[][] data = query.setLimit(pageSize).array();
+
+		// 需在包装前取得（包装会替换原始值）
+		String nextSeek = data.length == pageSize ? buildNextSeek(data[data.length - 1]) : null;
+
+		JSONObject result = (JSONObject) createDataListWrapper(0, data, query)
 				.toJson();
+		result.put("nextSeek", nextSeek);
+		return result;
 	}
 
 	/**
@@ -7,7 +7,11 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.helper.datalist;
 
+import cn.devezhao.commons.CalendarUtils;
 import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Field;
+import cn.devezhao.persist4j.dialect.FieldType;
+import cn.devezhao.persist4j.dialect.Type;
 import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
@@ -20,7 +24,9 @@ import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -42,14 +48,27 @@ public class QueryParser {
 	
 	private String sql;
 	private String countSql;
+	private String selectSql;
+	private String whereSql;
 	private int[] limit;
 	private boolean reload;
 
+	// 排序
+	private String sortField;
+	private boolean sortDesc;
+	// 键集分页
+	private boolean seekMode;
+
 	// 连接字段（跨实体查询的字段）
 	private Map<String, Integer> queryJoinFields;
 
 	// 查询字段
 	private List<String> queryFields = new ArrayList<>();
+	// SQL 参数（键集分页游标）
+	private List<Object> sqlParameters = new ArrayList<>();
+
+	// 游标分隔符
+	private static final String SEEK_SEPARATOR = "|";
 	
 	/**
 	 * @param queryExpr
@@ -78,13 +97,93 @@ public class QueryParser {
 	}
 	
 	/**
+	 * {@link #toSql()} 中的参数（`?`），使用时需按顺序绑定
+	 *
 	 * @return
 	 */
-	protected String toCountSql() {
+	public Object[] getSqlParameters() {
+		doParseIfNeed();
+		return sqlParameters.toArray();
+	}
+
+	/**
+	 * @return
+	 */
+	public String toCountSql() {
 		doParseIfNeed();
 		return countSql;
 	}
 
+	/**
+	 * 用于探测记录数是否超过指定值（配合 offset 查询）
+	 *
+	 * @return
+	 */
+	protected String toCountProbeSql() {
+		doParseIfNeed();
+		return String.format("select %s from %s where %s",
+				entity.getPrimaryField().getName(), entity.getName(), whereSql);
+	}
+
+	/**
+	 * 计数方式
+	 *
+	 * @return
+	 * @see DefaultDataListControl#COUNT_CAPPED
+	 * @see DefaultDataListControl#COUNT_CACHED
+	 */
+	protected String getCountMode() {
+		return queryExpr.getString("countMode");
+	}
+
+	/**
+	 * 键集分页 SQL（按主键升序，忽略排序设置）。用于大数据量遍历，如导出
+	 *
+	 * @param afterId 从此 ID 之后开始，首页传入 null
+	 * @return
+	 */
+	public String toKeysetSql(ID afterId) {
+		doParseIfNeed();
+		String pkName = entity.getPrimaryField().getName();
+		StringBuilder keysetSql = new StringBuilder(selectSql)
+				.append(" where (").append(whereSql).append(')');
+		if (afterId != null) {
+			keysetSql.append(" and ").append(pkName).append(" > '").append(afterId).append('\'');
+		}
+		return keysetSql.append(" order by ").append(pkName).append(" asc").toString();
+	}
+
+	/**
+	 * 键集分页 SQL（按排序字段 + 主键，保留排序设置）。用于大数据量遍历，如导出
+	 *
+	 * @param seek 游标，首页传入 null
+	 * @param parameters 游标参数，按顺序对应 SQL 中的 `?`
+	 * @return
+	 * @see #buildSeek(ID, Object)
+	 */
+	public String toSeekSql(String seek, List<Object> parameters) {
+		doParseIfNeed();
+		StringBuilder seekSql = new StringBuilder(selectSql)
+				.append(" where (").append(whereSql).append(')');
+		String seekWhere = parseSeek(seek, entity, sortField, sortDesc, parameters);
+		if (seekWhere != null) {
+			seekSql.append(" and ").append(seekWhere);
+		}
+		return seekSql.append(toSeekOrder()).toString();
+	}
+
+	/**
+	 * @return
+	 */
+	private String toSeekOrder() {
+		String pkSort = entity.getPrimaryField().getName() + (sortField == null || !sortDesc ? " asc" : " desc");
+		if (sortField == null) {
+			return " order by " + pkSort;
+		} else {
+			return " order by " + sortField + (sortDesc ? " desc, " : " asc, ") + pkSort;
+		}
+	}
+
 	/**
 	 * @return
 	 */
@@ -110,6 +209,24 @@ public class QueryParser {
 		return limit;
 	}
 	
+	/**
+	 * 是否键集分页（查询条件中包含 `seek`）
+	 *
+	 * @return
+	 */
+	protected boolean isSeekMode() {
+		doParseIfNeed();
+		return seekMode;
+	}
+
+	/**
+	 * @return
+	 */
+	protected String getSortField() {
+		doParseIfNeed();
+		return sortField;
+	}
+
 	/**
 	 * @return
 	 */
@@ -201,22 +318,39 @@ public class QueryParser {
 		}
 
 		final String sqlWhere = wheres.isEmpty() ? "1=1" : StringUtils.join(wheres.iterator(), " and ");
-		fullSql.append(" where ").append(sqlWhere);
+		this.selectSql = fullSql.toString();
+		this.whereSql = sqlWhere;
 
 		// 排序
-		
-		StringBuilder sqlSort = new StringBuilder(" order by ");
-		
+
 		String sortNode = queryExpr.getString("sort");
 		if (StringUtils.isNotBlank(sortNode)) {
-			sqlSort.append(parseSort(sortNode));
+			String[] sort_s = sortNode.split(":");
+			this.sortField = sort_s[0];
+			this.sortDesc = "desc".equalsIgnoreCase(sort_s[1]);
 		} else if (entity.containsField(EntityHelper.ModifiedOn)) {
-			sqlSort.append(EntityHelper.ModifiedOn + " desc");
+			this.sortField = EntityHelper.ModifiedOn;
+			this.sortDesc = true;
 		} else if (entity.containsField(EntityHelper.CreatedOn)) {
-			sqlSort.append(EntityHelper.CreatedOn + " desc");
+			this.sortField = EntityHelper.CreatedOn;
+			this.sortDesc = true;
 		}
-		if (sqlSort.length() > 10) {
-			fullSql.append(sqlSort);
+
+		// 键集分页。排序字段 + 主键作为游标
+		this.seekMode = queryExpr.containsKey("seek");
+		if (seekMode) {
+			fullSql.append(" where (").append(sqlWhere).append(')');
+			String seekWhere = parseSeek(queryExpr.getString("seek"), entity, sortField, sortDesc, sqlParameters);
+			if (seekWhere != null) {
+				fullSql.append(" and ").append(seekWhere);
+			}
+
+			fullSql.append(toSeekOrder());
+		} else {
+			fullSql.append(" where ").append(sqlWhere);
+			if (sortField != null) {
+				fullSql.append(" order by ").append(sortField).append(sortDesc ? " desc" : " asc");
+			}
 		}
 		
 		this.sql = fullSql.toString();
@@ -228,21 +362,138 @@ public class QueryParser {
 
 		int pageNo = NumberUtils.toInt(queryExpr.getString("pageNo"), 1);
 		int pageSize = NumberUtils.toInt(queryExpr.getString("pageSize"), 20);
-		this.limit = new int[] { pageSize, pageNo * pageSize - pageSize };
-		this.reload = limit[1] == 0;
+		if (seekMode) {
+			this.limit = new int[] { pageSize, 0 };
+			this.reload = StringUtils.isBlank(queryExpr.getString("seek"));
+		} else {
+			this.limit = new int[] { pageSize, pageNo * pageSize - pageSize };
+			this.reload = limit[1] == 0;
+		}
 		if (!reload) {
 			reload = BooleanUtils.toBoolean(queryExpr.getString("reload"));
 		}
 	}
-	
+
+	/**
+	 * 游标格式为 `ID|排序字段值`，排序字段值为空时仅有 `ID`。
+	 * 空值的排序按 MySQL 的规则（空值最小）处理。游标值按排序字段类型转换后作为参数（`?`）绑定
+	 *
+	 * @param seek
+	 * @param entity
+	 * @param sortField 为空则仅按主键
+	 * @param sortDesc
+	 * @param parameters 转换后的参数，按顺序对应返回条件中的 `?`
+	 * @return
+	 * @throws IllegalArgumentException 游标无效
+	 * @see #buildSeek(ID, Object)
+	 */
+	protected static String parseSeek(String seek, Entity entity, String sortField, boolean sortDesc, List<Object> parameters) {
+		if (StringUtils.isBlank(seek)) {
+			return null;
+		}
+
+		int sepIndex = seek.indexOf(SEEK_SEPARATOR);
+		String lastIdString = sepIndex == -1 ? seek : seek.substring(0, sepIndex);
+		if (!ID.isId(lastIdString)) {
+			throw new IllegalArgumentException("Bad seek : " + seek);
+		}
+		ID lastId = ID.valueOf(lastIdString);
+		if (lastId.getEntityCode().intValue() != entity.getEntityCode().intValue()) {
+			throw new IllegalArgumentException("Bad seek : " + seek);
+		}
+
+		String pkName = entity.getPrimaryField().getName();
+		if (sortField == null) {
+			parameters.add(lastId);
+			return String.format("%s > ?", pkName);
+		}
+
+		Field field = MetadataHelper.getLastJoinField(entity, sortField);
+		if (field == null) {
+			throw new IllegalArgumentException("Bad sort field : " + sortField);
+		}
+
+		Object lastValue = null;
+		if (sepIndex > -1) {
+			lastValue = toSeekValue(field, seek.substring(sepIndex + 1));
+			if (lastValue == null) {
+				throw new IllegalArgumentException("Bad seek : " + seek);
+			}
+		}
+
+		if (sortDesc) {
+			if (lastValue == null) {
+				parameters.add(lastId);
+				return String.format("(%s is null and %s < ?)", sortField, pkName);
+			}
+			parameters.add(lastValue);
+			parameters.add(lastValue);
+			parameters.add(lastId);
+			return String.format("(%s < ? or (%s = ? and %s < ?) or %s is null)",
+					sortField, sortField, pkName, sortField);
+		} else {
+			if (lastValue == null) {
+				parameters.add(lastId);
+				return String.format("((%s is null and %s > ?) or %s is not null)",
+						sortField, pkName, sortField);
+			}
+			parameters.add(lastValue);
+			parameters.add(lastValue);
+			parameters.add(lastId);
+			return String.format("(%s > ? or (%s = ? and %s > ?))",
+					sortField, sortField, pkName);
+		}
+	}
+
+	/**
+	 * 游标值按字段类型转换
+	 *
+	 * @param field
+	 * @param value
+	 * @return 无法转换返回 null
+	 */
+	private static Object toSeekValue(Field field, String value) {
+		Type type = field.getType();
+		if (type == FieldType.TIMESTAMP || type == FieldType.DATE) {
+			try {
+				return CalendarUtils.getUTCDateTimeFormat().parse(value);
+			} catch (ParseException ex) {
+				return null;
+			}
+		} else if (type == FieldType.INT || type == FieldType.SMALL_INT || type == FieldType.LONG) {
+			return NumberUtils.isDigits(StringUtils.removeStart(value, "-")) ? NumberUtils.createLong(value) : null;
+		} else if (type == FieldType.DECIMAL || type == FieldType.DOUBLE) {
+			return NumberUtils.isNumber(value) ? NumberUtils.createBigDecimal(value) : null;
+		} else if (type == FieldType.PRIMARY || type == FieldType.REFERENCE) {
+			return ID.isId(value) ? ID.valueOf(value) : null;
+		} else if (type == FieldType.BOOL) {
+			return "true".equals(value) || "false".equals(value) ? Boolean.valueOf(value) : null;
+		}
+		return value;
+	}
+
 	/**
-	 * @param sort
+	 * 生成键集分页游标
+	 *
+	 * @param lastId 当前页最后一条记录
+	 * @param lastSortValue 当前页最后一条记录的排序字段值
 	 * @return
+	 * @see #parseSeek(String, String)
 	 */
-	private String parseSort(String sort) {
-		String[] sort_s = sort.split(":");
-		String sortField = sort_s[0];
-		return sortField + ("desc".equalsIgnoreCase(sort_s[1]) ? " desc" : " asc");
+	public static String buildSeek(ID lastId, Object lastSortValue) {
+		if (lastSortValue == null) {
+			return lastId.toLiteral();
+		}
+
+		String value;
+		if (lastSortValue instanceof Date) {
+			value = CalendarUtils.getUTCDateTimeFormat().format(lastSortValue);
+		} else if (lastSortValue instanceof ID) {
+			value = ((ID) lastSortValue).toLiteral();
+		} else {
+			value = lastSortValue.toString();
+		}
+		return lastId.toLiteral() + SEEK_SEPARATOR + value;
 	}
 
     /**
@@ -0,0 +1,101 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.fieldvalue;
+
+import cn.devezhao.commons.CalendarUtils;
+import cn.devezhao.persist4j.Field;
+import com.rebuild.server.metadata.DynamicMetadataFactory;
+import com.rebuild.server.metadata.entity.EasyMeta;
+import org.apache.commons.lang.StringUtils;
+
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 格式化器缓存。
+ * `DecimalFormat`/`DateFormat` 非线程安全，因此按格式缓存为线程独享实例；字段的格式（扩展属性）按元数据版本缓存
+ *
+ * @author devezhao
+ * @since 2020/09/05
+ * @see FieldValueWrapper
+ */
+public class FieldFormatter {
+
+    // 格式 > 格式化器
+    private static final Map<String, ThreadLocal<DecimalFormat>> DECIMAL_FORMATS = new ConcurrentHashMap<>();
+    private static final Map<String, ThreadLocal<DateFormat>> DATE_FORMATS = new ConcurrentHashMap<>();
+
+    // 字段+扩展属性 > 格式
+    private static final Map<String, FieldFormat> FIELD_FORMATS = new ConcurrentHashMap<>();
+
+    private FieldFormatter() {}
+
+    /**
+     * 获取字段的格式（扩展属性），未配置则使用字段类型的默认格式
+     *
+     * @param field
+     * @param extraAttrName
+     * @return
+     */
+    public static String getFormat(EasyMeta field, String extraAttrName) {
+        final Field baseField = (Field) field.getBaseMeta();
+        final String key = baseField.getOwnEntity().getName() + "." + baseField.getName() + "/" + extraAttrName;
+        final long version = DynamicMetadataFactory.getVersion();
+
+        FieldFormat ff = FIELD_FORMATS.get(key);
+        // 元数据刷新后字段为新对象
+        if (ff != null && ff.field == baseField && ff.version == version) {
+            return ff.format;
+        }
+
+        String format = field.getExtraAttr(extraAttrName);
+        if (StringUtils.isBlank(format)) {
+            format = field.getDisplayType().getDefaultFormat();
+        }
+        FIELD_FORMATS.put(key, new FieldFormat(baseField, version, format));
+        return format;
+    }
+
+    /**
+     * 线程独享的 `DecimalFormat`，不可跨线程使用
+     *
+     * @param pattern
+     * @return
+     */
+    public static DecimalFormat getDecimalFormat(String pattern) {
+        return DECIMAL_FORMATS.computeIfAbsent(pattern,
+                k -> ThreadLocal.withInitial(() -> new DecimalFormat(k))).get();
+    }
+
+    /**
+     * 线程独享的 `DateFormat`，不可跨线程使用
+     *
+     * @param pattern
+     * @return
+     */
+    public static DateFormat getDateFormat(String pattern) {
+        return DATE_FORMATS.computeIfAbsent(pattern,
+                k -> ThreadLocal.withInitial(() -> CalendarUtils.getDateFormat(k))).get();
+    }
+
+    // --
+
+    private static class FieldFormat {
+        final Field field;
+        final long version;
+        final String format;
+
+        FieldFormat(Field field, long version, String format) {
+            this.field = field;
+            this.version = version;
+            this.format = format;
+        }
+    }
+}
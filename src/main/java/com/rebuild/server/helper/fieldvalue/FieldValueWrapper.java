@@ -7,8 +7,6 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.helper.fieldvalue;
 
-import cn.devezhao.commons.CalendarUtils;
-import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.Field;
 import cn.devezhao.persist4j.engine.ID;
 import cn.devezhao.persist4j.metadata.MetadataException;
@@ -29,7 +27,12 @@ import com.rebuild.server.metadata.entity.FieldExtConfigProps;
 import com.rebuild.utils.JSONUtils;
 import org.apache.commons.lang.StringUtils;
 
-import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 字段值包装。例如 BOOL 类型的 T/F 将格式化为 是/否。
@@ -144,9 +147,8 @@ public class FieldValueWrapper {
 	 * @return
 	 */
 	public String wrapDate(Object value, EasyMeta field) {
-		String format = field.getExtraAttr(FieldExtConfigProps.DATE_DATEFORMAT);
-        if (StringUtils.isBlank(format)) format = field.getDisplayType().getDefaultFormat();
-		return CalendarUtils.getDateFormat(format).format(value);
+		String format = FieldFormatter.getFormat(field, FieldExtConfigProps.DATE_DATEFORMAT);
+		return FieldFormatter.getDateFormat(format).format(value);
 	}
 
 	/**
@@ -155,9 +157,8 @@ public class FieldValueWrapper {
 	 * @return
 	 */
 	public String wrapDatetime(Object value, EasyMeta field) {
-		String format = field.getExtraAttr(FieldExtConfigProps.DATETIME_DATEFORMAT);
-        if (StringUtils.isBlank(format)) format = field.getDisplayType().getDefaultFormat();
-		return CalendarUtils.getDateFormat(format).format(value);
+		String format = FieldFormatter.getFormat(field, FieldExtConfigProps.DATETIME_DATEFORMAT);
+		return FieldFormatter.getDateFormat(format).format(value);
 	}
 	
 	/**
@@ -166,9 +167,8 @@ public class FieldValueWrapper {
 	 * @return
 	 */
 	public String wrapNumber(Object value, EasyMeta field) {
-		String format = field.getExtraAttr(FieldExtConfigProps.NUMBER_FORMAT);
-		if (StringUtils.isBlank(format)) format = field.getDisplayType().getDefaultFormat();
-		return new DecimalFormat(format).format(value);
+		String format = FieldFormatter.getFormat(field, FieldExtConfigProps.NUMBER_FORMAT);
+		return FieldFormatter.getDecimalFormat(format).format(value);
 	}
 
 	/**
@@ -177,9 +177,8 @@ public class FieldValueWrapper {
 	 * @return
 	 */
 	public String wrapDecimal(Object value, EasyMeta field) {
-		String format = field.getExtraAttr(FieldExtConfigProps.DECIMAL_FORMAT);
-        if (StringUtils.isBlank(format)) format = field.getDisplayType().getDefaultFormat();
-		return new DecimalFormat(format).format(value);
+		String format = FieldFormatter.getFormat(field, FieldExtConfigProps.DECIMAL_FORMAT);
+		return FieldFormatter.getDecimalFormat(format).format(value);
 	}
 
 	/**
@@ -336,8 +335,6 @@ public class FieldValueWrapper {
 			throw new NoRecordFoundException("[id] must not be null");
 		}
 		
-		Entity entity = MetadataHelper.getEntity(id.getEntityCode());
-
 		if (id.getEntityCode() == EntityHelper.ClassificationData) {
 			String hasValue = ClassificationManager.instance.getFullName(id);
 			if (hasValue == null) {
@@ -352,20 +349,53 @@ public class FieldValueWrapper {
 			return hasValue;
 		}
 
-		Field nameField = MetadataHelper.getNameField(entity);
-		Object[] nameValue = Application.getQueryFactory().uniqueNoFilter(id, nameField.getName());
-		if (nameValue == null) {
+		String nameLabel = Application.getRecordLabelCache().getLabels(Collections.singleton(id)).get(id);
+		if (nameLabel == null) {
             throw new NoRecordFoundException("No record found by ID : " + id);
         }
 
-		Object nameLabel = instance.wrapFieldValue(nameValue[0], nameField, true);
-		if (nameLabel == null || StringUtils.isBlank(nameLabel.toString())) {
+		if (StringUtils.isBlank(nameLabel)) {
 		    if (defaultValue == null) {
                 defaultValue = NO_LABEL_PREFIX + id.toLiteral().toUpperCase();
             }
 			return defaultValue;
 		}
-		return nameLabel.toString();
+		return nameLabel;
+	}
+
+	/**
+	 * 批量获取记录的 NAME/LABEL 字段值。每个实体仅需一次查询（并使用缓存）
+	 *
+	 * @param ids
+	 * @param defaultValue 名称为空时的值，为 null 则采用 @+ID
+	 * @return 记录不存在的值为 {@link #MISS_REF_PLACE}
+	 * @see #getLabel(ID, String)
+	 * @see com.rebuild.server.helper.cache.RecordLabelCache
+	 */
+	public static Map<ID, String> getLabels(Collection<ID> ids, String defaultValue) {
+		Map<ID, String> labels = new HashMap<>();
+		List<ID> records = new ArrayList<>();
+		for (ID id : ids) {
+			if (id.getEntityCode() == EntityHelper.ClassificationData || id.getEntityCode() == EntityHelper.PickList) {
+				labels.put(id, getLabelNotry(id));
+			} else if (MetadataHelper.containsEntity(id.getEntityCode())) {
+				records.add(id);
+			} else {
+				labels.put(id, MISS_REF_PLACE);
+			}
+		}
+
+		Map<ID, String> loaded = Application.getRecordLabelCache().getLabels(records);
+		for (ID id : records) {
+			String nameLabel = loaded.get(id);
+			if (nameLabel == null) {
+				nameLabel = MISS_REF_PLACE;
+			} else if (StringUtils.isBlank(nameLabel)) {
+				nameLabel = defaultValue == null ? NO_LABEL_PREFIX + id.toLiteral().toUpperCase() : defaultValue;
+			}
+			labels.put(id, nameLabel);
+		}
+		return labels;
 	}
 
     /**
@@ -0,0 +1,51 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.search;
+
+import cn.devezhao.persist4j.engine.ID;
+
+/**
+ * 全文索引（单个实体）。
+ * 搜索结果为候选记录，可能包含已不匹配的记录，使用方应通过数据库再次校验（同时校验权限）
+ *
+ * @author devezhao
+ * @since 2020/09/13
+ * @see FullTextIndexManager
+ */
+public interface FullTextIndex {
+
+    /**
+     * 新增或重建记录的索引
+     *
+     * @param recordId
+     * @param texts
+     */
+    void add(ID recordId, String... texts);
+
+    /**
+     * @param recordId
+     */
+    void remove(ID recordId);
+
+    /**
+     * 包含搜索（同 `like '%q%'`），大小写不敏感。
+     * 返回顺序仅用于截断（最近索引的记录在前），不代表修改时间顺序
+     *
+     * @param q
+     * @param limit
+     * @return
+     */
+    ID[] search(String q, int limit);
+
+    /**
+     * 已索引记录数
+     *
+     * @return
+     */
+    int size();
+}
@@ -0,0 +1,348 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.search;
+
+import cn.devezhao.commons.CalendarUtils;
+import cn.devezhao.commons.ThreadPool;
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Field;
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.Application;
+import com.rebuild.server.helper.ConfigurableItem;
+import com.rebuild.server.helper.SysConfiguration;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.metadata.MetadataSorter;
+import com.rebuild.server.metadata.entity.DisplayType;
+import com.rebuild.server.metadata.entity.EasyMeta;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 全文索引管理。
+ * 为 {@link ConfigurableItem#FullTextIndexEntities} 中的实体维护名称字段、QuickCode 及自动编号字段的索引，
+ * 首次使用时异步构建，之后随记录变化增量维护（见 {@link FullTextIndexObserver}）。
+ * 索引仅存在于本节点内存中，集群（使用 redis）时定期按修改时间追平其他节点的变化。
+ * 索引未就绪或不适用时返回 null，使用方应使用原查询
+ *
+ * @author devezhao
+ * @since 2020/09/13
+ * @see FullTextIndex
+ */
+public class FullTextIndexManager {
+
+    private static final Log LOG = LogFactory.getLog(FullTextIndexManager.class);
+
+    // 构建时每页记录数
+    private static final int BUILD_PAGE_SIZE = 5000;
+    // 集群时追平间隔（毫秒）
+    private static final long SYNC_INTERVAL = 30 * 1000;
+    // 追平时向前多取（毫秒），防止各节点时间偏差
+    private static final long SYNC_SKEW = 60 * 1000;
+
+    public static final FullTextIndexManager instance = new FullTextIndexManager();
+
+    private FullTextIndexManager() {}
+
+    // 实体 > 索引
+    private final Map<String, Holder> holders = new ConcurrentHashMap<>();
+
+    /**
+     * 获取可用的索引
+     *
+     * @param entity
+     * @param searchFields 搜索字段，索引必须全部包含
+     * @param q 搜索词，包含通配符时不可用
+     * @return 未启用或未就绪时返回 null
+     */
+    public FullTextIndex getIndex(Entity entity, Collection<String> searchFields, String q) {
+        if (StringUtils.isBlank(q) || q.contains("%") || q.contains("_") || !isEnabled(entity)) {
+            return null;
+        }
+
+        Holder holder = holders.computeIfAbsent(entity.getName(), k -> new Holder(entity));
+        if (!holder.ready) {
+            holder.buildIfNeed();
+            return null;
+        }
+        if (!holder.fields.containsAll(searchFields)) {
+            return null;
+        }
+
+        if (Application.getCommonCache().isUseRedis()) {
+            holder.syncIfNeed();
+        }
+        return holder.index;
+    }
+
+    /**
+     * 记录新建/更新
+     *
+     * @param recordId
+     */
+    public void onSaved(ID recordId) {
+        Holder holder = getHolder(recordId);
+        if (holder == null) {
+            return;
+        }
+
+        if (!holder.ready) {
+            holder.dirty.add(recordId);
+            // 构建恰好已完成
+            if (!holder.ready) {
+                return;
+            }
+        }
+        holder.reindex(recordId);
+    }
+
+    /**
+     * 记录删除
+     *
+     * @param recordId
+     */
+    public void onDeleted(ID recordId) {
+        Holder holder = getHolder(recordId);
+        if (holder != null) {
+            holder.index.remove(recordId);
+        }
+    }
+
+    /**
+     * 指定实体的索引字段（已创建索引）
+     *
+     * @param entity
+     * @return 未创建索引返回 null
+     */
+    public List<String> getIndexedFields(Entity entity) {
+        Holder holder = holders.get(entity.getName());
+        return holder == null ? null : holder.fields;
+    }
+
+    /**
+     * 丢弃索引，下次使用时重建
+     *
+     * @param entity
+     */
+    public void reset(Entity entity) {
+        holders.remove(entity.getName());
+    }
+
+    private Holder getHolder(ID recordId) {
+        Entity entity = MetadataHelper.getEntity(recordId.getEntityCode());
+        return holders.get(entity.getName());
+    }
+
+    /**
+     * @param entity
+     * @return
+     */
+    protected boolean isEnabled(Entity entity) {
+        if (MetadataHelper.isBizzEntity(entity.getEntityCode())) {
+            return false;
+        }
+
+        String entities = SysConfiguration.get(ConfigurableItem.FullTextIndexEntities);
+        if (StringUtils.isBlank(entities)) {
+            return false;
+        }
+        for (String e : entities.split(",")) {
+            if (entity.getName().equalsIgnoreCase(e.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 索引字段：名称字段（文本类）、QuickCode、自动编号字段
+     *
+     * @param entity
+     * @return
+     */
+    protected static List<String> getIndexFields(Entity entity) {
+        List<String> fields = new ArrayList<>();
+
+        Field nameField = MetadataHelper.getNameField(entity);
+        DisplayType dt = nameField == null ? null : EasyMeta.getDisplayType(nameField);
+        if (dt == DisplayType.TEXT || dt == DisplayType.NTEXT || dt == DisplayType.EMAIL || dt == DisplayType.PHONE
+                || dt == DisplayType.URL || dt == DisplayType.SERIES || dt == DisplayType.LOCATION) {
+            fields.add(nameField.getName());
+        }
+        if (entity.containsField(EntityHelper.QuickCode)) {
+            fields.add(EntityHelper.QuickCode);
+        }
+        for (Field seriesField : MetadataSorter.sortFields(entity, DisplayType.SERIES)) {
+            if (!fields.contains(seriesField.getName())) {
+                fields.add(seriesField.getName());
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * 索引实现，可通过 `-Dfulltext.index.class` 指定
+     *
+     * @return
+     */
+    protected static FullTextIndex newIndex() {
+        String clazz = System.getProperty("fulltext.index.class");
+        if (StringUtils.isNotBlank(clazz)) {
+            try {
+                return (FullTextIndex) Class.forName(clazz).newInstance();
+            } catch (Exception ex) {
+                LOG.error("Cannot create full-text index : " + clazz + ", use default", ex);
+            }
+        }
+        return new NGramFullTextIndex();
+    }
+
+    // --
+
+    /**
+     * 实体索引
+     */
+    private static class Holder {
+        final Entity entity;
+        final List<String> fields;
+        final FullTextIndex index;
+
+        volatile boolean ready = false;
+        // 构建期间变化的记录
+        final Set<ID> dirty = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean building = new AtomicBoolean(false);
+
+        volatile long lastSync;
+        final AtomicBoolean syncing = new AtomicBoolean(false);
+
+        Holder(Entity entity) {
+            this.entity = entity;
+            this.fields = getIndexFields(entity);
+            this.index = newIndex();
+        }
+
+        void buildIfNeed() {
+            if (fields.isEmpty() || !building.compareAndSet(false, true)) {
+                return;
+            }
+
+            ThreadPool.exec(() -> {
+                try {
+                    build();
+                } catch (Exception ex) {
+                    LOG.error("Building full-text index failure : " + entity.getName(), ex);
+                    building.set(false);
+                }
+            });
+        }
+
+        void build() {
+            final long start = System.currentTimeMillis();
+            final String pkName = entity.getPrimaryField().getName();
+            final String sql = String.format("select %s,%s from %s",
+                    pkName, StringUtils.join(fields, ","), entity.getName());
+
+            // 按主键分页，避免深分页
+            ID lastId = null;
+            while (true) {
+                String pageSql = sql;
+                if (lastId != null) {
+                    pageSql += String.format(" where %s > '%s'", pkName, lastId);
+                }
+                pageSql += " order by " + pkName + " asc";
+
+                Object[][] array = Application.createQueryNoFilter(pageSql).setLimit(BUILD_PAGE_SIZE).array();
+                for (Object[] o : array) {
+                    index.add((ID) o[0], toTexts(o));
+                }
+
+                if (array.length < BUILD_PAGE_SIZE) {
+                    break;
+                }
+                lastId = (ID) array[array.length - 1][0];
+            }
+
+            lastSync = start;
+            ready = true;
+
+            // 构建期间的变化
+            for (ID id : dirty.toArray(new ID[0])) {
+                dirty.remove(id);
+                reindex(id);
+            }
+
+            LOG.info("Built full-text index : " + entity.getName() + " (" + index.size() + ") in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        void reindex(ID recordId) {
+            String sql = String.format("select %s,%s from %s where %s = ?",
+                    entity.getPrimaryField().getName(), StringUtils.join(fields, ","),
+                    entity.getName(), entity.getPrimaryField().getName());
+            Object[] o = Application.createQueryNoFilter(sql).setParameter(1, recordId).unique();
+
+            if (o == null) {
+                index.remove(recordId);
+            } else {
+                index.add(recordId, toTexts(o));
+            }
+        }
+
+        void syncIfNeed() {
+            if (!entity.containsField(EntityHelper.ModifiedOn)
+                    || System.currentTimeMillis() - lastSync < SYNC_INTERVAL || !syncing.compareAndSet(false, true)) {
+                return;
+            }
+
+            ThreadPool.exec(() -> {
+                try {
+                    final long start = System.currentTimeMillis();
+                    String sql = String.format("select %s,%s from %s where %s >= '%s'",
+                            entity.getPrimaryField().getName(), StringUtils.join(fields, ","), entity.getName(),
+                            EntityHelper.ModifiedOn,
+                            CalendarUtils.getUTCDateTimeFormat().format(new Date(lastSync - SYNC_SKEW)));
+
+                    Object[][] array = Application.createQueryNoFilter(sql).array();
+                    for (Object[] o : array) {
+                        index.add((ID) o[0], toTexts(o));
+                    }
+                    lastSync = start;
+
+                } catch (Exception ex) {
+                    LOG.error("Syncing full-text index failure : " + entity.getName(), ex);
+                } finally {
+                    syncing.set(false);
+                }
+            });
+        }
+
+        String[] toTexts(Object[] o) {
+            String[] texts = new String[o.length - 1];
+            for (int i = 1; i < o.length; i++) {
+                texts[i - 1] = o[i] == null ? null : o[i].toString();
+            }
+            return texts;
+        }
+
+        @Override
+        public String toString() {
+            return entity.getName() + Arrays.toString(fields.toArray());
+        }
+    }
+}
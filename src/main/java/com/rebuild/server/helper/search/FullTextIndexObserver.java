@@ -0,0 +1,61 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.search;
+
+import cn.devezhao.persist4j.Record;
+import com.rebuild.server.service.OperatingContext;
+import com.rebuild.server.service.OperatingObserver;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 记录变化时增量维护全文索引
+ *
+ * @author devezhao
+ * @since 2020/09/13
+ * @see FullTextIndexManager
+ */
+public class FullTextIndexObserver extends OperatingObserver {
+
+    // 事物提交后再维护（回滚不会留下脏索引），且不占用写事物
+    @Override
+    protected boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    protected void onCreate(OperatingContext context) {
+        onSaved(context.getAfterRecord());
+    }
+
+    @Override
+    protected void onUpdate(OperatingContext context) {
+        onSaved(context.getAfterRecord());
+    }
+
+    private void onSaved(Record record) {
+        List<String> fields = FullTextIndexManager.instance.getIndexedFields(record.getEntity());
+        if (fields == null) {
+            return;
+        }
+
+        // 仅索引字段变化时
+        for (Iterator<String> iter = record.getAvailableFieldIterator(); iter.hasNext(); ) {
+            if (fields.contains(iter.next())) {
+                FullTextIndexManager.instance.onSaved(record.getPrimary());
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void onDelete(OperatingContext context) {
+        FullTextIndexManager.instance.onDeleted(context.getBeforeRecord().getPrimary());
+    }
+}
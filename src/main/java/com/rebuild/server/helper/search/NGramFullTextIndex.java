@@ -0,0 +1,255 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.search;
+
+import cn.devezhao.persist4j.engine.ID;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存倒排索引（本节点）。
+ * 以单字及相邻二字为词项，适用于中文等无分词文本的包含搜索。
+ * 记录的文档号单调递增（更新即重新编号），因此倒排表天然有序，且倒序遍历即为最近索引在前。
+ * 注意：全量构建按主键顺序索引，因此这并不等于最近修改在前，结果排序应由使用方决定
+ *
+ * @author devezhao
+ * @since 2020/09/13
+ */
+public class NGramFullTextIndex implements FullTextIndex {
+
+    // 删除的文档超过此数量（且超过 1/3）时压缩
+    private static final int COMPACT_MIN = 10000;
+
+    // 词项 > 文档号（升序）
+    private Map<String, Postings> postings = new HashMap<>();
+    // 文档号 > 记录（已删除为 null）
+    private ID[] docs = new ID[1024];
+    private int nextDoc = 0;
+    // 记录 > 文档号
+    final private Map<ID, Integer> docOfRecord = new HashMap<>();
+    private int deleted = 0;
+
+    final private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void add(ID recordId, String... texts) {
+        Set<String> terms = new HashSet<>();
+        for (String text : texts) {
+            if (StringUtils.isNotBlank(text)) {
+                terms.addAll(toTerms(normalize(text), true));
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            removeInternal(recordId);
+            if (terms.isEmpty()) {
+                return;
+            }
+
+            final int doc = nextDoc++;
+            if (doc == docs.length) {
+                docs = Arrays.copyOf(docs, docs.length * 2);
+            }
+            docs[doc] = recordId;
+            docOfRecord.put(recordId, doc);
+
+            for (String term : terms) {
+                postings.computeIfAbsent(term, k -> new Postings()).add(doc);
+            }
+
+            if (deleted > COMPACT_MIN && deleted > docOfRecord.size() / 2) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(ID recordId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(recordId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeInternal(ID recordId) {
+        Integer doc = docOfRecord.remove(recordId);
+        if (doc != null) {
+            docs[doc] = null;
+            deleted++;
+        }
+    }
+
+    @Override
+    public ID[] search(String q, int limit) {
+        Set<String> terms = toTerms(normalize(q), false);
+        if (terms.isEmpty()) {
+            return new ID[0];
+        }
+
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>();
+            for (String term : terms) {
+                Postings p = postings.get(term);
+                if (p == null) {
+                    return new ID[0];
+                }
+                lists.add(p);
+            }
+            lists.sort(Comparator.comparingInt(o -> o.size));
+
+            // 以最短的倒排表为驱动，倒序（最近）取交集
+            final Postings driver = lists.get(0);
+            List<ID> found = new ArrayList<>();
+            for (int i = driver.size - 1; i >= 0 && found.size() < limit; i--) {
+                int doc = driver.docs[i];
+                ID recordId = docs[doc];
+                if (recordId == null) continue;
+
+                boolean all = true;
+                for (int j = 1; j < lists.size(); j++) {
+                    if (!lists.get(j).contains(doc)) {
+                        all = false;
+                        break;
+                    }
+                }
+                if (all) found.add(recordId);
+            }
+            return found.toArray(new ID[0]);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docOfRecord.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 移除已删除的文档并重新编号（保持顺序）
+     */
+    private void compact() {
+        final int[] remap = new int[nextDoc];
+        final ID[] newDocs = new ID[Math.max(1024, docOfRecord.size() * 2)];
+        int newDoc = 0;
+        for (int doc = 0; doc < nextDoc; doc++) {
+            if (docs[doc] == null) {
+                remap[doc] = -1;
+            } else {
+                remap[doc] = newDoc;
+                newDocs[newDoc] = docs[doc];
+                docOfRecord.put(docs[doc], newDoc);
+                newDoc++;
+            }
+        }
+
+        for (Iterator<Postings> iter = postings.values().iterator(); iter.hasNext(); ) {
+            Postings p = iter.next();
+            p.remap(remap);
+            if (p.size == 0) iter.remove();
+        }
+
+        docs = newDocs;
+        nextDoc = newDoc;
+        deleted = 0;
+    }
+
+    /**
+     * @param text
+     * @return
+     */
+    protected String normalize(String text) {
+        return text == null ? StringUtils.EMPTY : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 索引时为单字+二字，搜索时二字（仅一个字时为单字）
+     *
+     * @param text
+     * @param forIndex
+     * @return
+     */
+    protected Set<String> toTerms(String text, boolean forIndex) {
+        if (text.isEmpty()) {
+            return Collections.emptySet();
+        }
+        if (!forIndex && text.length() == 1) {
+            return Collections.singleton(text);
+        }
+
+        Set<String> terms = new HashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (forIndex && !Character.isWhitespace(c)) {
+                terms.add(String.valueOf(c));
+            }
+            if (i + 1 < text.length()) {
+                terms.add(text.substring(i, i + 2));
+            }
+        }
+        return terms;
+    }
+
+    // --
+
+    /**
+     * 倒排表（升序文档号）
+     */
+    private static class Postings {
+        int[] docs = new int[4];
+        int size = 0;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        boolean contains(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+        }
+
+        void remap(int[] remap) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int newDoc = remap[docs[i]];
+                if (newDoc != -1) docs[n++] = newDoc;
+            }
+            size = n;
+            if (docs.length > 16 && size < docs.length / 4) {
+                docs = Arrays.copyOf(docs, Math.max(4, size));
+            }
+        }
+    }
+}
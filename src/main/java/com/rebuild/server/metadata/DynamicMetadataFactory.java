@@ -21,6 +21,8 @@ import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
 import org.dom4j.Element;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @author zhaofang123@gmail.com
  * @since 08/04/2018
@@ -30,6 +32,9 @@ public class DynamicMetadataFactory extends ConfigurationMetadataFactory {
 
 	private static final Log LOG = LogFactory.getLog(DynamicMetadataFactory.class);
 
+	// 元数据版本，每次（重新）加载递增
+	private static final AtomicLong VERSION = new AtomicLong();
+
 	public DynamicMetadataFactory(String configLocation, Dialect dialect) {
 		super(configLocation, dialect);
 	}
@@ -40,9 +45,19 @@ public class DynamicMetadataFactory extends ConfigurationMetadataFactory {
 		if (!initState) {
 			appendConfig4Db(config);
 		}
+		VERSION.incrementAndGet();
 		return config;
 	}
 
+	/**
+	 * 元数据版本。可用于判断基于元数据的缓存是否失效
+	 *
+	 * @return
+	 */
+	public static long getVersion() {
+		return VERSION.get();
+	}
+
 	/**
 	 * 从数据库读取配置
 	 *
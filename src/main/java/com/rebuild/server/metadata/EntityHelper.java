@@ -175,4 +175,6 @@ public class EntityHelper {
 	public static final int ProjectTaskComment = 54;
 	public static final int ProjectTaskTag = 55;
 	public static final int ProjectTaskTagRelation = 56;
+
+	public static final int ChartRollup = 57;
 }
@@ -43,13 +43,16 @@ public abstract class BaseService implements ServiceSpec {
 
 	@Override
 	public Record update(Record record) {
-		return aPMFactory.createPersistManager().update(record);
+		record = aPMFactory.createPersistManager().update(record);
+		Application.getRecordLabelCache().cleanLabel(record.getPrimary());
+		return record;
 	}
 
 	@Override
 	public int delete(ID recordId) {
 		int affected = aPMFactory.createPersistManager().delete(recordId);
 		Application.getRecordOwningCache().cleanOwningUser(recordId);
+		Application.getRecordLabelCache().cleanLabel(recordId);
 		return affected;
 	}
 	
@@ -46,13 +46,14 @@ public abstract class OperatingObserver implements Observer {
 	public void update(final Observable o, final Object arg) {
 		final OperatingContext ctx = (OperatingContext) arg;
 		if (isAsync()) {
-			ThreadPool.exec(() -> {
+			// 事物提交后才执行，回滚时（如导入时批量失败后逐条重试）不会执行
+			TransactionManual.afterCommit(() -> ThreadPool.exec(() -> {
 				try {
 					updateByAction(ctx);
 				} catch (Exception ex) {
 					LOG.error("OperateContext : " + ctx, ex);
 				}
-			});
+			}));
 		} else {
 			updateByAction(ctx);
 		}
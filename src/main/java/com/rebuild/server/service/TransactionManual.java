@@ -13,6 +13,8 @@ import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * 手动事物管理
@@ -69,4 +71,43 @@ public class TransactionManual {
     public static TransactionStatus currentTransactionStatus() {
         return TransactionAspectSupport.currentTransactionStatus();
     }
+
+    /**
+     * 在当前事物提交后执行（如清除缓存），无事物时立即执行
+     *
+     * @param action
+     */
+    public static void afterCommit(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 在当前事物结束后执行（无论提交或回滚），无事物时不执行
+     *
+     * @param action
+     * @return 是否已注册
+     */
+    public static boolean afterCompletion(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                action.run();
+            }
+        });
+        return true;
+    }
 }
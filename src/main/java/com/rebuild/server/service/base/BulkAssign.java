@@ -16,6 +16,8 @@ import com.rebuild.server.service.OperatingContext;
 import com.rebuild.server.service.notification.NotificationObserver;
 import com.rebuild.server.service.notification.NotificationOnce;
 
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -34,11 +36,14 @@ public class BulkAssign extends BulkOperator {
 	protected Integer exec() {
 		final ID[] records = prepareRecords();
 		this.setTotal(records.length);
+
+		final Map<ID, Boolean> allowed = Application.getPrivilegesManager().allowAll(
+				context.getOpUser(), Arrays.asList(records), BizzPermission.ASSIGN);
 		
 		ID firstAssigned = null;
         NotificationOnce.begin();
 		for (ID id : records) {
-			if (Application.getPrivilegesManager().allowAssign(context.getOpUser(), id)) {
+			if (allowed.get(id)) {
 				int a = ges.assign(id, context.getToUser(), context.getCascades());
 				if (a > 0) {
 					this.addSucceeded();
@@ -7,6 +7,7 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.service.base;
 
+import cn.devezhao.bizz.privileges.impl.BizzPermission;
 import cn.devezhao.persist4j.Record;
 import cn.devezhao.persist4j.engine.ID;
 import cn.devezhao.persist4j.record.JsonRecordCreator;
@@ -18,6 +19,9 @@ import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.service.DataSpecificationException;
 import org.apache.commons.lang.StringUtils;
 
+import java.util.Arrays;
+import java.util.Map;
+
 /**
  * 批量修改
  *
@@ -66,8 +70,11 @@ public class BulkBacthUpdate extends BulkOperator {
             LOG.debug("Converter to : " + formJson);
         }
 
+        final Map<ID, Boolean> allowed = Application.getPrivilegesManager().allowAll(
+                context.getOpUser(), Arrays.asList(willUpdates), BizzPermission.UPDATE);
+
         for (ID id : willUpdates) {
-            if (Application.getPrivilegesManager().allowUpdate(context.getOpUser(), id)) {
+            if (allowed.get(id)) {
                 // 更新记录
                 formJson.getJSONObject(JsonRecordCreator.META_FIELD).put("id", id.toLiteral());
 
@@ -7,10 +7,14 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.service.base;
 
+import cn.devezhao.bizz.privileges.impl.BizzPermission;
 import cn.devezhao.persist4j.engine.ID;
 import com.rebuild.server.Application;
 import com.rebuild.server.service.DataSpecificationException;
 
+import java.util.Arrays;
+import java.util.Map;
+
 /**
  * 删除
  * 
@@ -27,9 +31,12 @@ public class BulkDelete extends BulkOperator {
 	protected Integer exec() {
 		final ID[] records = prepareRecords();
 		this.setTotal(records.length);
+
+		final Map<ID, Boolean> allowed = Application.getPrivilegesManager().allowAll(
+				context.getOpUser(), Arrays.asList(records), BizzPermission.DELETE);
 		
 		for (ID id : records) {
-			if (Application.getPrivilegesManager().allowDelete(context.getOpUser(), id)) {
+			if (allowed.get(id)) {
 				try {
 					ges.delete(id, context.getCascades());
 					this.addSucceeded();
@@ -16,6 +16,8 @@ import com.rebuild.server.service.OperatingContext;
 import com.rebuild.server.service.notification.NotificationObserver;
 import com.rebuild.server.service.notification.NotificationOnce;
 
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -34,11 +36,14 @@ public class BulkShare extends BulkOperator {
 	protected Integer exec() {
 		final ID[] records = prepareRecords();
 		this.setTotal(records.length);
+
+		final Map<ID, Boolean> allowed = Application.getPrivilegesManager().allowAll(
+				context.getOpUser(), Arrays.asList(records), BizzPermission.SHARE);
 		
 		ID firstShared = null;
         NotificationOnce.begin();
 		for (ID id : records) {
-			if (Application.getPrivilegesManager().allowShare(context.getOpUser(), id)) {
+			if (allowed.get(id)) {
 				int a = ges.share(id, context.getToUser(), context.getCascades());
 				if (a > 0) {
 					this.addSucceeded();
@@ -27,6 +27,7 @@ import com.rebuild.server.business.trigger.RobotTriggerObserver;
 import com.rebuild.server.helper.ConfigurableItem;
 import com.rebuild.server.helper.SysConfiguration;
 import com.rebuild.server.helper.cache.NoRecordFoundException;
+import com.rebuild.server.helper.cache.ShareAccessCache;
 import com.rebuild.server.helper.task.TaskExecutors;
 import com.rebuild.server.metadata.DefaultValueHelper;
 import com.rebuild.server.metadata.EntityHelper;
@@ -248,6 +249,7 @@ public class GeneralEntityService extends ObservableService implements EntitySer
 			}
 		} else {
 			delegateService.create(sharedAfter);
+			Application.getBean(ShareAccessCache.class).clean(to, entityName);
 			affected = 1;
 			shareChange = true;
 		}
@@ -282,7 +284,15 @@ public class GeneralEntityService extends ObservableService implements EntitySer
 			unsharedBefore = record(unsharedBefore);
 		}
 		
+		Object[] shared = ((BaseService) delegateService).getPMFactory().createQuery(
+				"select shareTo,belongEntity from ShareAccess where accessId = ?")
+				.setParameter(1, accessId)
+				.unique();
+		
 		delegateService.delete(accessId);
+		if (shared != null) {
+			Application.getBean(ShareAccessCache.class).clean((ID) shared[0], (String) shared[1]);
+		}
 		
 		if (countObservers() > 0) {
 			setChanged();
@@ -17,6 +17,7 @@ import com.hankcs.hanlp.HanLP;
 import com.rebuild.server.Application;
 import com.rebuild.server.configuration.portals.ClassificationManager;
 import com.rebuild.server.configuration.portals.PickListManager;
+import com.rebuild.server.helper.search.FullTextIndexManager;
 import com.rebuild.server.helper.state.StateManager;
 import com.rebuild.server.helper.task.HeavyTask;
 import com.rebuild.server.metadata.EntityHelper;
@@ -99,6 +100,8 @@ public class QuickCodeReindexTask extends HeavyTask<Integer> {
 		}
 
 		this.setTotal(this.getTotal() - 1);
+		// 未经过 Observer，重建索引
+		FullTextIndexManager.instance.reset(entity);
 		return this.getSucceeded();
 	}
 	
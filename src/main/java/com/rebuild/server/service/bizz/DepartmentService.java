@@ -61,10 +61,7 @@ public class DepartmentService extends BaseServiceImpl {
                 throw new DataSpecificationException("父级部门不能选择自己");
             }
 
-            Department parent = Application.getUserStore().getDepartment(parentDept);
-            Department that = Application.getUserStore().getDepartment(record.getPrimary());
-
-            if (that.isChildren(parent, true)) {
+            if (Application.getUserStore().isChildrenDepartment(record.getPrimary(), parentDept)) {
                 throw new DataSpecificationException("子级部门不能同时作为父级部门");
             }
         }
@@ -7,7 +7,6 @@ See LICENSE and COMMERCIAL in the project root for license information.
 
 package com.rebuild.server.service.bizz;
 
-import cn.devezhao.bizz.security.member.BusinessUnit;
 import cn.devezhao.bizz.security.member.Member;
 import cn.devezhao.bizz.security.member.NoMemberFoundException;
 import cn.devezhao.persist4j.Entity;
@@ -130,11 +129,9 @@ public class UserHelper {
 	 * @return
 	 */
 	public static Set<ID> getAllChildren(Department parent) {
-		Set<ID> children = new HashSet<>();
+		Set<ID> children = new HashSet<>(
+				Application.getUserStore().getAllChildrenDepartments((ID) parent.getIdentity()));
 		children.add((ID) parent.getIdentity());
-		for (BusinessUnit child : parent.getAllChildren()) {
-			children.add((ID) child.getIdentity());
-		}
 		return children;
 	}
 	
@@ -29,20 +29,20 @@ public class Department extends BusinessUnit {
 	}
 	
 	/**
-	 * 是否子部门（含所有子级）
+	 * 是否子部门（含所有子级）。递归遍历，频繁调用应使用 UserStore#isChildrenDepartment
 	 * 
 	 * @param child
 	 * @param recursive
 	 * @return
+	 * @see UserStore#isChildrenDepartment(ID, ID)
 	 */
 	public boolean isChildren(Department child, boolean recursive) {
 		if (!recursive) return isChildren((ID) child.getIdentity());
 
 		for (BusinessUnit dept : getChildren()) {
-			if (dept.getIdentity().equals(child.getIdentity())) {
+			if (dept.getIdentity().equals(child.getIdentity())
+					|| ((Department) dept).isChildren(child, true)) {
 				return true;
-			} else {
-				return ((Department) dept).isChildren(child, true);
 			}
 		}
 		return false;
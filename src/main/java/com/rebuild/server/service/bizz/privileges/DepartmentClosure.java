@@ -0,0 +1,134 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.service.bizz.privileges;
+
+import cn.devezhao.persist4j.engine.ID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 部门闭包（部门 > 所有子级部门），用于 O(1) 判断上下级关系。
+ * 部门变化时增量维护，而不是每次递归遍历部门树
+ *
+ * @author devezhao
+ * @since 2020/08/28
+ * @see UserStore
+ */
+public class DepartmentClosure {
+
+    // 部门 > 所有子级部门（不含自己）
+    final private Map<ID, Set<ID>> descendants = new ConcurrentHashMap<>();
+    // 部门 > 父级部门
+    final private Map<ID, ID> parents = new ConcurrentHashMap<>();
+
+    /**
+     * 新增部门或变更其父级部门
+     *
+     * @param dept
+     * @param newParent
+     */
+    synchronized
+    public void move(ID dept, ID newParent) {
+        final boolean exists = descendants.containsKey(dept);
+        if (exists && Objects.equals(parents.get(dept), newParent)) {
+            return;
+        }
+
+        Set<ID> subtree = new HashSet<>(getAllChildren(dept));
+        subtree.add(dept);
+
+        for (ID a : getAncestors(dept)) {
+            Set<ID> set = descendants.get(a);
+            if (set != null) set.removeAll(subtree);
+        }
+
+        if (newParent == null) {
+            parents.remove(dept);
+        } else {
+            parents.put(dept, newParent);
+        }
+        if (!exists) {
+            descendants.put(dept, ConcurrentHashMap.newKeySet());
+        }
+
+        for (ID a : getAncestors(dept)) {
+            descendants.computeIfAbsent(a, k -> ConcurrentHashMap.newKeySet()).addAll(subtree);
+        }
+    }
+
+    /**
+     * 移除部门
+     *
+     * @param dept
+     */
+    synchronized
+    public void remove(ID dept) {
+        Set<ID> subtree = new HashSet<>(getAllChildren(dept));
+        subtree.add(dept);
+
+        for (ID a : getAncestors(dept)) {
+            Set<ID> set = descendants.get(a);
+            if (set != null) set.removeAll(subtree);
+        }
+        descendants.remove(dept);
+        parents.remove(dept);
+    }
+
+    /**
+     * 是否子部门（含所有子级）
+     *
+     * @param parent
+     * @param child
+     * @return
+     */
+    public boolean isChildren(ID parent, ID child) {
+        Set<ID> set = descendants.get(parent);
+        return set != null && set.contains(child);
+    }
+
+    /**
+     * 获取子部门（包括所有子级，不含自己）
+     *
+     * @param dept
+     * @return
+     */
+    public Set<ID> getAllChildren(ID dept) {
+        Set<ID> set = descendants.get(dept);
+        return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * 获取所有上级部门（由近及远）
+     *
+     * @param dept
+     * @return
+     */
+    public List<ID> getAncestors(ID dept) {
+        List<ID> ancestors = new ArrayList<>();
+        ID parent = parents.get(dept);
+        while (parent != null && !ancestors.contains(parent) && !parent.equals(dept)) {
+            ancestors.add(parent);
+            parent = parents.get(parent);
+        }
+        return ancestors;
+    }
+
+    /**
+     * @return
+     */
+    public int size() {
+        return descendants.size();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.service.bizz.privileges;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 组织架构快照（用户/角色/权限/部门/团队的原始数据）。
+ * 用于 UserStore 的批量加载，以及重启时从文件快速恢复
+ *
+ * @author devezhao
+ * @since 2020/08/31
+ * @see UserStore#init()
+ */
+public class OrgSnapshot implements Serializable {
+    private static final long serialVersionUID = 3418934729150624201L;
+
+    private static final Log LOG = LogFactory.getLog(OrgSnapshot.class);
+
+    final protected Object[][] users;
+    final protected Object[][] roles;
+    final protected Object[][] privileges;
+    final protected Object[][] departments;
+    final protected Object[][] teams;
+    final protected Object[][] teamMembers;
+
+    /**
+     * @param users
+     * @param roles
+     * @param privileges
+     * @param departments
+     * @param teams
+     * @param teamMembers
+     */
+    protected OrgSnapshot(Object[][] users, Object[][] roles, Object[][] privileges,
+                          Object[][] departments, Object[][] teams, Object[][] teamMembers) {
+        this.users = users;
+        this.roles = roles;
+        this.privileges = privileges;
+        this.departments = departments;
+        this.teams = teams;
+        this.teamMembers = teamMembers;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof OrgSnapshot)) return false;
+
+        OrgSnapshot that = (OrgSnapshot) o;
+        return Arrays.deepEquals(users, that.users)
+                && Arrays.deepEquals(roles, that.roles)
+                && Arrays.deepEquals(privileges, that.privileges)
+                && Arrays.deepEquals(departments, that.departments)
+                && Arrays.deepEquals(teams, that.teams)
+                && Arrays.deepEquals(teamMembers, that.teamMembers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(users);
+    }
+
+    /**
+     * 保存到文件
+     *
+     * @param file
+     */
+    public void save(File file) {
+        ObjectOutputStream oos = null;
+        try {
+            oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            oos.writeObject(this);
+        } catch (Exception ex) {
+            LOG.warn("Couldn't save org snapshot : " + file, ex);
+        } finally {
+            IOUtils.closeQuietly(oos);
+        }
+    }
+
+    /**
+     * 从文件加载
+     *
+     * @param file
+     * @return 文件不存在或无效返回 null
+     */
+    public static OrgSnapshot load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        ObjectInputStream ois = null;
+        try {
+            ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return (OrgSnapshot) ois.readObject();
+        } catch (Exception ex) {
+            LOG.warn("Couldn't load org snapshot : " + file, ex);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(ois);
+        }
+    }
+}
@@ -21,14 +21,25 @@ import cn.devezhao.persist4j.engine.ID;
 import com.rebuild.server.Application;
 import com.rebuild.server.helper.cache.NoRecordFoundException;
 import com.rebuild.server.helper.cache.RecordOwningCache;
+import com.rebuild.server.helper.cache.ShareAccessCache;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.metadata.entity.EasyMeta;
 import com.rebuild.server.service.EntityService;
 import com.rebuild.server.service.bizz.RoleService;
 import com.rebuild.server.service.bizz.UserHelper;
 import com.rebuild.server.service.bizz.UserService;
+import org.apache.commons.lang.StringUtils;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * 实体安全/权限 管理
  * 
@@ -41,16 +52,22 @@ import org.springframework.util.Assert;
  */
 public class PrivilegesManager {
 
+	// IN 查询最大数量
+	private static final int BATCH_SIZE = 500;
+
 	final private UserStore theUserStore;
 	final private RecordOwningCache theRecordOwningCache;
+	final private ShareAccessCache theShareAccessCache;
 
 	/**
 	 * @param us
 	 * @param roc
+	 * @param sac
 	 */
-	protected PrivilegesManager(UserStore us, RecordOwningCache roc) {
+	protected PrivilegesManager(UserStore us, RecordOwningCache roc, ShareAccessCache sac) {
 		this.theUserStore = us;
 		this.theRecordOwningCache = roc;
+		this.theShareAccessCache = sac;
 	}
 
 	/**
@@ -248,6 +265,78 @@ public class PrivilegesManager {
 	 * @return
 	 */
 	public boolean allow(ID user, ID target, Permission action) {
+		Boolean pre = allowWithoutOwning(user, target, action);
+		if (pre != null) {
+			return pre;
+		}
+
+		ID targetUserId = theRecordOwningCache.getOwningUser(target);
+		if (targetUserId == null) {
+			return false;
+		}
+
+		if (allowByOwning(user, targetUserId, target.getEntityCode(), action)) {
+			return true;
+		}
+		return allowViaShare(user, target, action);
+	}
+
+	/**
+	 * 批量检查是否对指定记录有指定权限。
+	 * 所属人按实体批量查询，共享权限按实体批量查询，适用于大量记录的场景
+	 *
+	 * @param user
+	 * @param targets 目标记录
+	 * @param action 权限动作
+	 * @return 每个记录的检查结果（顺序同 targets）
+	 * @see #allow(ID, ID, Permission)
+	 */
+	public Map<ID, Boolean> allowAll(ID user, Collection<ID> targets, Permission action) {
+		Map<ID, Boolean> allowed = new LinkedHashMap<>();
+		List<ID> needsOwning = new ArrayList<>();
+		for (ID target : targets) {
+			Boolean pre = allowWithoutOwning(user, target, action);
+			allowed.put(target, pre);
+			if (pre == null) {
+				needsOwning.add(target);
+			}
+		}
+
+		if (needsOwning.isEmpty()) {
+			return allowed;
+		}
+
+		Map<ID, ID> owners = theRecordOwningCache.getOwningUsers(needsOwning);
+		List<ID> needsShare = new ArrayList<>();
+		for (ID target : needsOwning) {
+			ID targetUserId = owners.get(target);
+			if (targetUserId == null) {
+				allowed.put(target, false);
+			} else if (allowByOwning(user, targetUserId, target.getEntityCode(), action)) {
+				allowed.put(target, true);
+			} else {
+				allowed.put(target, false);
+				needsShare.add(target);
+			}
+		}
+
+		if (!needsShare.isEmpty()) {
+			for (ID target : allowViaShareAll(user, needsShare, action)) {
+				allowed.put(target, true);
+			}
+		}
+		return allowed;
+	}
+
+	/**
+	 * 无需所属人即可得出结果的检查
+	 *
+	 * @param user
+	 * @param target
+	 * @param action
+	 * @return 返回 null 表示需要进一步根据记录所属人检查
+	 */
+	private Boolean allowWithoutOwning(ID user, ID target, Permission action) {
 		// CRUD and PlainEntity
 		if (action.getMask() <= BizzPermission.READ.getMask() && MetadataHelper.isPlainEntity(target.getEntityCode())) {
 			return true;
@@ -295,18 +384,29 @@ public class PrivilegesManager {
 		} else if (BizzDepthEntry.GLOBAL.equals(depth)) {
 			return true;
 		}
-		
-		ID targetUserId = theRecordOwningCache.getOwningUser(target);
-		if (targetUserId == null) {
-			return false;
+		return null;
+	}
+
+	/**
+	 * 根据记录所属人检查（不含共享）
+	 *
+	 * @param user
+	 * @param targetUserId 记录所属人
+	 * @param entity
+	 * @param action
+	 * @return
+	 * @see #allowWithoutOwning(ID, ID, Permission)
+	 */
+	private boolean allowByOwning(ID user, ID targetUserId, int entity, Permission action) {
+		if (MetadataHelper.isSlaveEntity(entity)) {
+			action = convert2MasterAction(action);
 		}
-		
+
+		Role role = theUserStore.getUser(user).getOwningRole();
+		final DepthEntry depth = role.getPrivileges(convert2MasterEntity(entity)).superlative(action);
+
 		if (BizzDepthEntry.PRIVATE.equals(depth)) {
-			allowed = user.equals(targetUserId);
-			if (!allowed) {
-				return allowViaShare(user, target, action);
-			}
-			return true;
+			return user.equals(targetUserId);
 		}
 		
 		com.rebuild.server.service.bizz.privileges.User accessUser = theUserStore.getUser(user);
@@ -314,22 +414,14 @@ public class PrivilegesManager {
 		Department accessUserDept = accessUser.getOwningDept();
 		
 		if (BizzDepthEntry.LOCAL.equals(depth)) {
-			allowed = accessUserDept.equals(targetUser.getOwningDept());
-			if (!allowed) {
-				return allowViaShare(user, target, action);
-			}
-			return true;
+			return accessUserDept.equals(targetUser.getOwningDept());
 
 		} else if (BizzDepthEntry.DEEPDOWN.equals(depth)) {
 			if (accessUserDept.equals(targetUser.getOwningDept())) {
 				return true;
 			}
-			
-			allowed = accessUserDept.isChildren(targetUser.getOwningDept(), true);
-			if (!allowed) {
-				return allowViaShare(user, target, action);
-			}
-			return true;
+			return theUserStore.isChildrenDepartment(
+					(ID) accessUserDept.getIdentity(), (ID) targetUser.getOwningDept().getIdentity());
 		}
 		return false;
 	}
@@ -345,7 +437,6 @@ public class PrivilegesManager {
 	public boolean allowViaShare(ID user, ID target, Permission action) {
 		
 		// TODO 目前只共享了读取权限
-		// TODO 性能优化-使用缓存
 		
 		if (action != BizzPermission.READ) {
 			return false;
@@ -362,14 +453,54 @@ public class PrivilegesManager {
 			entity = entity.getMasterEntity();
 		}
 		
-		Object[] rights = Application.createQueryNoFilter(
-				"select rights from ShareAccess where belongEntity = ? and recordId = ? and shareTo = ?")
-				.setParameter(1, entity.getName())
-				.setParameter(2, target)
-				.setParameter(3, user)
-				.unique();
-		int rightsVal = rights == null ? 0 : (int) rights[0];
-		return (rightsVal & BizzPermission.READ.getMask()) != 0;
+		return theShareAccessCache.isShared(user, entity.getName(), target);
+	}
+
+	/**
+	 * 批量检查通过共享取得的操作权限（每个主实体读取一次共享索引）
+	 *
+	 * @param user
+	 * @param targets
+	 * @param action
+	 * @return 有权限的记录
+	 * @see #allowViaShare(ID, ID, Permission)
+	 */
+	public Set<ID> allowViaShareAll(ID user, Collection<ID> targets, Permission action) {
+		Set<ID> allowed = new HashSet<>();
+		if (action != BizzPermission.READ || targets.isEmpty()) {
+			return allowed;
+		}
+
+		// 明细使用主记录
+		Map<ID, ID> masterIds = getMasterRecordIds(targets);
+
+		// 主实体 > [主记录 > 目标记录]
+		Map<String, Map<ID, List<ID>>> shareTargets = new HashMap<>();
+		for (ID target : targets) {
+			Entity entity = MetadataHelper.getEntity(target.getEntityCode());
+			ID useTarget = target;
+			if (entity.getMasterEntity() != null) {
+				useTarget = masterIds.get(target);
+				if (useTarget == null) {
+					throw new NoRecordFoundException("No record found by slave-id : " + target);
+				}
+				entity = entity.getMasterEntity();
+			}
+
+			shareTargets.computeIfAbsent(entity.getName(), k -> new HashMap<>())
+					.computeIfAbsent(useTarget, k -> new ArrayList<>())
+					.add(target);
+		}
+
+		for (Map.Entry<String, Map<ID, List<ID>>> e : shareTargets.entrySet()) {
+			Set<ID> shared = theShareAccessCache.getSharedRecords(user, e.getKey());
+			for (Map.Entry<ID, List<ID>> ee : e.getValue().entrySet()) {
+				if (shared.contains(ee.getKey())) {
+					allowed.addAll(ee.getValue());
+				}
+			}
+		}
+		return allowed;
 	}
 
 	/**
@@ -410,6 +541,42 @@ public class PrivilegesManager {
 		return primary == null ? null : (ID) primary[0];
 	}
 
+	/**
+	 * 批量根据明细 ID 获取主记录 ID（每个明细实体一次查询）
+	 *
+	 * @param slaveIds 非明细 ID 将被忽略
+	 * @return
+	 */
+	private Map<ID, ID> getMasterRecordIds(Collection<ID> slaveIds) {
+		Map<Integer, List<ID>> slaveByEntity = new HashMap<>();
+		for (ID id : slaveIds) {
+			if (MetadataHelper.isSlaveEntity(id.getEntityCode())) {
+				slaveByEntity.computeIfAbsent(id.getEntityCode(), k -> new ArrayList<>()).add(id);
+			}
+		}
+
+		Map<ID, ID> masterIds = new HashMap<>();
+		for (Map.Entry<Integer, List<ID>> e : slaveByEntity.entrySet()) {
+			Entity entity = MetadataHelper.getEntity(e.getKey());
+			Field stmField = MetadataHelper.getSlaveToMasterField(entity);
+
+			List<ID> ids = e.getValue();
+			for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+				List<ID> chunk = ids.subList(i, Math.min(i + BATCH_SIZE, ids.size()));
+
+				String sql = String.format("select %s,%s from %s where %s in ('%s')",
+						entity.getPrimaryField().getName(), stmField.getName(), entity.getName(),
+						entity.getPrimaryField().getName(), StringUtils.join(chunk, "','"));
+				for (Object[] o : Application.createQueryNoFilter(sql).array()) {
+					if (o[1] != null) {
+						masterIds.put((ID) o[0], (ID) o[1]);
+					}
+				}
+			}
+		}
+		return masterIds;
+	}
+
 	/**
 	 * @param user
 	 * @returny
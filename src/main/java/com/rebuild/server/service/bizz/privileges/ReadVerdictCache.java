@@ -0,0 +1,120 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.service.bizz.privileges;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.service.TransactionManual;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户对记录的读取权限结果缓存（本节点，有数量上限和短有效期）。
+ * 分派/共享/组织架构或角色变化时整体失效，其他节点的变化依靠有效期兜底
+ *
+ * @author devezhao
+ * @since 2020/09/04
+ * @see com.rebuild.server.helper.datalist.DataListWrapper
+ */
+public class ReadVerdictCache {
+
+    /**
+     * 最大条目
+     */
+    public static final int MAX_ENTRIES = 20000;
+    /**
+     * 有效期（毫秒）
+     */
+    public static final long TTL = 30 * 1000;
+
+    public static final ReadVerdictCache instance = new ReadVerdictCache();
+
+    // 失效时递增，旧版本的条目视为无效
+    final private AtomicLong version = new AtomicLong();
+
+    final private Map<String, Verdict> verdicts = new LinkedHashMap<String, Verdict>(256, 0.75f, true) {
+        private static final long serialVersionUID = -4375318420387254930L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Verdict> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ReadVerdictCache() {}
+
+    /**
+     * @param user
+     * @param target
+     * @return 无缓存或已失效返回 null
+     */
+    public Boolean get(ID user, ID target) {
+        final String key = user + ":" + target;
+        Verdict v;
+        synchronized (verdicts) {
+            v = verdicts.get(key);
+        }
+
+        if (v == null) {
+            return null;
+        }
+        if (v.version != version.get() || System.currentTimeMillis() - v.time > TTL) {
+            synchronized (verdicts) {
+                verdicts.remove(key);
+            }
+            return null;
+        }
+        return v.allowed;
+    }
+
+    /**
+     * 当前版本。应在计算权限前取得，以免计算期间发生的失效被覆盖
+     *
+     * @return
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @param user
+     * @param target
+     * @param allowed
+     * @param version 计算前取得的版本
+     * @see #getVersion()
+     */
+    public void put(ID user, ID target, boolean allowed, long version) {
+        Verdict v = new Verdict(allowed, version, System.currentTimeMillis());
+        synchronized (verdicts) {
+            verdicts.put(user + ":" + target, v);
+        }
+    }
+
+    /**
+     * 全部失效。
+     * 事物提交后会再次失效，避免提交前其他线程按旧数据计算并重新缓存
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+        TransactionManual.afterCommit(version::incrementAndGet);
+    }
+
+    // --
+
+    private static class Verdict {
+        final boolean allowed;
+        final long version;
+        final long time;
+
+        Verdict(boolean allowed, long version, long time) {
+            this.allowed = allowed;
+            this.version = version;
+            this.time = time;
+        }
+    }
+}
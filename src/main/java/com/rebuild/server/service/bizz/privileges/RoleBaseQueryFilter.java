@@ -13,17 +13,20 @@ import cn.devezhao.bizz.privileges.Privileges;
 import cn.devezhao.bizz.privileges.impl.BizzDepthEntry;
 import cn.devezhao.bizz.privileges.impl.BizzPermission;
 import cn.devezhao.bizz.security.QueryFilter;
-import cn.devezhao.bizz.security.member.BusinessUnit;
 import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.Field;
 import cn.devezhao.persist4j.Filter;
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.Application;
 import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.metadata.entity.EasyMeta;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 基于角色权限的查询过滤器
@@ -54,6 +57,22 @@ public class RoleBaseQueryFilter implements Filter, QueryFilter {
 		}
 	};
 	
+	// 用户占位符
+	private static final String USER_PLACEHOLDER = "{@USER}";
+
+	// 角色:部门:实体:权限 > 编译后的过滤条件
+	private static final Map<String, String> COMPILED = new ConcurrentHashMap<>();
+
+	/**
+	 * 清除编译缓存。部门/角色变化时调用
+	 *
+	 * @see UserStore#refreshDepartment(cn.devezhao.persist4j.engine.ID)
+	 * @see UserStore#refreshRole(cn.devezhao.persist4j.engine.ID)
+	 */
+	protected static void clearCompiled() {
+		COMPILED.clear();
+	}
+	
 	private RoleBaseQueryFilter() {
 		this.user = null;
 		this.specAction = null;
@@ -86,6 +105,21 @@ public class RoleBaseQueryFilter implements Filter, QueryFilter {
 			return ALLOWED.evaluate(null);
 		}
 
+		Department dept = user.getOwningDept();
+		String compiledKey = user.getOwningRole().getIdentity() + ":" + (dept == null ? null : dept.getIdentity())
+				+ ":" + entity.getEntityCode() + ":" + specAction.getMask();
+
+		String compiled = COMPILED.computeIfAbsent(compiledKey, k -> compile(entity));
+		return compiled.replace(USER_PLACEHOLDER, user.getId().toLiteral());
+	}
+
+	/**
+	 * 编译过滤条件。结果仅与 角色/部门/实体/权限 有关，用户以 {@link #USER_PLACEHOLDER} 占位
+	 *
+	 * @param entity
+	 * @return
+	 */
+	private String compile(Entity entity) {
 		Entity useMaster = null;
 		if (!MetadataHelper.hasPrivilegesField(entity)) {
 			// NOTE BIZZ 实体全部用户可见
@@ -112,15 +146,17 @@ public class RoleBaseQueryFilter implements Filter, QueryFilter {
 		}
 		
 		String ownFormat = "%s = '%s'";
+		String ownInFormat = "%s in ('%s')";
 		Field stmField = null;
 		if (useMaster != null) {
 			stmField = MetadataHelper.getSlaveToMasterField(entity);
 			ownFormat = stmField.getName() + "." + ownFormat;
+			ownInFormat = stmField.getName() + "." + ownInFormat;
 		}
 		
 		if (de == BizzDepthEntry.PRIVATE) {
 			return appendShareFilter(entity, stmField,
-					String.format(ownFormat, EntityHelper.OwningUser, user.getIdentity()));
+					String.format(ownFormat, EntityHelper.OwningUser, USER_PLACEHOLDER));
 		}
 		
 		Department dept = user.getOwningDept();
@@ -129,20 +165,24 @@ public class RoleBaseQueryFilter implements Filter, QueryFilter {
 		if (de == BizzDepthEntry.LOCAL) {
 			return appendShareFilter(entity, stmField, deptSql);
 		} else if (de == BizzDepthEntry.DEEPDOWN) {
-			Set<String> sqls = new HashSet<>();
-			sqls.add(deptSql);
-			
-			for (BusinessUnit child : dept.getAllChildren()) {
-				sqls.add(String.format(ownFormat, EntityHelper.OwningDept, child.getIdentity()));
+			Set<String> depts = new TreeSet<>();
+			depts.add(dept.getIdentity().toString());
+			for (ID child : Application.getUserStore().getAllChildrenDepartments((ID) dept.getIdentity())) {
+				depts.add(child.toLiteral());
+			}
+
+			if (depts.size() == 1) {
+				return appendShareFilter(entity, stmField, deptSql);
 			}
-			return appendShareFilter(entity, stmField, "(" + StringUtils.join(sqls, " or ") + ")");
+			return appendShareFilter(entity, stmField,
+					String.format(ownInFormat, EntityHelper.OwningDept, StringUtils.join(depts, "','")));
 		}
 
 		return DENIED.evaluate(null);
 	}
 	
 	/**
-	 * 共享权限
+	 * 共享权限（用户以 {@link #USER_PLACEHOLDER} 占位）
 	 * 
 	 * @param entity
 	 * @param slaveToMasterField
@@ -156,10 +196,10 @@ public class RoleBaseQueryFilter implements Filter, QueryFilter {
 		if (slaveToMasterField != null) {
 			shareFilter = String.format(shareFilter,
 					slaveToMasterField.getOwnEntity().getMasterEntity().getName(),
-					user.getId(), slaveToMasterField.getName());
+					USER_PLACEHOLDER, slaveToMasterField.getName());
 		} else {
 			shareFilter = String.format(shareFilter,
-					entity.getName(), user.getId(), entity.getPrimaryField().getName());
+					entity.getName(), USER_PLACEHOLDER, entity.getPrimaryField().getName());
 		}
 		
 		return "(" + filtered + " or " + shareFilter + ")";
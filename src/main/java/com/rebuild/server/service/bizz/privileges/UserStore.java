@@ -15,25 +15,30 @@ import cn.devezhao.bizz.security.member.MemberGroup;
 import cn.devezhao.bizz.security.member.NoMemberFoundException;
 import cn.devezhao.bizz.security.member.Role;
 import cn.devezhao.bizz.security.member.Team;
+import cn.devezhao.commons.ThreadPool;
 import cn.devezhao.persist4j.PersistManagerFactory;
 import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.rebuild.server.Application;
+import com.rebuild.server.helper.SysConfiguration;
 import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.service.bizz.UserService;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.File;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * 用户体系缓存
@@ -45,13 +50,11 @@ public class UserStore {
 	
 	private static final Log LOG = LogFactory.getLog(UserStore.class);
 
-	final private Map<ID, User> USERs = new ConcurrentHashMap<>();
-	final private Map<ID, Role> ROLEs = new ConcurrentHashMap<>();
-	final private Map<ID, Department> DEPTs = new ConcurrentHashMap<>();
-	final private Map<ID, Team> TEAMs = new ConcurrentHashMap<>();
+	// 组织架构。重新组装时整体替换，读取方不会看到新旧混合的状态
+	private volatile Org org = new Org();
 
-	final private Map<String, ID> USERs_NAME2ID = new ConcurrentHashMap<>();
-	final private Map<String, ID> USERs_MAIL2ID = new ConcurrentHashMap<>();
+	// 后台同步期间发生的变更（加载完成后重放），仅在同步时不为 null
+	private List<Runnable> changesDuringLoad;
 
 	final private PersistManagerFactory aPMFactory;
 	
@@ -65,7 +68,7 @@ public class UserStore {
 	 * @return
 	 */
 	public boolean existsName(String username) {
-		return USERs_NAME2ID.containsKey(normalIdentifier(username));
+		return org.name2id.containsKey(normalIdentifier(username));
 	}
 	
 	/**
@@ -73,7 +76,7 @@ public class UserStore {
 	 * @return
 	 */
 	public boolean existsEmail(String email) {
-		return USERs_MAIL2ID.containsKey(normalIdentifier(email));
+		return org.mail2id.containsKey(normalIdentifier(email));
 	}
 	
 	/**
@@ -89,7 +92,7 @@ public class UserStore {
 	 * @return
 	 */
 	public boolean existsUser(ID userId) {
-		return USERs.containsKey(userId);
+		return org.users.containsKey(userId);
 	}
 
 	/**
@@ -98,13 +101,13 @@ public class UserStore {
 	 */
 	public boolean existsAny(ID bizzId) {
 		if (bizzId.getEntityCode() == EntityHelper.User) {
-			return USERs.containsKey(bizzId);
+			return org.users.containsKey(bizzId);
 		} else if (bizzId.getEntityCode() == EntityHelper.Role) {
-			return ROLEs.containsKey(bizzId);
+			return org.roles.containsKey(bizzId);
 		} else if (bizzId.getEntityCode() == EntityHelper.Department) {
-			return DEPTs.containsKey(bizzId);
+			return org.depts.containsKey(bizzId);
 		} else if (bizzId.getEntityCode() == EntityHelper.Team) {
-			return TEAMs.containsKey(bizzId);
+			return org.teams.containsKey(bizzId);
 		}
 		return false;
 	}
@@ -115,7 +118,7 @@ public class UserStore {
 	 * @throws NoMemberFoundException
 	 */
 	public User getUserByName(String username) throws NoMemberFoundException {
-		ID userId = USERs_NAME2ID.get(normalIdentifier(username));
+		ID userId = org.name2id.get(normalIdentifier(username));
 		if (userId == null) {
 			throw new NoMemberFoundException("No User found: " + username);
 		}
@@ -128,7 +131,7 @@ public class UserStore {
 	 * @throws NoMemberFoundException
 	 */
 	public User getUserByEmail(String email) throws NoMemberFoundException {
-		ID userId = USERs_MAIL2ID.get(normalIdentifier(email));
+		ID userId = org.mail2id.get(normalIdentifier(email));
 		if (userId == null) {
 			throw new NoMemberFoundException("No User found: " + email);
 		}
@@ -154,7 +157,7 @@ public class UserStore {
 	 * @throws NoMemberFoundException
 	 */
 	public User getUser(ID userId) throws NoMemberFoundException {
-		User u = USERs.get(userId);
+		User u = org.users.get(userId);
 		if (u == null) {
 			throw new NoMemberFoundException("No User found: " + userId);
 		}
@@ -165,7 +168,7 @@ public class UserStore {
 	 * @return
 	 */
 	public User[] getAllUsers() {
-		return USERs.values().toArray(new User[0]);
+		return org.users.values().toArray(new User[0]);
 	}
 	
 	/**
@@ -174,7 +177,7 @@ public class UserStore {
 	 * @throws NoMemberFoundException
 	 */
 	public Department getDepartment(ID deptId) throws NoMemberFoundException {
-		Department b = DEPTs.get(deptId);
+		Department b = org.depts.get(deptId);
 		if (b == null) {
 			throw new NoMemberFoundException("No Department found: " + deptId);
 		}
@@ -185,7 +188,28 @@ public class UserStore {
 	 * @return
 	 */
 	public Department[] getAllDepartments() {
-		return DEPTs.values().toArray(new Department[0]);
+		return org.depts.values().toArray(new Department[0]);
+	}
+	
+	/**
+	 * 是否子部门（含所有子级）
+	 *
+	 * @param parent
+	 * @param child
+	 * @return
+	 */
+	public boolean isChildrenDepartment(ID parent, ID child) {
+		return org.closure.isChildren(parent, child);
+	}
+
+	/**
+	 * 获取子部门（包括所有子级，不含自己）
+	 *
+	 * @param deptId
+	 * @return
+	 */
+	public Set<ID> getAllChildrenDepartments(ID deptId) {
+		return org.closure.getAllChildren(deptId);
 	}
 	
 	/**
@@ -195,7 +219,7 @@ public class UserStore {
 	 */
 	public Department[] getTopDepartments() {
 		List<Department> top = new ArrayList<>();
-		for (Department dept : DEPTs.values()) {
+		for (Department dept : org.depts.values()) {
 			if (dept.getParent() == null) {
 				top.add(dept);
 			}
@@ -209,7 +233,7 @@ public class UserStore {
 	 * @throws NoMemberFoundException
 	 */
 	public Role getRole(ID roleId) throws NoMemberFoundException {
-		Role r = ROLEs.get(roleId);
+		Role r = org.roles.get(roleId);
 		if (r == null) {
 			throw new NoMemberFoundException("No Role found: " + roleId);
 		}
@@ -220,7 +244,7 @@ public class UserStore {
 	 * @return
 	 */
 	public Role[] getAllRoles() {
-		return ROLEs.values().toArray(new Role[0]);
+		return org.roles.values().toArray(new Role[0]);
 	}
 
 	/**
@@ -229,7 +253,7 @@ public class UserStore {
 	 * @throws NoMemberFoundException
 	 */
 	public Team getTeam(ID teamId) throws NoMemberFoundException {
-		Team t = TEAMs.get(teamId);
+		Team t = org.teams.get(teamId);
 		if (t == null) {
 			throw new NoMemberFoundException("No Team found: " + teamId);
 		}
@@ -240,7 +264,7 @@ public class UserStore {
 	 * @return
 	 */
 	public Team[] getAllTeams() {
-		return TEAMs.values().toArray(new Team[0]);
+		return org.teams.values().toArray(new Team[0]);
 	}
 	
 	/**
@@ -248,7 +272,10 @@ public class UserStore {
 	 * 
 	 * @param userId
 	 */
+	synchronized
 	public void refreshUser(ID userId) {
+		recordChange(() -> refreshUser(userId));
+
 		Object[] o = Application.createQueryNoFilter("select " + USER_FS + " from User where userId = ?")
 				.setParameter(1, userId)
 				.unique();
@@ -276,7 +303,7 @@ public class UserStore {
 
 			// 邮箱可更改
 			if (oldUser.getEmail() != null) {
-				USERs_MAIL2ID.remove(normalIdentifier(oldUser.getEmail()));
+				org.mail2id.remove(normalIdentifier(oldUser.getEmail()));
 			}
         }
 
@@ -288,6 +315,7 @@ public class UserStore {
         }
 
 		store(newUser);
+		ReadVerdictCache.instance.invalidate();
 	}
 
 	/**
@@ -295,7 +323,10 @@ public class UserStore {
 	 *
 	 * @param userId
 	 */
+	synchronized
 	public void removeUser(ID userId) {
+		recordChange(() -> removeUser(userId));
+
 		final User oldUser = getUser(userId);
 
 		// 移除成员
@@ -310,19 +341,20 @@ public class UserStore {
 		}
 
 		// 移除缓存
-		for (Map.Entry<String, ID> e : USERs_NAME2ID.entrySet()) {
+		for (Map.Entry<String, ID> e : org.name2id.entrySet()) {
 			if (e.getValue().equals(userId)) {
-				USERs_NAME2ID.remove(e.getKey());
+				org.name2id.remove(e.getKey());
 				break;
 			}
 		}
-		for (Map.Entry<String, ID> e : USERs_MAIL2ID.entrySet()) {
+		for (Map.Entry<String, ID> e : org.mail2id.entrySet()) {
 			if (e.getValue().equals(userId)) {
-				USERs_MAIL2ID.remove(e.getKey());
+				org.mail2id.remove(e.getKey());
 				break;
 			}
 		}
-		USERs.remove(userId);
+		org.users.remove(userId);
+		ReadVerdictCache.instance.invalidate();
 	}
 	
 	/**
@@ -330,8 +362,11 @@ public class UserStore {
 	 * 
 	 * @param roleId
 	 */
+	synchronized
 	public void refreshRole(ID roleId) {
-		final Role oldRole = ROLEs.get(roleId);
+		recordChange(() -> refreshRole(roleId));
+
+		final Role oldRole = org.roles.get(roleId);
 		if (oldRole != null) {
 			for (Principal u : toMemberArray(oldRole)) {
 				oldRole.removeMember(u);
@@ -352,7 +387,9 @@ public class UserStore {
 		}
 
 		loadPrivileges(newRole);
-		ROLEs.put(roleId, newRole);
+		org.roles.put(roleId, newRole);
+		RoleBaseQueryFilter.clearCompiled();
+		ReadVerdictCache.instance.invalidate();
 	}
 	
 	/**
@@ -361,7 +398,10 @@ public class UserStore {
 	 * @param roleId
 	 * @param transferTo
 	 */
+	synchronized
 	public void removeRole(ID roleId, ID transferTo) {
+		recordChange(() -> removeRole(roleId, transferTo));
+
 		final Role role = getRole(roleId);
 		// 转至新角色
 		if (transferTo != null) {
@@ -374,7 +414,9 @@ public class UserStore {
 		for (Principal u : toMemberArray(role)) {
 			role.removeMember(u);
 		}
- 		ROLEs.remove(roleId);
+ 		org.roles.remove(roleId);
+		RoleBaseQueryFilter.clearCompiled();
+		ReadVerdictCache.instance.invalidate();
 	}
 	
 	/**
@@ -382,8 +424,11 @@ public class UserStore {
 	 * 
 	 * @param deptId
 	 */
+	synchronized
 	public void refreshDepartment(ID deptId) {
-		final Department oldDept = DEPTs.get(deptId);
+		recordChange(() -> refreshDepartment(deptId));
+
+		final Department oldDept = org.depts.get(deptId);
 		if (oldDept != null) {
 			for (Principal u : toMemberArray(oldDept)) {
 				oldDept.removeMember(u);
@@ -424,11 +469,14 @@ public class UserStore {
 				newDept.addChild(child);
 			}
 
-		} else if (newParent != null && DEPTs.get(newParent) != null /* init */) {
+		} else if (newParent != null && org.depts.get(newParent) != null /* init */) {
             getDepartment(newParent).addChild(newDept);
         }
 
-		DEPTs.put(deptId, newDept);
+		org.depts.put(deptId, newDept);
+		org.closure.move(deptId, newParent);
+		RoleBaseQueryFilter.clearCompiled();
+		ReadVerdictCache.instance.invalidate();
 	}
 	
 	/**
@@ -437,7 +485,10 @@ public class UserStore {
 	 * @param deptId
 	 * @param transferTo
 	 */
+	synchronized
 	public void removeDepartment(ID deptId, ID transferTo) {
+		recordChange(() -> removeDepartment(deptId, transferTo));
+
 		final Department dept = getDepartment(deptId);
 		// 转至新部门
 		if (transferTo != null) {
@@ -453,7 +504,10 @@ public class UserStore {
 		for (Principal u : toMemberArray(dept)) {
 			dept.removeMember(u);
 		}
-		DEPTs.remove(deptId);
+		org.depts.remove(deptId);
+		org.closure.remove(deptId);
+		RoleBaseQueryFilter.clearCompiled();
+		ReadVerdictCache.instance.invalidate();
 	}
 
 	/**
@@ -461,8 +515,11 @@ public class UserStore {
 	 *
 	 * @param teamId
 	 */
+	synchronized
 	public void refreshTeam(ID teamId) {
-		final Team oldTeam = TEAMs.get(teamId);
+		recordChange(() -> refreshTeam(teamId));
+
+		final Team oldTeam = org.teams.get(teamId);
 		if (oldTeam != null) {
 			for (Principal u : toMemberArray(oldTeam)) {
 				oldTeam.removeMember(u);
@@ -482,7 +539,7 @@ public class UserStore {
 			newTeam.addMember(getUser((ID) member[0]));
 		}
 
-		TEAMs.put(teamId, newTeam);
+		org.teams.put(teamId, newTeam);
 	}
 
 	/**
@@ -490,84 +547,250 @@ public class UserStore {
 	 *
 	 * @param teamId
 	 */
+	synchronized
 	public void removeTeam(ID teamId) {
+		recordChange(() -> removeTeam(teamId));
+
 		final Team team = getTeam(teamId);
 		for (Principal u : toMemberArray(team)) {
 			team.removeMember(u);
 		}
-		TEAMs.remove(teamId);
+		org.teams.remove(teamId);
 	}
 
 	private static final String USER_FS = "userId,loginName,email,fullName,avatarUrl,isDisabled,deptId,roleId,workphone";
 	/**
-	 * 初始化
+	 * 初始化。
+	 * 启用快照（`-Duserstore.snapshot=true`）后优先从快照文件加载，再在后台与数据库同步
 	 * 
 	 * @throws Exception
 	 */
-	@SuppressWarnings("DuplicatedCode")
 	synchronized
 	protected void init() throws Exception {
+		final OrgSnapshot snapshot = isSnapshotEnabled() ? OrgSnapshot.load(getSnapshotFile()) : null;
+		if (snapshot != null) {
+			assemble(snapshot);
+			LOG.info("Loaded org snapshot : " + getSnapshotFile());
+
+			ThreadPool.exec(() -> {
+				try {
+					reconcile(snapshot);
+				} catch (Exception ex) {
+					LOG.error("Reconcile org snapshot failed", ex);
+				}
+			});
+			return;
+		}
+
+		OrgSnapshot loaded = loadSnapshot();
+		assemble(loaded);
+		if (isSnapshotEnabled()) {
+			loaded.save(getSnapshotFile());
+		}
+	}
+
+	/**
+	 * 与数据库同步（仅有变化时重新组装）
+	 *
+	 * @param snapshot
+	 * @throws Exception
+	 */
+	private void reconcile(OrgSnapshot snapshot) throws Exception {
+		synchronized (this) {
+			changesDuringLoad = new ArrayList<>();
+		}
+
+		final OrgSnapshot loaded;
+		final List<Runnable> changes;
+		try {
+			loaded = loadSnapshot();
+		} finally {
+			synchronized (this) {
+				changes = changesDuringLoad;
+				changesDuringLoad = null;
+			}
+		}
+		if (loaded.equals(snapshot)) {
+			return;
+		}
+
+		synchronized (this) {
+			assemble(loaded);
+
+			// 加载期间的变更可能未包含在加载结果中，重放一次（刷新/移除均可重复执行）
+			for (Runnable c : changes) {
+				try {
+					c.run();
+				} catch (Exception ex) {
+					// 之后已被移除
+					LOG.debug("Skip replaying change : " + ex);
+				}
+			}
+		}
+		loaded.save(getSnapshotFile());
+		LOG.info("Org snapshot reconciled");
+	}
+
+	/**
+	 * 记录同步期间的变更
+	 *
+	 * @param change
+	 */
+	private void recordChange(Runnable change) {
+		if (changesDuringLoad != null) {
+			changesDuringLoad.add(change);
+		}
+	}
+
+	/**
+	 * 批量并行加载（固定 6 个查询，与用户/部门数量无关）
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	private OrgSnapshot loadSnapshot() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(6);
+		try {
+			Future<Object[][]> users = submitQuery(executor,
+					"select " + USER_FS + " from User order by userId");
+			Future<Object[][]> roles = submitQuery(executor,
+					"select roleId,name,isDisabled from Role order by roleId");
+			Future<Object[][]> privileges = submitQuery(executor,
+					"select roleId,entity,definition,zeroKey from RolePrivileges order by privilegesId");
+			Future<Object[][]> departments = submitQuery(executor,
+					"select deptId,name,isDisabled,parentDept from Department order by deptId");
+			Future<Object[][]> teams = submitQuery(executor,
+					"select teamId,name,isDisabled from Team order by teamId");
+			Future<Object[][]> teamMembers = submitQuery(executor,
+					"select teamId,userId from TeamMember order by memberId");
+
+			return new OrgSnapshot(users.get(), roles.get(), privileges.get(),
+					departments.get(), teams.get(), teamMembers.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private Future<Object[][]> submitQuery(ExecutorService executor, String sql) {
+		return executor.submit(() -> aPMFactory.createQuery(sql).array());
+	}
+
+	/**
+	 * 组装组织架构（成员关系会修改共享的 User 对象，因此串行完成）
+	 *
+	 * @param snapshot
+	 */
+	private void assemble(OrgSnapshot snapshot) {
 		// 用户
-		
-		Object[][] array = aPMFactory.createQuery("select " + USER_FS + " from User").array();
-		for (Object[] o : array) {
+
+		final Map<ID, User> users = new HashMap<>();
+		for (Object[] o : snapshot.users) {
 			ID userId = (ID) o[0];
 			User user = new User(
 					userId, (String) o[1], (String) o[2], (String) o[8], (String) o[3], (String) o[4], (Boolean) o[5]);
-			store(user);
+			users.put(userId, user);
 		}
-		LOG.info("Loaded [ " + USERs.size() + " ] users.");
 
 		// 角色
-		
-		array = aPMFactory.createQuery("select roleId from Role").array();
-		for (Object[] o : array) {
-			this.refreshRole((ID) o[0]);
+
+		final Map<ID, Role> roles = new HashMap<>();
+		for (Object[] o : snapshot.roles) {
+			ID roleId = (ID) o[0];
+			roles.put(roleId, new Role(roleId, (String) o[1], (Boolean) o[2]));
 		}
-		LOG.info("Loaded [ " + ROLEs.size() + " ] roles.");
-		
+		for (Object[] d : snapshot.privileges) {
+			Role role = roles.get((ID) d[0]);
+			if (role != null) {
+				role.addPrivileges(toPrivileges((int) d[1], (String) d[2], (String) d[3]));
+			}
+		}
+
 		// 部门
-		
-		array = aPMFactory.createQuery("select deptId,parentDept from Department").array();
-		Map<ID, Set<ID>> parentTemp = new HashMap<>();
-		for (Object[] o : array) {
-			ID deptId = (ID) o[0];
-			this.refreshDepartment(deptId);
 
-			ID parent = (ID) o[1];
+		final Map<ID, Department> depts = new HashMap<>();
+		for (Object[] o : snapshot.departments) {
+			ID deptId = (ID) o[0];
+			depts.put(deptId, new Department(deptId, (String) o[1], (Boolean) o[2]));
+		}
+		// 组织部门关系
+		for (Object[] o : snapshot.departments) {
+			Department parent = o[3] == null ? null : depts.get((ID) o[3]);
 			if (parent != null) {
-				Set<ID> child = parentTemp.computeIfAbsent(parent, k -> new HashSet<>());
-				child.add(deptId);
+				parent.addChild(depts.get((ID) o[0]));
 			}
 		}
 
-		// 组织部门关系
-		for (Map.Entry<ID, Set<ID>> e : parentTemp.entrySet()) {
-			BusinessUnit parent = getDepartment(e.getKey());
-			for (ID child : e.getValue()) {
-				parent.addChild(getDepartment(child));
+		// 角色/部门成员
+		for (Object[] o : snapshot.users) {
+			User user = users.get((ID) o[0]);
+			Department dept = o[6] == null ? null : depts.get((ID) o[6]);
+			if (dept != null) {
+				dept.addMember(user);
+			}
+			Role role = o[7] == null ? null : roles.get((ID) o[7]);
+			if (role != null) {
+				role.addMember(user);
 			}
 		}
 
-		LOG.info("Loaded [ " + DEPTs.size() + " ] departments.");
-
 		// 团队
 
-		array = aPMFactory.createQuery("select teamId from Team").array();
-		for (Object[] o : array) {
-			this.refreshTeam((ID) o[0]);
+		final Map<ID, Team> teams = new HashMap<>();
+		for (Object[] o : snapshot.teams) {
+			ID teamId = (ID) o[0];
+			teams.put(teamId, new Team(teamId, (String) o[1], (Boolean) o[2]));
 		}
-		LOG.info("Loaded [ " + TEAMs.size() + " ] teams.");
+		for (Object[] o : snapshot.teamMembers) {
+			Team team = teams.get((ID) o[0]);
+			User user = users.get((ID) o[1]);
+			if (team != null && user != null) {
+				team.addMember(user);
+			}
+		}
+
+		// 整体替换
+
+		final Org newOrg = new Org();
+		newOrg.users.putAll(users);
+		newOrg.roles.putAll(roles);
+		newOrg.depts.putAll(depts);
+		newOrg.teams.putAll(teams);
+		for (User user : users.values()) {
+			newOrg.name2id.put(normalIdentifier(user.getName()), user.getId());
+			if (user.getEmail() != null) {
+				newOrg.mail2id.put(normalIdentifier(user.getEmail()), user.getId());
+			}
+		}
+		for (Object[] o : snapshot.departments) {
+			newOrg.closure.move((ID) o[0], (ID) o[3]);
+		}
+		this.org = newOrg;
+
+		RoleBaseQueryFilter.clearCompiled();
+		ReadVerdictCache.instance.invalidate();
+
+		LOG.info("Loaded [ " + newOrg.users.size() + " ] users.");
+		LOG.info("Loaded [ " + newOrg.roles.size() + " ] roles.");
+		LOG.info("Loaded [ " + newOrg.depts.size() + " ] departments.");
+		LOG.info("Loaded [ " + newOrg.teams.size() + " ] teams.");
+	}
+
+	private boolean isSnapshotEnabled() {
+		return Boolean.parseBoolean(System.getProperty("userstore.snapshot"));
+	}
+
+	private File getSnapshotFile() {
+		return SysConfiguration.getFileOfTemp("userstore.snapshot");
 	}
 	
 	/**
 	 * @param user
 	 */
 	private void store(User user) {
-		USERs.put(user.getId(), user);
-		USERs_NAME2ID.put(normalIdentifier(user.getName()), user.getId());
+		org.users.put(user.getId(), user);
+		org.name2id.put(normalIdentifier(user.getName()), user.getId());
 		if (user.getEmail() != null) {
-			USERs_MAIL2ID.put(normalIdentifier(user.getEmail()), user.getId());
+			org.mail2id.put(normalIdentifier(user.getEmail()), user.getId());
 		}
 	}
 
@@ -590,14 +813,21 @@ public class UserStore {
 				.setParameter(1, role.getIdentity())
 				.array();
 		for (Object[] d : definition) {
-			int entity = (int) d[0];
-			Privileges p;
-			if (entity == 0) {
-				p = new ZeroPrivileges((String) d[2], (String) d[1]);
-			} else {
-				p = new EntityPrivileges(entity, converEntityPrivilegesDefinition((String) d[1]));
-			}
-			role.addPrivileges(p);
+			role.addPrivileges(toPrivileges((int) d[0], (String) d[1], (String) d[2]));
+		}
+	}
+
+	/**
+	 * @param entity
+	 * @param definition
+	 * @param zeroKey
+	 * @return
+	 */
+	private Privileges toPrivileges(int entity, String definition, String zeroKey) {
+		if (entity == 0) {
+			return new ZeroPrivileges(zeroKey, definition);
+		} else {
+			return new EntityPrivileges(entity, converEntityPrivilegesDefinition(definition));
 		}
 	}
 
@@ -699,4 +929,19 @@ public class UserStore {
 		
 		return "1:" + deepP + ",2:" + deepL + ",3:" + deepD + ",4:" + deepG;
 	}
+
+	/**
+	 * 组织架构
+	 */
+	private static class Org {
+		final Map<ID, User> users = new ConcurrentHashMap<>();
+		final Map<ID, Role> roles = new ConcurrentHashMap<>();
+		final Map<ID, Department> depts = new ConcurrentHashMap<>();
+		final Map<ID, Team> teams = new ConcurrentHashMap<>();
+
+		final Map<String, ID> name2id = new ConcurrentHashMap<>();
+		final Map<String, ID> mail2id = new ConcurrentHashMap<>();
+
+		final DepartmentClosure closure = new DepartmentClosure();
+	}
 }
@@ -8,7 +8,9 @@ See LICENSE and COMMERCIAL in the project root for license information.
 package com.rebuild.server.service.configuration;
 
 import cn.devezhao.persist4j.PersistManagerFactory;
+import cn.devezhao.persist4j.Record;
 import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.business.charts.ChartRollupManager;
 import com.rebuild.server.configuration.portals.ChartManager;
 import com.rebuild.server.metadata.EntityHelper;
 
@@ -27,6 +29,32 @@ public class ChartConfigService extends ConfigurationService {
 		return EntityHelper.ChartConfig;
 	}
 	
+	@Override
+	public Record create(Record record) {
+		record = super.create(record);
+		ChartRollupManager.instance.reset(record.getPrimary());
+		return record;
+	}
+
+	@Override
+	public Record update(Record record) {
+		record = super.update(record);
+		ChartRollupManager.instance.reset(record.getPrimary());
+		return record;
+	}
+
+	@Override
+	public int delete(ID recordId) {
+		Object[] o = getPMFactory().createQuery("select belongEntity from ChartConfig where chartId = ?")
+				.setParameter(1, recordId)
+				.unique();
+		int d = super.delete(recordId);
+		if (o != null) {
+			ChartRollupManager.instance.resetRegistry((String) o[0]);
+		}
+		return d;
+	}
+
 	@Override
 	protected void cleanCache(ID configId) {
 		ChartManager.instance.clean(configId);
@@ -21,7 +21,10 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 
 /**
  * Excel 工具，封装 easyexcel
@@ -47,7 +50,39 @@ public class ExcelUtils {
      */
     public static List<Cell[]> readExcel(File excel, int maxRows, boolean hasHead) {
         final List<Cell[]> rows = new ArrayList<>();
+        readExcel(excel, row -> {
+            if (maxRows > 0 && rows.size() >= maxRows) {
+                return false;
+            }
+            rows.add(row);
+            return true;
+        }, hasHead);
+        return rows;
+    }
+
+    /**
+     * 流式读取（不会将全部行载入内存）
+     *
+     * @param excel
+     * @param handler 返回 false 停止读取
+     * @param hasHead
+     */
+    public static void readExcel(File excel, Predicate<Cell[]> handler, boolean hasHead) {
+        readExcel(excel, handler, hasHead, null);
+    }
+
+    /**
+     * 流式读取（不会将全部行载入内存）
+     *
+     * @param excel
+     * @param handler 返回 false 停止读取
+     * @param hasHead
+     * @param rowsHint 读取前回调大概的总行数（来自文件中的元数据，可能不准确或没有）
+     */
+    public static void readExcel(File excel, Predicate<Cell[]> handler, boolean hasHead, IntConsumer rowsHint) {
         final AtomicInteger rowNo = new AtomicInteger(0);
+        final AtomicBoolean hasNext = new AtomicBoolean(true);
+        final AtomicBoolean hinted = new AtomicBoolean(rowsHint == null);
 
         try (InputStream is = new FileInputStream(excel)) {
             try (BufferedInputStream bis = new BufferedInputStream(is)) {
@@ -55,6 +90,7 @@ public class ExcelUtils {
                 EasyExcel.read(bis, null, new AnalysisEventListener() {
                     @Override
                     public void invokeHeadMap(Map headMap, AnalysisContext context) {
+                        hintRows(context);
                         if (hasHead) {
                             this.invoke(headMap, context);
                         } else {
@@ -63,9 +99,10 @@ public class ExcelUtils {
                     }
                     @Override
                     public void invoke(Object data, AnalysisContext analysisContext) {
-                        if (maxRows > 0 && rows.size() >= maxRows) {
+                        if (!hasNext.get()) {
                             return;
                         }
+                        hintRows(analysisContext);
 
                         @SuppressWarnings("unchecked")
                         Map<Integer, String> dataMap = (Map<Integer, String>) data;
@@ -73,18 +110,32 @@ public class ExcelUtils {
                         for (int i = 0; i < dataMap.size(); i++) {
                             row.add(new Cell(dataMap.get(i), rowNo.get(), i));
                         }
-                        rows.add(row.toArray(new Cell[0]));
                         rowNo.incrementAndGet();
+
+                        if (!handler.test(row.toArray(new Cell[0]))) {
+                            hasNext.set(false);
+                        }
+                    }
+                    @Override
+                    public boolean hasNext(AnalysisContext context) {
+                        return hasNext.get();
                     }
                     @Override
                     public void doAfterAllAnalysed(AnalysisContext analysisContext) {
                     }
+                    private void hintRows(AnalysisContext context) {
+                        if (hinted.compareAndSet(false, true)) {
+                            Integer approximate = context.readSheetHolder().getApproximateTotalRowNumber();
+                            if (approximate != null && approximate > 0) {
+                                rowsHint.accept(approximate);
+                            }
+                        }
+                    }
                 }).sheet().doRead();
             }
 
         } catch (IOException e) {
             throw new RebuildException(e);
         }
-        return rows;
     }
 }
@@ -10,11 +10,14 @@ package com.rebuild.web.admin;
 import com.rebuild.server.Application;
 import com.rebuild.server.helper.ConfigurableItem;
 import com.rebuild.server.helper.SysConfiguration;
+import com.rebuild.server.helper.cache.NearCache;
+import com.rebuild.server.helper.cache.ShareAccessCache;
 import org.apache.commons.lang.StringUtils;
 import redis.clients.jedis.Jedis;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -79,7 +82,7 @@ public class AdminCli {
      * @see #C_HELP
      */
     protected String execHelp() {
-        return " Usage : \ncache ACTION \nsyscfg NAME VALUE";
+        return " Usage : \ncache clean|stats \nsyscfg NAME VALUE";
     }
 
     /**
@@ -101,6 +104,28 @@ public class AdminCli {
                 Application.getCommonCache().getEhcacheCache().clear();
             }
 
+            if (NearCache.getInstance() != null) {
+                NearCache.getInstance().invalidateAll();
+            }
+
+        } else if ("stats".equals(name)) {
+            long[] sa = Application.getBean(ShareAccessCache.class).getStats();
+            StringBuilder stats = new StringBuilder("Share-index HITS / MISSES / INDEXES / RECORDS : ")
+                    .append(sa[0]).append(" / ").append(sa[1]).append(" / ").append(sa[2]).append(" / ").append(sa[3]);
+
+            if (NearCache.getInstance() == null) {
+                stats.append("\nNear-cache disabled");
+            } else {
+                stats.append("\nNear-cache size : ").append(NearCache.getInstance().size());
+                stats.append("\nBUCKET : HITS / MISSES / EVICTIONS");
+                for (Map.Entry<String, long[]> e : NearCache.getInstance().getStats().entrySet()) {
+                    long[] c = e.getValue();
+                    stats.append("\n").append(e.getKey())
+                            .append(" : ").append(c[0]).append(" / ").append(c[1]).append(" / ").append(c[2]);
+                }
+            }
+            result = stats.toString();
+
         } else {
             result = "Bad arguments";
         }
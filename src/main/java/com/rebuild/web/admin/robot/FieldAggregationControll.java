@@ -10,6 +10,7 @@ package com.rebuild.web.admin.robot;
 import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.Field;
 import com.alibaba.fastjson.JSON;
+import com.rebuild.server.business.trigger.impl.AggregationQueue;
 import com.rebuild.server.business.trigger.impl.FieldAggregation;
 import com.rebuild.server.configuration.RobotApprovalManager;
 import com.rebuild.server.helper.state.StateHelper;
@@ -112,6 +113,11 @@ public class FieldAggregationControll extends BaseControll {
 		writeSuccess(response, data);
 	}
 
+	@RequestMapping("field-aggregation-queue")
+	public void getAsyncQueue(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		writeSuccess(response, AggregationQueue.instance.getStats());
+	}
+
 	/**
 	 * @param field
 	 * @return
@@ -18,6 +18,8 @@ import com.rebuild.server.configuration.portals.DataListManager;
 import com.rebuild.server.helper.cache.RecentlyUsedCache;
 import com.rebuild.server.helper.datalist.ProtocolFilterParser;
 import com.rebuild.server.helper.fieldvalue.FieldValueWrapper;
+import com.rebuild.server.helper.search.FullTextIndex;
+import com.rebuild.server.helper.search.FullTextIndexManager;
 import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.metadata.MetadataSorter;
@@ -55,6 +57,11 @@ import java.util.Set;
 @Controller
 @RequestMapping("/commons/search/")
 public class ReferenceSearch extends BaseEntityControll {
+
+	// 返回结果数
+	private static final int SEARCH_LIMIT = 10;
+	// 全文索引最多返回的候选
+	private static final int INDEX_CANDIDATES = 5000;
 	
 	// 快速搜索引用字段
 	@RequestMapping({ "reference", "quick" })
@@ -98,6 +105,7 @@ public class ReferenceSearch extends BaseEntityControll {
 			}
 			return;
 		}
+		final String rawq = q;
 		q = StringEscapeUtils.escapeSql(q);
 		
 		// 可搜索字符
@@ -127,13 +135,17 @@ public class ReferenceSearch extends BaseEntityControll {
 			searchWhere = "(" + searchWhere + ") and (" + protocolFilter + ')';
 		}
 
-		String sql = MessageFormat.format("select {0},{1} from {2} where ( {3} )",
-				referenceEntity.getPrimaryField().getName(), referenceNameField.getName(), referenceEntity.getName(), searchWhere);
-		if (referenceEntity.containsField(EntityHelper.ModifiedOn)) {
-			sql += " order by modifiedOn desc";
+		Object[][] array = searchByIndex(referenceEntity, referenceNameField, searchFields, rawq, searchWhere);
+		if (array == null) {
+			String sql = MessageFormat.format("select {0},{1} from {2} where ( {3} )",
+					referenceEntity.getPrimaryField().getName(), referenceNameField.getName(), referenceEntity.getName(), searchWhere);
+			if (referenceEntity.containsField(EntityHelper.ModifiedOn)) {
+				sql += " order by modifiedOn desc";
+			}
+			array = Application.createQuery(sql).setLimit(SEARCH_LIMIT).array();
 		}
 
-		List<Object> result = resultSearch(sql, metaEntity, referenceNameField);
+		List<Object> result = resultSearch(array, metaEntity, referenceNameField);
 		writeSuccess(response, result);
 	}
 	
@@ -155,6 +167,7 @@ public class ReferenceSearch extends BaseEntityControll {
 			}
 			return;
 		}
+		final String rawq = q;
 		q = StringEscapeUtils.escapeSql(q);
 		
 		Entity metaEntity = MetadataHelper.getEntity(entity);
@@ -175,11 +188,13 @@ public class ReferenceSearch extends BaseEntityControll {
 		}
 		
 		List<String> or = new ArrayList<>();
+		Set<String> searchFields = new HashSet<>();
 		for (String field : qfields.split(",")) {
 			if (!metaEntity.containsField(field)) {
 				LOG.warn("No field for search : " + field);
 			} else {
 				or.add(field + " like '%" + q + "%'");
+				searchFields.add(field);
 			}
 		}
 		if (or.isEmpty()) {
@@ -187,14 +202,19 @@ public class ReferenceSearch extends BaseEntityControll {
 			return;
 		}
 		
-		String sql = "select {0},{1} from {2} where ({3})";
-		sql = MessageFormat.format(sql, 
-				metaEntity.getPrimaryField().getName(), nameField.getName(), metaEntity.getName(), StringUtils.join(or, " or "));
-		if (metaEntity.containsField(EntityHelper.ModifiedOn)) {
-			sql += " order by modifiedOn desc";
+		final String searchWhere = StringUtils.join(or, " or ");
+		Object[][] array = searchByIndex(metaEntity, nameField, searchFields, rawq, searchWhere);
+		if (array == null) {
+			String sql = "select {0},{1} from {2} where ({3})";
+			sql = MessageFormat.format(sql,
+					metaEntity.getPrimaryField().getName(), nameField.getName(), metaEntity.getName(), searchWhere);
+			if (metaEntity.containsField(EntityHelper.ModifiedOn)) {
+				sql += " order by modifiedOn desc";
+			}
+			array = Application.createQuery(sql).setLimit(SEARCH_LIMIT).array();
 		}
 		
-		List<Object> result = resultSearch(sql, metaEntity, nameField);
+		List<Object> result = resultSearch(array, metaEntity, nameField);
 		writeSuccess(response, result);
 	}
 	
@@ -247,23 +267,55 @@ public class ReferenceSearch extends BaseEntityControll {
 		String sql = "select itemId,fullName from ClassificationData" +
                 " where dataId = '%s' and level = %d and (fullName like '%%%s%%' or quickCode like '%%%s%%') order by fullName";
         sql = String.format(sql, useClassification.toLiteral(), openLevel, q, q);
-		List<Object> result = resultSearch(sql, null, null);
+		List<Object> result = resultSearch(Application.createQueryNoFilter(sql).setLimit(SEARCH_LIMIT).array(), null, null);
 		writeSuccess(response, result);
 	}
 	
+	/**
+	 * 通过全文索引搜索。索引结果为候选，需使用原条件（含权限）再次查询
+	 *
+	 * @param entity
+	 * @param nameField
+	 * @param searchFields
+	 * @param q 未转义的搜索词
+	 * @param searchWhere
+	 * @return 索引不可用时返回 null
+	 * @see FullTextIndexManager
+	 */
+	private Object[][] searchByIndex(Entity entity, Field nameField, Set<String> searchFields, String q, String searchWhere) {
+		FullTextIndex index = FullTextIndexManager.instance.getIndex(entity, searchFields, q);
+		if (index == null) {
+			return null;
+		}
+
+		final ID[] candidates = index.search(q, INDEX_CANDIDATES);
+		if (candidates.length == 0) {
+			return new Object[0][];
+		}
+		// 候选被截断（索引顺序并非修改时间顺序，截断后的候选不一定包含最近修改的），使用原查询
+		if (candidates.length >= INDEX_CANDIDATES) {
+			return null;
+		}
+
+		// 全部候选一次查询，与原查询一致按修改时间排序
+		String sql = MessageFormat.format("select {0},{1} from {2} where {0} in (''{3}'') and ( {4} )",
+				entity.getPrimaryField().getName(), nameField.getName(), entity.getName(),
+				StringUtils.join(candidates, "','"), searchWhere);
+		if (entity.containsField(EntityHelper.ModifiedOn)) {
+			sql += " order by modifiedOn desc";
+		}
+		return Application.createQuery(sql).setLimit(SEARCH_LIMIT).array();
+	}
+
 	/**
 	 * 封装查询结果
 	 * 
-	 * @param sql
-	 * @param entity 不指定则使用无权限查询
+	 * @param array
+	 * @param entity
 	 * @param nameField
 	 * @return
 	 */
-	private List<Object> resultSearch(String sql, Entity entity, Field nameField) {
-		Object[][] array = (entity == null ? Application.createQueryNoFilter(sql) : Application.createQuery(sql))
-				.setLimit(10)
-				.array();
-
+	private List<Object> resultSearch(Object[][] array, Entity entity, Field nameField) {
 		List<Object> result = new ArrayList<>();
 		for (Object[] o : array) {
 			final ID recordId = (ID) o[0];
@@ -20,6 +20,7 @@ import com.rebuild.server.business.datareport.EasyExcelGenerator;
 import com.rebuild.server.configuration.DataReportManager;
 import com.rebuild.server.configuration.portals.FormsBuilder;
 import com.rebuild.server.helper.datalist.BatchOperatorQuery;
+import com.rebuild.server.helper.task.TaskExecutors;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.service.bizz.UserHelper;
 import com.rebuild.server.service.bizz.privileges.ZeroEntry;
@@ -106,11 +107,12 @@ public class ReportsControll extends BasePageControll {
         JSONObject queryData = (JSONObject) ServletUtils.getRequestJson(request);
         queryData = new BatchOperatorQuery(dataRange, queryData).wrapQueryData(DataExporter.MAX_ROWS, false);
 
-        try {
-            File file = new DataExporter(queryData).setUser(user).export();
-            writeSuccess(response, file.getName());
-        } catch (Exception ex) {
-            writeFailure(response, ex.getLocalizedMessage());
-        }
+        // 异步导出，前端通过任务状态获取进度
+        DataExporter exporter = new DataExporter(queryData, getParameter(request, "type"));
+        String taskid = TaskExecutors.submit(exporter, user);
+
+        JSON data = JSONUtils.toJSONObject(
+                new String[] { "taskid", "file" }, new Object[] { taskid, exporter.getExportFile().getName() });
+        writeSuccess(response, data);
     }
 }
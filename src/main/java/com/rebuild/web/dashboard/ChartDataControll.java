@@ -10,7 +10,9 @@ package com.rebuild.web.dashboard;
 import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.business.charts.ChartBatchBuilder;
 import com.rebuild.server.business.charts.ChartData;
+import com.rebuild.server.business.charts.ChartDataCache;
 import com.rebuild.server.business.charts.ChartsException;
 import com.rebuild.server.business.charts.ChartsFactory;
 import com.rebuild.server.configuration.ConfigEntry;
@@ -25,7 +27,10 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 
@@ -47,7 +52,7 @@ public class ChartDataControll extends BaseControll {
 		JSON data;
 		try {
 			ChartData chart = ChartsFactory.create(chartid);
-			data = chart.setExtraParams(paramMap).build();
+			data = ChartDataCache.instance.build(chart.setExtraParams(paramMap));
 		} catch (ChartsException ex) {
 			writeFailure(response, ex.getLocalizedMessage());
 			return;
@@ -56,6 +61,43 @@ public class ChartDataControll extends BaseControll {
 		writeSuccess(response, data);
 	}
 
+	/**
+	 * 批量（并行）加载图表数据。超时或失败的图表单独返回错误，不影响其他图表
+	 *
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping("/charts-data")
+	public void batchData(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String ids = getParameterNotNull(request, "ids");
+		Set<ID> chartIds = new LinkedHashSet<>();
+		for (String id : ids.split(",")) {
+			if (ID.isId(id)) {
+				chartIds.add(ID.valueOf(id));
+			}
+		}
+
+		Map<ID, Object> results = new ChartBatchBuilder(getRequestUser(request))
+				.build(chartIds.toArray(new ID[0]));
+
+		JSONObject data = new JSONObject();
+		for (Map.Entry<ID, Object> e : results.entrySet()) {
+			Object result = e.getValue();
+			JSONObject item;
+			if (result instanceof TimeoutException) {
+				item = formatFailure("图表加载超时");
+				item.put("timeout", true);
+			} else if (result instanceof Exception) {
+				item = formatFailure(((Exception) result).getLocalizedMessage());
+			} else {
+				item = formatSuccess(result);
+			}
+			data.put(e.getKey().toLiteral(), item);
+		}
+		writeSuccess(response, data);
+	}
+
     /**
      * @param request
      * @param response
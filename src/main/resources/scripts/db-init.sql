@@ -433,6 +433,7 @@ create table if not exists `rebuild_api` (
   `APP_SECRET`         varchar(60) not null comment 'APPSECRET',
   `BIND_USER`          char(20) comment '绑定用户(权限)',
   `BIND_IPS`           varchar(300) comment 'IP白名单',
+  `EXTRA_DEFINITION`   text(1000) comment '扩展配置(JSON Map)',
   `MODIFIED_ON`        timestamp not null default current_timestamp comment '修改时间',
   `MODIFIED_BY`        char(20) not null comment '修改人',
   `CREATED_BY`         char(20) not null comment '创建人',
@@ -667,6 +668,18 @@ create table if not exists `project_task_tag_relation` (
   index IX0_project_task_tag_relation (`TASK_ID`, `TAG_ID`)
 )Engine=InnoDB;
 
+-- ************ Entity [ChartRollup] DDL ************
+create table if not exists `chart_rollup` (
+  `ROLLUP_ID`          char(20) not null,
+  `ROLLUP_KEY`         varchar(40) not null comment '预聚合标识',
+  `BUCKET`             varchar(191) not null comment '维度值(空值为空字符串)',
+  `SUM_VALUE`          decimal(29,8) default '0' comment '数值合计',
+  `COUNT_VALUE`        bigint(20) default '0' comment '数值计数(不含空值)',
+  `RECORD_COUNT`       bigint(20) default '0' comment '记录数',
+  primary key  (`ROLLUP_ID`),
+  unique index UIX0_chart_rollup (`ROLLUP_KEY`, `BUCKET`)
+)Engine=InnoDB;
+
 
 -- #3 datas
 
@@ -711,4 +724,4 @@ insert into `classification` (`DATA_ID`, `NAME`, `DESCRIPTION`, `OPEN_LEVEL`, `I
 
 -- DB Version (see `db-upgrade.sql`)
 insert into `system_config` (`CONFIG_ID`, `ITEM`, `VALUE`)
-  values ('021-9000000000000001', 'DBVer', 28);
+  values ('021-9000000000000001', 'DBVer', 30);
@@ -1,6 +1,23 @@
 -- Database upgrade scripts for rebuild 1.x
 -- Each upgraded starts with `-- #VERSION`
 
+-- #30 API extra definition (rate limits)
+alter table `rebuild_api`
+  add column `EXTRA_DEFINITION` text(1000) comment '扩展配置(JSON Map)';
+
+-- #29 Chart rollups
+-- ************ Entity [ChartRollup] DDL ************
+create table if not exists `chart_rollup` (
+  `ROLLUP_ID`          char(20) not null,
+  `ROLLUP_KEY`         varchar(40) not null comment '预聚合标识',
+  `BUCKET`             varchar(191) not null comment '维度值(空值为空字符串)',
+  `SUM_VALUE`          decimal(29,8) default '0' comment '数值合计',
+  `COUNT_VALUE`        bigint(20) default '0' comment '数值计数(不含空值)',
+  `RECORD_COUNT`       bigint(20) default '0' comment '记录数',
+  primary key  (`ROLLUP_ID`),
+  unique index UIX0_chart_rollup (`ROLLUP_KEY`, `BUCKET`)
+)Engine=InnoDB;
+
 -- #28
 alter table `project_config`
   add column `PRINCIPAL` char(20) comment '负责人';
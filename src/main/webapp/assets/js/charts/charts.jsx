@@ -5,6 +5,9 @@ rebuild is dual-licensed under commercial and open source licenses (GPLv3).
 See LICENSE and COMMERCIAL in the project root for license information.
 */
 
+// 批量加载的图表数据（图表ID > 请求）
+const ChartsBatch = {}
+
 // 图表基类
 class BaseChart extends React.Component {
 
@@ -50,6 +53,21 @@ class BaseChart extends React.Component {
   loadChartData() {
     this.setState({ chartdata: null })
     const that = this
+
+    // 使用批量加载的数据（仅首次）
+    const batch = ChartsBatch[this.state.id]
+    if (batch) {
+      delete ChartsBatch[this.state.id]
+      batch.done((res) => {
+        const item = res.error_code === 0 ? res.data[that.state.id] : null
+        // 超时的图表单独加载
+        if (!item || item.timeout) that.loadChartData()
+        else if (item.error_code === 0) that.renderChart(item.data)
+        else that.renderError(item.error_msg)
+      }).fail(() => that.loadChartData())
+      return
+    }
+
     $.post(this.buildDataUrl(), JSON.stringify(this.state.config || {}), (res) => {
       if (res.error_code === 0) that.renderChart(res.data)
       else that.renderError(res.error_msg)
@@ -165,6 +165,18 @@ const render_dashboard = function (init) {
   }).data('gridstack')
 
   gridstack_serialize = init
+
+  // 批量并行加载图表数据（内建图表除外）
+  const batchIds = []
+  $(init).each((idx, item) => {
+    if (item.chart && item.type !== 'ApprovalList' && item.type !== 'FeedsSchedule') batchIds.push(item.chart)
+  })
+  if (batchIds.length > 1) {
+    const batch = $.post(`/dashboard/charts-data?ids=${batchIds.join(',')}`)
+    // eslint-disable-next-line no-undef
+    batchIds.forEach((id) => ChartsBatch[id] = batch)
+  }
+
   $(init).each((idx, item) => add_widget(item))
   if (rendered_charts.length === 0) {
     const gsi = '<div class="grid-stack-item"><div id="chart-add" class="grid-stack-item-content"><a class="chart-add" onclick="dlgShow(\'DlgAddChart\')"><i class="zmdi zmdi-plus"></i><p>添加图表</p></a></div></div>'
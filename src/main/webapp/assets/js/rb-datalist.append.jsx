@@ -72,20 +72,59 @@ class DataExport extends BatchOperator {
   constructor(props) {
     super(props)
     this.state.title = '数据导出'
+    this.state.fileType = 'csv'
+  }
+
+  renderOperator() {
+    return <div className="form-group">
+      <label className="text-bold">导出格式</label>
+      <div>
+        <label className="custom-control custom-control-sm custom-radio custom-control-inline mb-1">
+          <input className="custom-control-input" name="fileType" type="radio" checked={this.state.fileType === 'csv'} value="csv" onChange={this.handleChange} />
+          <span className="custom-control-label">CSV</span>
+        </label>
+        <label className="custom-control custom-control-sm custom-radio custom-control-inline mb-1">
+          <input className="custom-control-input" name="fileType" type="radio" checked={this.state.fileType === 'xlsx'} value="xlsx" onChange={this.handleChange} />
+          <span className="custom-control-label">Excel</span>
+        </label>
+      </div>
+    </div>
   }
 
   confirm = () => {
     this.disabled(true)
-    $.post(`/app/${this.props.entity}/data-export/submit?dr=${this.state.dataRange}`, JSON.stringify(this.getQueryData()), (res) => {
+    $.post(`/app/${this.props.entity}/data-export/submit?dr=${this.state.dataRange}&type=${this.state.fileType}`, JSON.stringify(this.getQueryData()), (res) => {
       if (res.error_code === 0) {
-        this.hide()
-        window.open(`${rb.baseUrl}/filex/download/${res.data}?temp=yes`)
+        const mp = new Mprogress({ template: 1, start: true })
+        this.__checkState(res.data.taskid, res.data.file, mp)
       } else {
         this.disabled(false)
         RbHighbar.error(res.error_msg)
       }
     })
   }
+
+  __checkState(taskid, file, mp) {
+    $.get(`/commons/task/state?taskid=${taskid}`, (res) => {
+      if (res.error_code === 0) {
+        if (res.data.hasError) {
+          mp && mp.end()
+          this.disabled(false)
+          RbHighbar.error(res.data.hasError)
+          return
+        }
+
+        if (res.data.isCompleted) {
+          mp && mp.end()
+          this.hide()
+          window.open(`${rb.baseUrl}/filex/download/${file}?temp=yes`)
+        } else {
+          mp && mp.set(res.data.progress)
+          setTimeout(() => { this.__checkState(taskid, file, mp) }, 1000)
+        }
+      }
+    })
+  }
 }
 
 // ~ 批量修改
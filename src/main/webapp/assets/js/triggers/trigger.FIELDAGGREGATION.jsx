@@ -101,6 +101,13 @@ class ContentFieldAggregation extends ActionContentSpec {
               <input className="custom-control-input" type="checkbox" ref={(c) => this._readonlyFields = c} />
               <span className="custom-control-label">自动设置目标字段为只读</span>
             </label>
+            <label className="custom-control custom-control-sm custom-checkbox custom-control-inline mb-0">
+              <input className="custom-control-input" type="checkbox" ref={(c) => this._async = c} />
+              <span className="custom-control-label">异步执行 (合并短时间内的重复聚合)</span>
+            </label>
+            {this.state.queueStats && <div className="form-text mt-0">
+              当前队列 {this.state.queueStats.depth} 条，延迟 {Math.round(this.state.queueStats.lag / 1000)} 秒
+            </div>}
           </div>
         </div>
         <div className="form-group row">
@@ -133,8 +140,11 @@ class ContentFieldAggregation extends ActionContentSpec {
       })
     })
 
+    $.get('/admin/robot/trigger/field-aggregation-queue', (res) => this.setState({ queueStats: res.data }))
+
     if (content) {
       $(this._readonlyFields).attr('checked', content.readonlyFields === true)
+      $(this._async).attr('checked', content.async === true)
       this._saveAdvFilter(content.dataFilter)
     }
   }
@@ -238,6 +248,7 @@ class ContentFieldAggregation extends ActionContentSpec {
       targetEntity: $(this._targetEntity).val(),
       items: this.state.items,
       readonlyFields: $(this._readonlyFields).prop('checked'),
+      async: $(this._async).prop('checked'),
       dataFilter: this._advFilter__data
     }
     if (!content.targetEntity) { RbHighbar.create('请选择聚合目标实体'); return false }
@@ -79,6 +79,12 @@
                                 <span class="custom-control-label"> 排除空数据（数值为 0 不显示）</span>
                             </label>
 						</div>
+						<div class="hide admin-show J_opt-INDEX J_opt-LINE J_opt-BAR J_opt-PIE">
+							<label class="custom-control custom-control-sm custom-checkbox mb-2">
+								<input class="custom-control-input" type="checkbox" data-name="materialized">
+								<span class="custom-control-label"> 启用预聚合 <i class="zmdi zmdi-help zicon" title="数据量较大时可启用。仅在无过滤条件且使用全部数据时生效，支持日期/引用/下拉列表/分类维度与求和/平均值/计数"></i></span>
+							</label>
+						</div>
 						<div class="hide J_opt-TABLE">
 							<label class="custom-control custom-control-sm custom-checkbox mb-2">
 								<input class="custom-control-input" type="checkbox" data-name="showLineNumber">
@@ -0,0 +1,48 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api;
+
+import com.rebuild.server.TestSupport;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author devezhao
+ * @since 2020/09/11
+ */
+public class ApiRateLimiterTest extends TestSupport {
+
+    @Test
+    public void testParseRule() {
+        assertNull(ApiRateLimiter.Rule.parse(null));
+        assertNull(ApiRateLimiter.Rule.parse("0/10"));
+        assertEquals(20, ApiRateLimiter.Rule.parse("10/20").burst);
+        assertEquals(5, ApiRateLimiter.Rule.parse("0.5/5").burst);
+        assertEquals(10, ApiRateLimiter.Rule.parse("10").burst);
+    }
+
+    @Test
+    public void testAcquire() {
+        final String key = "test:" + System.currentTimeMillis();
+        final ApiRateLimiter.Rule rule = new ApiRateLimiter.Rule(0.01, 3);
+
+        for (int i = 0; i < 3; i++) {
+            ApiRateLimiter.Result r = ApiRateLimiter.instance.acquire(key, rule);
+            assertTrue(r.isAllowed());
+            assertEquals(2 - i, r.getRemaining());
+        }
+
+        ApiRateLimiter.Result r = ApiRateLimiter.instance.acquire(key, rule);
+        assertFalse(r.isAllowed());
+        assertEquals(100, r.getRetryAfter());
+    }
+}
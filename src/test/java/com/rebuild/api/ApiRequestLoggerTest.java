@@ -0,0 +1,66 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api;
+
+import cn.devezhao.commons.CalendarUtils;
+import cn.devezhao.persist4j.Record;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.TestSupport;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.service.bizz.UserService;
+import com.rebuild.utils.JSONUtils;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author devezhao
+ * @since 2020/09/11
+ */
+public class ApiRequestLoggerTest extends TestSupport {
+
+    @Test
+    public void testLogAndFlush() {
+        ApiRequestLogger logger = ApiRequestLogger.instance;
+        long written = ((JSONObject) logger.getStats()).getLongValue("written");
+
+        ApiContext context = new ApiContext(new HashMap<>(), null, "999999999", null);
+        for (int i = 0; i < 250; i++) {
+            logger.log(CalendarUtils.now(), "127.0.0.1", "system-time", context,
+                    JSONUtils.toJSONObject("error_code", 0));
+        }
+        logger.flush();
+
+        assertEquals(written + 250, ((JSONObject) logger.getStats()).getLongValue("written"));
+    }
+
+    @Test
+    public void testDropFailedOnly() {
+        ApiRequestLogger logger = ApiRequestLogger.instance;
+        JSONObject stats = (JSONObject) logger.getStats();
+        long written = stats.getLongValue("written");
+        long failed = stats.getLongValue("failed");
+
+        ApiContext context = new ApiContext(new HashMap<>(), null, "999999999", null);
+        for (int i = 0; i < 5; i++) {
+            logger.log(CalendarUtils.now(), "127.0.0.1", "system-time", context,
+                    JSONUtils.toJSONObject("error_code", 0));
+        }
+        // 缺少必填字段
+        Record bad = EntityHelper.forNew(EntityHelper.RebuildApiRequest, UserService.SYSTEM_USER);
+        bad.setString("appId", "999999999");
+        logger.offer(bad);
+        logger.flush();
+
+        stats = (JSONObject) logger.getStats();
+        assertEquals(written + 5, stats.getLongValue("written"));
+        assertEquals(failed + 1, stats.getLongValue("failed"));
+    }
+}
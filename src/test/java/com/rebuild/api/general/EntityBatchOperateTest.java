@@ -0,0 +1,90 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.api.general;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.api.ApiContext;
+import com.rebuild.server.TestSupportWithUser;
+import com.rebuild.server.metadata.EntityRecordCreator;
+import com.rebuild.utils.JSONUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author devezhao
+ * @since 2020/09/10
+ */
+public class EntityBatchOperateTest extends TestSupportWithUser {
+
+    @Test
+    public void executeBatch() {
+
+        // CREATE (第 2 条无效)
+
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 3; i++) {
+            JSONObject data = new JSONObject();
+            data.put(EntityRecordCreator.META_FIELD, JSONUtils.toJSONObject("entity", i == 1 ? "NotExists" : TEST_ENTITY));
+            data.put("TestAllFieldsName", "EntityBatchCreateTest" + i);
+            items.add(data);
+        }
+
+        Map<String, String> reqParams = new HashMap<>();
+        reqParams.put("chunk_size", "2");
+        JSONObject result = (JSONObject) new EntityBatchCreate().execute(new ApiContext(reqParams, items, null, getSessionUser()));
+        System.out.println(JSONUtils.prettyPrint(result));
+
+        JSONObject data = result.getJSONObject("data");
+        Assert.assertEquals(2, data.getIntValue("succeeded"));
+        Assert.assertEquals(1, data.getIntValue("failed"));
+
+        List<String> ids = new ArrayList<>();
+        for (Object o : data.getJSONArray("items")) {
+            JSONObject item = (JSONObject) o;
+            if (item.getIntValue("error_code") == 0) {
+                ids.add(item.getJSONObject("data").getString("id"));
+            }
+        }
+
+        // UPDATE
+
+        items = new JSONArray();
+        for (String id : ids) {
+            JSONObject d = new JSONObject();
+            d.put(EntityRecordCreator.META_FIELD, JSONUtils.toJSONObject(
+                    new String[] { "entity", "id" }, new String[] { TEST_ENTITY, id }));
+            d.put("TestAllFieldsName", "UPDATE >> EntityBatchCreateTest");
+            items.add(d);
+        }
+        result = (JSONObject) new EntityBatchUpdate().execute(new ApiContext(new HashMap<>(), items, null, getSessionUser()));
+        Assert.assertEquals(ids.size(), result.getJSONObject("data").getIntValue("succeeded"));
+
+        // GET
+
+        reqParams = new HashMap<>();
+        reqParams.put("ids", StringUtils.join(ids, ","));
+        reqParams.put("fields", "TestAllFieldsName");
+        result = (JSONObject) new EntityBatchGet().execute(new ApiContext(reqParams, null, null, getSessionUser()));
+        System.out.println(JSONUtils.prettyPrint(result));
+        Assert.assertEquals(ids.size(), result.getJSONArray("data").size());
+
+        // DELETE
+
+        reqParams = new HashMap<>();
+        reqParams.put("ids", StringUtils.join(ids, ","));
+        result = (JSONObject) new EntityBatchDelete().execute(new ApiContext(reqParams, null, null, getSessionUser()));
+        Assert.assertEquals(ids.size(), result.getJSONObject("data").getIntValue("succeeded"));
+    }
+}
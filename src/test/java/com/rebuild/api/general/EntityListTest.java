@@ -17,6 +17,7 @@ import org.apache.commons.lang.StringUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -44,6 +45,25 @@ public class EntityListTest extends TestSupportWithUser {
         Assert.assertNotNull(listResult.get("error_code"));
     }
 
+    @Test
+    public void executeExportStream() throws Exception {
+        Map<String, String> reqParams = new HashMap<>();
+        reqParams.put("entity", TEST_ENTITY);
+        reqParams.put("fields", getAllFields(getTestEntity()));
+        reqParams.put("updated_since", String.valueOf(System.currentTimeMillis() - 24 * 60 * 60 * 1000));
+        reqParams.put("max_rows", "3");
+        ApiContext apiContext = new ApiContext(reqParams, null, null, getSessionUser());
+
+        StringWriter writer = new StringWriter();
+        final JSONObject endResult = (JSONObject) new EntityExportStream().execute(apiContext, writer);
+        System.out.println(writer);
+        System.out.println(JSONUtils.prettyPrint(endResult));
+
+        int count = endResult.getJSONObject("data").getIntValue("count");
+        Assert.assertTrue(count <= 3);
+        Assert.assertEquals(count, StringUtils.countMatches(writer.toString(), "\n"));
+    }
+
     static String getAllFields(Entity entity) {
         List<String> allFields = new ArrayList<>();
         for (Field field : entity.getFields()) {
@@ -0,0 +1,113 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.charts;
+
+import cn.devezhao.persist4j.Record;
+import cn.devezhao.persist4j.engine.ID;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
+import com.rebuild.server.TestSupportWithUser;
+import com.rebuild.server.business.charts.ChartRollupManager.Rollup;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.service.bizz.UserService;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author devezhao
+ * @since 2020/09/08
+ */
+public class ChartRollupManagerTest extends TestSupportWithUser {
+
+    @Test
+    public void testRollupSupports() {
+        JSONObject config = JSON.parseObject(
+                "{'entity':'TestAllFields','type':'LINE','axis':{'dimension':[{'field':'createdOn','sort':'NONE','label':'','calc':'M'}],'numerical':[{'field':'number','sort':'NONE','label':'','calc':'SUM'},{'field':'number','sort':'NONE','label':'','calc':'MAX'}]}}");
+        ChartData chart = ChartsFactory.create(config, UserService.ADMIN_USER);
+
+        Dimension dim = chart.getDimensions()[0];
+        assertNotNull(Rollup.valueOf(chart.getSourceEntity(), dim, chart.getNumericals()[0]));
+        // MAX 无法增量
+        assertNull(Rollup.valueOf(chart.getSourceEntity(), dim, chart.getNumericals()[1]));
+    }
+
+    @Test
+    public void testQueryAndApply() {
+        JSONObject config = JSON.parseObject(
+                "{'entity':'TestAllFields','title':'预聚合','type':'LINE','axis':{'dimension':[{'field':'createdOn','sort':'ASC','label':'','calc':'M'}],'numerical':[{'field':'number','sort':'NONE','label':'','calc':'SUM'},{'field':'number','sort':'NONE','label':'','calc':'COUNT'}]},'option':{'materialized':true}}");
+
+        Record chartRecord = EntityHelper.forNew(EntityHelper.ChartConfig, UserService.ADMIN_USER);
+        chartRecord.setString("config", config.toJSONString());
+        chartRecord.setString("belongEntity", "TestAllFields");
+        chartRecord.setString("chartType", "LINE");
+        chartRecord.setString("title", "预聚合");
+        chartRecord = Application.getCommonsService().create(chartRecord, false);
+        ChartRollupManager.instance.reset(chartRecord.getPrimary());
+
+        try {
+            ChartData chart = ChartsFactory.create(config, UserService.ADMIN_USER);
+            Dimension dim = chart.getDimensions()[0];
+            Numerical[] nums = chart.getNumericals();
+            for (Numerical num : nums) {
+                ChartRollupManager.instance.rebuild(Rollup.valueOf(chart.getSourceEntity(), dim, num));
+            }
+            assertSameAsRaw(chart, dim, nums);
+
+            // 增量
+            Record record = EntityHelper.forNew(getTestEntity().getEntityCode(), getSessionUser());
+            record.setLong("number", 10L);
+            ID recordId = Application.getGeneralEntityService().create(record).getPrimary();
+            assertSameAsRaw(chart, dim, nums);
+
+            record = EntityHelper.forUpdate(recordId, getSessionUser());
+            record.setLong("number", 25L);
+            Application.getGeneralEntityService().update(record);
+            assertSameAsRaw(chart, dim, nums);
+
+            Application.getGeneralEntityService().delete(recordId);
+            assertSameAsRaw(chart, dim, nums);
+
+            // 偏差修正
+            Rollup r = Rollup.valueOf(chart.getSourceEntity(), dim, nums[0]);
+            String gen = ChartRollupManager.instance.getGeneration(r.key);
+            Application.getSQLExecutor().execute(String.format(
+                    "update `chart_rollup` set `SUM_VALUE` = `SUM_VALUE` + 999 where `ROLLUP_KEY` = '%s'", r.dataKey(gen)));
+            ChartRollupManager.instance.reconcileAll();
+            assertNotEquals(gen, ChartRollupManager.instance.getGeneration(r.key));
+            assertSameAsRaw(chart, dim, nums);
+
+        } finally {
+            Application.getCommonsService().delete(chartRecord.getPrimary(), false);
+        }
+    }
+
+    private void assertSameAsRaw(ChartData chart, Dimension dim, Numerical[] nums) {
+        Object[][] raw = Application.createQueryNoFilter(chart.buildSql(dim, nums)).array();
+        Object[][] rolled = ChartRollupManager.instance.query(chart, dim, nums);
+        assertNotNull(rolled);
+        assertEquals(raw.length, rolled.length);
+
+        for (int i = 0; i < raw.length; i++) {
+            assertEquals(raw[i][0], rolled[i][0]);
+            for (int j = 1; j < raw[i].length; j++) {
+                if (raw[i][j] == null) {
+                    assertNull(rolled[i][j]);
+                } else {
+                    assertEquals(0, new BigDecimal(raw[i][j].toString()).compareTo(new BigDecimal(rolled[i][j].toString())));
+                }
+            }
+        }
+    }
+}
@@ -18,13 +18,21 @@ along with this program. If not, see <https://www.gnu.org/licenses/>.
 
 package com.rebuild.server.business.charts;
 
+import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.rebuild.server.TestSupportWithUser;
+import com.rebuild.server.metadata.EntityHelper;
 import com.rebuild.server.service.bizz.UserService;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
 /**
  * 
  * @author devezhao
@@ -119,4 +127,37 @@ public class ChartsTest extends TestSupportWithUser {
         scatter = ChartsFactory.create(config, UserService.ADMIN_USER);
         System.out.println(scatter.build());
     }
+
+    @Test
+    public void testChartDataCache() {
+        JSONObject config = JSON.parseObject(
+                "{'entity':'testallfields','title':'指标卡','type':'INDEX','axis':{'dimension':[],'numerical':[{'field':'createdOn','sort':'NONE','label':'','calc':'COUNT'}]},'option':{}}");
+        JSON first = ChartDataCache.instance.build(ChartsFactory.create(config, UserService.ADMIN_USER));
+        JSON cached = ChartDataCache.instance.build(ChartsFactory.create(config, UserService.ADMIN_USER));
+        assertEquals(first.toJSONString(), cached.toJSONString());
+
+        // 新建记录后失效
+        addRecordOfTestAllFields();
+        JSON rebuilt = ChartDataCache.instance.build(ChartsFactory.create(config, UserService.ADMIN_USER));
+        assertNotEquals(first.toJSONString(), rebuilt.toJSONString());
+    }
+
+    @Test
+    public void testChartDataCacheKey() {
+        JSONObject config = JSON.parseObject(
+                "{'entity':'testallfields','title':'指标卡','type':'INDEX','axis':{'dimension':[],'numerical':[{'field':'createdOn','sort':'NONE','label':'','calc':'COUNT'}]},'option':{}}");
+
+        // 批量加载（无额外参数）
+        ChartData batch = ChartsFactory.create(config, UserService.ADMIN_USER);
+        // 单个加载（请求参数）
+        Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put("id", ID.newId(EntityHelper.ChartConfig).toLiteral());
+        paramMap.put("_", System.currentTimeMillis());
+        ChartData single = ChartsFactory.create(config, UserService.ADMIN_USER).setExtraParams(paramMap);
+        assertEquals(ChartDataCache.instance.buildKey(batch), ChartDataCache.instance.buildKey(single));
+
+        // 图表参数仍区分
+        paramMap.put("state", 1);
+        assertNotEquals(ChartDataCache.instance.buildKey(batch), ChartDataCache.instance.buildKey(single));
+    }
 }
@@ -18,17 +18,27 @@ along with this program. If not, see <https://www.gnu.org/licenses/>.
 
 package com.rebuild.server.business.dataimport;
 
+import cn.devezhao.commons.ObjectUtils;
+import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.Field;
 import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
 import com.rebuild.server.TestSupport;
 import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.service.bizz.UserService;
+import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * TODO
  *
@@ -50,4 +60,45 @@ public class DataExporterTest extends TestSupport {
         File file = new DataExporter(query).setUser(UserService.ADMIN_USER).export();
         System.out.println(file);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void exportXlsx() throws Exception {
+        JSONObject query = new JSONObject();
+        query.put("entity", TEST_ENTITY);
+        query.put("fields", new String[] { MetadataHelper.getEntity(TEST_ENTITY).getNameField().getName() });
+        query.put("pageSize", DataExporter.MAX_ROWS);  // 键集分页
+        query.put("sort", "createdOn:desc");
+
+        DataExporter exporter = new DataExporter(query, DataExporter.TYPE_XLSX).setUser(UserService.ADMIN_USER);
+        File file = exporter.export();
+        assertTrue(exporter.isCompleted());
+
+        // 表头 + 全部记录
+        try (Workbook workbook = new XSSFWorkbook(file)) {
+            assertEquals(countRecords() + 1, workbook.getSheetAt(0).getPhysicalNumberOfRows());
+        }
+    }
+
+    @Test
+    public void exportCsvRows() throws Exception {
+        JSONObject query = new JSONObject();
+        query.put("entity", TEST_ENTITY);
+        query.put("fields", new String[] { MetadataHelper.getEntity(TEST_ENTITY).getNameField().getName() });
+        query.put("pageSize", DataExporter.MAX_ROWS);
+
+        DataExporter exporter = new DataExporter(query).setUser(UserService.ADMIN_USER);
+        File file = exporter.export();
+        assertTrue(exporter.isCompleted());
+        assertEquals(exporter.getTotal(), exporter.getCompleted());
+
+        List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
+        assertEquals(countRecords() + 1, lines.size());
+    }
+
+    private int countRecords() {
+        Entity entity = MetadataHelper.getEntity(TEST_ENTITY);
+        Object[] count = Application.createQueryNoFilter(
+                "select count(" + entity.getPrimaryField().getName() + ") from " + entity.getName()).unique();
+        return ObjectUtils.toInt(count[0]);
+    }
+}
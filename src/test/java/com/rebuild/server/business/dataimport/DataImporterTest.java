@@ -18,12 +18,28 @@ along with this program. If not, see <https://www.gnu.org/licenses/>.
 
 package com.rebuild.server.business.dataimport;
 
+import cn.devezhao.commons.ObjectUtils;
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Record;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.rebuild.server.Application;
+import com.rebuild.server.RebuildException;
 import com.rebuild.server.TestSupport;
+import com.rebuild.server.helper.SysConfiguration;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.service.EntityService;
 import com.rebuild.server.service.bizz.UserService;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
 /**
  * @author devezhao
  * @since 01/10/2019
@@ -62,4 +78,69 @@ public class DataImporterTest extends TestSupport {
 		dataImports.setUser(UserService.ADMIN_USER);
 		dataImports.run();
 	}
+
+	@Test
+	public void testImportsInBatches() throws Exception {
+		final String prefix = "DataImporterTest-" + System.currentTimeMillis() + "-";
+		DataImporter dataImports = new DataImporter(ImportRule.parse(newRule(prefix, 25)));
+		dataImports.setUser(UserService.ADMIN_USER);
+		dataImports.run();
+
+		assertEquals(25, dataImports.getTotal());
+		assertEquals(25, dataImports.getCompleted());
+		assertEquals(25, dataImports.getSucceeded());
+		assertEquals(25, countImported(prefix));
+	}
+
+	@Test
+	public void testImportsRollbackAndRetry() throws Exception {
+		final String prefix = "DataImporterTest-" + System.currentTimeMillis() + "-";
+		final String nameField = MetadataHelper.getEntity(TEST_ENTITY).getNameField().getName();
+		// 第二批的第五行写入失败
+		final String failed = prefix + 15;
+
+		DataImporter dataImports = new DataImporter(ImportRule.parse(newRule(prefix, 25))) {
+			@Override
+			protected Record saveRecord(EntityService service, Record record) {
+				if (failed.equals(record.getString(nameField))) {
+					throw new RebuildException("Failed : " + failed);
+				}
+				return super.saveRecord(service, record);
+			}
+		};
+		dataImports.setUser(UserService.ADMIN_USER);
+		dataImports.run();
+
+		assertEquals(25, dataImports.getCompleted());
+		assertEquals(24, dataImports.getSucceeded());
+		// 失败的批已回滚，逐条重试后其他行仅写入一次
+		assertEquals(24, countImported(prefix));
+	}
+
+	/**
+	 * 生成 CSV 文件（仅名称字段），每批 10 条
+	 */
+	private JSONObject newRule(String prefix, int rows) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add("NAME");
+		for (int i = 1; i <= rows; i++) {
+			lines.add(prefix + i);
+		}
+		File file = SysConfiguration.getFileOfTemp(prefix + "import.csv");
+		FileUtils.writeLines(file, "utf-8", lines);
+
+		JSONObject rule = JSON.parseObject("{ entity:'TestAllFields', repeat_opt:3, batch_size:10, fields_mapping:{TestAllFieldsName:0} }");
+		rule.put("file", file.getName());
+		return rule;
+	}
+
+	private int countImported(String prefix) {
+		Entity entity = MetadataHelper.getEntity(TEST_ENTITY);
+		String sql = String.format("select count(%s) from %s where %s like ?",
+				entity.getPrimaryField().getName(), entity.getName(), entity.getNameField().getName());
+		Object[] count = Application.createQueryNoFilter(sql)
+				.setParameter(1, prefix + "%")
+				.unique();
+		return ObjectUtils.toInt(count[0]);
+	}
 }
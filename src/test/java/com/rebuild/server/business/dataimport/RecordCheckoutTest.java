@@ -0,0 +1,64 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.business.dataimport;
+
+import cn.devezhao.commons.excel.Cell;
+import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Field;
+import cn.devezhao.persist4j.Record;
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.Application;
+import com.rebuild.server.TestSupportWithUser;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
+import org.apache.commons.lang.math.RandomUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author devezhao
+ * @since 2020/09/20
+ */
+public class RecordCheckoutTest extends TestSupportWithUser {
+
+    @Test
+    public void testPrefetchReferences() {
+        final Entity entity = MetadataHelper.getEntity(TEST_ENTITY);
+        final Field reference = entity.getField("reference");
+        final String suffix = "-" + RandomUtils.nextInt();
+
+        ID mixedCase = addRecord(entity, "RecordCheckout" + suffix);
+        ID accented = addRecord(entity, "Café" + suffix);
+
+        // 大小写/重音与数据库中不同，数据库（_ci 比较规则）可匹配
+        List<Cell[]> rows = new ArrayList<>();
+        rows.add(new Cell[] { new Cell("recordcheckout" + suffix, 0, 0) });
+        rows.add(new Cell[] { new Cell("RECORDCHECKOUT" + suffix, 1, 0) });
+        rows.add(new Cell[] { new Cell("Cafe" + suffix, 2, 0) });
+
+        RecordCheckout checkout = new RecordCheckout(Collections.singletonMap(reference, 0))
+                .prefetchReferences(rows);
+        ID[] expected = new ID[] { mixedCase, mixedCase, accented };
+        for (int i = 0; i < rows.size(); i++) {
+            Record record = EntityHelper.forNew(entity.getEntityCode(), getSessionUser());
+            checkout.checkout(record, rows.get(i));
+            assertEquals(expected[i], record.getID(reference.getName()));
+        }
+    }
+
+    private ID addRecord(Entity entity, String name) {
+        Record record = EntityHelper.forNew(entity.getEntityCode(), getSessionUser());
+        record.setString(entity.getNameField().getName(), name);
+        return Application.getGeneralEntityService().create(record).getPrimary();
+    }
+}
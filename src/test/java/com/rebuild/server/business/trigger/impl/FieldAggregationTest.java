@@ -35,6 +35,13 @@ import com.rebuild.server.service.bizz.UserService;
 import com.rebuild.server.service.configuration.RobotTriggerConfigService;
 import org.junit.Test;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
 /**
  * @author devezhao zhaofang123@gmail.com
  * @since 2019/05/29
@@ -81,5 +88,58 @@ public class FieldAggregationTest extends TestSupportWithUser {
         new AggregationEvaluator(
                 configUseMAX, sourceEntity, "relatedAccount", "(2=2)")
                 .eval(ID.newId(sourceEntity.getEntityCode()));
+
+        // 多项合并查询
+        Object[] evals = new AggregationEvaluator(
+                Arrays.asList(configUseFormula, configUseMAX), sourceEntity, "relatedAccount", null)
+                .evalAll(ID.newId(sourceEntity.getEntityCode()));
+        assertEquals(2, evals.length);
+    }
+
+    @Test
+    public void testEvalAllValues() throws Exception {
+        addExtTestEntities(false);
+        Entity account999 = MetadataHelper.getEntity("Account999");
+        Entity salesOrder999 = MetadataHelper.getEntity("SalesOrder999");
+
+        Record account = EntityHelper.forNew(account999.getEntityCode(), getSessionUser());
+        account.setString("accountName", "FAG" + System.nanoTime());
+        account = Application.getService(account999.getEntityCode()).create(account);
+
+        for (double amount : new double[] { 100, 200, 200 }) {
+            Record order = EntityHelper.forNew(salesOrder999.getEntityCode(), getSessionUser());
+            order.setID("relatedAccount", account.getPrimary());
+            order.setDouble("totalAmount", amount);
+            Application.getService(salesOrder999.getEntityCode()).create(order);
+        }
+
+        List<JSONObject> items = Arrays.asList(
+                JSON.parseObject("{ targetField:'totalAmount', calcMode:'SUM', sourceField:'totalAmount' }"),
+                JSON.parseObject("{ targetField:'totalAmount', calcMode:'COUNT', sourceField:'totalAmount' }"),
+                JSON.parseObject("{ targetField:'totalAmount', calcMode:'COUNT2', sourceField:'totalAmount' }"),
+                JSON.parseObject("{ targetField:'totalAmount', calcMode:'MAX', sourceField:'totalAmount' }"),
+                // 复用前面的列（V_列索引）
+                JSON.parseObject("{ targetField:'totalAmount', calcMode:'FORMULA', sourceFormula:'{totalAmount$$$$SUM}*2-{totalAmount$$$$MAX}' }"),
+                // 列顺序与公式中出现的顺序不同
+                JSON.parseObject("{ targetField:'totalAmount', calcMode:'FORMULA', sourceFormula:'{totalAmount$$$$MAX}+{totalAmount$$$$COUNT}' }"));
+
+        Object[] evals = new AggregationEvaluator(items, salesOrder999, "relatedAccount", null)
+                .evalAll(account.getPrimary());
+        assertEquals(items.size(), evals.length);
+
+        double[] expecteds = new double[] { 500, 3, 2, 200, 800, 203 };
+        for (int i = 0; i < items.size(); i++) {
+            assertNumberEquals(expecteds[i], evals[i]);
+
+            // 与单项计算一致
+            Object eval = new AggregationEvaluator(items.get(i), salesOrder999, "relatedAccount", null)
+                    .eval(account.getPrimary());
+            assertNumberEquals(expecteds[i], eval);
+        }
+    }
+
+    private void assertNumberEquals(double expected, Object actual) {
+        assertNotNull(actual);
+        assertEquals(0, BigDecimal.valueOf(expected).compareTo(new BigDecimal(actual.toString())));
     }
 }
@@ -19,12 +19,28 @@ along with this program. If not, see <https://www.gnu.org/licenses/>.
 package com.rebuild.server.configuration;
 
 import cn.devezhao.persist4j.Entity;
+import cn.devezhao.persist4j.Record;
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.Application;
+import com.rebuild.server.RebuildException;
 import com.rebuild.server.TestSupport;
+import com.rebuild.server.business.trigger.ActionType;
 import com.rebuild.server.business.trigger.TriggerAction;
 import com.rebuild.server.business.trigger.TriggerWhen;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.metadata.MetadataSorter;
+import com.rebuild.server.service.bizz.UserService;
+import com.rebuild.server.service.configuration.RobotTriggerConfigService;
 import org.junit.Test;
 
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author devezhao zhaofang123@gmail.com
  * @since 2019/05/27
@@ -45,4 +61,56 @@ public class RobotTriggerManagerTest extends TestSupport {
 			}
 		}
 	}
+
+	@Test
+	public void testPipelineCompileAndInvalidate() throws Exception {
+		final Entity entity = MetadataHelper.getEntity(TEST_ENTITY);
+		Application.getSQLExecutor().execute("delete from robot_trigger_config where BELONG_ENTITY = 'TestAllFields'");
+		RobotTriggerManager.instance.clean(entity);
+		assertEquals(0, RobotTriggerManager.instance.getActions(entity, TriggerWhen.CREATE).length);
+
+		// 仅名称为 RTM-MATCH 时触发
+		Record triggerConfig = EntityHelper.forNew(EntityHelper.RobotTriggerConfig, UserService.SYSTEM_USER);
+		triggerConfig.setString("belongEntity", TEST_ENTITY);
+		triggerConfig.setInt("when", TriggerWhen.CREATE.getMaskValue());
+		triggerConfig.setString("whenFilter",
+				"{ entity:'TestAllFields', items:[{ op:'EQ', field:'TestAllFieldsName', value:'RTM-MATCH' }] }");
+		triggerConfig.setString("actionType", ActionType.SENDNOTIFICATION.name());
+		triggerConfig.setString("actionContent", String.format("{ sendTo:['%s'], content:'RTM' }", SIMPLE_USER));
+		triggerConfig = Application.getBean(RobotTriggerConfigService.class).create(triggerConfig);
+
+		try {
+			// 本节点配置变化立即重新编译
+			assertEquals(1, RobotTriggerManager.instance.getActions(entity, TriggerWhen.CREATE).length);
+			assertEquals(0, RobotTriggerManager.instance.getActions(entity, TriggerWhen.DELETE).length);
+
+			// 过滤条件
+			assertEquals(1, RobotTriggerManager.instance.getActions(addRecord(entity, "RTM-MATCH"), TriggerWhen.CREATE).length);
+			assertEquals(0, RobotTriggerManager.instance.getActions(addRecord(entity, "RTM-OTHER"), TriggerWhen.CREATE).length);
+
+		} finally {
+			Application.getBean(RobotTriggerConfigService.class).delete(triggerConfig.getPrimary());
+		}
+		assertEquals(0, RobotTriggerManager.instance.getActions(entity, TriggerWhen.CREATE).length);
+	}
+
+	@Test
+	public void testIsSyntaxError() {
+		assertTrue(RobotTriggerManager.isSyntaxError(new SQLSyntaxErrorException("bad")));
+		// 被包装
+		assertTrue(RobotTriggerManager.isSyntaxError(
+				new RebuildException("wrapped", new SQLException("bad", "42000"))));
+		assertTrue(RobotTriggerManager.isSyntaxError(
+				new RebuildException("You have an error in your SQL syntax; check the manual")));
+
+		assertFalse(RobotTriggerManager.isSyntaxError(
+				new RebuildException("wrapped", new SQLException("Communications link failure", "08S01"))));
+		assertFalse(RobotTriggerManager.isSyntaxError(new RebuildException((String) null)));
+	}
+
+	private ID addRecord(Entity entity, String name) {
+		Record record = EntityHelper.forNew(entity.getEntityCode(), UserService.ADMIN_USER);
+		record.setString("TestAllFieldsName", name);
+		return Application.getCommonsService().create(record, false).getPrimary();
+	}
 }
@@ -0,0 +1,113 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.cache;
+
+import cn.devezhao.commons.ThreadPool;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author devezhao
+ * @since 2020/09/20
+ */
+public class NearCacheTest {
+
+    // 无 redis（不广播）
+    private NearCache newNearCache() {
+        return new NearCache(null, 100, 60);
+    }
+
+    @Test
+    public void testCopyOnGet() {
+        NearCache cache = newNearCache();
+
+        HashMap<String, String> value = new HashMap<>();
+        value.put("a", "1");
+        cache.put("map", value, 60, null);
+        value.put("b", "2");
+
+        @SuppressWarnings("unchecked")
+        Map<String, String> hit = (Map<String, String>) cache.get("map", null);
+        assertEquals(1, hit.size());
+        hit.put("c", "3");
+        assertNotSame(hit, cache.get("map", null));
+        assertEquals(1, ((Map<?, ?>) cache.get("map", null)).size());
+
+        // 不可变值直接返回
+        String text = "text";
+        cache.put("text", text, 60, null);
+        assertSame(text, cache.get("text", null));
+    }
+
+    @Test
+    public void testInvalidate() {
+        NearCache cache = newNearCache();
+        cache.put("a", "1", 60, null);
+        cache.put("b", "2", 60, null);
+        cache.put("c", "3", 60, null);
+
+        cache.invalidate("a");
+        assertNull(cache.get("a", null));
+        assertEquals("2", cache.get("b", null));
+
+        cache.invalidate(Arrays.asList("b", "c"));
+        assertNull(cache.get("b", null));
+        assertNull(cache.get("c", null));
+
+        cache.put("d", "4", 60, null);
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFillRace() {
+        NearCache cache = newNearCache();
+
+        // 读取期间被清除，放弃回填
+        long epoch = cache.epoch("a");
+        cache.invalidate("a");
+        assertFalse(cache.fill("a", "old", -1, null, epoch));
+        assertNull(cache.get("a", null));
+
+        // 其他键的清除不影响回填
+        long epochB = cache.epoch("b");
+        cache.invalidate("a");
+        assertTrue(cache.fill("b", "2", -1, null, epochB));
+        assertEquals("2", cache.get("b", null));
+
+        // 清除全部
+        long epochC = cache.epoch("c");
+        cache.invalidateAll();
+        assertFalse(cache.fill("c", "3", -1, null, epochC));
+    }
+
+    @Test
+    public void testFillTtl() {
+        NearCache cache = newNearCache();
+
+        // 已过期
+        assertFalse(cache.fill("a", "1", 0, null, cache.epoch("a")));
+        assertFalse(cache.fill("a", "1", -2, null, cache.epoch("a")));
+
+        // 不超过 redis 中的剩余存活时间
+        assertTrue(cache.fill("a", "1", 50, null, cache.epoch("a")));
+        assertEquals("1", cache.get("a", null));
+        ThreadPool.waitFor(100);
+        assertNull(cache.get("a", null));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.cache;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.Application;
+import com.rebuild.server.TestSupportWithUser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author devezhao
+ * @since 2020/09/22
+ */
+public class RecordOwningCacheTest extends TestSupportWithUser {
+
+    @Test
+    public void testGetOwningUsers() {
+        final RecordOwningCache cache = Application.getRecordOwningCache();
+        final ID record1 = addRecordOfTestAllFields();
+        final ID record2 = addRecordOfTestAllFields();
+
+        // 超过一批（其余为不存在的记录）
+        List<ID> records = new ArrayList<>();
+        records.add(record1);
+        for (int i = 0; i < 1200; i++) {
+            records.add(ID.newId(getTestEntity().getEntityCode()));
+        }
+        records.add(record2);
+
+        cache.cleanOwningUser(record1);
+        cache.cleanOwningUser(record2);
+        Map<ID, ID> owners = cache.getOwningUsers(records);
+        assertEquals(2, owners.size());
+        assertEquals(getSessionUser(), owners.get(record1));
+        assertEquals(getSessionUser(), owners.get(record2));
+
+        // 缓存命中
+        owners = cache.getOwningUsers(records);
+        assertEquals(2, owners.size());
+        assertEquals(getSessionUser(), cache.getOwningUser(record2, false));
+    }
+}
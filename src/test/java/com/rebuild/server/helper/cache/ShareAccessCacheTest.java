@@ -0,0 +1,62 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.cache;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.Application;
+import com.rebuild.server.TestSupportWithUser;
+import com.rebuild.server.metadata.EntityHelper;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author devezhao
+ * @since 2020/09/20
+ */
+public class ShareAccessCacheTest extends TestSupportWithUser {
+
+    @Test
+    public void testSharedRecords() {
+        final ShareAccessCache cache = Application.getBean(ShareAccessCache.class);
+        final ID record = addRecordOfTestAllFields();
+
+        cache.clean(SIMPLE_USER, TEST_ENTITY);
+        Set<ID> shared = cache.getSharedRecords(SIMPLE_USER, TEST_ENTITY);
+        assertFalse(shared.contains(record));
+
+        // 版本未变使用本节点副本
+        long hits = cache.getStats()[0];
+        assertSame(shared, cache.getSharedRecords(SIMPLE_USER, TEST_ENTITY));
+        assertEquals(hits + 1, cache.getStats()[0]);
+
+        // 共享后失效
+        Application.getGeneralEntityService().share(record, SIMPLE_USER, null);
+        assertTrue(cache.isShared(SIMPLE_USER, TEST_ENTITY, record));
+
+        // 取消共享后失效
+        Object[] access = Application.createQueryNoFilter(
+                "select accessId from ShareAccess where recordId = ? and shareTo = ?")
+                .setParameter(1, record)
+                .setParameter(2, SIMPLE_USER)
+                .unique();
+        Application.getGeneralEntityService().unshare(record, (ID) access[0]);
+        assertFalse(cache.isShared(SIMPLE_USER, TEST_ENTITY, record));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnmodifiable() {
+        Application.getBean(ShareAccessCache.class)
+                .getSharedRecords(SIMPLE_USER, TEST_ENTITY).add(ID.newId(EntityHelper.User));
+    }
+}
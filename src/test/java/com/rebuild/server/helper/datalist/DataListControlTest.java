@@ -18,14 +18,27 @@ along with this program. If not, see <https://www.gnu.org/licenses/>.
 
 package com.rebuild.server.helper.datalist;
 
+import cn.devezhao.commons.CalendarUtils;
+import cn.devezhao.persist4j.Entity;
 import cn.devezhao.persist4j.engine.ID;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.rebuild.server.TestSupportWithUser;
 import com.rebuild.server.configuration.portals.DataListManager;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
 import com.rebuild.server.service.bizz.UserService;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 /**
  * @author zhaofang123@gmail.com
  * @since Jan 6, 2019
@@ -73,4 +86,94 @@ public class DataListControlTest extends TestSupportWithUser {
         JSON layout = DataListManager.instance.getFieldsLayout("Account999", SIMPLE_USER);
         System.out.println(layout);
     }
+
+    @Test
+    public void testParseSeek() {
+        final Entity entity = MetadataHelper.getEntity(EntityHelper.User);
+        final ID lastId = UserService.ADMIN_USER;
+        final Date lastDate = CalendarUtils.now();
+
+        // 仅主键
+        List<Object> params = new ArrayList<>();
+        assertEquals("userId > ?", QueryParser.parseSeek(
+                QueryParser.buildSeek(lastId, null), entity, null, false, params));
+        assertEquals(lastId, params.get(0));
+
+        // 降序
+        String seek = QueryParser.buildSeek(lastId, lastDate);
+        params = new ArrayList<>();
+        assertEquals("(createdOn < ? or (createdOn = ? and userId < ?) or createdOn is null)",
+                QueryParser.parseSeek(seek, entity, "createdOn", true, params));
+        assertEquals(3, params.size());
+        assertEquals(CalendarUtils.getUTCDateTimeFormat().format(lastDate),
+                CalendarUtils.getUTCDateTimeFormat().format(params.get(0)));
+        // 相同排序值时按主键
+        assertEquals(lastId, params.get(2));
+
+        // 升序
+        params = new ArrayList<>();
+        assertEquals("(createdOn > ? or (createdOn = ? and userId > ?))",
+                QueryParser.parseSeek(seek, entity, "createdOn", false, params));
+        assertEquals(lastId, params.get(2));
+
+        // 排序值为空
+        seek = QueryParser.buildSeek(lastId, null);
+        assertEquals(lastId.toLiteral(), seek);
+        params = new ArrayList<>();
+        assertEquals("(createdOn is null and userId < ?)",
+                QueryParser.parseSeek(seek, entity, "createdOn", true, params));
+        params = new ArrayList<>();
+        assertEquals("((createdOn is null and userId > ?) or createdOn is not null)",
+                QueryParser.parseSeek(seek, entity, "createdOn", false, params));
+        assertEquals(1, params.size());
+
+        // 文本值作为参数，不进入 SQL
+        final String badValue = "x\\' or 1=1 -- ";
+        params = new ArrayList<>();
+        String where = QueryParser.parseSeek(lastId + "|" + badValue, entity, "loginName", false, params);
+        assertTrue(!where.contains(badValue));
+        assertEquals(badValue, params.get(0));
+
+        // 无效游标
+        String[] badSeeks = new String[] {
+                lastId + "|" + badValue,
+                "abc",
+                ID.newId(EntityHelper.Department).toLiteral()
+        };
+        for (String bad : badSeeks) {
+            try {
+                QueryParser.parseSeek(bad, entity, "createdOn", true, new ArrayList<>());
+                fail("Bad seek passed : " + bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testSeekQuery() {
+        JSONObject expr = (JSONObject) queryExpr.clone();
+        expr.remove("filter");
+        expr.put("pageSize", 1);
+        expr.put("seek", "");
+
+        JSONObject page1 = (JSONObject) new DefaultDataListControl(expr, UserService.ADMIN_USER).getJSONResult();
+        String nextSeek = page1.getString("nextSeek");
+        assertNotNull(nextSeek);
+
+        expr.put("seek", nextSeek);
+        JSONObject page2 = (JSONObject) new DefaultDataListControl(expr, UserService.ADMIN_USER).getJSONResult();
+        System.out.println(page1 + "\n" + page2);
+    }
+
+    @Test
+    public void testCountModes() {
+        DefaultDataListControl control = new DefaultDataListControl(queryExpr, UserService.ADMIN_USER);
+        int exact = control.count();
+
+        // 恰好 COUNT_CAP 条时不算封顶
+        assertEquals(exact > DefaultDataListControl.COUNT_CAP ? DefaultDataListControl.COUNT_CAP + 1 : exact, control.countCapped());
+        assertEquals(exact, control.countCached());
+        // 缓存
+        assertEquals(exact, control.countCached());
+    }
 }
@@ -0,0 +1,82 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.fieldvalue;
+
+import cn.devezhao.commons.CalendarUtils;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author devezhao
+ * @since 2020/09/05
+ */
+public class FieldFormatterTest {
+
+    @Test
+    public void testThreadSafe() throws Exception {
+        assertSame(FieldFormatter.getDecimalFormat("#,##0.00"), FieldFormatter.getDecimalFormat("#,##0.00"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        Future<?>[] futures = new Future[4];
+        for (int t = 0; t < futures.length; t++) {
+            futures[t] = pool.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    assertEquals(new DecimalFormat("#,##0.00").format(i * 1.5d),
+                            FieldFormatter.getDecimalFormat("#,##0.00").format(i * 1.5d));
+                }
+            });
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+    }
+
+    // 对比每次新建与缓存的格式化器（100k 次）
+    @Test
+    public void benchmark100k() {
+        final int size = 100000;
+        final Date now = CalendarUtils.now();
+
+        long start = System.nanoTime();
+        long bytes = allocatedBytes();
+        for (int i = 0; i < size; i++) {
+            new DecimalFormat("#,##0.00").format(i * 1.5d);
+            CalendarUtils.getDateFormat("yyyy-MM-dd HH:mm").format(now);
+        }
+        long newTime = System.nanoTime() - start;
+        long newBytes = allocatedBytes() - bytes;
+
+        start = System.nanoTime();
+        bytes = allocatedBytes();
+        for (int i = 0; i < size; i++) {
+            FieldFormatter.getDecimalFormat("#,##0.00").format(i * 1.5d);
+            FieldFormatter.getDateFormat("yyyy-MM-dd HH:mm").format(now);
+        }
+        long cachedTime = System.nanoTime() - start;
+        long cachedBytes = allocatedBytes() - bytes;
+
+        System.out.println(String.format("New : %d ms, %d KB / Cached : %d ms, %d KB (%d values)",
+                newTime / 1000000, newBytes / 1024, cachedTime / 1000000, cachedBytes / 1024, size));
+    }
+
+    private long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
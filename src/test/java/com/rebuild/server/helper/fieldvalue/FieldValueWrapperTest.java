@@ -12,6 +12,11 @@ import com.rebuild.server.TestSupport;
 import com.rebuild.server.helper.cache.NoRecordFoundException;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
 /**
  * @author devezhao zhaofang123@gmail.com
  * @since 2019/05/22
@@ -23,6 +28,14 @@ public class FieldValueWrapperTest extends TestSupport {
 		System.out.println(FieldValueWrapper.getLabel(SIMPLE_USER));
 	}
 	
+	@Test
+	public void testGetLabels() throws Exception {
+		ID missing = ID.newId(SIMPLE_USER.getEntityCode());
+		Map<ID, String> labels = FieldValueWrapper.getLabels(Arrays.asList(SIMPLE_USER, missing), null);
+		assertEquals(FieldValueWrapper.getLabel(SIMPLE_USER), labels.get(SIMPLE_USER));
+		assertEquals(FieldValueWrapper.MISS_REF_PLACE, labels.get(missing));
+	}
+
 	@Test(expected = NoRecordFoundException.class)
 	public void testGetLabelThrow() throws Exception {
 		System.out.println(FieldValueWrapper.getLabel(ID.newId(1)));
@@ -0,0 +1,66 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.helper.search;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.metadata.EntityHelper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author devezhao
+ * @since 2020/09/13
+ */
+public class NGramFullTextIndexTest {
+
+    @Test
+    public void testSearch() {
+        ID id1 = ID.newId(EntityHelper.Feeds);
+        ID id2 = ID.newId(EntityHelper.Feeds);
+
+        FullTextIndex index = new NGramFullTextIndex();
+        index.add(id1, "上海浦东新区", "SHPDXQ");
+        index.add(id2, "Hello World", null);
+        assertEquals(2, index.size());
+
+        assertArrayEquals(new ID[] { id1 }, index.search("浦东", 10));
+        assertArrayEquals(new ID[] { id1 }, index.search("pdx", 10));
+        assertArrayEquals(new ID[] { id2 }, index.search("o w", 10));
+        assertEquals(0, index.search("浦西", 10).length);
+        // 最近索引的在前
+        assertArrayEquals(new ID[] { id2, id1 }, index.search("h", 10));
+
+        // 更新
+        index.add(id1, "北京");
+        assertEquals(0, index.search("浦东", 10).length);
+        assertArrayEquals(new ID[] { id1 }, index.search("北京", 10));
+
+        index.remove(id1);
+        assertEquals(0, index.search("北京", 10).length);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testCompact() {
+        FullTextIndex index = new NGramFullTextIndex();
+        ID[] ids = new ID[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ID.newId(EntityHelper.Feeds);
+        }
+
+        for (int i = 0; i < 30000; i++) {
+            index.add(ids[i % ids.length], "NO." + i);
+        }
+        assertEquals(ids.length, index.size());
+        // 二字匹配可能有多余的候选
+        assertEquals(ids[ids.length - 1], index.search("NO.29999", 10)[0]);
+        assertEquals(0, index.search("NO.1000", 10).length);
+    }
+}
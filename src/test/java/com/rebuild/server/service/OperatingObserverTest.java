@@ -0,0 +1,63 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.service;
+
+import cn.devezhao.bizz.privileges.impl.BizzPermission;
+import cn.devezhao.commons.ThreadPool;
+import cn.devezhao.persist4j.Record;
+import com.rebuild.server.TestSupport;
+import com.rebuild.server.metadata.EntityHelper;
+import com.rebuild.server.metadata.MetadataHelper;
+import com.rebuild.server.service.bizz.UserService;
+import org.junit.Test;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author devezhao
+ * @since 2020/09/20
+ */
+public class OperatingObserverTest extends TestSupport {
+
+    @Test
+    public void testAsyncAfterCommit() {
+        final AtomicInteger created = new AtomicInteger();
+        OperatingObserver observer = new OperatingObserver() {
+            @Override
+            protected boolean isAsync() {
+                return true;
+            }
+            @Override
+            protected void onCreate(OperatingContext context) {
+                created.incrementAndGet();
+            }
+        };
+
+        Record record = EntityHelper.forNew(MetadataHelper.getEntity(TEST_ENTITY).getEntityCode(), UserService.ADMIN_USER);
+        OperatingContext ctx = OperatingContext.create(UserService.ADMIN_USER, BizzPermission.CREATE, null, record);
+
+        // 回滚不执行
+        TransactionStatus status = TransactionManual.newTransaction();
+        observer.update(null, ctx);
+        TransactionManual.rollback(status);
+        ThreadPool.waitFor(500);
+        assertEquals(0, created.get());
+
+        // 提交后执行
+        status = TransactionManual.newTransaction();
+        observer.update(null, ctx);
+        ThreadPool.waitFor(500);
+        assertEquals(0, created.get());
+        TransactionManual.commit(status);
+        ThreadPool.waitFor(500);
+        assertEquals(1, created.get());
+    }
+}
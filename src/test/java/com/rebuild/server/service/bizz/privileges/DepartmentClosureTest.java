@@ -0,0 +1,99 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.service.bizz.privileges;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.metadata.EntityHelper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author devezhao
+ * @since 2020/08/28
+ */
+public class DepartmentClosureTest {
+
+    @Test
+    public void testMove() {
+        ID a = ID.newId(EntityHelper.Department);
+        ID b = ID.newId(EntityHelper.Department);
+        ID c = ID.newId(EntityHelper.Department);
+        ID d = ID.newId(EntityHelper.Department);
+
+        DepartmentClosure closure = new DepartmentClosure();
+        // 子级先于父级加载
+        closure.move(c, b);
+        closure.move(b, a);
+        closure.move(a, null);
+        closure.move(d, null);
+
+        assertTrue(closure.isChildren(a, b));
+        assertTrue(closure.isChildren(a, c));
+        assertFalse(closure.isChildren(c, a));
+        assertEquals(2, closure.getAllChildren(a).size());
+
+        // B 移至 D 下
+        closure.move(b, d);
+        assertFalse(closure.isChildren(a, c));
+        assertTrue(closure.isChildren(d, c));
+
+        closure.remove(b);
+        assertTrue(closure.getAllChildren(d).isEmpty());
+    }
+
+    // 对比递归遍历与闭包查询
+    @Test
+    public void benchmark10k() {
+        final int size = 10000;
+        final Random random = new Random(1);
+
+        List<Department> depts = new ArrayList<>();
+        DepartmentClosure closure = new DepartmentClosure();
+
+        Department root = new Department(ID.newId(EntityHelper.Department), "D0", false);
+        depts.add(root);
+        closure.move((ID) root.getIdentity(), null);
+        for (int i = 1; i < size; i++) {
+            Department parent = depts.get(random.nextInt(depts.size()));
+            Department dept = new Department(ID.newId(EntityHelper.Department), "D" + i, false);
+            parent.addChild(dept);
+            depts.add(dept);
+            closure.move((ID) dept.getIdentity(), (ID) parent.getIdentity());
+        }
+
+        List<Department> targets = new ArrayList<>(depts);
+        Collections.shuffle(targets, random);
+        targets = targets.subList(0, 1000);
+
+        long start = System.nanoTime();
+        int walkHits = 0;
+        for (Department t : targets) {
+            if (root.isChildren(t, true)) walkHits++;
+        }
+        long walk = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int closureHits = 0;
+        for (Department t : targets) {
+            if (closure.isChildren((ID) root.getIdentity(), (ID) t.getIdentity())) closureHits++;
+        }
+        long lookup = System.nanoTime() - start;
+
+        assertEquals(walkHits, closureHits);
+        System.out.println(String.format("Tree-walk : %d us / Closure : %d us (%d departments, %d checks)",
+                walk / 1000, lookup / 1000, size, targets.size()));
+    }
+}
@@ -15,6 +15,11 @@ import com.rebuild.server.TestSupport;
 import com.rebuild.server.metadata.MetadataHelper;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -54,4 +59,20 @@ public class PrivilegesManagerTest extends TestSupport {
 		boolean allowSalesOrderItem = Application.getPrivilegesManager().allow(SIMPLE_USER, ID.newId(test.getEntityCode()), BizzPermission.READ);
 		assertTrue(!allowSalesOrderItem);
 	}
+
+	@Test
+	public void testAllowAll() throws Exception {
+		addExtTestEntities(false);
+
+		Entity account = MetadataHelper.getEntity("Account999");
+		Entity salesOrderItem = MetadataHelper.getEntity("SalesOrderItem999");
+		List<ID> targets = Arrays.asList(
+				ID.newId(account.getEntityCode()), ID.newId(salesOrderItem.getEntityCode()), SIMPLE_USER);
+
+		Map<ID, Boolean> allowed = Application.getPrivilegesManager().allowAll(SIMPLE_USER, targets, BizzPermission.READ);
+		assertEquals(targets.size(), allowed.size());
+		for (ID target : targets) {
+			assertEquals(Application.getPrivilegesManager().allow(SIMPLE_USER, target, BizzPermission.READ), allowed.get(target));
+		}
+	}
 }
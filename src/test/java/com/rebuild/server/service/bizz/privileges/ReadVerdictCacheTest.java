@@ -0,0 +1,61 @@
+/*
+Copyright (c) REBUILD <https://getrebuild.com/> and its owners. All rights reserved.
+
+rebuild is dual-licensed under commercial and open source licenses (GPLv3).
+See LICENSE and COMMERCIAL in the project root for license information.
+*/
+
+package com.rebuild.server.service.bizz.privileges;
+
+import cn.devezhao.persist4j.engine.ID;
+import com.rebuild.server.metadata.EntityHelper;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author devezhao
+ * @since 2020/09/04
+ */
+public class ReadVerdictCacheTest {
+
+    @Test
+    public void testInvalidate() {
+        ID user = ID.newId(EntityHelper.User);
+        ID target = ID.newId(EntityHelper.Department);
+
+        ReadVerdictCache.instance.put(user, target, true, ReadVerdictCache.instance.getVersion());
+        assertEquals(Boolean.TRUE, ReadVerdictCache.instance.get(user, target));
+
+        ReadVerdictCache.instance.invalidate();
+        assertNull(ReadVerdictCache.instance.get(user, target));
+
+        // 计算期间发生失效，结果不应被使用
+        long version = ReadVerdictCache.instance.getVersion();
+        ReadVerdictCache.instance.invalidate();
+        ReadVerdictCache.instance.put(user, target, false, version);
+        assertNull(ReadVerdictCache.instance.get(user, target));
+    }
+
+    @Test
+    public void testInvalidateAfterCommit() {
+        ID user = ID.newId(EntityHelper.User);
+        ID target = ID.newId(EntityHelper.Department);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            ReadVerdictCache.instance.invalidate();
+            // 提交前其他线程按旧数据计算并缓存
+            ReadVerdictCache.instance.put(user, target, true, ReadVerdictCache.instance.getVersion());
+            assertEquals(Boolean.TRUE, ReadVerdictCache.instance.get(user, target));
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertNull(ReadVerdictCache.instance.get(user, target));
+    }
+}